@@ -93,7 +93,7 @@ public class CallForwardEditPreference extends EditPhoneNumberPreference {
             mCfInfo = new HashMap<String, String>();
             TelephonyManager telephonyManager = new TelephonyManager(getContext(),
                     phone.getSubId());
-            mCarrierXmlParser = new CarrierXmlParser(getContext(),
+            mCarrierXmlParser = CarrierXmlParser.getInstance(getContext(),
                     telephonyManager.getSimCarrierId());
         }
     }
@@ -36,6 +36,7 @@ import android.telephony.TelephonyCallback;
 import android.telephony.TelephonyManager;
 import android.util.ArrayMap;
 import android.util.Log;
+import android.util.SparseArray;
 
 import com.android.internal.telephony.CallManager;
 import com.android.internal.telephony.Phone;
@@ -45,9 +46,7 @@ import com.android.internal.telephony.cdma.CdmaInformationRecords.CdmaDisplayInf
 import com.android.internal.telephony.cdma.CdmaInformationRecords.CdmaSignalInfoRec;
 import com.android.internal.telephony.cdma.SignalToneUtil;
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
@@ -73,6 +72,8 @@ public class CallNotifier extends Handler {
             new ArrayMap<Integer, CallNotifierTelephonyCallback>();
     private Map<Integer, Boolean> mCFIStatus = new ArrayMap<Integer, Boolean>();
     private Map<Integer, Boolean> mMWIStatus = new ArrayMap<Integer, Boolean>();
+    // The last known info of each subscription with a registered callback.
+    private SparseArray<SubscriptionInfo> mSubscriptionInfos = new SparseArray<>();
     private PhoneGlobals mApplication;
     private CallManager mCM;
     private BluetoothHeadset mBluetoothHeadset;
@@ -148,7 +149,7 @@ public class CallNotifier extends Handler {
                 new OnSubscriptionsChangedListener() {
                     @Override
                     public void onSubscriptionsChanged() {
-                        updatePhoneStateListeners(true);
+                        reconcileSubscriptions(false /* updateAll */, true /* isRefresh */);
                     }
                 });
     }
@@ -481,92 +482,96 @@ public class CallNotifier extends Handler {
                 SHOW_MESSAGE_NOTIFICATION_TIME);
     }
 
+    /**
+     * Update the callbacks for the active subscriptions and refresh the MWI/CFI notifications of
+     * all of them.
+     */
     public void updatePhoneStateListeners(boolean isRefresh) {
-        updatePhoneStateListeners(isRefresh, UPDATE_TYPE_MWI_CFI,
-                SubscriptionManager.INVALID_SUBSCRIPTION_ID);
+        reconcileSubscriptions(true /* updateAll */, isRefresh);
     }
 
+    /**
+     * Update the MWI and/or CFI notification of a single subscription from its last known state.
+     */
     public void updatePhoneStateListeners(boolean isRefresh, int updateType, int subIdToUpdate) {
+        if (!mTelephonyCallback.containsKey(subIdToUpdate)) {
+            Log.d(LOG_TAG, "updatePhoneStateListeners: subId " + subIdToUpdate
+                    + " is not active, ignoring.");
+            return;
+        }
+        if (updateType != UPDATE_TYPE_MWI && mCFIStatus.containsKey(subIdToUpdate)) {
+            mApplication.notificationMgr.updateCfi(subIdToUpdate, mCFIStatus.get(subIdToUpdate),
+                    isRefresh);
+        }
+        if (updateType != UPDATE_TYPE_CFI && mMWIStatus.containsKey(subIdToUpdate)) {
+            mApplication.notificationMgr.updateMwi(subIdToUpdate, mMWIStatus.get(subIdToUpdate),
+                    isRefresh);
+        }
+    }
+
+    /**
+     * Unregister the callbacks of subscriptions which are no longer active and hide their
+     * notifications, then register callbacks for new active subscriptions. Subscriptions which
+     * stay active keep their callback and MWI/CFI state.
+     *
+     * @param updateAll {@code true} to update the notifications of all active subscriptions,
+     *         otherwise only those of subscriptions whose info changed are updated.
+     */
+    private void reconcileSubscriptions(boolean updateAll, boolean isRefresh) {
         List<SubscriptionInfo> subInfos = SubscriptionController.getInstance()
                 .getActiveSubscriptionInfoList(mApplication.getOpPackageName(),
                         mApplication.getAttributionTag());
-
-        // Sort sub id list based on slot id, so that CFI/MWI notifications will be updated for
-        // slot 0 first then slot 1. This is needed to ensure that when CFI or MWI is enabled for
-        // both slots, user always sees icon related to slot 0 on left side followed by that of
-        // slot 1.
-        List<Integer> subIdList = new ArrayList<Integer>(mTelephonyCallback.keySet());
-        Collections.sort(subIdList, new Comparator<Integer>() {
-            public int compare(Integer sub1, Integer sub2) {
-                int slotId1 = SubscriptionController.getInstance().getSlotIndex(sub1);
-                int slotId2 = SubscriptionController.getInstance().getSlotIndex(sub2);
-                return slotId1 > slotId2 ? 0 : -1;
+        SparseArray<SubscriptionInfo> activeSubInfos = new SparseArray<>();
+        if (subInfos != null) {
+            for (SubscriptionInfo subInfo : subInfos) {
+                activeSubInfos.put(subInfo.getSubscriptionId(), subInfo);
             }
-        });
-
-        for (int subIdCounter = (subIdList.size() - 1); subIdCounter >= 0; subIdCounter--) {
-            int subId = subIdList.get(subIdCounter);
-            if (subInfos == null || !containsSubId(subInfos, subId)) {
-                Log.d(LOG_TAG, "updatePhoneStateListeners: Hide the outstanding notifications.");
-                // Hide the outstanding notifications.
-                mApplication.notificationMgr.updateMwi(subId, false);
-                mApplication.notificationMgr.updateCfi(subId, false);
-
-                // Unregister the listener.
-                mTelephonyManager.unregisterTelephonyCallback(mTelephonyCallback.get(subId));
-                mTelephonyCallback.remove(subId);
-            } else {
-                Log.d(LOG_TAG, "updatePhoneStateListeners: update CF notifications.");
-
-                if (mCFIStatus.containsKey(subId)) {
-                    if ((updateType == UPDATE_TYPE_CFI) && (subId == subIdToUpdate)) {
-                        mApplication.notificationMgr.updateCfi(subId, mCFIStatus.get(subId),
-                                isRefresh);
-                    } else {
-                        mApplication.notificationMgr.updateCfi(subId, mCFIStatus.get(subId), true);
-                    }
-                }
-                if (mMWIStatus.containsKey(subId)) {
-                    if ((updateType == UPDATE_TYPE_MWI) && (subId == subIdToUpdate)) {
-                        mApplication.notificationMgr.updateMwi(subId, mMWIStatus.get(subId),
-                            isRefresh);
-                    } else {
-                        mApplication.notificationMgr.updateMwi(subId, mMWIStatus.get(subId), true);
-                    }
-                }
+        }
+
+        Iterator<Map.Entry<Integer, CallNotifierTelephonyCallback>> iterator =
+                mTelephonyCallback.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Integer, CallNotifierTelephonyCallback> entry = iterator.next();
+            int subId = entry.getKey();
+            if (activeSubInfos.get(subId) != null) {
+                continue;
             }
+            Log.d(LOG_TAG, "reconcileSubscriptions: subId " + subId
+                    + " removed, hide the outstanding notifications.");
+            mApplication.notificationMgr.updateMwi(subId, false);
+            mApplication.notificationMgr.updateCfi(subId, false);
+
+            mTelephonyManager.unregisterTelephonyCallback(entry.getValue());
+            iterator.remove();
+            mMWIStatus.remove(subId);
+            mCFIStatus.remove(subId);
+            mSubscriptionInfos.remove(subId);
         }
 
         if (subInfos == null) {
             return;
         }
 
-        // Register new phone listeners for active subscriptions.
-        for (int i = 0; i < subInfos.size(); i++) {
-            int subId = subInfos.get(i).getSubscriptionId();
+        // The active subscriptions are sorted by slot, so CFI/MWI notifications are updated for
+        // slot 0 first then slot 1. This is needed to ensure that when CFI or MWI is enabled for
+        // both slots, user always sees icon related to slot 0 on left side followed by that of
+        // slot 1.
+        for (SubscriptionInfo subInfo : subInfos) {
+            int subId = subInfo.getSubscriptionId();
             if (!mTelephonyCallback.containsKey(subId)) {
+                // The callback reports the current MWI and CFI state once registered.
                 CallNotifierTelephonyCallback listener = new CallNotifierTelephonyCallback(subId);
                 mTelephonyManager.createForSubscriptionId(subId).registerTelephonyCallback(
                         new HandlerExecutor(this), listener);
                 mTelephonyCallback.put(subId, listener);
             }
-        }
-    }
-
-    /**
-     * @return {@code true} if the list contains SubscriptionInfo with the given subscription id.
-     */
-    private boolean containsSubId(List<SubscriptionInfo> subInfos, int subId) {
-        if (subInfos == null) {
-            return false;
-        }
-
-        for (int i = 0; i < subInfos.size(); i++) {
-            if (subInfos.get(i).getSubscriptionId() == subId) {
-                return true;
+            SubscriptionInfo previous = mSubscriptionInfos.get(subId);
+            mSubscriptionInfos.put(subId, subInfo);
+            // The notifications show the display name and color of the subscription.
+            if (updateAll || (previous != null && !previous.equals(subInfo))) {
+                updatePhoneStateListeners(isRefresh, UPDATE_TYPE_MWI_CFI, subId);
             }
         }
-        return false;
     }
 
     /**
@@ -709,6 +714,10 @@ public class CallNotifier extends Handler {
         @Override
         public void onMessageWaitingIndicatorChanged(boolean visible) {
             if (VDBG) log("onMessageWaitingIndicatorChanged(): " + this.mSubId + " " + visible);
+            if (mTelephonyCallback.get(this.mSubId) != this) {
+                // Queued before the callback was unregistered.
+                return;
+            }
             mMWIStatus.put(this.mSubId, visible);
             updatePhoneStateListeners(false, UPDATE_TYPE_MWI, this.mSubId);
         }
@@ -717,6 +726,9 @@ public class CallNotifier extends Handler {
         public void onCallForwardingIndicatorChanged(boolean visible) {
             Log.i(LOG_TAG, "onCallForwardingIndicatorChanged(): subId=" + this.mSubId
                     + ", visible=" + (visible ? "Y" : "N"));
+            if (mTelephonyCallback.get(this.mSubId) != this) {
+                return;
+            }
             mCFIStatus.put(this.mSubId, visible);
             updatePhoneStateListeners(false, UPDATE_TYPE_CFI, this.mSubId);
         }
@@ -21,18 +21,22 @@ import android.content.res.XmlResourceParser;
 import android.support.annotation.VisibleForTesting;
 import android.telephony.TelephonyManager;
 import android.text.TextUtils;
+import android.util.ArrayMap;
 import android.util.Log;
+import android.util.SparseArray;
 
 import org.xmlpull.v1.XmlPullParser;
 import org.xmlpull.v1.XmlPullParserException;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Vector;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 
 /**
  * CarrierXmlParser is a xml parser. It parses the carrier's ussd format from carrier_ss_string.xml.
@@ -46,7 +50,8 @@ import java.util.regex.Pattern;
  * For example:
  * @see CallForwardEditPreference
  *     TelephonyManager telephonyManager = new TelephonyManager(getContext(),phone.getSubId());
- *     CarrierXmlParser  = new CarrierXmlParser(getContext(), telephonyManager.getSimCarrierId());
+ *     CarrierXmlParser  = CarrierXmlParser.getInstance(getContext(),
+ *             telephonyManager.getSimCarrierId());
  *
  *     //make a ussd command
  *     String newUssdCommand = mCarrierXmlParser.getFeature(
@@ -55,6 +60,10 @@ import java.util.regex.Pattern;
  *     HashMap<String, String> analysisResult = mCarrierXmlParser.getFeature(
  *             CarrierXmlParser.FEATURE_CALL_FORWARDING)
  *             .getResponseSet(mSsAction, response.toString());
+ * <p>
+ * The xml of a carrier is parsed once by {@link #getInstance(Context, int)}. The commands are
+ * compiled into templates and the response format into a pattern and lookup tables when parsed,
+ * so making a command or analyzing a response does not parse anything again.
  */
 public class CarrierXmlParser {
     public static final String LOG_TAG = "CarrierXmlParser";
@@ -101,6 +110,10 @@ public class CarrierXmlParser {
     @VisibleForTesting(otherwise = VisibleForTesting.PRIVATE)
     static String sParserFormat = "";
 
+    private static final Object sCacheLock = new Object();
+    // Parsers by carrier id, guarded by sCacheLock.
+    private static final SparseArray<CarrierXmlParser> sCachedParsers = new SparseArray<>();
+
     // TAG_ENTRY_NUMBER and TAG_ENTRY_TIME is xml's entry value.
     // This is mapping user's input value. For example: number,time ...
     // When UI makes command ,it will map the value and insert this value at position location.
@@ -189,6 +202,10 @@ public class CarrierXmlParser {
         public HashMap<Integer, String> commandParameter = new HashMap<Integer, String>();
         public HashMap<Integer, String> responseFormat = new HashMap<Integer, String>();
 
+        // The pattern of the xml this entry was parsed from, null to use sParserFormat.
+        private Pattern mResponsePattern;
+        private volatile CommandTemplate mTemplate;
+
         public SsEntry(String action) {
             if (action.equals(TAG_COMMAND_NAME_QUERY)) {
                 ssAction = SSAction.QUERY;
@@ -212,20 +229,7 @@ public class CarrierXmlParser {
          * To get the caller id command by xml's structure.
          */
         public String getCommandStructure() {
-            String result = actionCode + serviceCode;
-            int mapSize = commandParameter.size();
-            int parameterIndex = 0;
-            while (parameterIndex < mapSize) {
-                parameterIndex++;
-                if (commandParameter.containsKey(parameterIndex)) {
-                    if (commandParameter.get(parameterIndex) != null) {
-                        result = result + STAR_SIGN + commandParameter.get(parameterIndex);
-                    }
-                }
-            }
-            result = result + POUND_SIGN;
-            Log.d(LOG_TAG, "getCommandStructure result:" + result);
-            return result;
+            return getTemplate().commandStructure;
         }
 
         /**
@@ -235,33 +239,19 @@ public class CarrierXmlParser {
          *                            The name of map is mapping parameter's key of entry in xml.
          */
         public String makeCommand(Map<String, String> inputInformationSet) {
-            String result = actionCode + serviceCode;
-            int mapSize = commandParameter.size();
-            int parameterIndex = 0;
-            int counter = 1;
-            Map<String, String> informationSet = inputInformationSet;
-            while (parameterIndex < mapSize) {
-                if (commandParameter.containsKey(counter)) {
-                    String getInputValue = "";
-                    // need to handle tag_XXXX
-                    if (informationSet != null && informationSet.size() > 0
-                            && informationSet.containsKey(commandParameter.get(counter))) {
-                        getInputValue = informationSet.get(commandParameter.get(counter));
-                    }
-                    if (TextUtils.isEmpty(getInputValue)) {
-                        result = result + STAR_SIGN + commandParameter.get(counter);
-                    } else {
-                        result = result + STAR_SIGN + informationSet.get(
-                                commandParameter.get(counter));
-                    }
-                    parameterIndex++;
-                } else {
-                    result = result + STAR_SIGN;
+            CommandTemplate template = getTemplate();
+            StringBuilder result = new StringBuilder(template.commandPrefix);
+            for (String parameter : template.parameterSlots) {
+                result.append(STAR_SIGN);
+                if (parameter == null) {
+                    continue;
                 }
-                counter++;
+                // need to handle tag_XXXX
+                String inputValue = inputInformationSet != null
+                        ? inputInformationSet.get(parameter) : null;
+                result.append(TextUtils.isEmpty(inputValue) ? parameter : inputValue);
             }
-            result = result + POUND_SIGN;
-            return result;
+            return result.append(POUND_SIGN).toString();
         }
 
         /**
@@ -272,50 +262,135 @@ public class CarrierXmlParser {
          */
         public HashMap<String, String> getResponseSet(String inputResponse,
                 HashMap<String, ArrayList<SsResultEntry>> responseDefine) {
+            return getResponseSet(inputResponse, compileDefinitions(responseDefine));
+        }
+
+        /**
+         * To parse the specific key and value from response message.
+         *
+         * @param inputResponse This is a ussd response message from network.
+         * @param definitions   The definition of each value, by response key.
+         */
+        HashMap<String, String> getResponseSet(String inputResponse,
+                Map<String, ArrayMap<String, String>> definitions) {
             HashMap<String, String> responseSet = new HashMap<String, String>();
-            if (TextUtils.isEmpty(sParserFormat)) {
-                return responseSet;
+            Pattern pattern = mResponsePattern;
+            if (pattern == null) {
+                if (TextUtils.isEmpty(sParserFormat)) {
+                    return responseSet;
+                }
+                pattern = Pattern.compile(sParserFormat);
             }
-            UssdParser parserResult = new UssdParser(sParserFormat);
-            parserResult.newFromResponseString(inputResponse);
-            if (parserResult == null) {
+            Matcher m = pattern.matcher(inputResponse);
+            if (!m.matches()) {
+                Log.d(LOG_TAG, "no match");
                 return responseSet;
             }
 
-            Vector<String> result = parserResult.getResult();
-
-            if (result == null) {
-                return responseSet;
-            }
-            for (int i = 0; i < result.size(); i++) {
-                if (responseFormat.containsKey(i)) {
-                    String defineString = "";
-                    if (responseDefine.containsKey(responseFormat.get(i))) {
-                        for (int x = 0; x < responseDefine.get(responseFormat.get(i)).size(); x++) {
-                            defineString = ((SsResultEntry) responseDefine.get(
-                                    responseFormat.get(i)).get(x)).getDefinitionByCompareValue(
-                                    result.get(i));
-                            if (!TextUtils.isEmpty(defineString)) {
-                                break;
-                            }
-                        }
-                        // if status_code do not match definition value, we will set command error.
-                        if (TAG_RESPONSE_STATUS.equals(responseFormat.get(i))) {
-                            if (TextUtils.isEmpty(defineString)) {
-                                responseSet.put(TAG_RESPONSE_STATUS_ERROR,
-                                        TAG_RESPONSE_STATUS_ERROR);
-                            }
-                        }
-                    }
-                    if (TextUtils.isEmpty(defineString)) {
-                        responseSet.put(responseFormat.get(i), result.get(i));
-                    } else {
-                        responseSet.put(responseFormat.get(i), defineString);
+            CommandTemplate template = getTemplate();
+            for (int i = 0; i < template.responsePositions.length; i++) {
+                int position = template.responsePositions[i];
+                if (position < 0 || position > m.groupCount()) {
+                    continue;
+                }
+                String value = TextUtils.isEmpty(m.group(position)) ? "" : m.group(position);
+                String key = template.responseKeys[i];
+                String defineString = null;
+                ArrayMap<String, String> keyDefinitions = definitions.get(key);
+                if (keyDefinitions != null) {
+                    defineString = keyDefinitions.get(value);
+                    // if status_code do not match definition value, we will set command error.
+                    if (TAG_RESPONSE_STATUS.equals(key) && TextUtils.isEmpty(defineString)) {
+                        responseSet.put(TAG_RESPONSE_STATUS_ERROR, TAG_RESPONSE_STATUS_ERROR);
                     }
                 }
+                responseSet.put(key, TextUtils.isEmpty(defineString) ? value : defineString);
             }
             return responseSet;
         }
+
+        private CommandTemplate getTemplate() {
+            CommandTemplate template = mTemplate;
+            if (template == null) {
+                template = new CommandTemplate(this);
+                mTemplate = template;
+            }
+            return template;
+        }
+    }
+
+    /**
+     * The command and response format of a {@link SsEntry}, prepared once so that making a
+     * command or analyzing a response only fills them in.
+     */
+    private static final class CommandTemplate {
+        final String commandPrefix;
+        // Parameter of each position starting at 1, null for positions without a parameter.
+        final String[] parameterSlots;
+        final String commandStructure;
+        final String[] commandStructureParts;
+        // Group index in the response pattern and key of each response value, by group index.
+        final int[] responsePositions;
+        final String[] responseKeys;
+
+        CommandTemplate(SsEntry entry) {
+            commandPrefix = entry.actionCode + entry.serviceCode;
+
+            int maxPosition = 0;
+            for (int position : entry.commandParameter.keySet()) {
+                maxPosition = Math.max(maxPosition, position);
+            }
+            parameterSlots = new String[maxPosition];
+            for (Map.Entry<Integer, String> parameter : entry.commandParameter.entrySet()) {
+                if (parameter.getKey() > 0) {
+                    parameterSlots[parameter.getKey() - 1] = parameter.getValue();
+                }
+            }
+
+            // The structure only has the parameters up to the number of parameters.
+            StringBuilder structure = new StringBuilder(commandPrefix);
+            for (int position = 1; position <= entry.commandParameter.size(); position++) {
+                String parameter = entry.commandParameter.get(position);
+                if (parameter != null) {
+                    structure.append(STAR_SIGN).append(parameter);
+                }
+            }
+            commandStructure = structure.append(POUND_SIGN).toString();
+            commandStructureParts = commandStructure.split("\\" + STAR_SIGN);
+
+            responsePositions = new int[entry.responseFormat.size()];
+            int i = 0;
+            for (int position : entry.responseFormat.keySet()) {
+                responsePositions[i++] = position;
+            }
+            // Later positions overwrite earlier ones with the same key, as they used to.
+            Arrays.sort(responsePositions);
+            responseKeys = new String[responsePositions.length];
+            for (i = 0; i < responsePositions.length; i++) {
+                responseKeys[i] = entry.responseFormat.get(responsePositions[i]);
+            }
+        }
+    }
+
+    /**
+     * @return For each response key, the definition of each value. The first non empty
+     * definition of a value is used.
+     */
+    private static ArrayMap<String, ArrayMap<String, String>> compileDefinitions(
+            Map<String, ArrayList<SsResultEntry>> responseDefine) {
+        ArrayMap<String, ArrayMap<String, String>> definitions =
+                new ArrayMap<>(responseDefine.size());
+        for (Map.Entry<String, ArrayList<SsResultEntry>> entry : responseDefine.entrySet()) {
+            ArrayMap<String, String> keyDefinitions = new ArrayMap<>(entry.getValue().size());
+            for (SsResultEntry resultEntry : entry.getValue()) {
+                if (!TextUtils.isEmpty(resultEntry.mDefinition)
+                        && !keyDefinitions.containsKey(resultEntry.mCompareValue)) {
+                    keyDefinitions.put(resultEntry.mCompareValue, resultEntry.mDefinition);
+                }
+            }
+            definitions.put(entry.getKey(), keyDefinitions);
+        }
+        return definitions;
     }
 
     /**
@@ -357,9 +432,20 @@ public class CarrierXmlParser {
         public HashMap<String, ArrayList<SsResultEntry>> responseCode =
                 new HashMap<String, ArrayList<SsResultEntry>>();
 
+        private volatile ArrayMap<String, ArrayMap<String, String>> mDefinitions;
+
         public SsFeature() {
         }
 
+        private ArrayMap<String, ArrayMap<String, String>> getDefinitions() {
+            ArrayMap<String, ArrayMap<String, String>> definitions = mDefinitions;
+            if (definitions == null) {
+                definitions = compileDefinitions(responseCode);
+                mDefinitions = definitions;
+            }
+            return definitions;
+        }
+
         private String getResponseCodeString() {
             String result = "";
             for (Map.Entry<String, ArrayList<SsResultEntry>> entry : responseCode.entrySet()) {
@@ -409,7 +495,27 @@ public class CarrierXmlParser {
         public HashMap<String, String> getResponseSet(SsEntry.SSAction inputAction,
                 String inputResponse) {
             SsEntry entry = ssEntryHashMap.get(inputAction);
-            return entry.getResponseSet(inputResponse, responseCode);
+            return entry.getResponseSet(inputResponse, getDefinitions());
+        }
+    }
+
+    /**
+     * Get the parser for a carrier. The xml of the carrier is only parsed the first time.
+     *
+     * @param context context to get res's xml
+     * @param carrierId carrier id of the current subscription.
+     */
+    public static CarrierXmlParser getInstance(Context context, int carrierId) {
+        synchronized (sCacheLock) {
+            CarrierXmlParser parser = sCachedParsers.get(carrierId);
+            if (parser == null) {
+                parser = new CarrierXmlParser(context, carrierId);
+                // Parse again next time if the xml could not be parsed.
+                if (parser.mFeatureMaps != null) {
+                    sCachedParsers.put(carrierId, parser);
+                }
+            }
+            return parser;
         }
     }
 
@@ -441,12 +547,14 @@ public class CarrierXmlParser {
 
     private HashMap<String, SsFeature> parseXml(XmlResourceParser parser) throws IOException {
         HashMap<String, SsFeature> features = new HashMap<String, SsFeature>();
+        String parserFormat = "";
         try {
             int eventType = parser.getEventType();
             while (eventType != XmlPullParser.END_DOCUMENT) {
                 if (eventType == XmlPullParser.START_TAG) {
                     if (TAG_REGULAR_PARSER.equals(parser.getName())) {
-                        sParserFormat = readText(parser);
+                        parserFormat = readText(parser);
+                        sParserFormat = parserFormat;
                         Log.d(LOG_TAG, "sParserFormat " + sParserFormat);
                     } else if (TAG_FEATURE.equals(parser.getName())) {
                         String featureName = getSpecificAttributeValue(parser, ATTR_NAME);
@@ -463,6 +571,23 @@ public class CarrierXmlParser {
         } catch (XmlPullParserException e) {
             e.printStackTrace();
         }
+
+        Pattern responsePattern = null;
+        if (!TextUtils.isEmpty(parserFormat)) {
+            try {
+                responsePattern = Pattern.compile(parserFormat);
+            } catch (PatternSyntaxException e) {
+                Log.e(LOG_TAG, "Invalid regular_parser " + parserFormat, e);
+            }
+        }
+        // Prepare everything needed to make commands and analyze responses up front.
+        for (SsFeature feature : features.values()) {
+            feature.getDefinitions();
+            for (SsEntry entry : feature.ssEntryHashMap.values()) {
+                entry.mResponsePattern = responsePattern;
+                entry.getTemplate();
+            }
+        }
         return features;
     }
 
@@ -641,27 +766,20 @@ public class CarrierXmlParser {
         return SsEntry.SSAction.UNKNOWN;
     }
 
-    private String getCallerIdActivateCommandFromXml() {
-        return getFeature(FEATURE_CALLER_ID).getCommandStructure(SsEntry.SSAction.UPDATE_ACTIVATE);
-    }
-
-    private String getCallerIdDeactivateCommandFromXml() {
-        return getFeature(FEATURE_CALLER_ID).getCommandStructure(
-                SsEntry.SSAction.UPDATE_DEACTIVATE);
+    private CommandTemplate getCallerIdTemplate(SsEntry.SSAction action) {
+        return getFeature(FEATURE_CALLER_ID).ssEntryHashMap.get(action).getTemplate();
     }
 
     private boolean isCallerIdActivate(String inputStr) {
-        String activateStr = getCallerIdActivateCommandFromXml();
-        return compareCommand(activateStr, inputStr);
+        return compareCommand(getCallerIdTemplate(SsEntry.SSAction.UPDATE_ACTIVATE), inputStr);
     }
 
     private boolean isCallerIdDeactivate(String inputStr) {
-        String activateStr = getCallerIdDeactivateCommandFromXml();
-        return compareCommand(activateStr, inputStr);
+        return compareCommand(getCallerIdTemplate(SsEntry.SSAction.UPDATE_DEACTIVATE), inputStr);
     }
 
-    private boolean compareCommand(String activateStr, String inputStr) {
-        String[] activateArray = activateStr.split("\\" + STAR_SIGN);
+    private boolean compareCommand(CommandTemplate template, String inputStr) {
+        String[] activateArray = template.commandStructureParts;
         String[] inputArray = inputStr.split("\\" + STAR_SIGN);
 
         if (activateArray.length == 0 || inputArray.length == 0) {
@@ -671,8 +789,8 @@ public class CarrierXmlParser {
             if (activateArray[i].startsWith(TAG_SIGN)) {
                 continue;
             }
-            if (!activateArray[i].equals(inputArray[i])) {
-                Log.d(LOG_TAG, "compare fails:" + activateStr + "," + inputStr);
+            if (i >= inputArray.length || !activateArray[i].equals(inputArray[i])) {
+                Log.d(LOG_TAG, "compare fails:" + template.commandStructure + "," + inputStr);
                 return false;
             }
         }
@@ -243,7 +243,7 @@ public class EmergencyDialer extends Activity implements View.OnClickListener,
         //
         // So we call SpecialCharSequenceMgr.handleCharsForLockedDevice()
         // here, not the regular handleChars() method.
-        if (SpecialCharSequenceMgr.handleCharsForLockedDevice(this, input.toString(), this)) {
+        if (SpecialCharSequenceMgr.handleCharsForLockedDevice(this, input, this)) {
             // A special sequence was entered, clear the digits
             mDigits.getText().clear();
         }
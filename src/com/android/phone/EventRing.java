@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.phone;
+
+import com.android.internal.annotations.VisibleForTesting;
+
+import java.io.PrintWriter;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A fixed size ring of the most recent events of a component, to be printed in dumpsys. Used in
+ * place of {@link android.util.LocalLog} where events are recorded much more often than they are
+ * dumped.
+ * <p>
+ * An event only keeps the time, the level, a format string and up to two arguments. The message
+ * is formatted with {@link String#format} when the ring is dumped, so the arguments must not
+ * change after they are logged.
+ * <p>
+ * Neither logging nor dumping takes a lock. Each slot holds an immutable event that is replaced
+ * atomically, so a dump running concurrently with logging sees every event either whole or not
+ * at all.
+ */
+public final class EventRing {
+
+    public static final char DEBUG = 'D';
+    public static final char INFO = 'I';
+    public static final char WARN = 'W';
+    public static final char ERROR = 'E';
+
+    private static final class Event {
+        final long sequence;
+        final long timeMillis;
+        final char level;
+        final String format;
+        final Object arg1;
+        final Object arg2;
+        final int argCount;
+
+        Event(long sequence, char level, String format, int argCount, Object arg1, Object arg2) {
+            this.sequence = sequence;
+            this.timeMillis = System.currentTimeMillis();
+            this.level = level;
+            this.format = format;
+            this.argCount = argCount;
+            this.arg1 = arg1;
+            this.arg2 = arg2;
+        }
+
+        String getMessage() {
+            Object[] args;
+            switch (argCount) {
+                case 1:
+                    args = new Object[] {arg1};
+                    break;
+                case 2:
+                    args = new Object[] {arg1, arg2};
+                    break;
+                default:
+                    return format;
+            }
+            try {
+                return String.format(Locale.US, format, args);
+            } catch (RuntimeException e) {
+                return format + " " + arg1 + (argCount > 1 ? " " + arg2 : "");
+            }
+        }
+
+        @Override
+        public String toString() {
+            return LocalDateTime.ofInstant(Instant.ofEpochMilli(timeMillis),
+                    ZoneId.systemDefault()) + " [" + level + "] " + getMessage();
+        }
+    }
+
+    private final AtomicReferenceArray<Event> mEvents;
+    private final AtomicLong mNextSequence = new AtomicLong();
+
+    /**
+     * @param size The number of most recent events kept.
+     */
+    public EventRing(int size) {
+        if (size <= 0) {
+            throw new IllegalArgumentException("size must be positive: " + size);
+        }
+        mEvents = new AtomicReferenceArray<>(size);
+    }
+
+    /** Record an event with a constant message. */
+    public void log(char level, String message) {
+        add(level, message, 0, null, null);
+    }
+
+    /** Record an event whose message is {@code format} formatted with one argument. */
+    public void log(char level, String format, Object arg) {
+        add(level, format, 1, arg, null);
+    }
+
+    /** Record an event whose message is {@code format} formatted with two arguments. */
+    public void log(char level, String format, Object arg1, Object arg2) {
+        add(level, format, 2, arg1, arg2);
+    }
+
+    private void add(char level, String format, int argCount, Object arg1, Object arg2) {
+        long sequence = mNextSequence.getAndIncrement();
+        mEvents.set((int) (sequence % mEvents.length()),
+                new Event(sequence, level, format, argCount, arg1, arg2));
+    }
+
+    /**
+     * @return The events currently in the ring formatted, from the oldest to the most recent.
+     */
+    @VisibleForTesting
+    public List<String> getEvents() {
+        int size = mEvents.length();
+        long end = mNextSequence.get();
+        ArrayList<String> events = new ArrayList<>(size);
+        for (long i = Math.max(0, end - size); i < end; i++) {
+            Event e = mEvents.get((int) (i % size));
+            // The slot has either not been written yet or was overwritten by an event logged
+            // after the dump started.
+            if (e == null || e.sequence != i) continue;
+            events.add(e.toString());
+        }
+        return events;
+    }
+
+    /** Print the events currently in the ring, from the oldest to the most recent. */
+    public void dump(PrintWriter pw) {
+        for (String event : getEvents()) {
+            pw.println(event);
+        }
+    }
+}
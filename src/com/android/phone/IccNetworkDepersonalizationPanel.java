@@ -130,8 +130,7 @@ public class IccNetworkDepersonalizationPanel extends IccPanel {
         }
 
         public void afterTextChanged(Editable buffer) {
-            if (SpecialCharSequenceMgr.handleChars(
-                    getContext(), buffer.toString())) {
+            if (SpecialCharSequenceMgr.handleChars(getContext(), buffer)) {
                 mPinEntry.getText().clear();
             }
         }
@@ -47,7 +47,6 @@ import android.telephony.CarrierConfigManager;
 import android.telephony.SubscriptionManager;
 import android.telephony.TelephonyRegistryManager;
 import android.telephony.ims.feature.ImsFeature;
-import android.util.LocalLog;
 import android.util.Log;
 import android.util.SparseArray;
 
@@ -65,10 +64,13 @@ import com.android.internal.util.IndentingPrintWriter;
 import com.android.services.telephony.rcs.RcsFeatureController;
 import com.android.telephony.Rlog;
 
+import java.io.StringWriter;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Implementation of the controller managing {@link ImsStateCallback}s
@@ -77,6 +79,8 @@ public class ImsStateCallbackController {
     private static final String TAG = "ImsStateCallbackController";
     private static final boolean VDBG = false;
     private static final int LOG_SIZE = 50;
+    // The longest time dump waits for the handler to take a snapshot of the state.
+    private static final long DUMP_TIMEOUT_MS = 1000;
 
     /**
      * Create a FeatureConnector for this class to use to connect to an ImsManager.
@@ -126,7 +130,7 @@ public class ImsStateCallbackController {
     private static final int EVENT_MSIM_CONFIGURATION_CHANGE = 6;
 
     private static ImsStateCallbackController sInstance;
-    private static final LocalLog sLocalLog = new LocalLog(LOG_SIZE);
+    private static final EventRing sEventRing = new EventRing(LOG_SIZE);
 
     /**
      * get the instance
@@ -150,8 +154,6 @@ public class ImsStateCallbackController {
 
     private HashMap<IBinder, CallbackWrapper> mWrappers = new HashMap<>();
 
-    private final Object mDumpLock = new Object();
-
     private int mNumSlots;
 
     private BroadcastReceiver mReceiver = new BroadcastReceiver() {
@@ -204,42 +206,40 @@ public class ImsStateCallbackController {
         @Override
         public void handleMessage(Message msg) {
             if (VDBG) logv("handleMessage: " + msg);
-            synchronized (mDumpLock) {
-                switch (msg.what) {
-                    case EVENT_SUB_CHANGED:
-                        onSubChanged();
-                        break;
+            switch (msg.what) {
+                case EVENT_SUB_CHANGED:
+                    onSubChanged();
+                    break;
 
-                    case EVENT_REGISTER_CALLBACK:
-                        onRegisterCallback((ImsStateCallbackController.CallbackWrapper) msg.obj);
-                        break;
+                case EVENT_REGISTER_CALLBACK:
+                    onRegisterCallback((ImsStateCallbackController.CallbackWrapper) msg.obj);
+                    break;
 
-                    case EVENT_UNREGISTER_CALLBACK:
-                        onUnregisterCallback((IImsStateCallback) msg.obj);
-                        break;
+                case EVENT_UNREGISTER_CALLBACK:
+                    onUnregisterCallback((IImsStateCallback) msg.obj);
+                    break;
 
-                    case EVENT_CARRIER_CONFIG_CHANGED:
-                        onCarrierConfigChanged(msg.arg1);
-                        break;
+                case EVENT_CARRIER_CONFIG_CHANGED:
+                    onCarrierConfigChanged(msg.arg1);
+                    break;
 
-                    case EVENT_EXTERNAL_RCS_STATE_CHANGED:
-                        if (msg.obj == null) break;
-                        onExternalRcsStateChanged((ExternalRcsFeatureState) msg.obj);
-                        break;
+                case EVENT_EXTERNAL_RCS_STATE_CHANGED:
+                    if (msg.obj == null) break;
+                    onExternalRcsStateChanged((ExternalRcsFeatureState) msg.obj);
+                    break;
 
-                    case EVENT_MSIM_CONFIGURATION_CHANGE:
-                        AsyncResult result = (AsyncResult) msg.obj;
-                        Integer numSlots = (Integer) result.result;
-                        if (numSlots == null) {
-                            Log.w(TAG, "msim config change with null num slots");
-                            break;
-                        }
-                        updateFeatureControllerSize(numSlots);
+                case EVENT_MSIM_CONFIGURATION_CHANGE:
+                    AsyncResult result = (AsyncResult) msg.obj;
+                    Integer numSlots = (Integer) result.result;
+                    if (numSlots == null) {
+                        Log.w(TAG, "msim config change with null num slots");
                         break;
+                    }
+                    updateFeatureControllerSize(numSlots);
+                    break;
 
-                    default:
-                        loge("Unhandled event " + msg.what);
-                }
+                default:
+                    loge("Unhandled event " + msg.what);
             }
         }
     }
@@ -1147,31 +1147,72 @@ public class ImsStateCallbackController {
      */
     public void dump(IndentingPrintWriter pw) {
         pw.increaseIndent();
-        synchronized (mDumpLock) {
-            pw.println("CallbackWrappers:");
-            pw.increaseIndent();
-            mWrappers.values().forEach(wrapper -> wrapper.dump(pw));
-            pw.decreaseIndent();
-            pw.println("MmTelFeatureListeners:");
-            pw.increaseIndent();
-            for (int i = 0; i < mNumSlots; i++) {
-                MmTelFeatureListener l = mMmTelFeatureListeners.get(i);
-                if (l == null) continue;
-                l.dump(pw);
+        String state = getStateSnapshot();
+        if (state != null) {
+            for (String line : state.split("\n")) {
+                pw.println(line);
             }
-            pw.decreaseIndent();
-            pw.println("RcsFeatureListeners:");
-            pw.increaseIndent();
-            for (int i = 0; i < mNumSlots; i++) {
-                RcsFeatureListener l = mRcsFeatureListeners.get(i);
-                if (l == null) continue;
-                l.dump(pw);
-            }
-            pw.decreaseIndent();
-            pw.println("Most recent logs:");
-            pw.increaseIndent();
-            sLocalLog.dump(pw);
-            pw.decreaseIndent();
+        } else {
+            pw.println("State unavailable, handler did not respond in " + DUMP_TIMEOUT_MS + "ms");
+        }
+        pw.println("Most recent logs:");
+        pw.increaseIndent();
+        sEventRing.dump(pw);
+        pw.decreaseIndent();
+        pw.decreaseIndent();
+    }
+
+    /**
+     * The state is only modified on the handler, so take the snapshot there instead of making the
+     * handler synchronize with dumpsys.
+     * @return The dumped state or {@code null} if the handler did not respond in time.
+     */
+    private String getStateSnapshot() {
+        StringWriter writer = new StringWriter();
+        Runnable dumpState = () -> {
+            IndentingPrintWriter pw = new IndentingPrintWriter(writer, "  ");
+            dumpState(pw);
+            pw.flush();
+        };
+        if (mHandler.getLooper().isCurrentThread()) {
+            dumpState.run();
+            return writer.toString();
+        }
+        CountDownLatch latch = new CountDownLatch(1);
+        if (!mHandler.post(() -> {
+            dumpState.run();
+            latch.countDown();
+        })) {
+            return null;
+        }
+        try {
+            if (!latch.await(DUMP_TIMEOUT_MS, TimeUnit.MILLISECONDS)) return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+        return writer.toString();
+    }
+
+    private void dumpState(IndentingPrintWriter pw) {
+        pw.println("CallbackWrappers:");
+        pw.increaseIndent();
+        mWrappers.values().forEach(wrapper -> wrapper.dump(pw));
+        pw.decreaseIndent();
+        pw.println("MmTelFeatureListeners:");
+        pw.increaseIndent();
+        for (int i = 0; i < mNumSlots; i++) {
+            MmTelFeatureListener l = mMmTelFeatureListeners.get(i);
+            if (l == null) continue;
+            l.dump(pw);
+        }
+        pw.decreaseIndent();
+        pw.println("RcsFeatureListeners:");
+        pw.increaseIndent();
+        for (int i = 0; i < mNumSlots; i++) {
+            RcsFeatureListener l = mRcsFeatureListeners.get(i);
+            if (l == null) continue;
+            l.dump(pw);
         }
         pw.decreaseIndent();
     }
@@ -1182,11 +1223,11 @@ public class ImsStateCallbackController {
 
     private static void logd(String msg) {
         Rlog.d(TAG, msg);
-        sLocalLog.log(msg);
+        sEventRing.log(EventRing.DEBUG, msg);
     }
 
     private static void loge(String msg) {
         Rlog.e(TAG, msg);
-        sLocalLog.log(msg);
+        sEventRing.log(EventRing.ERROR, msg);
     }
 }
@@ -25,9 +25,11 @@ import android.app.Notification;
 import android.app.NotificationManager;
 import android.app.PendingIntent;
 import android.app.StatusBarManager;
+import android.content.BroadcastReceiver;
 import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
+import android.content.IntentFilter;
 import android.content.SharedPreferences;
 import android.content.pm.PackageManager;
 import android.content.pm.ResolveInfo;
@@ -64,12 +66,14 @@ import com.android.internal.telephony.PhoneFactory;
 import com.android.internal.telephony.RILConstants;
 import com.android.internal.telephony.TelephonyCapabilities;
 import com.android.internal.telephony.util.NotificationChannelController;
+import com.android.internal.util.IndentingPrintWriter;
 import com.android.phone.settings.VoicemailSettingsActivity;
 
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Objects;
 import java.util.Set;
 
 /**
@@ -110,6 +114,11 @@ public class NotificationMgr {
 
     private static final String ACTION_MOBILE_NETWORK_LIST = "android.settings.MOBILE_NETWORK_LIST";
 
+    // Minimum time between two updates of the same notification. Updates arriving faster are
+    // deferred and only the most recent one is applied.
+    private static final long INDICATOR_MIN_UPDATE_INTERVAL_MS = 1000L;
+    private static final long SERVICE_STATE_MIN_UPDATE_INTERVAL_MS = 2000L;
+
     /**
      * Grant recipients of new voicemail broadcasts a 10sec allowlist so they can start a background
      * service to do VVM processing.
@@ -145,6 +154,64 @@ public class NotificationMgr {
     // maps each subId to selected network operator name.
     private SparseArray<String> mSelectedNetworkOperatorName = new SparseArray<>();
 
+    /** Identifies a notification posted for a user. */
+    private static final class NotificationKey {
+        final String tag;
+        final int id;
+        final int userId;
+
+        NotificationKey(String tag, int id, int userId) {
+            this.tag = tag;
+            this.id = id;
+            this.userId = userId;
+        }
+
+        boolean isSameNotification(NotificationKey other) {
+            return id == other.id && TextUtils.equals(tag, other.tag);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof NotificationKey)) return false;
+            NotificationKey that = (NotificationKey) o;
+            return userId == that.userId && isSameNotification(that);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(tag, id, userId);
+        }
+    }
+
+    /** The last update applied to a notification and the update waiting for the rate limit. */
+    private static final class NotificationState {
+        boolean applied;
+        // Signature of the posted notification, null if it was cancelled.
+        String signature;
+        long lastUpdateMs;
+        Runnable pendingUpdate;
+    }
+
+    // used to skip updates which do not change a notification and to rate limit updates.
+    private final ArrayMap<NotificationKey, NotificationState> mNotificationStates =
+            new ArrayMap<>();
+    private int mSkippedUpdates;
+    private int mDeferredUpdates;
+    private int mReplacedDeferredUpdates;
+
+    // whether the default dialer of a user shows the voicemail notification, per user id.
+    private final SparseArray<Boolean> mDialerShowsVoicemail = new SparseArray<>();
+    private int mDialerLookups;
+
+    private final BroadcastReceiver mDialerChangedReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            // Only the main thread accesses the cache.
+            mDialerShowsVoicemail.clear();
+        }
+    };
+
     private final Handler mHandler = new Handler() {
         @Override
         public void handleMessage(Message msg) {
@@ -175,6 +242,16 @@ public class NotificationMgr {
         mSubscriptionManager = SubscriptionManager.from(mContext);
         mTelecomManager = app.getSystemService(TelecomManager.class);
         mTelephonyManager = (TelephonyManager) app.getSystemService(Context.TELEPHONY_SERVICE);
+
+        IntentFilter packageFilter = new IntentFilter();
+        packageFilter.addAction(Intent.ACTION_PACKAGE_ADDED);
+        packageFilter.addAction(Intent.ACTION_PACKAGE_CHANGED);
+        packageFilter.addAction(Intent.ACTION_PACKAGE_REMOVED);
+        packageFilter.addDataScheme("package");
+        mContext.registerReceiverAsUser(mDialerChangedReceiver, UserHandle.ALL, packageFilter,
+                null, mHandler);
+        mContext.registerReceiverAsUser(mDialerChangedReceiver, UserHandle.ALL,
+                new IntentFilter(TelecomManager.ACTION_DEFAULT_DIALER_CHANGED), null, mHandler);
     }
 
     /**
@@ -498,14 +575,21 @@ public class NotificationMgr {
     }
 
     private boolean shouldManageNotificationThroughDefaultDialer(UserHandle userHandle) {
+        Boolean cached = mDialerShowsVoicemail.get(userHandle.getIdentifier());
+        if (cached != null) {
+            return cached;
+        }
         Intent intent = getShowVoicemailIntentForDefaultDialer(userHandle);
         if (intent == null) {
             return false;
         }
 
+        mDialerLookups++;
         List<ResolveInfo> receivers = mContext.getPackageManager()
                 .queryBroadcastReceivers(intent, 0);
-        return receivers.size() > 0;
+        boolean showsVoicemail = receivers.size() > 0;
+        mDialerShowsVoicemail.put(userHandle.getIdentifier(), showsVoicemail);
+        return showsVoicemail;
     }
 
     /**
@@ -638,6 +722,117 @@ public class NotificationMgr {
     }
 
     private void notifyAsUser(String tag, int id, Notification notification, UserHandle user) {
+        // Reposting a notification the user may have swiped away shows it again, so only ongoing
+        // notifications and refreshes are skipped when unchanged.
+        boolean skipIfUnchanged = (notification.flags
+                & (Notification.FLAG_ONGOING_EVENT | Notification.FLAG_ONLY_ALERT_ONCE)) != 0;
+        updateNotification(new NotificationKey(tag, id, user.getIdentifier()),
+                getSignature(notification), skipIfUnchanged,
+                () -> postAsUser(tag, id, notification, user));
+    }
+
+    private void cancelAsUser(String tag, int id, UserHandle user) {
+        updateNotification(new NotificationKey(tag, id, user.getIdentifier()), null,
+                true /* skipIfUnchanged */, () -> removeAsUser(tag, id, user));
+    }
+
+    /**
+     * Apply an update of a notification unless it would not change the notification. Updates
+     * which come sooner than the minimum update interval of the notification type after the
+     * previous one are deferred, a later update replaces a deferred one.
+     */
+    private void updateNotification(NotificationKey key, @Nullable String signature,
+            boolean skipIfUnchanged, Runnable update) {
+        NotificationState state = mNotificationStates.get(key);
+        if (state == null) {
+            state = new NotificationState();
+            mNotificationStates.put(key, state);
+        }
+        if (skipIfUnchanged && state.applied && Objects.equals(state.signature, signature)) {
+            if (state.pendingUpdate != null) {
+                // The deferred update is undone by this one.
+                mHandler.removeCallbacks(state.pendingUpdate);
+                state.pendingUpdate = null;
+                mReplacedDeferredUpdates++;
+            }
+            mSkippedUpdates++;
+            if (VDBG) log("updateNotification: skipping unchanged " + key.id);
+            return;
+        }
+
+        long now = SystemClock.uptimeMillis();
+        long nextUpdateMs = state.lastUpdateMs + getMinUpdateIntervalMs(key.id);
+        if (state.applied && now < nextUpdateMs) {
+            if (state.pendingUpdate != null) {
+                mHandler.removeCallbacks(state.pendingUpdate);
+                mReplacedDeferredUpdates++;
+            }
+            mDeferredUpdates++;
+            final NotificationState deferredState = state;
+            deferredState.pendingUpdate = () -> {
+                deferredState.pendingUpdate = null;
+                applyUpdate(key, deferredState, signature, update);
+            };
+            mHandler.postAtTime(deferredState.pendingUpdate, nextUpdateMs);
+            return;
+        }
+        if (state.pendingUpdate != null) {
+            mHandler.removeCallbacks(state.pendingUpdate);
+            state.pendingUpdate = null;
+        }
+        applyUpdate(key, state, signature, update);
+    }
+
+    private void applyUpdate(NotificationKey key, NotificationState state,
+            @Nullable String signature, Runnable update) {
+        // A notification posted for all users and the same one posted for a single user replace
+        // each other, so the state kept for the other one is no longer accurate.
+        for (int i = mNotificationStates.size() - 1; i >= 0; i--) {
+            NotificationKey other = mNotificationStates.keyAt(i);
+            if (other.userId != key.userId && key.isSameNotification(other)
+                    && (key.userId == UserHandle.USER_ALL || other.userId == UserHandle.USER_ALL)) {
+                NotificationState otherState = mNotificationStates.valueAt(i);
+                if (otherState.pendingUpdate != null) {
+                    mHandler.removeCallbacks(otherState.pendingUpdate);
+                }
+                mNotificationStates.removeAt(i);
+            }
+        }
+        state.applied = true;
+        state.signature = signature;
+        state.lastUpdateMs = SystemClock.uptimeMillis();
+        update.run();
+    }
+
+    private static long getMinUpdateIntervalMs(int id) {
+        switch (id) {
+            case VOICEMAIL_NOTIFICATION:
+            case CALL_FORWARD_NOTIFICATION:
+                return INDICATOR_MIN_UPDATE_INTERVAL_MS;
+            case SELECTED_OPERATOR_FAIL_NOTIFICATION:
+            case LIMITED_SIM_FUNCTION_NOTIFICATION:
+                return SERVICE_STATE_MIN_UPDATE_INTERVAL_MS;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * @return A string which differs between two notifications if they look or act differently.
+     * The post time is ignored.
+     */
+    private static String getSignature(Notification notification) {
+        return notification.getChannelId()
+                + "|" + notification.icon
+                + "|" + notification.color
+                + "|" + notification.flags
+                + "|" + notification.extras.getCharSequence(Notification.EXTRA_TITLE)
+                + "|" + notification.extras.getCharSequence(Notification.EXTRA_TEXT)
+                + "|" + notification.extras.getCharSequence(Notification.EXTRA_BIG_TEXT)
+                + "|" + Objects.hashCode(notification.contentIntent);
+    }
+
+    private void postAsUser(String tag, int id, Notification notification, UserHandle user) {
         try {
             Context contextForUser =
                     mContext.createPackageContextAsUser(mContext.getPackageName(), 0, user);
@@ -651,7 +846,7 @@ public class NotificationMgr {
         }
     }
 
-    private void cancelAsUser(String tag, int id, UserHandle user) {
+    private void removeAsUser(String tag, int id, UserHandle user) {
         try {
             Context contextForUser =
                     mContext.createPackageContextAsUser(mContext.getPackageName(), 0, user);
@@ -890,6 +1085,20 @@ public class NotificationMgr {
         mToast.show();
     }
 
+    /**
+     * Dump the statistics of the notification updates.
+     */
+    void dump(IndentingPrintWriter pw) {
+        pw.println("NotificationMgr:");
+        pw.increaseIndent();
+        pw.println("skippedUpdates=" + mSkippedUpdates + ", deferredUpdates=" + mDeferredUpdates
+                + ", replacedDeferredUpdates=" + mReplacedDeferredUpdates
+                + ", trackedNotifications=" + mNotificationStates.size());
+        pw.println("dialerLookups=" + mDialerLookups + ", cachedDialers="
+                + mDialerShowsVoicemail.size());
+        pw.decreaseIndent();
+    }
+
     private void log(String msg) {
         Log.d(LOG_TAG, msg);
     }
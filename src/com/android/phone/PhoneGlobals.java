@@ -36,6 +36,7 @@ import android.os.Handler;
 import android.os.Message;
 import android.os.PersistableBundle;
 import android.os.PowerManager;
+import android.os.SystemClock;
 import android.os.SystemProperties;
 import android.preference.PreferenceManager;
 import android.provider.Settings;
@@ -78,6 +79,9 @@ import com.android.internal.telephony.uicc.UiccProfile;
 import com.android.internal.util.IndentingPrintWriter;
 import com.android.phone.settings.SettingsConstants;
 import com.android.phone.vvm.CarrierVvmPackageInstalledReceiver;
+import com.android.phone.vvm.VisualVoicemailSmsFilterConfig;
+import com.android.services.telephony.CallEventDispatchStats;
+import com.android.services.telephony.TelecomAccountRegistry;
 import com.android.services.telephony.rcs.TelephonyRcsService;
 
 import java.io.FileDescriptor;
@@ -85,6 +89,7 @@ import java.io.PrintWriter;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.util.List;
+import java.util.concurrent.Executors;
 
 /**
  * Global state for the telephony subsystem when running in the primary
@@ -137,6 +142,9 @@ public class PhoneGlobals extends ContextWrapper {
     public static final int AIRPLANE_ON = 1;
     public static final int AIRPLANE_OFF = 0;
 
+    // The number of threads the background stages of the startup run on.
+    private static final int STARTUP_POOL_SIZE = 2;
+
     /**
      * Allowable values for the wake lock code.
      *   SLEEP means the device can be put to sleep.
@@ -210,6 +218,9 @@ public class PhoneGlobals extends ContextWrapper {
     private final SettingsObserver mSettingsObserver;
     private BinderCallsStats.SettingsObserver mBinderCallsSettingsObserver;
 
+    // Runs and times the stages of onCreate.
+    private StartupOrchestrator mStartup;
+
     // Mapping of phone ID to the associated TelephonyCallback. These should be registered without
     // fine or coarse location since we only use ServiceState for
     private PhoneAppCallback[] mTelephonyCallbacks;
@@ -433,161 +444,205 @@ public class PhoneGlobals extends ContextWrapper {
         // sVoiceCapable =
         //   getPackageManager().hasSystemFeature(PackageManager.FEATURE_TELEPHONY_VOICE_CALLS);
 
+        StartupOrchestrator startup = new StartupOrchestrator(mHandler,
+                Executors.newFixedThreadPool(STARTUP_POOL_SIZE, r -> new Thread(r, "PhoneStartup")),
+                SystemClock::elapsedRealtime);
         if (mCM == null) {
+            final boolean hasImsFeature = getPackageManager().hasSystemFeature(
+                    PackageManager.FEATURE_TELEPHONY_IMS);
+
             // Initialize AnomalyReporter early so that it can be used
-            AnomalyReporter.initialize(this);
+            startup.addStage("anomaly-reporter", StartupOrchestrator.RUN_ON_MAIN,
+                    () -> AnomalyReporter.initialize(this));
 
-            // Inject telephony component factory if configured using other jars.
-            XmlResourceParser parser = getResources().getXml(R.xml.telephony_injection);
-            TelephonyComponentFactory.getInstance().injectTheComponentFactory(parser);
-            // Initialize the telephony framework
-            PhoneFactory.makeDefaultPhones(this);
+            startup.addStage("phones", StartupOrchestrator.RUN_ON_MAIN, () -> {
+                // Inject telephony component factory if configured using other jars.
+                XmlResourceParser parser = getResources().getXml(R.xml.telephony_injection);
+                TelephonyComponentFactory.getInstance().injectTheComponentFactory(parser);
+                // Initialize the telephony framework
+                PhoneFactory.makeDefaultPhones(this);
+            }, "anomaly-reporter");
 
             // Only bring up ImsResolver if the device supports having an IMS stack.
-            if (getPackageManager().hasSystemFeature(
-                    PackageManager.FEATURE_TELEPHONY_IMS)) {
-                // Get the package name of the default IMS implementation.
-                String defaultImsMmtelPackage = getResources().getString(
-                        R.string.config_ims_mmtel_package);
-                String defaultImsRcsPackage = getResources().getString(
-                        R.string.config_ims_rcs_package);
-                ImsResolver.make(this, defaultImsMmtelPackage,
-                        defaultImsRcsPackage, PhoneFactory.getPhones().length,
-                        new ImsFeatureBinderRepository());
-                ImsResolver.getInstance().initialize();
-
-                // With the IMS phone created, load static config.xml values from the phone process
-                // so that it can be provided to the ImsPhoneCallTracker.
-                for (Phone p : PhoneFactory.getPhones()) {
-                    Phone imsPhone = p.getImsPhone();
-                    if (imsPhone != null && imsPhone instanceof ImsPhone) {
-                        ImsPhone theImsPhone = (ImsPhone) imsPhone;
-                        if (theImsPhone.getCallTracker() instanceof ImsPhoneCallTracker) {
-                            ImsPhoneCallTracker ict = (ImsPhoneCallTracker)
-                                    theImsPhone.getCallTracker();
-
-                            ImsPhoneCallTracker.Config config = new ImsPhoneCallTracker.Config();
-                            config.isD2DCommunicationSupported = getResources().getBoolean(
-                                    R.bool.config_use_device_to_device_communication);
-                            ict.setConfig(config);
-                        }
-                    }
-                }
-                RcsProvisioningMonitor.make(this);
+            if (hasImsFeature) {
+                startup.addStage("ims-resolver", StartupOrchestrator.RUN_ON_MAIN,
+                        this::initImsResolver, "phones");
+                startup.addStage("rcs-provisioning-monitor", StartupOrchestrator.RUN_ON_MAIN,
+                        () -> RcsProvisioningMonitor.make(this), "ims-resolver");
             }
 
             // Start TelephonyDebugService After the default phone is created.
-            Intent intent = new Intent(this, TelephonyDebugService.class);
-            startService(intent);
-
-            mCM = CallManager.getInstance();
-
-            // Create the NotificationMgr singleton, which is used to display
-            // status bar icons and control other status bar behavior.
-            notificationMgr = NotificationMgr.init(this);
-
-            // Create an instance of CdmaPhoneCallState and initialize it to IDLE
-            cdmaPhoneCallState = new CdmaPhoneCallState();
-            cdmaPhoneCallState.CdmaPhoneCallStateInit();
-
-            // before registering for phone state changes
-            mPowerManager = (PowerManager) getSystemService(Context.POWER_SERVICE);
-            mWakeLock = mPowerManager.newWakeLock(PowerManager.FULL_WAKE_LOCK, LOG_TAG);
-            // lock used to keep the processor awake, when we don't care for the display.
-            mPartialWakeLock = mPowerManager.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK
-                    | PowerManager.ON_AFTER_RELEASE, LOG_TAG);
-
-            mKeyguardManager = (KeyguardManager) getSystemService(Context.KEYGUARD_SERVICE);
-
-            phoneMgr = PhoneInterfaceManager.init(this);
-
-            imsRcsController = ImsRcsController.init(this);
-
-            if (getPackageManager().hasSystemFeature(PackageManager.FEATURE_TELEPHONY_IMS)) {
-                mImsStateCallbackController =
-                        ImsStateCallbackController.make(this, PhoneFactory.getPhones().length);
-                mTelephonyRcsService = new TelephonyRcsService(this,
-                        PhoneFactory.getPhones().length);
-                mTelephonyRcsService.initialize();
-                imsRcsController.setRcsService(mTelephonyRcsService);
-                mImsProvisioningController =
-                        ImsProvisioningController.make(this, PhoneFactory.getPhones().length);
+            startup.addStage("debug-service", StartupOrchestrator.RUN_IN_BACKGROUND,
+                    () -> startService(new Intent(this, TelephonyDebugService.class)), "phones");
+
+            startup.addStage("call-manager", StartupOrchestrator.RUN_ON_MAIN, () -> {
+                mCM = CallManager.getInstance();
+
+                // Create the NotificationMgr singleton, which is used to display
+                // status bar icons and control other status bar behavior.
+                notificationMgr = NotificationMgr.init(this);
+
+                // Create an instance of CdmaPhoneCallState and initialize it to IDLE
+                cdmaPhoneCallState = new CdmaPhoneCallState();
+                cdmaPhoneCallState.CdmaPhoneCallStateInit();
+
+                // before registering for phone state changes
+                mPowerManager = (PowerManager) getSystemService(Context.POWER_SERVICE);
+                mWakeLock = mPowerManager.newWakeLock(PowerManager.FULL_WAKE_LOCK, LOG_TAG);
+                // lock used to keep the processor awake, when we don't care for the display.
+                mPartialWakeLock = mPowerManager.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK
+                        | PowerManager.ON_AFTER_RELEASE, LOG_TAG);
+
+                mKeyguardManager = (KeyguardManager) getSystemService(Context.KEYGUARD_SERVICE);
+            }, "phones");
+
+            startup.addStage("phone-interface-manager", StartupOrchestrator.RUN_ON_MAIN,
+                    () -> phoneMgr = PhoneInterfaceManager.init(this), "call-manager");
+
+            startup.addStage("ims-rcs-controller", StartupOrchestrator.RUN_ON_MAIN,
+                    () -> imsRcsController = ImsRcsController.init(this), "phones");
+
+            if (hasImsFeature) {
+                startup.addStage("ims-state-callback", StartupOrchestrator.RUN_ON_MAIN,
+                        () -> mImsStateCallbackController = ImsStateCallbackController.make(this,
+                                PhoneFactory.getPhones().length), "ims-resolver");
+                startup.addStage("rcs-service", StartupOrchestrator.RUN_ON_MAIN, () -> {
+                    mTelephonyRcsService = new TelephonyRcsService(this,
+                            PhoneFactory.getPhones().length);
+                    mTelephonyRcsService.initialize();
+                    imsRcsController.setRcsService(mTelephonyRcsService);
+                }, "ims-rcs-controller", "ims-state-callback", "rcs-provisioning-monitor");
+                startup.addStage("ims-provisioning", StartupOrchestrator.RUN_ON_MAIN,
+                        () -> mImsProvisioningController = ImsProvisioningController.make(this,
+                                PhoneFactory.getPhones().length), "ims-resolver");
             }
 
-            configLoader = CarrierConfigLoader.init(this);
+            startup.addStage("carrier-config-loader", StartupOrchestrator.RUN_ON_MAIN,
+                    () -> configLoader = CarrierConfigLoader.init(this), "phones");
 
             // Create the CallNotifier singleton, which handles
             // asynchronous events from the telephony layer (like
             // launching the incoming-call UI when an incoming call comes
             // in.)
-            notifier = CallNotifier.init(this);
-
-            PhoneUtils.registerIccStatus(mHandler, EVENT_SIM_NETWORK_LOCKED);
-
-            // register for MMI/USSD
-            mCM.registerForMmiComplete(mHandler, MMI_COMPLETE, null);
-
-            // Initialize cell status using current airplane mode.
-            handleAirplaneModeChange(
-                    Settings.Global.getInt(
-                                    getContentResolver(),
-                                    Settings.Global.AIRPLANE_MODE_ON,
-                                    AIRPLANE_OFF)
-                            == AIRPLANE_ON);
-
-            // Register for misc other intent broadcasts.
-            IntentFilter intentFilter =
-                    new IntentFilter(Intent.ACTION_AIRPLANE_MODE_CHANGED);
-            intentFilter.addAction(TelephonyIntents.ACTION_SIM_STATE_CHANGED);
-            intentFilter.addAction(TelephonyIntents.ACTION_RADIO_TECHNOLOGY_CHANGED);
-            intentFilter.addAction(TelephonyIntents.ACTION_EMERGENCY_CALLBACK_MODE_CHANGED);
-            intentFilter.addAction(TelephonyIntents.ACTION_DEFAULT_DATA_SUBSCRIPTION_CHANGED);
-            intentFilter.addAction(CarrierConfigManager.ACTION_CARRIER_CONFIG_CHANGED);
-            registerReceiver(mReceiver, intentFilter);
-
-            PhoneConfigurationManager.registerForMultiSimConfigChange(
-                    mHandler, EVENT_MULTI_SIM_CONFIG_CHANGED, null);
-
-            mTelephonyCallbacks = new PhoneAppCallback[tm.getSupportedModemCount()];
-            if (tm.getSupportedModemCount() > 0) {
-                for (Phone phone : PhoneFactory.getPhones()) {
-                    int subId = phone.getSubId();
-                    PhoneAppCallback callback = new PhoneAppCallback(subId);
-                    tm.createForSubscriptionId(subId).registerTelephonyCallback(
-                            TelephonyManager.INCLUDE_LOCATION_DATA_NONE, mHandler::post, callback);
-                    mTelephonyCallbacks[phone.getPhoneId()] = callback;
-                }
-            }
-            mCarrierVvmPackageInstalledReceiver.register(this);
-
-            //set the default values for the preferences in the phone.
-            PreferenceManager.setDefaultValues(this, R.xml.call_feature_setting, false);
+            startup.addStage("call-notifier", StartupOrchestrator.RUN_ON_MAIN,
+                    () -> notifier = CallNotifier.init(this), "call-manager",
+                    "carrier-config-loader");
+
+            startup.addStage("phone-listeners", StartupOrchestrator.RUN_ON_MAIN,
+                    () -> registerPhoneListeners(tm), "call-manager", "call-notifier");
+
+            // Visual voicemail and the default values of the call settings are not needed to
+            // place or receive a call, do not hold up the startup for them.
+            startup.addStage("vvm-package-receiver", StartupOrchestrator.RUN_DEFERRED,
+                    () -> {
+                        mCarrierVvmPackageInstalledReceiver.register(this);
+                        VisualVoicemailSmsFilterConfig.registerActivePackageReceiver(this);
+                    }, "phones");
+            startup.addStage("call-setting-defaults", StartupOrchestrator.RUN_IN_BACKGROUND,
+                    () -> PreferenceManager.setDefaultValues(this, R.xml.call_feature_setting,
+                            false));
         }
 
         // XXX pre-load the SimProvider so that it's ready
-        resolver.getType(Uri.parse("content://icc/adn"));
+        startup.addStage("sim-provider-preload", StartupOrchestrator.RUN_IN_BACKGROUND,
+                () -> resolver.getType(Uri.parse("content://icc/adn")));
 
         // TODO: Register for Cdma Information Records
         // phone.registerCdmaInformationRecord(mHandler, EVENT_UNSOL_CDMA_INFO_RECORD, null);
 
         // Read HAC settings and configure audio hardware
         if (getResources().getBoolean(R.bool.hac_enabled)) {
-            int hac = android.provider.Settings.System.getInt(
-                    getContentResolver(),
-                    android.provider.Settings.System.HEARING_AID,
-                    0);
-            AudioManager audioManager = (AudioManager) getSystemService(Context.AUDIO_SERVICE);
-            audioManager.setParameters(
-                    SettingsConstants.HAC_KEY + "=" + (hac == SettingsConstants.HAC_ENABLED
-                            ? SettingsConstants.HAC_VAL_ON : SettingsConstants.HAC_VAL_OFF));
+            startup.addStage("hac-audio", StartupOrchestrator.RUN_IN_BACKGROUND, () -> {
+                int hac = android.provider.Settings.System.getInt(
+                        getContentResolver(),
+                        android.provider.Settings.System.HEARING_AID,
+                        0);
+                AudioManager audioManager = (AudioManager) getSystemService(Context.AUDIO_SERVICE);
+                audioManager.setParameters(
+                        SettingsConstants.HAC_KEY + "=" + (hac == SettingsConstants.HAC_ENABLED
+                                ? SettingsConstants.HAC_VAL_ON : SettingsConstants.HAC_VAL_OFF));
+            });
         }
 
         // Start tracking Binder latency for the phone process.
-        mBinderCallsSettingsObserver = new BinderCallsStats.SettingsObserver(
-            getApplicationContext(),
-            new BinderCallsStats(
-                    new BinderCallsStats.Injector(),
-                    com.android.internal.os.BinderLatencyProto.Dims.TELEPHONY));
+        startup.addStage("binder-calls-stats", StartupOrchestrator.RUN_DEFERRED,
+                () -> mBinderCallsSettingsObserver = new BinderCallsStats.SettingsObserver(
+                        getApplicationContext(),
+                        new BinderCallsStats(
+                                new BinderCallsStats.Injector(),
+                                com.android.internal.os.BinderLatencyProto.Dims.TELEPHONY)));
+
+        mStartup = startup;
+        startup.start();
+    }
+
+    private void initImsResolver() {
+        // Get the package name of the default IMS implementation.
+        String defaultImsMmtelPackage = getResources().getString(
+                R.string.config_ims_mmtel_package);
+        String defaultImsRcsPackage = getResources().getString(
+                R.string.config_ims_rcs_package);
+        ImsResolver.make(this, defaultImsMmtelPackage,
+                defaultImsRcsPackage, PhoneFactory.getPhones().length,
+                new ImsFeatureBinderRepository());
+        ImsResolver.getInstance().initialize();
+
+        // With the IMS phone created, load static config.xml values from the phone process
+        // so that it can be provided to the ImsPhoneCallTracker.
+        for (Phone p : PhoneFactory.getPhones()) {
+            Phone imsPhone = p.getImsPhone();
+            if (imsPhone != null && imsPhone instanceof ImsPhone) {
+                ImsPhone theImsPhone = (ImsPhone) imsPhone;
+                if (theImsPhone.getCallTracker() instanceof ImsPhoneCallTracker) {
+                    ImsPhoneCallTracker ict = (ImsPhoneCallTracker)
+                            theImsPhone.getCallTracker();
+
+                    ImsPhoneCallTracker.Config config = new ImsPhoneCallTracker.Config();
+                    config.isD2DCommunicationSupported = getResources().getBoolean(
+                            R.bool.config_use_device_to_device_communication);
+                    ict.setConfig(config);
+                }
+            }
+        }
+    }
+
+    private void registerPhoneListeners(TelephonyManager tm) {
+        PhoneUtils.registerIccStatus(mHandler, EVENT_SIM_NETWORK_LOCKED);
+
+        // register for MMI/USSD
+        mCM.registerForMmiComplete(mHandler, MMI_COMPLETE, null);
+
+        // Initialize cell status using current airplane mode.
+        handleAirplaneModeChange(
+                Settings.Global.getInt(
+                                getContentResolver(),
+                                Settings.Global.AIRPLANE_MODE_ON,
+                                AIRPLANE_OFF)
+                        == AIRPLANE_ON);
+
+        // Register for misc other intent broadcasts.
+        IntentFilter intentFilter =
+                new IntentFilter(Intent.ACTION_AIRPLANE_MODE_CHANGED);
+        intentFilter.addAction(TelephonyIntents.ACTION_SIM_STATE_CHANGED);
+        intentFilter.addAction(TelephonyIntents.ACTION_RADIO_TECHNOLOGY_CHANGED);
+        intentFilter.addAction(TelephonyIntents.ACTION_EMERGENCY_CALLBACK_MODE_CHANGED);
+        intentFilter.addAction(TelephonyIntents.ACTION_DEFAULT_DATA_SUBSCRIPTION_CHANGED);
+        intentFilter.addAction(CarrierConfigManager.ACTION_CARRIER_CONFIG_CHANGED);
+        registerReceiver(mReceiver, intentFilter);
+
+        PhoneConfigurationManager.registerForMultiSimConfigChange(
+                mHandler, EVENT_MULTI_SIM_CONFIG_CHANGED, null);
+
+        mTelephonyCallbacks = new PhoneAppCallback[tm.getSupportedModemCount()];
+        if (tm.getSupportedModemCount() > 0) {
+            for (Phone phone : PhoneFactory.getPhones()) {
+                int subId = phone.getSubId();
+                PhoneAppCallback callback = new PhoneAppCallback(subId);
+                tm.createForSubscriptionId(subId).registerTelephonyCallback(
+                        TelephonyManager.INCLUDE_LOCATION_DATA_NONE, mHandler::post, callback);
+                mTelephonyCallbacks[phone.getPhoneId()] = callback;
+            }
+        }
     }
 
     /**
@@ -1044,6 +1099,8 @@ public class PhoneGlobals extends ContextWrapper {
         pw.increaseIndent();
         mDataRoamingNotifLog.dump(fd, pw, args);
         pw.decreaseIndent();
+        if (mStartup != null) mStartup.dump(pw);
+        if (notificationMgr != null) notificationMgr.dump(pw);
         pw.println("ImsResolver:");
         pw.increaseIndent();
         try {
@@ -1064,6 +1121,14 @@ public class PhoneGlobals extends ContextWrapper {
         } catch (Exception e) {
             e.printStackTrace();
         }
+        try {
+            TelecomAccountRegistry telecomAccountRegistry =
+                    TelecomAccountRegistry.getInstance(null);
+            if (telecomAccountRegistry != null) telecomAccountRegistry.dump(pw);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        CallEventDispatchStats.getInstance().dump(pw);
         pw.decreaseIndent();
         pw.println("------- End PhoneGlobals -------");
     }
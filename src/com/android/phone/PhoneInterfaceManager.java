@@ -6198,7 +6198,7 @@ public class PhoneInterfaceManager extends ITelephony.Stub {
 
             if (DBG) log("getCallWaitingStatus: subId " + subId);
             if (requireUssd) {
-                CarrierXmlParser carrierXmlParser = new CarrierXmlParser(phone.getContext(),
+                CarrierXmlParser carrierXmlParser = CarrierXmlParser.getInstance(phone.getContext(),
                         getSubscriptionCarrierId(subId));
                 String newUssdCommand = "";
                 try {
@@ -6252,7 +6252,7 @@ public class PhoneInterfaceManager extends ITelephony.Stub {
 
             if (DBG) log("getCallWaitingStatus: subId " + subId);
             if (requireUssd) {
-                CarrierXmlParser carrierXmlParser = new CarrierXmlParser(phone.getContext(),
+                CarrierXmlParser carrierXmlParser = CarrierXmlParser.getInstance(phone.getContext(),
                         getSubscriptionCarrierId(subId));
                 CarrierXmlParser.SsEntry.SSAction ssAction =
                         enable ? CarrierXmlParser.SsEntry.SSAction.UPDATE_ACTIVATE
@@ -57,6 +57,8 @@ import com.android.internal.telephony.util.HandlerExecutor;
 import com.android.internal.util.CollectionUtils;
 import com.android.telephony.Rlog;
 
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Iterator;
@@ -211,10 +213,36 @@ public class RcsProvisioningMonitor {
         }
     }
 
+    /**
+     * A single stored copy of an RCS config, kept in the form it was received in.  Compressed
+     * configs are only decompressed when the content is needed.
+     */
+    private static final class RcsConfigData {
+        final byte[] mBytes;
+        final boolean mIsCompressed;
+        /** Digest of the decompressed content. */
+        final byte[] mContentDigest;
+
+        RcsConfigData(byte[] bytes, boolean isCompressed, byte[] contentDigest) {
+            mBytes = bytes;
+            mIsCompressed = isCompressed;
+            mContentDigest = contentDigest;
+        }
+
+        byte[] decode() {
+            return mIsCompressed ? RcsConfig.decompressGzip(mBytes) : mBytes;
+        }
+    }
+
     private final class RcsProvisioningInfo {
         private int mSubId;
         private volatile int mSingleRegistrationCapability;
-        private volatile byte[] mConfig;
+        private volatile RcsConfigData mConfig;
+        /**
+         * Digest of the bytes of the last received config as they were received, used to skip
+         * decompressing a config which was received before.
+         */
+        private byte[] mReceivedDigest;
         private ArraySet<IRcsConfigCallback> mRcsConfigCallbacks;
         private IImsConfig mIImsConfig;
         private boolean mHasReconfigRequest;
@@ -222,7 +250,7 @@ public class RcsProvisioningMonitor {
         RcsProvisioningInfo(int subId, int singleRegistrationCapability, byte[] config) {
             mSubId = subId;
             mSingleRegistrationCapability = singleRegistrationCapability;
-            mConfig = config;
+            mConfig = config == null ? null : new RcsConfigData(config, false, digest(config));
             mRcsConfigCallbacks = new ArraySet<>();
             registerRcsFeatureListener(this);
         }
@@ -255,18 +283,64 @@ public class RcsProvisioningMonitor {
             return mSingleRegistrationCapability;
         }
 
-        void setConfig(byte[] config) {
-            if (!Arrays.equals(mConfig, config)) {
-                mConfig = config;
-                if (mConfig != null) {
-                    notifyRcsAutoConfigurationReceived();
-                } else {
-                    notifyRcsAutoConfigurationRemoved();
-                }
+        /**
+         * Replaces the config, notifying the ImsService if its content changed.  A config whose
+         * bytes equal the last received ones is neither decompressed nor compared again.
+         *
+         * @return {@code true} if the content of the config changed.
+         */
+        boolean setConfig(byte[] config, boolean isCompressed) {
+            if (config == null) {
+                return clearConfig();
+            }
+
+            byte[] receivedDigest = digest(config);
+            if (mConfig != null && Arrays.equals(receivedDigest, mReceivedDigest)) {
+                logv("setConfig: received config unchanged for sub:" + mSubId);
+                return false;
+            }
+            byte[] decoded = isCompressed ? RcsConfig.decompressGzip(config) : config;
+            if (decoded == null) {
+                return clearConfig();
+            }
+            byte[] contentDigest = isCompressed ? digest(decoded) : receivedDigest;
+            mReceivedDigest = receivedDigest;
+            if (mConfig != null && Arrays.equals(contentDigest, mConfig.mContentDigest)) {
+                logv("setConfig: config content unchanged for sub:" + mSubId);
+                return false;
+            }
+
+            mConfig = new RcsConfigData(config, isCompressed, contentDigest);
+            notifyRcsAutoConfigurationReceived(decoded);
+            return true;
+        }
+
+        /** Restores a config obtained from {@link #getConfigData()}. */
+        void setConfigData(RcsConfigData config) {
+            if (config == null) {
+                clearConfig();
+            } else {
+                setConfig(config.mBytes, config.mIsCompressed);
             }
         }
 
+        private boolean clearConfig() {
+            mReceivedDigest = null;
+            if (mConfig == null) {
+                return false;
+            }
+            mConfig = null;
+            notifyRcsAutoConfigurationRemoved();
+            return true;
+        }
+
+        /** @return The decompressed config, decoded on every call. */
         byte[] getConfig() {
+            RcsConfigData config = mConfig;
+            return config == null ? null : config.decode();
+        }
+
+        RcsConfigData getConfigData() {
             return mConfig;
         }
 
@@ -336,7 +410,7 @@ public class RcsProvisioningMonitor {
         }
 
         void clear() {
-            setConfig(null);
+            clearConfig();
             clearCallbacks();
         }
 
@@ -361,15 +435,23 @@ public class RcsProvisioningMonitor {
         }
 
         private void notifyRcsAutoConfigurationReceived() {
-            if (mConfig == null) {
+            RcsConfigData config = mConfig;
+            if (config == null) {
                 logd("Rcs config is null for sub : " + mSubId);
                 return;
             }
+            if (mIImsConfig == null) {
+                logd("notifyRcsAutoConfigurationReceived failed due to IImsConfig null.");
+                return;
+            }
+            notifyRcsAutoConfigurationReceived(config.decode());
+        }
 
+        private void notifyRcsAutoConfigurationReceived(byte[] decodedConfig) {
             if (mIImsConfig != null) {
                 try {
                     logv("notifyRcsAutoConfigurationReceived for sub:" + mSubId);
-                    mIImsConfig.notifyRcsAutoConfigurationReceived(mConfig, false);
+                    mIImsConfig.notifyRcsAutoConfigurationReceived(decodedConfig, false);
                 } catch (RemoteException e) {
                     loge("notifyRcsAutoConfigurationReceived failed due to " + e);
                 }
@@ -722,7 +804,7 @@ public class RcsProvisioningMonitor {
             mRcsProvisioningInfos.forEach((k, v) -> {
                 v.notifyDma();
 
-                byte[] cachedConfig = v.getConfig();
+                RcsConfigData cachedConfig = v.getConfigData();
                 //clear old callbacks
                 v.clear();
                 if (isAcsUsed(k)) {
@@ -731,7 +813,7 @@ public class RcsProvisioningMonitor {
                     v.triggerRcsReconfiguration();
                 } else {
                     logv("acs not used, set cached config and notify.");
-                    v.setConfig(cachedConfig);
+                    v.setConfigData(cachedConfig);
                 }
 
                 // store RCS metrics - DMA changed event
@@ -813,7 +895,8 @@ public class RcsProvisioningMonitor {
                 byte[] data = loadConfigForSub(i);
                 int capability = getSingleRegistrationCapableValue(i);
                 logv("new info is created for sub : " + i + ", single registration capability :"
-                        + capability + ", rcs config : " + Arrays.toString(data));
+                        + capability + ", rcs config length : "
+                        + (data == null ? 0 : data.length));
                 mRcsProvisioningInfos.put(i, new RcsProvisioningInfo(i, capability, data));
             }
         }
@@ -834,8 +917,10 @@ public class RcsProvisioningMonitor {
             logd("sub[" + subId + "] has been removed");
             return;
         }
-        info.setConfig(isCompressed ? RcsConfig.decompressGzip(config) : config);
-        updateConfigForSub(subId, config, isCompressed);
+        // The stored config only needs to be rewritten if its content changed.
+        if (info.setConfig(config, isCompressed)) {
+            updateConfigForSub(subId, config, isCompressed);
+        }
 
         // Supporting ACS means config data comes from ACS
         // store RCS metrics - received provisioning event
@@ -850,7 +935,7 @@ public class RcsProvisioningMonitor {
         logv("onReconfigRequest, subId:" + subId);
         RcsProvisioningInfo info = mRcsProvisioningInfos.get(subId);
         if (info != null) {
-            info.setConfig(null);
+            info.clearConfig();
             // clear rcs config stored in db
             updateConfigForSub(subId, null, true);
             info.triggerRcsReconfiguration();
@@ -903,6 +988,16 @@ public class RcsProvisioningMonitor {
         }
     }
 
+    /** @return The SHA-256 digest of the given bytes. */
+    private static byte[] digest(byte[] data) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(data);
+        } catch (NoSuchAlgorithmException e) {
+            // Every Android platform provides SHA-256.
+            throw new IllegalStateException(e);
+        }
+    }
+
     private static boolean booleanEquals(Boolean val1, Boolean val2) {
         return (val1 == null && val2 == null)
                 || (Boolean.TRUE.equals(val1) && Boolean.TRUE.equals(val2))
@@ -0,0 +1,251 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.phone;
+
+import android.accounts.Account;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.OperationApplicationException;
+import android.database.Cursor;
+import android.os.RemoteException;
+import android.os.SystemClock;
+import android.provider.ContactsContract;
+import android.provider.ContactsContract.CommonDataKinds.Email;
+import android.provider.ContactsContract.CommonDataKinds.Phone;
+import android.provider.ContactsContract.CommonDataKinds.StructuredName;
+import android.provider.ContactsContract.Data;
+import android.provider.ContactsContract.RawContacts;
+import android.telephony.PhoneNumberUtils;
+import android.text.TextUtils;
+import android.util.Log;
+
+import com.android.internal.annotations.VisibleForTesting;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.function.BooleanSupplier;
+import java.util.function.IntConsumer;
+
+/**
+ * Imports the rows of an ADN cursor, as queried by {@link ADNList}, into the contacts provider.
+ * <p>
+ * Importing all rows inserts many contacts with each {@link ContentResolver#applyBatch} call
+ * instead of one contact per call, and skips the rows whose number is already stored in a
+ * contact.
+ */
+class SimContactsImporter {
+    private static final String LOG_TAG = "SimContactsImporter";
+
+    // A batch is applied once it holds this many operations. Each batch is one transaction of the
+    // provider, which is not yielded within the batch, so other writers only wait for one chunk.
+    @VisibleForTesting
+    static final int MAX_OPERATIONS_PER_BATCH = 400;
+
+    private static final ContentValues sEmptyContentValues = new ContentValues();
+
+    private static class NamePhoneTypePair {
+        final String name;
+        final int phoneType;
+        public NamePhoneTypePair(String nameWithPhoneType) {
+            // Look for /W /H /M or /O at the end of the name signifying the type
+            int nameLen = nameWithPhoneType.length();
+            if (nameLen - 2 >= 0 && nameWithPhoneType.charAt(nameLen - 2) == '/') {
+                char c = Character.toUpperCase(nameWithPhoneType.charAt(nameLen - 1));
+                if (c == 'W') {
+                    phoneType = Phone.TYPE_WORK;
+                } else if (c == 'M' || c == 'O') {
+                    phoneType = Phone.TYPE_MOBILE;
+                } else if (c == 'H') {
+                    phoneType = Phone.TYPE_HOME;
+                } else {
+                    phoneType = Phone.TYPE_OTHER;
+                }
+                name = nameWithPhoneType.substring(0, nameLen - 2);
+            } else {
+                phoneType = Phone.TYPE_OTHER;
+                name = nameWithPhoneType;
+            }
+        }
+    }
+
+    private final ContentResolver mResolver;
+    private final Account mAccount;
+
+    /**
+     * @param resolver The resolver of the contacts provider.
+     * @param account The account to add the contacts to, or {@code null} for the default one.
+     */
+    SimContactsImporter(ContentResolver resolver, Account account) {
+        mResolver = resolver;
+        mAccount = account;
+    }
+
+    /**
+     * Import the row the cursor is positioned at, even if its number is already stored.
+     * @return {@code true} if the contact was imported.
+     */
+    boolean importOne(Cursor cursor) {
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        addInsertOperations(operations, cursor, mAccount);
+        return applyBatch(operations);
+    }
+
+    /**
+     * Import all rows of the cursor, skipping the rows whose number is already stored in a
+     * contact or was imported from an earlier row. Must not be called on the main thread.
+     * @param cursor The ADN rows.
+     * @param canceled Checked before every row. Once it returns {@code true} no further batch is
+     *         applied, the rows of the batch being built are not imported.
+     * @param progress Receives the number of rows processed after each batch is applied.
+     * @return The number of contacts imported.
+     */
+    int importAll(Cursor cursor, BooleanSupplier canceled, IntConsumer progress) {
+        long startMs = SystemClock.elapsedRealtime();
+        Set<String> numbers = queryExistingNumbers();
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        int processed = 0;
+        int pending = 0;
+        int imported = 0;
+        int skipped = 0;
+        int batches = 0;
+
+        cursor.moveToPosition(-1);
+        while (cursor.moveToNext()) {
+            if (canceled.getAsBoolean()) {
+                Log.i(LOG_TAG, "importAll: canceled, dropping " + pending + " contacts");
+                return imported;
+            }
+            String number = normalizeNumber(cursor.getString(ADNList.NUMBER_COLUMN));
+            if (number != null && !numbers.add(number)) {
+                skipped++;
+            } else {
+                addInsertOperations(operations, cursor, mAccount);
+                pending++;
+            }
+            processed++;
+
+            if (operations.size() >= MAX_OPERATIONS_PER_BATCH) {
+                if (applyBatch(operations)) imported += pending;
+                batches++;
+                operations.clear();
+                pending = 0;
+                progress.accept(processed);
+            }
+        }
+        if (!operations.isEmpty()) {
+            if (applyBatch(operations)) imported += pending;
+            batches++;
+        }
+        progress.accept(processed);
+
+        Log.i(LOG_TAG, "importAll: imported " + imported + " of " + processed + " rows, skipped "
+                + skipped + " duplicates, " + batches + " batches in "
+                + (SystemClock.elapsedRealtime() - startMs) + "ms");
+        return imported;
+    }
+
+    private Set<String> queryExistingNumbers() {
+        Set<String> numbers = new HashSet<>();
+        try (Cursor c = mResolver.query(Phone.CONTENT_URI, new String[] {Phone.NUMBER},
+                null, null, null)) {
+            if (c != null) {
+                while (c.moveToNext()) {
+                    String number = normalizeNumber(c.getString(0));
+                    if (number != null) numbers.add(number);
+                }
+            }
+        } catch (RuntimeException e) {
+            // Importing duplicates is better than importing nothing.
+            Log.e(LOG_TAG, "queryExistingNumbers: " + e);
+        }
+        return numbers;
+    }
+
+    private static String normalizeNumber(String number) {
+        String normalized = PhoneNumberUtils.normalizeNumber(number);
+        return TextUtils.isEmpty(normalized) ? null : normalized;
+    }
+
+    /**
+     * Add the operations inserting the contact of the row the cursor is positioned at. The
+     * operations only refer back to each other, so the contacts of many rows can be inserted
+     * with one batch.
+     */
+    private static void addInsertOperations(ArrayList<ContentProviderOperation> operations,
+            Cursor cursor, Account account) {
+        final NamePhoneTypePair namePhoneTypePair =
+            new NamePhoneTypePair(cursor.getString(ADNList.NAME_COLUMN));
+        final String name = namePhoneTypePair.name;
+        final int phoneType = namePhoneTypePair.phoneType;
+        final String phoneNumber = cursor.getString(ADNList.NUMBER_COLUMN);
+        final String emailAddresses = cursor.getString(ADNList.EMAILS_COLUMN);
+        final int rawContactIndex = operations.size();
+
+        ContentProviderOperation.Builder builder =
+            ContentProviderOperation.newInsert(RawContacts.CONTENT_URI);
+        if (account != null) {
+            builder.withValue(RawContacts.ACCOUNT_NAME, account.name);
+            builder.withValue(RawContacts.ACCOUNT_TYPE, account.type);
+        } else {
+            builder.withValues(sEmptyContentValues);
+        }
+        operations.add(builder.build());
+
+        builder = ContentProviderOperation.newInsert(Data.CONTENT_URI);
+        builder.withValueBackReference(StructuredName.RAW_CONTACT_ID, rawContactIndex);
+        builder.withValue(Data.MIMETYPE, StructuredName.CONTENT_ITEM_TYPE);
+        builder.withValue(StructuredName.DISPLAY_NAME, name);
+        operations.add(builder.build());
+
+        builder = ContentProviderOperation.newInsert(Data.CONTENT_URI);
+        builder.withValueBackReference(Phone.RAW_CONTACT_ID, rawContactIndex);
+        builder.withValue(Data.MIMETYPE, Phone.CONTENT_ITEM_TYPE);
+        builder.withValue(Phone.TYPE, phoneType);
+        builder.withValue(Phone.NUMBER, phoneNumber);
+        builder.withValue(Data.IS_PRIMARY, 1);
+        operations.add(builder.build());
+
+        if (!TextUtils.isEmpty(emailAddresses)) {
+            for (String emailAddress : emailAddresses.split(",")) {
+                builder = ContentProviderOperation.newInsert(Data.CONTENT_URI);
+                builder.withValueBackReference(Email.RAW_CONTACT_ID, rawContactIndex);
+                builder.withValue(Data.MIMETYPE, Email.CONTENT_ITEM_TYPE);
+                builder.withValue(Email.TYPE, Email.TYPE_MOBILE);
+                builder.withValue(Email.DATA, emailAddress);
+                operations.add(builder.build());
+            }
+        }
+    }
+
+    private boolean applyBatch(ArrayList<ContentProviderOperation> operations) {
+        try {
+            final ContentProviderResult[] results = mResolver.applyBatch(
+                    ContactsContract.AUTHORITY, operations);
+            // No operation allows a yield, so the batch is one transaction which either fully
+            // succeeds or fails without inserting any contact.
+            return results.length > 0;
+        } catch (RemoteException e) {
+            Log.e(LOG_TAG, String.format("%s: %s", e.toString(), e.getMessage()));
+        } catch (OperationApplicationException e) {
+            Log.e(LOG_TAG, String.format("%s: %s", e.toString(), e.getMessage()));
+        }
+        return false;
+    }
+}
@@ -30,6 +30,7 @@ import android.telephony.TelephonyManager;
 import android.util.Log;
 import android.view.WindowManager;
 
+import com.android.internal.annotations.VisibleForTesting;
 import com.android.internal.telephony.IccCardConstants;
 import com.android.internal.telephony.Phone;
 import com.android.internal.telephony.TelephonyCapabilities;
@@ -64,6 +65,20 @@ public class SpecialCharSequenceMgr {
     private static final String MMI_IMEI_DISPLAY = "*#06#";
     private static final String MMI_REGULATORY_INFO_DISPLAY = "*#07#";
 
+    // The kinds of special sequences, see classify().
+    @VisibleForTesting
+    static final int SEQUENCE_NONE = 0;
+    @VisibleForTesting
+    static final int SEQUENCE_IMEI_DISPLAY = 1;
+    @VisibleForTesting
+    static final int SEQUENCE_REGULATORY_INFO_DISPLAY = 2;
+    @VisibleForTesting
+    static final int SEQUENCE_PIN_ENTRY = 3;
+    @VisibleForTesting
+    static final int SEQUENCE_ADN_ENTRY = 4;
+    @VisibleForTesting
+    static final int SEQUENCE_SECRET_CODE = 5;
+
     /** This class is never instantiated. */
     private SpecialCharSequenceMgr() {
     }
@@ -74,7 +89,7 @@ public class SpecialCharSequenceMgr {
      * @param context input Context for the events we handle.
      * @param input the dial string to be examined.
      */
-    static boolean handleChars(Context context, String input) {
+    static boolean handleChars(Context context, CharSequence input) {
         return handleChars(context, input, null);
     }
 
@@ -101,21 +116,100 @@ public class SpecialCharSequenceMgr {
      * handled.
      */
     static boolean handleChars(Context context,
-                               String input,
+                               CharSequence input,
                                Activity pukInputActivity) {
+        // This runs for every key typed, only build the dial string for a special sequence.
+        int sequence = classify(input);
+        if (sequence == SEQUENCE_NONE) {
+            return false;
+        }
 
         //get rid of the separators so that the string gets parsed correctly
-        String dialString = PhoneNumberUtils.stripSeparators(input);
+        String dialString = PhoneNumberUtils.stripSeparators(input.toString());
+
+        switch (sequence) {
+            case SEQUENCE_IMEI_DISPLAY:
+                return handleIMEIDisplay(context, dialString);
+            case SEQUENCE_REGULATORY_INFO_DISPLAY:
+                return handleRegulatoryInfoDisplay(context, dialString);
+            case SEQUENCE_PIN_ENTRY:
+                return handlePinEntry(context, dialString, pukInputActivity);
+            case SEQUENCE_ADN_ENTRY:
+                return handleAdnEntry(context, dialString);
+            case SEQUENCE_SECRET_CODE:
+                return handleSecretCode(dialString);
+            default:
+                return false;
+        }
+    }
 
-        if (handleIMEIDisplay(context, dialString)
-            || handleRegulatoryInfoDisplay(context, dialString)
-            || handlePinEntry(context, dialString, pukInputActivity)
-            || handleAdnEntry(context, dialString)
-            || handleSecretCode(dialString)) {
-            return true;
+    /**
+     * Find which special sequence, if any, the input is once the separators are removed and the
+     * digits converted to ASCII, in a single pass over the input and without allocating.
+     * <p>
+     * The sequences can not overlap, so at most one handler needs to look at the input.
+     *
+     * @param input the dial string to be examined, which may contain separators.
+     * @return One of the SEQUENCE_ constants.
+     */
+    @VisibleForTesting
+    static int classify(CharSequence input) {
+        int length = 0;
+        // The first four and the last four characters without separators.
+        char first0 = 0, first1 = 0, first2 = 0, first3 = 0;
+        char last0 = 0, last1 = 0, last2 = 0, last3 = 0;
+        int nonDigits = 0;
+        for (int i = 0; i < input.length(); i++) {
+            char c = input.charAt(i);
+            // Like PhoneNumberUtils.stripSeparators, accept the digits of any script and
+            // match them as their ASCII value.
+            int digit = Character.digit(c, 10);
+            if (digit != -1) {
+                c = (char) ('0' + digit);
+            } else if (!PhoneNumberUtils.isNonSeparator(c)) {
+                continue;
+            }
+            switch (length) {
+                case 0: first0 = c; break;
+                case 1: first1 = c; break;
+                case 2: first2 = c; break;
+                case 3: first3 = c; break;
+                default: break;
+            }
+            last3 = last2;
+            last2 = last1;
+            last1 = last0;
+            last0 = c;
+            if (c < '0' || c > '9') {
+                nonDigits++;
+            }
+            length++;
+        }
+        if (length < 2 || (last0 != '#' && last0 != '*')) {
+            // Every special sequence ends with a # or a *.
+            return SEQUENCE_NONE;
         }
 
-        return false;
+        if (length == 5 && first0 == '*' && first1 == '#' && first2 == '0' && last0 == '#') {
+            if (first3 == '6') return SEQUENCE_IMEI_DISPLAY;
+            if (first3 == '7') return SEQUENCE_REGULATORY_INFO_DISPLAY;
+        }
+        // PIN and PUK entry, **04...# and **05...#
+        if (length >= 5 && first0 == '*' && first1 == '*' && first2 == '0'
+                && (first3 == '4' || first3 == '5') && last0 == '#') {
+            return SEQUENCE_PIN_ENTRY;
+        }
+        // ADN entries are of the form "N(N)(N)#", the index may have a leading +.
+        if (length < 5 && last0 == '#'
+                && (nonDigits == 1 || (nonDigits == 2 && first0 == '+' && length > 2))) {
+            return SEQUENCE_ADN_ENTRY;
+        }
+        // Secret codes are in the form *#*#<code>#*#*
+        if (length > 8 && first0 == '*' && first1 == '#' && first2 == '*' && first3 == '#'
+                && last3 == '#' && last2 == '*' && last1 == '#' && last0 == '*') {
+            return SEQUENCE_SECRET_CODE;
+        }
+        return SEQUENCE_NONE;
     }
 
     /**
@@ -127,10 +221,13 @@ public class SpecialCharSequenceMgr {
      * the device.)
      */
     static boolean handleCharsForLockedDevice(Context context,
-                                              String input,
+                                              CharSequence input,
                                               Activity pukInputActivity) {
+        if (classify(input) != SEQUENCE_PIN_ENTRY) {
+            return false;
+        }
         // Get rid of the separators so that the string gets parsed correctly
-        String dialString = PhoneNumberUtils.stripSeparators(input);
+        String dialString = PhoneNumberUtils.stripSeparators(input.toString());
 
         // The only sequences available on a locked device are the "**04"
         // or "**05" sequences that allow you to enter PIN or PUK-related
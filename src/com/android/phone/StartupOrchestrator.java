@@ -0,0 +1,302 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.phone;
+
+import android.annotation.IntDef;
+import android.os.Handler;
+import android.util.Log;
+
+import com.android.internal.annotations.VisibleForTesting;
+import com.android.internal.util.IndentingPrintWriter;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.function.LongSupplier;
+
+/**
+ * Runs the stages of the phone process startup in an order that satisfies the dependencies
+ * declared between them and records how long each one took.
+ * <p>
+ * Stages which must complete before {@link PhoneGlobals#onCreate} returns run inline on the main
+ * thread, in the order they were added when their dependencies allow it. Stages that are not
+ * needed to place the first emergency call or receive the first incoming call are either
+ * deferred to the main thread after onCreate returns or, if they do not need a Looper and are
+ * safe to run concurrently, run on a small background pool as soon as their dependencies are
+ * done.
+ * <p>
+ * All bookkeeping of the dependencies is done on the main thread.
+ */
+public class StartupOrchestrator {
+    private static final String LOG_TAG = "StartupOrchestrator";
+
+    /** Run on the main thread before {@link #start()} returns. */
+    public static final int RUN_ON_MAIN = 0;
+    /** Run on the main thread after {@link #start()} has returned. */
+    public static final int RUN_DEFERRED = 1;
+    /** Run on the background pool. The stage must not require a Looper. */
+    public static final int RUN_IN_BACKGROUND = 2;
+
+    @Retention(RetentionPolicy.SOURCE)
+    @IntDef(prefix = {"RUN_"}, value = {RUN_ON_MAIN, RUN_DEFERRED, RUN_IN_BACKGROUND})
+    public @interface RunOn {}
+
+    private static final class Stage {
+        final String name;
+        final int index;
+        final @RunOn int runOn;
+        final Runnable action;
+        final List<String> dependencies;
+        final List<Stage> dependents = new ArrayList<>();
+        int remainingDependencies;
+        // Timestamps relative to the start of the orchestrator, -1 if not reached yet. Volatile
+        // since background stages write them and dumpsys reads them from a binder thread.
+        volatile long queuedMs = -1;
+        volatile long startMs = -1;
+        volatile long endMs = -1;
+        volatile String threadName;
+        volatile Throwable failure;
+
+        Stage(String name, int index, int runOn, Runnable action, List<String> dependencies) {
+            this.name = name;
+            this.index = index;
+            this.runOn = runOn;
+            this.action = action;
+            this.dependencies = dependencies;
+        }
+    }
+
+    private final Handler mMainHandler;
+    private final ExecutorService mBackgroundExecutor;
+    private final LongSupplier mClock;
+    private final Map<String, Stage> mStages = new LinkedHashMap<>();
+    private long mStartTimeMs = -1;
+    private volatile long mMainCompleteMs = -1;
+    private volatile long mAllCompleteMs = -1;
+    private int mRemainingStages;
+
+    /**
+     * @param mainHandler Handler of the main thread, deferred stages are posted to it.
+     * @param backgroundExecutor The pool background stages run on, shut down once all stages are
+     *         done.
+     * @param clock The clock used to time the stages.
+     */
+    public StartupOrchestrator(Handler mainHandler, ExecutorService backgroundExecutor,
+            LongSupplier clock) {
+        mMainHandler = mainHandler;
+        mBackgroundExecutor = backgroundExecutor;
+        mClock = clock;
+    }
+
+    /**
+     * Add a new stage.
+     * @param name The unique name of the stage.
+     * @param runOn Where the stage should run.
+     * @param action The work of the stage.
+     * @param dependsOn The names of the stages which must complete before this stage starts.
+     */
+    public void addStage(String name, @RunOn int runOn, Runnable action, String... dependsOn) {
+        if (mStartTimeMs >= 0) {
+            throw new IllegalStateException("stage " + name + " added after start");
+        }
+        if (mStages.containsKey(name)) {
+            throw new IllegalArgumentException("duplicate stage " + name);
+        }
+        mStages.put(name, new Stage(name, mStages.size(), runOn, action,
+                Arrays.asList(dependsOn)));
+    }
+
+    /**
+     * Resolve the dependencies, run all {@link #RUN_ON_MAIN} stages and dispatch the other stages
+     * once their dependencies are done. Must be called on the main thread.
+     * @throws IllegalStateException if a dependency is unknown, the dependencies contain a cycle
+     *         or a {@link #RUN_ON_MAIN} stage depends on a stage which does not run on main.
+     */
+    public void start() {
+        for (Stage s : mStages.values()) {
+            for (String d : s.dependencies) {
+                Stage dependency = mStages.get(d);
+                if (dependency == null) {
+                    throw new IllegalStateException(s.name + " depends on unknown stage " + d);
+                }
+                if (s.runOn == RUN_ON_MAIN && dependency.runOn != RUN_ON_MAIN) {
+                    throw new IllegalStateException(s.name + " must run during startup but "
+                            + "depends on " + d + ", which does not");
+                }
+                dependency.dependents.add(s);
+            }
+            s.remainingDependencies = s.dependencies.size();
+        }
+        verifyNoCycles();
+
+        mStartTimeMs = mClock.getAsLong();
+        mRemainingStages = mStages.size();
+        // Main stages run inline in the order they were added, as far as dependencies allow.
+        PriorityQueue<Stage> readyMainStages = new PriorityQueue<>(
+                (a, b) -> Integer.compare(a.index, b.index));
+        List<Stage> readyOtherStages = new ArrayList<>();
+        for (Stage s : mStages.values()) {
+            if (s.remainingDependencies == 0) {
+                (s.runOn == RUN_ON_MAIN ? readyMainStages : readyOtherStages).add(s);
+            }
+        }
+        while (!readyMainStages.isEmpty()) {
+            Stage s = readyMainStages.poll();
+            s.queuedMs = now();
+            runStage(s);
+            for (Stage dependent : releaseDependents(s)) {
+                (dependent.runOn == RUN_ON_MAIN ? readyMainStages : readyOtherStages)
+                        .add(dependent);
+            }
+        }
+        mMainCompleteMs = now();
+        Log.i(LOG_TAG, "start: main thread stages done in " + mMainCompleteMs + "ms");
+        for (Stage s : readyOtherStages) {
+            dispatch(s);
+        }
+        if (mRemainingStages == 0) onAllStagesComplete();
+    }
+
+    private void verifyNoCycles() {
+        int[] remaining = new int[mStages.size()];
+        ArrayList<Stage> ready = new ArrayList<>();
+        for (Stage s : mStages.values()) {
+            remaining[s.index] = s.dependencies.size();
+            if (remaining[s.index] == 0) ready.add(s);
+        }
+        int visited = 0;
+        while (!ready.isEmpty()) {
+            Stage s = ready.remove(ready.size() - 1);
+            visited++;
+            for (Stage dependent : s.dependents) {
+                if (--remaining[dependent.index] == 0) ready.add(dependent);
+            }
+        }
+        if (visited != mStages.size()) {
+            throw new IllegalStateException("startup stages contain a dependency cycle");
+        }
+    }
+
+    private void dispatch(Stage s) {
+        s.queuedMs = now();
+        if (s.runOn == RUN_IN_BACKGROUND) {
+            mBackgroundExecutor.execute(() -> {
+                try {
+                    runStage(s);
+                } catch (RuntimeException e) {
+                    // Background stages only warm up state, do not take the process down.
+                    Log.e(LOG_TAG, "stage " + s.name + " failed", e);
+                    s.failure = e;
+                    s.endMs = now();
+                }
+                mMainHandler.post(() -> onStageComplete(s));
+            });
+        } else {
+            mMainHandler.post(() -> {
+                runStage(s);
+                onStageComplete(s);
+            });
+        }
+    }
+
+    private void runStage(Stage s) {
+        s.threadName = Thread.currentThread().getName();
+        s.startMs = now();
+        s.action.run();
+        s.endMs = now();
+    }
+
+    private void onStageComplete(Stage s) {
+        for (Stage dependent : releaseDependents(s)) {
+            dispatch(dependent);
+        }
+        if (mRemainingStages == 0) onAllStagesComplete();
+    }
+
+    private List<Stage> releaseDependents(Stage s) {
+        mRemainingStages--;
+        List<Stage> ready = new ArrayList<>();
+        for (Stage dependent : s.dependents) {
+            if (--dependent.remainingDependencies == 0) ready.add(dependent);
+        }
+        return ready;
+    }
+
+    private void onAllStagesComplete() {
+        mAllCompleteMs = now();
+        mBackgroundExecutor.shutdown();
+        Log.i(LOG_TAG, "all stages done in " + mAllCompleteMs + "ms");
+    }
+
+    private long now() {
+        return mClock.getAsLong() - mStartTimeMs;
+    }
+
+    /** @return {@code true} once all stages, including deferred and background ones, are done. */
+    @VisibleForTesting
+    public boolean isComplete() {
+        return mAllCompleteMs >= 0;
+    }
+
+    /** @return The names of the stages in the order they started, for testing. */
+    @VisibleForTesting
+    public List<String> getStartOrder() {
+        List<Stage> started = new ArrayList<>();
+        for (Stage s : mStages.values()) {
+            if (s.startMs >= 0) started.add(s);
+        }
+        started.sort((a, b) -> a.startMs != b.startMs ? Long.compare(a.startMs, b.startMs)
+                : Long.compare(a.queuedMs, b.queuedMs));
+        List<String> names = new ArrayList<>(started.size());
+        for (Stage s : started) {
+            names.add(s.name);
+        }
+        return names;
+    }
+
+    /**
+     * Dump the startup timing report.
+     */
+    public void dump(IndentingPrintWriter pw) {
+        pw.println("Startup timing (ms since start):");
+        pw.increaseIndent();
+        pw.println("main stages done=" + mMainCompleteMs + ", all stages done=" + mAllCompleteMs);
+        for (Stage s : mStages.values()) {
+            pw.println(s.name + ": " + runOnToString(s.runOn)
+                    + ", queued=" + s.queuedMs + ", start=" + s.startMs + ", end=" + s.endMs
+                    + ", took=" + (s.endMs >= 0 ? s.endMs - s.startMs : -1)
+                    + ", thread=" + s.threadName
+                    + (s.failure != null ? ", failed=" + s.failure : ""));
+        }
+        pw.decreaseIndent();
+    }
+
+    private static String runOnToString(@RunOn int runOn) {
+        switch (runOn) {
+            case RUN_ON_MAIN: return "main";
+            case RUN_DEFERRED: return "deferred";
+            case RUN_IN_BACKGROUND: return "background";
+            default: return "unknown(" + runOn + ")";
+        }
+    }
+}
@@ -102,17 +102,21 @@ import androidx.appcompat.app.AppCompatActivity;
 import com.android.internal.telephony.Phone;
 import com.android.internal.telephony.PhoneFactory;
 import com.android.internal.telephony.euicc.EuiccConnector;
+import com.android.phone.EventRing;
 import com.android.phone.R;
 
+import java.io.FileDescriptor;
 import java.io.IOException;
+import java.io.PrintWriter;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.LinkedBlockingDeque;
-import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeoutException;
 
 /**
@@ -275,9 +279,20 @@ public class RadioInfo extends AppCompatActivity {
     private Spinner mSelectPhoneIndex;
     private Spinner mCellInfoRefreshRateSpinner;
 
-    private static final long RUNNABLE_TIMEOUT_MS = 5 * 60 * 1000L;
-
-    private ThreadPoolExecutor mQueuedWork;
+    // Lower bound of the polling interval when the "Immediate" refresh rate is selected.
+    private static final int MIN_POLL_INTERVAL_MS = 1000;
+    private static final int SAMPLE_RING_SIZE = 200;
+    // Upper bounds of the ping and HTTP client tests.
+    private static final int PING_DEADLINE_S = 5;
+    private static final int HTTP_TIMEOUT_MS = 10000;
+
+    // Runs the blocking calls and the periodic polling of the diagnostics, one at a time.
+    private ScheduledExecutorService mWorker;
+    // Runs the ping and HTTP client tests, which can take seconds and must not hold up mWorker.
+    private ExecutorService mNetworkTestWorker;
+    private ScheduledFuture<?> mPollFuture;
+    // Recent samples of the polled values, printed by "dumpsys activity RadioInfo".
+    private final EventRing mSamples = new EventRing(SAMPLE_RING_SIZE);
 
     private ConnectivityManager mConnectivityManager;
     private TelephonyManager mTelephonyManager;
@@ -394,7 +409,8 @@ public class RadioInfo extends AppCompatActivity {
             }
         }
         sb.append("}");
-        mPhyChanConfig.setText(sb.toString());
+        mSamples.log(EventRing.INFO, "physical channels=%s", configs != null ? configs.size() : 0);
+        setTextIfChanged(mPhyChanConfig, sb);
     }
 
     private void updatePreferredNetworkType(int type) {
@@ -481,8 +497,8 @@ public class RadioInfo extends AppCompatActivity {
 
         log("Started onCreate");
 
-        mQueuedWork = new ThreadPoolExecutor(1, 1, RUNNABLE_TIMEOUT_MS, TimeUnit.MICROSECONDS,
-                new LinkedBlockingDeque<Runnable>());
+        mWorker = Executors.newSingleThreadScheduledExecutor();
+        mNetworkTestWorker = Executors.newSingleThreadExecutor();
         mConnectivityManager = (ConnectivityManager) getSystemService(CONNECTIVITY_SERVICE);
         mPhone = getPhone(SubscriptionManager.getDefaultSubscriptionId());
         mTelephonyManager = ((TelephonyManager) getSystemService(TELEPHONY_SERVICE))
@@ -639,11 +655,11 @@ public class RadioInfo extends AppCompatActivity {
         mPreferredNetworkTypeResult = PREFERRED_NETWORK_LABELS.length - 1; //Unknown
         mSelectedPhoneIndex = mPhone.getPhoneId();
 
-        new Thread(() -> {
+        mWorker.execute(() -> {
             int networkType = (int) mTelephonyManager.getPreferredNetworkTypeBitmask();
             runOnUiThread(() -> updatePreferredNetworkType(
                     RadioAccessFamily.getNetworkTypeFromRaf(networkType)));
-        }).start();
+        });
 
         restoreFromBundle(icicle);
     }
@@ -696,11 +712,11 @@ public class RadioInfo extends AppCompatActivity {
         mPreferredNetworkType.setSelection(mPreferredNetworkTypeResult, true);
         mPreferredNetworkType.setOnItemSelectedListener(mPreferredNetworkHandler);
 
-        new Thread(() -> {
+        mWorker.execute(() -> {
             int networkType = (int) mTelephonyManager.getPreferredNetworkTypeBitmask();
             runOnUiThread(() -> updatePreferredNetworkType(
                     RadioAccessFamily.getNetworkTypeFromRaf(networkType)));
-        }).start();
+        });
 
         // set phone index
         mSelectPhoneIndex.setSelection(mSelectedPhoneIndex, true);
@@ -726,6 +742,8 @@ public class RadioInfo extends AppCompatActivity {
                 mDefaultNetworkRequest, mNetworkCallback, mHandler);
 
         mSmsc.clearFocus();
+
+        schedulePolling();
     }
 
     @Override
@@ -737,7 +755,60 @@ public class RadioInfo extends AppCompatActivity {
         mTelephonyManager.unregisterTelephonyCallback(mTelephonyCallback);
         mTelephonyManager.setCellInfoListRate(sCellInfoListRateDisabled);
         mConnectivityManager.unregisterNetworkCallback(mNetworkCallback);
+        cancelPolling();
+    }
 
+    /**
+     * Poll the cell info, signal strength and data stats on the worker at the selected refresh
+     * rate, in addition to the updates the callbacks deliver when the values change. Nothing is
+     * polled while the refresh rate is disabled.
+     */
+    private void schedulePolling() {
+        cancelPolling();
+        int rate = CELL_INFO_REFRESH_RATES[mCellInfoRefreshRateIndex];
+        if (rate == sCellInfoListRateDisabled) {
+            return;
+        }
+        final TelephonyManager tm = mTelephonyManager;
+        mPollFuture = mWorker.scheduleWithFixedDelay(() -> pollDiagnostics(tm), 0,
+                Math.max(rate, MIN_POLL_INTERVAL_MS), MILLISECONDS);
+    }
+
+    private void cancelPolling() {
+        if (mPollFuture != null) {
+            mPollFuture.cancel(false);
+            mPollFuture = null;
+        }
+    }
+
+    // Runs on mWorker, the results are rendered on the main thread.
+    private void pollDiagnostics(TelephonyManager tm) {
+        List<CellInfo> cellInfo;
+        SignalStrength signalStrength;
+        try {
+            cellInfo = tm.getAllCellInfo();
+            signalStrength = tm.getSignalStrength();
+        } catch (RuntimeException e) {
+            // An exception would cancel the periodic poll, skip this sample instead.
+            Log.e(TAG, "pollDiagnostics: exception", e);
+            return;
+        }
+        long txPackets = TrafficStats.getMobileTxPackets();
+        long rxPackets = TrafficStats.getMobileRxPackets();
+        long txBytes = TrafficStats.getMobileTxBytes();
+        long rxBytes = TrafficStats.getMobileRxBytes();
+        mHandler.post(() -> {
+            // The selected phone changed while polling, the next poll uses the new one.
+            if (tm != mTelephonyManager) {
+                return;
+            }
+            mCellInfoResult = cellInfo;
+            updateCellInfo(cellInfo);
+            if (signalStrength != null) {
+                updateSignalStrength(signalStrength);
+            }
+            updateDataStats(txPackets, rxPackets, txBytes, rxBytes);
+        });
     }
 
     private void restoreFromBundle(Bundle b) {
@@ -820,7 +891,15 @@ public class RadioInfo extends AppCompatActivity {
     @Override
     protected void onDestroy() {
         super.onDestroy();
-        mQueuedWork.shutdown();
+        mWorker.shutdownNow();
+        mNetworkTestWorker.shutdownNow();
+    }
+
+    @Override
+    public void dump(String prefix, FileDescriptor fd, PrintWriter writer, String[] args) {
+        super.dump(prefix, fd, writer, args);
+        writer.println(prefix + "Diagnostics samples:");
+        mSamples.dump(writer);
     }
 
     // returns array of string labels for each phone index. The array index is equal to the phone
@@ -902,12 +981,20 @@ public class RadioInfo extends AppCompatActivity {
 
         if (-1 == signalAsu) signalAsu = 0;
 
-        mDBm.setText(String.valueOf(signalDbm) + " "
+        mSamples.log(EventRing.INFO, "signal dbm=%s asu=%s", signalDbm, signalAsu);
+        setTextIfChanged(mDBm, String.valueOf(signalDbm) + " "
                 + r.getString(R.string.radioInfo_display_dbm) + "   "
                 + String.valueOf(signalAsu) + " "
                 + r.getString(R.string.radioInfo_display_asu));
     }
 
+    // Most updates repeat the values already shown, skip the relayout of the view for them.
+    private static void setTextIfChanged(TextView view, CharSequence text) {
+        if (!TextUtils.equals(view.getText(), text)) {
+            view.setText(text);
+        }
+    }
+
     private String getCellInfoDisplayString(int i) {
         return (i != Integer.MAX_VALUE) ? Integer.toString(i) : "";
     }
@@ -1021,7 +1108,7 @@ public class RadioInfo extends AppCompatActivity {
     }
 
     private String buildCellInfoString(List<CellInfo> arrayCi) {
-        String value = new String();
+        StringBuilder value = new StringBuilder();
         StringBuilder cdmaCells = new StringBuilder(),
                 gsmCells = new StringBuilder(),
                 lteCells = new StringBuilder(),
@@ -1044,51 +1131,59 @@ public class RadioInfo extends AppCompatActivity {
                 }
             }
             if (nrCells.length() != 0) {
-                value += String.format(
+                value.append(String.format(
                         "NR\n%-3.3s %-3.3s %-3.3s %-5.5s %-5.5s %-3.3s"
                                 + " %-6.6s %-4.4s %-4.4s\n",
                         "SRV", "MCC", "MNC", "TAC", "NCI", "PCI",
-                        "NRARFCN", "SS-RSRP", "SS-RSRQ");
-                value += nrCells.toString();
+                        "NRARFCN", "SS-RSRP", "SS-RSRQ"));
+                value.append(nrCells);
             }
 
             if (lteCells.length() != 0) {
-                value += String.format(
+                value.append(String.format(
                         "LTE\n%-3.3s %-3.3s %-3.3s %-5.5s %-5.5s %-3.3s"
                                 + " %-6.6s %-2.2s %-4.4s %-4.4s %-2.2s\n",
                         "SRV", "MCC", "MNC", "TAC", "CID", "PCI",
-                        "EARFCN", "BW", "RSRP", "RSRQ", "TA");
-                value += lteCells.toString();
+                        "EARFCN", "BW", "RSRP", "RSRQ", "TA"));
+                value.append(lteCells);
             }
             if (wcdmaCells.length() != 0) {
-                value += String.format(
+                value.append(String.format(
                         "WCDMA\n%-3.3s %-3.3s %-3.3s %-5.5s %-5.5s %-6.6s %-3.3s %-4.4s\n",
-                        "SRV", "MCC", "MNC", "LAC", "CID", "UARFCN", "PSC", "RSCP");
-                value += wcdmaCells.toString();
+                        "SRV", "MCC", "MNC", "LAC", "CID", "UARFCN", "PSC", "RSCP"));
+                value.append(wcdmaCells);
             }
             if (gsmCells.length() != 0) {
-                value += String.format(
+                value.append(String.format(
                         "GSM\n%-3.3s %-3.3s %-3.3s %-5.5s %-5.5s %-6.6s %-4.4s %-4.4s\n",
-                        "SRV", "MCC", "MNC", "LAC", "CID", "ARFCN", "BSIC", "RSSI");
-                value += gsmCells.toString();
+                        "SRV", "MCC", "MNC", "LAC", "CID", "ARFCN", "BSIC", "RSSI"));
+                value.append(gsmCells);
             }
             if (cdmaCells.length() != 0) {
-                value += String.format(
+                value.append(String.format(
                         "CDMA/EVDO\n%-3.3s %-5.5s %-5.5s %-5.5s"
                                 + " %-6.6s %-6.6s %-6.6s %-6.6s %-5.5s\n",
                         "SRV", "SID", "NID", "BSID",
-                        "C-RSSI", "C-ECIO", "E-RSSI", "E-ECIO", "E-SNR");
-                value += cdmaCells.toString();
+                        "C-RSSI", "C-ECIO", "E-RSSI", "E-ECIO", "E-SNR"));
+                value.append(cdmaCells);
             }
         } else {
-            value = "unknown";
+            value.append("unknown");
         }
 
         return value.toString();
     }
 
     private void updateCellInfo(List<CellInfo> arrayCi) {
-        mCellInfo.setText(buildCellInfoString(arrayCi));
+        if (arrayCi != null) {
+            int registered = 0;
+            for (CellInfo ci : arrayCi) {
+                if (ci.isRegistered()) registered++;
+            }
+            mSamples.log(EventRing.INFO, "cells total=%s registered=%s", arrayCi.size(),
+                    registered);
+        }
+        setTextIfChanged(mCellInfo, buildCellInfoString(arrayCi));
     }
 
     private void updateSubscriptionIds() {
@@ -1254,18 +1349,23 @@ public class RadioInfo extends AppCompatActivity {
     }
 
     private void updateDataStats2() {
-        Resources r = getResources();
-
         long txPackets = TrafficStats.getMobileTxPackets();
         long rxPackets = TrafficStats.getMobileRxPackets();
         long txBytes   = TrafficStats.getMobileTxBytes();
         long rxBytes   = TrafficStats.getMobileRxBytes();
 
+        updateDataStats(txPackets, rxPackets, txBytes, rxBytes);
+    }
+
+    private void updateDataStats(long txPackets, long rxPackets, long txBytes, long rxBytes) {
+        Resources r = getResources();
+
         String packets = r.getString(R.string.radioInfo_display_packets);
         String bytes   = r.getString(R.string.radioInfo_display_bytes);
 
-        mSent.setText(txPackets + " " + packets + ", " + txBytes + " " + bytes);
-        mReceived.setText(rxPackets + " " + packets + ", " + rxBytes + " " + bytes);
+        mSamples.log(EventRing.INFO, "data tx=%s rx=%s", txBytes, rxBytes);
+        setTextIfChanged(mSent, txPackets + " " + packets + ", " + txBytes + " " + bytes);
+        setTextIfChanged(mReceived, rxPackets + " " + packets + ", " + rxBytes + " " + bytes);
     }
 
     /**
@@ -1274,7 +1374,8 @@ public class RadioInfo extends AppCompatActivity {
     private void pingHostname() {
         try {
             try {
-                Process p4 = Runtime.getRuntime().exec("ping -c 1 www.google.com");
+                Process p4 = Runtime.getRuntime().exec("ping -c 1 -w " + PING_DEADLINE_S
+                        + " www.google.com");
                 int status4 = p4.waitFor();
                 if (status4 == 0) {
                     mPingHostnameResultV4 = "Pass";
@@ -1285,7 +1386,8 @@ public class RadioInfo extends AppCompatActivity {
                 mPingHostnameResultV4 = "Fail: IOException";
             }
             try {
-                Process p6 = Runtime.getRuntime().exec("ping6 -c 1 www.google.com");
+                Process p6 = Runtime.getRuntime().exec("ping6 -c 1 -w " + PING_DEADLINE_S
+                        + " www.google.com");
                 int status6 = p6.waitFor();
                 if (status6 == 0) {
                     mPingHostnameResultV6 = "Pass";
@@ -1309,6 +1411,8 @@ public class RadioInfo extends AppCompatActivity {
             // TODO: Hardcoded for now, make it UI configurable
             URL url = new URL("https://www.google.com");
             urlConnection = (HttpURLConnection) url.openConnection();
+            urlConnection.setConnectTimeout(HTTP_TIMEOUT_MS);
+            urlConnection.setReadTimeout(HTTP_TIMEOUT_MS);
             if (urlConnection.getResponseCode() == 200) {
                 mHttpClientTestResult = "Pass";
             } else {
@@ -1324,7 +1428,7 @@ public class RadioInfo extends AppCompatActivity {
     }
 
     private void refreshSmsc() {
-        mQueuedWork.execute(new Runnable() {
+        mWorker.execute(new Runnable() {
             public void run() {
                 //FIXME: Replace with a TelephonyManager call
                 mPhone.getSmscAddress(mHandler.obtainMessage(EVENT_QUERY_SMSC_DONE));
@@ -1336,20 +1440,14 @@ public class RadioInfo extends AppCompatActivity {
 
         mCellInfo.setText("");
 
-        final Runnable updateAllCellInfoResults = new Runnable() {
-            public void run() {
-                updateCellInfo(mCellInfoResult);
-            }
-        };
-
-        mQueuedWork.execute(new Runnable() {
-            @Override
-            public void run() {
-                mCellInfoResult = mTelephonyManager.getAllCellInfo();
-
-                mHandler.post(updateAllCellInfoResults);
-            }
-        });
+        if (CELL_INFO_REFRESH_RATES[mCellInfoRefreshRateIndex] == sCellInfoListRateDisabled) {
+            // Refresh once, even though nothing is polled at this rate.
+            cancelPolling();
+            final TelephonyManager tm = mTelephonyManager;
+            mWorker.execute(() -> pollDiagnostics(tm));
+        } else {
+            schedulePolling();
+        }
     }
 
     private void updatePingState() {
@@ -1370,23 +1468,12 @@ public class RadioInfo extends AppCompatActivity {
             }
         };
 
-        Thread hostname = new Thread() {
-            @Override
-            public void run() {
-                pingHostname();
-                mHandler.post(updatePingResults);
-            }
-        };
-        hostname.start();
-
-        Thread httpClient = new Thread() {
-            @Override
-            public void run() {
-                httpClientTest();
-                mHandler.post(updatePingResults);
-            }
-        };
-        httpClient.start();
+        mNetworkTestWorker.execute(() -> {
+            pingHostname();
+            mHandler.post(updatePingResults);
+            httpClientTest();
+            mHandler.post(updatePingResults);
+        });
     }
 
     private MenuItem.OnMenuItemClickListener mViewADNCallback =
@@ -1538,7 +1625,7 @@ public class RadioInfo extends AppCompatActivity {
 
     private void setImsConfigProvisionedState(int capability, int tech, boolean state) {
         if (mProvisioningManager != null) {
-            mQueuedWork.execute(new Runnable() {
+            mWorker.execute(new Runnable() {
                 public void run() {
                     try {
                         mProvisioningManager.setProvisioningStatusForCapability(
@@ -1553,7 +1640,7 @@ public class RadioInfo extends AppCompatActivity {
 
     private void setRcsConfigProvisionedState(int capability, int tech, boolean state) {
         if (mProvisioningManager != null) {
-            mQueuedWork.execute(new Runnable() {
+            mWorker.execute(new Runnable() {
                 public void run() {
                     try {
                         mProvisioningManager.setRcsProvisioningStatusForCapability(
@@ -1806,7 +1893,7 @@ public class RadioInfo extends AppCompatActivity {
     OnClickListener mUpdateSmscButtonHandler = new OnClickListener() {
         public void onClick(View v) {
             mUpdateSmscButton.setEnabled(false);
-            mQueuedWork.execute(new Runnable() {
+            mWorker.execute(new Runnable() {
                 public void run() {
                     mPhone.setSmscAddress(mSmsc.getText().toString(),
                             mHandler.obtainMessage(EVENT_UPDATE_SMSC_DONE));
@@ -1850,11 +1937,11 @@ public class RadioInfo extends AppCompatActivity {
             if (mPreferredNetworkTypeResult != pos && pos >= 0
                     && pos <= PREFERRED_NETWORK_LABELS.length - 2) {
                 mPreferredNetworkTypeResult = pos;
-                new Thread(() -> {
+                mWorker.execute(() -> {
                     mTelephonyManager.setAllowedNetworkTypesForReason(
                             TelephonyManager.ALLOWED_NETWORK_TYPES_REASON_USER,
                             RadioAccessFamily.getRafFromNetworkType(mPreferredNetworkTypeResult));
-                }).start();
+                });
             }
         }
 
@@ -1923,7 +2010,7 @@ public class RadioInfo extends AppCompatActivity {
     void updateCbrsDataState(boolean state) {
         Log.d(TAG, "setCbrsDataSwitchState() state:" + ((state) ? "on" : "off"));
         if (mTelephonyManager != null) {
-            mQueuedWork.execute(new Runnable() {
+            mWorker.execute(new Runnable() {
                 public void run() {
                     mTelephonyManager.setOpportunisticNetworkState(state);
                     mHandler.post(() -> mCbrsDataSwitch.setChecked(getCbrsDataState()));
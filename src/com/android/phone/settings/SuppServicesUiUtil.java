@@ -179,7 +179,7 @@ public class SuppServicesUiUtil {
             return mmiCode.getMessage();
         }
 
-        CarrierXmlParser carrierXmlParser = new CarrierXmlParser(context, carrierId);
+        CarrierXmlParser carrierXmlParser = CarrierXmlParser.getInstance(context, carrierId);
         CarrierXmlParser.SsEntry.SSAction ssAction = carrierXmlParser.getCallerIdUssdCommandAction(
                 mmiCode.getDialString());
         Log.d(LOG_TAG, "handleCallerIdUssdResponse: ssAction =" + ssAction);
@@ -38,15 +38,21 @@ import android.telephony.CarrierConfigManager;
 import android.telephony.VisualVoicemailService;
 import android.telephony.VisualVoicemailSms;
 import android.text.TextUtils;
+import android.util.SparseArray;
 
+import com.android.internal.annotations.VisibleForTesting;
 import com.android.internal.telephony.util.TelephonyUtils;
+import com.android.internal.util.IndentingPrintWriter;
 import com.android.phone.Assert;
 import com.android.phone.R;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.LinkedList;
+import java.util.Deque;
+import java.util.Iterator;
 import java.util.List;
-import java.util.Queue;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Service to manage tasks issued to the {@link VisualVoicemailService}. This service will bind to
@@ -56,6 +62,20 @@ import java.util.Queue;
  *
  * If the service is already running it will be reused for new events. The service will stop itself
  * after all events are handled.
+ *
+ * Events which have not been sent to the remote service yet are merged per phone account when a
+ * newer event makes them redundant, see {@link #enqueueCoalesced(Deque, PendingTask)}: a repeated
+ * cell service connected event and an SMS whose body is already queued are dropped, and a SIM
+ * removed event replaces the queued cell service connected and SIM removed events of the account.
+ * The replaced events are not equal to the SIM removed event but superseded by it, as the account
+ * is no longer usable. Tasks which were sent but not finished when the remote service disconnected
+ * are sent again once it reconnects.
+ * <p>
+ * The queue is only kept in memory and is lost with the phone process, like the events were before
+ * they were queued. The events are recreated after a restart: the cell service and SIM state are
+ * reported again once the phones come up, and a lost voicemail SMS only delays the sync to the next
+ * cell service connected event. The state a persisted task would carry (a phone account handle and
+ * possibly an SMS) may also be stale by then.
  */
 public class RemoteVvmTaskManager extends Service {
 
@@ -73,8 +93,47 @@ public class RemoteVvmTaskManager extends Service {
 
     private static final String EXTRA_TARGET_PACKAGE = "target_package";
 
-    // TODO(twyen): track task individually to have time outs.
-    private int mTaskReferenceCount;
+    /** The number of times a task is sent before it is dropped if the remote keeps dying. */
+    private static final int MAX_TASK_ATTEMPTS = 3;
+
+    // Statistics of all instances of the service, reported by VvmDumpHandler.
+    private static final AtomicLong sEnqueuedTasks = new AtomicLong();
+    private static final AtomicLong sMergedTasks = new AtomicLong();
+    private static final AtomicLong sReplayedTasks = new AtomicLong();
+    private static final AtomicLong sDroppedTasks = new AtomicLong();
+    private static volatile int sPendingTaskCount;
+    private static volatile int sInFlightTaskCount;
+
+    /**
+     * A task for the {@link VisualVoicemailService}.
+     */
+    @VisibleForTesting
+    static final class PendingTask {
+        final int what;
+        final PhoneAccountHandle phoneAccountHandle;
+        final Bundle extras;
+        int taskId;
+        int attempts;
+
+        PendingTask(int what, Bundle extras) {
+            this.what = what;
+            this.extras = extras;
+            phoneAccountHandle = extras.getParcelable(
+                    VisualVoicemailService.DATA_PHONE_ACCOUNT_HANDLE);
+        }
+
+        @Nullable
+        String getMessageBody() {
+            VisualVoicemailSms sms = extras.getParcelable(VisualVoicemailService.DATA_SMS);
+            return sms != null ? sms.getMessageBody() : null;
+        }
+    }
+
+    private final Deque<PendingTask> mPendingTasks = new ArrayDeque<>();
+    // Tasks sent to the remote service which have not ended yet, by task ID.
+    // TODO(twyen): time out tasks individually.
+    private final SparseArray<PendingTask> mInFlightTasks = new SparseArray<>();
+    private int mNextTaskId = 1;
 
     private RemoteServiceConnection mConnection;
 
@@ -216,7 +275,11 @@ public class RemoteVvmTaskManager extends Service {
                 Assert.isMainThread();
                 switch (msg.what) {
                     case VisualVoicemailService.MSG_TASK_ENDED:
-                        mTaskReferenceCount--;
+                        if (mInFlightTasks.get(msg.arg1) == null) {
+                            VvmLog.w(TAG, "unknown task " + msg.arg1 + " ended");
+                        }
+                        mInFlightTasks.remove(msg.arg1);
+                        updateTaskCounts();
                         checkReference();
                         break;
                     default:
@@ -229,7 +292,6 @@ public class RemoteVvmTaskManager extends Service {
     @Override
     public int onStartCommand(@Nullable Intent intent, int flags, int startId) {
         Assert.isMainThread();
-        mTaskReferenceCount++;
 
         if (intent == null) {
             VvmLog.i(TAG, "received intent is null");
@@ -272,9 +334,56 @@ public class RemoteVvmTaskManager extends Service {
         return null;
     }
 
-    private int getTaskId() {
-        // TODO(twyen): generate unique IDs. Reference counting is used now so it doesn't matter.
-        return 1;
+    /**
+     * Add a task to the end of the queue, merging it with the queued tasks of the same phone
+     * account which have not been sent yet:
+     * <ul>
+     *     <li>A cell service connected event is dropped if the last queued event of the account is
+     *     also a cell service connected event.</li>
+     *     <li>A SIM removed event replaces all queued cell service connected and SIM removed events
+     *     of the account.</li>
+     *     <li>A received SMS is dropped if an SMS with the same body is already queued for the
+     *     account.</li>
+     * </ul>
+     *
+     * @return The number of tasks which were merged.
+     */
+    @VisibleForTesting
+    static int enqueueCoalesced(Deque<PendingTask> queue, PendingTask task) {
+        int merged = 0;
+        PendingTask lastOfAccount = null;
+        Iterator<PendingTask> iterator = queue.iterator();
+        while (iterator.hasNext()) {
+            PendingTask pending = iterator.next();
+            if (!Objects.equals(pending.phoneAccountHandle, task.phoneAccountHandle)) {
+                continue;
+            }
+            switch (task.what) {
+                case VisualVoicemailService.MSG_ON_SIM_REMOVED:
+                    if (pending.what != VisualVoicemailService.MSG_ON_SMS_RECEIVED) {
+                        iterator.remove();
+                        merged++;
+                        continue;
+                    }
+                    break;
+                case VisualVoicemailService.MSG_ON_SMS_RECEIVED:
+                    if (pending.what == VisualVoicemailService.MSG_ON_SMS_RECEIVED
+                            && TextUtils.equals(pending.getMessageBody(),
+                            task.getMessageBody())) {
+                        return 1;
+                    }
+                    break;
+                default:
+                    break;
+            }
+            lastOfAccount = pending;
+        }
+        if (task.what == VisualVoicemailService.MSG_ON_CELL_SERVICE_CONNECTED
+                && lastOfAccount != null && lastOfAccount.what == task.what) {
+            return 1;
+        }
+        queue.add(task);
+        return merged;
     }
 
     /**
@@ -282,7 +391,7 @@ public class RemoteVvmTaskManager extends Service {
      */
     private class RemoteServiceConnection implements ServiceConnection {
 
-        private final Queue<Message> mTaskQueue = new LinkedList<>();
+        private final ComponentName mRemotePackage;
 
         private boolean mConnected;
 
@@ -291,11 +400,8 @@ public class RemoteVvmTaskManager extends Service {
          */
         private Messenger mRemoteMessenger;
 
-        public void enqueue(Message message) {
-            mTaskQueue.add(message);
-            if (mConnected) {
-                runQueue();
-            }
+        RemoteServiceConnection(ComponentName remotePackage) {
+            mRemotePackage = remotePackage;
         }
 
         public boolean isConnected() {
@@ -310,29 +416,82 @@ public class RemoteVvmTaskManager extends Service {
         }
 
         public void onServiceDisconnected(ComponentName className) {
-            mConnection = null;
             mConnected = false;
             mRemoteMessenger = null;
-            VvmLog.e(TAG, "Service disconnected, " + mTaskReferenceCount + " tasks dropped.");
-            mTaskReferenceCount = 0;
+            // The binding is kept, onServiceConnected() is called again once the remote service
+            // has been restarted.
+            VvmLog.e(TAG, "Service disconnected, " + requeueInFlightTasks()
+                    + " tasks will be sent again on reconnect.");
             checkReference();
         }
 
+        @Override
+        public void onBindingDied(ComponentName name) {
+            VvmLog.e(TAG, "Binding to " + name + " died");
+            mConnected = false;
+            mRemoteMessenger = null;
+            requeueInFlightTasks();
+            unbindService(this);
+            mConnection = null;
+            if (!mPendingTasks.isEmpty()) {
+                bind(mRemotePackage);
+            }
+        }
+
         private void runQueue() {
             Assert.isMainThread();
-            Message message = mTaskQueue.poll();
-            while (message != null) {
+            PendingTask task = mPendingTasks.poll();
+            while (task != null) {
+                Message message = Message.obtain();
+                message.what = task.what;
+                message.setData(new Bundle(task.extras));
                 message.replyTo = mMessenger;
-                message.arg1 = getTaskId();
+                message.arg1 = task.taskId;
+                task.attempts++;
+                mInFlightTasks.put(task.taskId, task);
 
                 try {
                     mRemoteMessenger.send(message);
                 } catch (RemoteException e) {
+                    // The task is sent again if the remote service reconnects.
                     VvmLog.e(TAG, "Error sending message to remote service", e);
                 }
-                message = mTaskQueue.poll();
+                task = mPendingTasks.poll();
+            }
+            updateTaskCounts();
+        }
+    }
+
+    /**
+     * Move the tasks which were sent but have not ended back to the front of the queue, in the
+     * order they were sent. Tasks which were already sent {@link #MAX_TASK_ATTEMPTS} times are
+     * dropped.
+     *
+     * @return The number of tasks which will be sent again.
+     */
+    private int requeueInFlightTasks() {
+        int requeued = 0;
+        // Task IDs increase, so iterating backwards while adding to the front keeps the order.
+        for (int i = mInFlightTasks.size() - 1; i >= 0; i--) {
+            PendingTask task = mInFlightTasks.valueAt(i);
+            if (task.attempts >= MAX_TASK_ATTEMPTS) {
+                VvmLog.e(TAG, "Dropping task " + task.taskId + " after " + task.attempts
+                        + " attempts");
+                sDroppedTasks.incrementAndGet();
+                continue;
             }
+            mPendingTasks.addFirst(task);
+            requeued++;
         }
+        mInFlightTasks.clear();
+        sReplayedTasks.addAndGet(requeued);
+        updateTaskCounts();
+        return requeued;
+    }
+
+    private void updateTaskCounts() {
+        sPendingTaskCount = mPendingTasks.size();
+        sInFlightTaskCount = mInFlightTasks.size();
     }
 
     private void send(ComponentName remotePackage, int what, Bundle extras) {
@@ -355,19 +514,36 @@ public class RemoteVvmTaskManager extends Service {
             return;
         }
 
-        Message message = Message.obtain();
-        message.what = what;
-        message.setData(new Bundle(extras));
+        PendingTask task = new PendingTask(what, new Bundle(extras));
+        task.taskId = mNextTaskId++;
+        sEnqueuedTasks.incrementAndGet();
+        int merged = enqueueCoalesced(mPendingTasks, task);
+        if (merged > 0) {
+            VvmLog.i(TAG, "merged " + merged + " redundant tasks for " + what);
+            sMergedTasks.addAndGet(merged);
+        }
+        updateTaskCounts();
+
         if (mConnection == null) {
-            mConnection = new RemoteServiceConnection();
+            bind(remotePackage);
+        } else if (mConnection.isConnected()) {
+            mConnection.runQueue();
         }
-        mConnection.enqueue(message);
+    }
 
-        if (!mConnection.isConnected()) {
-            Intent intent = newBindIntent(this);
-            intent.setComponent(remotePackage);
-            VvmLog.i(TAG, "Binding to " + intent.getComponent());
-            bindService(intent, mConnection, Context.BIND_AUTO_CREATE);
+    private void bind(ComponentName remotePackage) {
+        mConnection = new RemoteServiceConnection(remotePackage);
+        Intent intent = newBindIntent(this);
+        intent.setComponent(remotePackage);
+        VvmLog.i(TAG, "Binding to " + intent.getComponent());
+        if (!bindService(intent, mConnection, Context.BIND_AUTO_CREATE)) {
+            VvmLog.e(TAG, "Unable to bind to " + remotePackage + ", dropping "
+                    + mPendingTasks.size() + " tasks");
+            sDroppedTasks.addAndGet(mPendingTasks.size());
+            mPendingTasks.clear();
+            updateTaskCounts();
+            unbindService(mConnection);
+            mConnection = null;
         }
     }
 
@@ -375,12 +551,21 @@ public class RemoteVvmTaskManager extends Service {
         if (mConnection == null) {
             return;
         }
-        if (mTaskReferenceCount == 0) {
+        if (mPendingTasks.isEmpty() && mInFlightTasks.size() == 0) {
             unbindService(mConnection);
             mConnection = null;
         }
     }
 
+    /**
+     * Dump the statistics of the task queue.
+     */
+    static void dump(IndentingPrintWriter pw) {
+        pw.println("pending=" + sPendingTaskCount + ", inFlight=" + sInFlightTaskCount
+                + ", enqueued=" + sEnqueuedTasks.get() + ", merged=" + sMergedTasks.get()
+                + ", replayed=" + sReplayedTasks.get() + ", dropped=" + sDroppedTasks.get());
+    }
+
     private static Intent newBindIntent(Context context) {
         Intent intent = new Intent();
         intent.setAction(VisualVoicemailService.SERVICE_INTERFACE);
@@ -16,14 +16,24 @@
 package com.android.phone.vvm;
 
 import android.annotation.Nullable;
+import android.content.BroadcastReceiver;
 import android.content.ComponentName;
 import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
 import android.content.SharedPreferences;
 import android.preference.PreferenceManager;
+import android.telecom.TelecomManager;
+import android.telephony.CarrierConfigManager;
 import android.telephony.VisualVoicemailSmsFilterSettings;
+import android.util.ArrayMap;
 import android.util.ArraySet;
+import android.util.SparseArray;
+
+import com.android.internal.annotations.VisibleForTesting;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Set;
 
@@ -31,6 +41,16 @@ import java.util.Set;
  * Stores the config values needed for visual voicemail sms filtering. The values from
  * OmtpVvmCarrierConfigHelper are stored here during activation instead. These values are read and
  * written through TelephonyManager.
+ * <p>
+ * The settings are cached in memory per subscription and package once they have been read, and
+ * enabling or disabling a filter replaces the cached settings before they are persisted with
+ * {@link SharedPreferences.Editor#apply()}, so looking up the settings for an incoming SMS does
+ * not touch the shared preferences. The cached settings are immutable, their originating numbers
+ * can not be modified by the callers they are shared with.
+ * <p>
+ * Once {@link #registerActivePackageReceiver(Context)} has been called, the package of the active
+ * visual voicemail client is cached per subscription as well, and resolved again after a package
+ * or the default dialer or the carrier config changes.
  */
 public class VisualVoicemailSmsFilterConfig {
 
@@ -42,9 +62,85 @@ public class VisualVoicemailSmsFilterConfig {
     private static final String DESTINATION_PORT_KEY = "_destination_port";
     private static final String DEFAULT_PACKAGE = "com.android.phone";
 
+    /** The settings of a package on a subscription, {@code null} if its filter is disabled. */
+    private static final class CachedSettings {
+        @Nullable final VisualVoicemailSmsFilterSettings settings;
+
+        CachedSettings(@Nullable VisualVoicemailSmsFilterSettings settings) {
+            this.settings = settings;
+        }
+    }
+
+    private static final Object sCacheLock = new Object();
+    // subId -> package name -> settings, guarded by sCacheLock.
+    private static final SparseArray<ArrayMap<String, CachedSettings>> sCache =
+            new SparseArray<>();
+    // subId -> package of the active visual voicemail client, guarded by sCacheLock.
+    private static final SparseArray<String> sActivePackages = new SparseArray<>();
+    // Incremented whenever sActivePackages is invalidated, guarded by sCacheLock.
+    private static int sActivePackagesGeneration;
+    // The active packages are only cached once they are invalidated on changes.
+    private static boolean sActivePackageReceiverRegistered;
+
+    /** Resolves the package of the active visual voicemail client of a subscription. */
+    @VisibleForTesting
+    public interface ActivePackageResolver {
+        /** @return The package name, or {@code null} if no client is active. */
+        @Nullable
+        String getActivePackage(Context context, int subId);
+    }
+
+    private static final ActivePackageResolver DEFAULT_ACTIVE_PACKAGE_RESOLVER =
+            (context, subId) -> {
+                ComponentName componentName =
+                        RemoteVvmTaskManager.getRemotePackage(context, subId);
+                return componentName != null ? componentName.getPackageName() : null;
+            };
+
+    private static volatile ActivePackageResolver sActivePackageResolver =
+            DEFAULT_ACTIVE_PACKAGE_RESOLVER;
+
+    @VisibleForTesting
+    static final BroadcastReceiver sActivePackageReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            synchronized (sCacheLock) {
+                sActivePackages.clear();
+                sActivePackagesGeneration++;
+            }
+        }
+    };
+
+    /**
+     * Start caching the package of the active visual voicemail client, and listen for the changes
+     * which may select another one.
+     */
+    public static void registerActivePackageReceiver(Context context) {
+        IntentFilter packageFilter = new IntentFilter();
+        packageFilter.addAction(Intent.ACTION_PACKAGE_ADDED);
+        packageFilter.addAction(Intent.ACTION_PACKAGE_CHANGED);
+        packageFilter.addAction(Intent.ACTION_PACKAGE_REMOVED);
+        packageFilter.addDataScheme("package");
+        context.registerReceiver(sActivePackageReceiver, packageFilter);
+        IntentFilter filter = new IntentFilter(TelecomManager.ACTION_DEFAULT_DIALER_CHANGED);
+        filter.addAction(CarrierConfigManager.ACTION_CARRIER_CONFIG_CHANGED);
+        context.registerReceiver(sActivePackageReceiver, filter);
+        synchronized (sCacheLock) {
+            sActivePackageReceiverRegistered = true;
+        }
+    }
+
     public static void enableVisualVoicemailSmsFilter(Context context, String callingPackage,
             int subId,
             VisualVoicemailSmsFilterSettings settings) {
+        // Cache the settings as they would be read back from the shared preferences.
+        updateCache(subId, callingPackage, new VisualVoicemailSmsFilterSettings.Builder()
+                .setClientPrefix(settings.clientPrefix)
+                .setOriginatingNumbers(Collections.unmodifiableList(
+                        new ArrayList<>(new ArraySet<>(settings.originatingNumbers))))
+                .setDestinationPort(settings.destinationPort)
+                .setPackageName(callingPackage)
+                .build());
         new Editor(context, callingPackage, subId)
                 .setBoolean(ENABLED_KEY, true)
                 .setString(PREFIX_KEY, settings.clientPrefix)
@@ -55,6 +151,7 @@ public class VisualVoicemailSmsFilterConfig {
 
     public static void disableVisualVoicemailSmsFilter(Context context, String callingPackage,
             int subId) {
+        updateCache(subId, callingPackage, null);
         new Editor(context, callingPackage, subId)
                 .setBoolean(ENABLED_KEY, false)
                 .apply();
@@ -62,12 +159,9 @@ public class VisualVoicemailSmsFilterConfig {
 
     public static VisualVoicemailSmsFilterSettings getActiveVisualVoicemailSmsFilterSettings(
             Context context, int subId) {
-        ComponentName componentName = RemoteVvmTaskManager.getRemotePackage(context, subId);
-        String packageName;
-        if (componentName == null) {
+        String packageName = getActivePackage(context, subId);
+        if (packageName == null) {
             packageName = DEFAULT_PACKAGE;
-        } else {
-            packageName = componentName.getPackageName();
         }
         return getVisualVoicemailSmsFilterSettings(
                 context,
@@ -75,10 +169,93 @@ public class VisualVoicemailSmsFilterConfig {
                 subId);
     }
 
+    @Nullable
+    private static String getActivePackage(Context context, int subId) {
+        int generation;
+        synchronized (sCacheLock) {
+            if (!sActivePackageReceiverRegistered) {
+                generation = -1;
+            } else {
+                int index = sActivePackages.indexOfKey(subId);
+                if (index >= 0) {
+                    return sActivePackages.valueAt(index);
+                }
+                generation = sActivePackagesGeneration;
+            }
+        }
+        String packageName = sActivePackageResolver.getActivePackage(context, subId);
+        synchronized (sCacheLock) {
+            // Do not cache a package resolved before a change was received.
+            if (generation != -1 && generation == sActivePackagesGeneration) {
+                sActivePackages.put(subId, packageName);
+            }
+        }
+        return packageName;
+    }
+
     @Nullable
     public static VisualVoicemailSmsFilterSettings getVisualVoicemailSmsFilterSettings(
             Context context,
             String packageName, int subId) {
+        synchronized (sCacheLock) {
+            ArrayMap<String, CachedSettings> packages = sCache.get(subId);
+            CachedSettings cached = packages != null ? packages.get(packageName) : null;
+            if (cached != null) {
+                return cached.settings;
+            }
+        }
+        VisualVoicemailSmsFilterSettings settings = readSettings(context, packageName, subId);
+        synchronized (sCacheLock) {
+            ArrayMap<String, CachedSettings> packages = getCachedPackages(subId);
+            // An enable or disable which happened while reading takes precedence.
+            CachedSettings cached = packages.get(packageName);
+            if (cached == null) {
+                cached = new CachedSettings(settings);
+                packages.put(packageName, cached);
+            }
+            return cached.settings;
+        }
+    }
+
+    /**
+     * Drop all cached settings and active packages so that they are read again.
+     */
+    @VisibleForTesting
+    public static void clearCache() {
+        synchronized (sCacheLock) {
+            sCache.clear();
+            sActivePackages.clear();
+            sActivePackagesGeneration++;
+        }
+    }
+
+    /**
+     * Replace how the active package is resolved, {@code null} restores the default.
+     */
+    @VisibleForTesting
+    public static void setActivePackageResolver(@Nullable ActivePackageResolver resolver) {
+        sActivePackageResolver = resolver != null ? resolver : DEFAULT_ACTIVE_PACKAGE_RESOLVER;
+    }
+
+    private static void updateCache(int subId, String packageName,
+            @Nullable VisualVoicemailSmsFilterSettings settings) {
+        synchronized (sCacheLock) {
+            getCachedPackages(subId).put(packageName, new CachedSettings(settings));
+        }
+    }
+
+    private static ArrayMap<String, CachedSettings> getCachedPackages(int subId) {
+        ArrayMap<String, CachedSettings> packages = sCache.get(subId);
+        if (packages == null) {
+            packages = new ArrayMap<>(1);
+            sCache.put(subId, packages);
+        }
+        return packages;
+    }
+
+    @Nullable
+    private static VisualVoicemailSmsFilterSettings readSettings(Context context,
+            String packageName, int subId) {
         Reader reader = new Reader(context, packageName, subId);
         if (!reader.getBoolean(ENABLED_KEY, false)) {
             return null;
@@ -86,8 +263,9 @@ public class VisualVoicemailSmsFilterConfig {
         return new VisualVoicemailSmsFilterSettings.Builder()
                 .setClientPrefix(reader.getString(PREFIX_KEY,
                         VisualVoicemailSmsFilterSettings.DEFAULT_CLIENT_PREFIX))
-                .setOriginatingNumbers(reader.getStringSet(ORIGINATING_NUMBERS_KEY,
-                        VisualVoicemailSmsFilterSettings.DEFAULT_ORIGINATING_NUMBERS))
+                .setOriginatingNumbers(Collections.unmodifiableList(
+                        reader.getStringSet(ORIGINATING_NUMBERS_KEY,
+                                VisualVoicemailSmsFilterSettings.DEFAULT_ORIGINATING_NUMBERS)))
                 .setDestinationPort(reader.getInt(DESTINATION_PORT_KEY,
                         VisualVoicemailSmsFilterSettings.DEFAULT_DESTINATION_PORT))
                 .setPackageName(packageName)
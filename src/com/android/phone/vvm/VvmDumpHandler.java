@@ -30,6 +30,10 @@ public class VvmDumpHandler {
                             .getActiveVisualVoicemailSmsFilterSettings(subId));
         }
         indentedWriter.decreaseIndent();
+        indentedWriter.println("===== Remote tasks ====");
+        indentedWriter.increaseIndent();
+        RemoteVvmTaskManager.dump(indentedWriter);
+        indentedWriter.decreaseIndent();
         indentedWriter.println("======== Logs =========");
         VvmLog.dump(fd, indentedWriter, args);
     }
@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.services.telephony;
+
+import com.android.internal.annotations.VisibleForTesting;
+import com.android.internal.util.IndentingPrintWriter;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Collects per event type dispatch latency of the call events handled by
+ * {@link TelephonyConnection}, shared by all connections in the process.
+ * <p>
+ * The queue latency is the time an event waited in the message queue before it was handled; the
+ * handling time is the time spent processing it.  Long queue latencies indicate that call events
+ * are stuck behind unrelated work on the same thread.
+ */
+public final class CallEventDispatchStats {
+    private static final String LOG_TAG = "CallEventDispatchStats";
+
+    /** Events which waited at least this long in the queue are logged. */
+    @VisibleForTesting
+    public static final long SLOW_DISPATCH_THRESHOLD_MILLIS = 200;
+
+    private static final CallEventDispatchStats sInstance = new CallEventDispatchStats();
+
+    private static final class EventStats {
+        long mCount;
+        long mTotalQueueMillis;
+        long mMaxQueueMillis;
+        long mTotalHandlingMillis;
+        long mMaxHandlingMillis;
+        long mSlowCount;
+    }
+
+    // Guarded by this.
+    private final Map<String, EventStats> mStats = new TreeMap<>();
+
+    @VisibleForTesting
+    public CallEventDispatchStats() {
+    }
+
+    public static CallEventDispatchStats getInstance() {
+        return sInstance;
+    }
+
+    /**
+     * Records the dispatch of a single event.
+     *
+     * @param event The name of the event.
+     * @param queueMillis The time the event waited before it was handled.
+     * @param handlingMillis The time spent handling the event.
+     */
+    public void record(String event, long queueMillis, long handlingMillis) {
+        queueMillis = Math.max(0, queueMillis);
+        synchronized (this) {
+            EventStats stats = mStats.get(event);
+            if (stats == null) {
+                stats = new EventStats();
+                mStats.put(event, stats);
+            }
+            stats.mCount++;
+            stats.mTotalQueueMillis += queueMillis;
+            stats.mMaxQueueMillis = Math.max(stats.mMaxQueueMillis, queueMillis);
+            stats.mTotalHandlingMillis += handlingMillis;
+            stats.mMaxHandlingMillis = Math.max(stats.mMaxHandlingMillis, handlingMillis);
+            if (queueMillis >= SLOW_DISPATCH_THRESHOLD_MILLIS) {
+                stats.mSlowCount++;
+            }
+        }
+        if (queueMillis >= SLOW_DISPATCH_THRESHOLD_MILLIS) {
+            Log.i(LOG_TAG, "record: slow dispatch of %s; queued for %d ms", event, queueMillis);
+        }
+    }
+
+    /** @return The number of recorded dispatches of the given event. */
+    @VisibleForTesting
+    public synchronized long getCount(String event) {
+        EventStats stats = mStats.get(event);
+        return stats == null ? 0 : stats.mCount;
+    }
+
+    /** @return The longest queue latency recorded for the given event, in milliseconds. */
+    @VisibleForTesting
+    public synchronized long getMaxQueueMillis(String event) {
+        EventStats stats = mStats.get(event);
+        return stats == null ? 0 : stats.mMaxQueueMillis;
+    }
+
+    public synchronized void dump(IndentingPrintWriter pw) {
+        pw.println("CallEventDispatchStats (event: count, avg/max queue ms, avg/max handling ms, "
+                + "slow):");
+        pw.increaseIndent();
+        for (Map.Entry<String, EventStats> entry : mStats.entrySet()) {
+            EventStats stats = entry.getValue();
+            pw.println(entry.getKey() + ": " + stats.mCount
+                    + ", " + stats.mTotalQueueMillis / stats.mCount + "/" + stats.mMaxQueueMillis
+                    + ", " + stats.mTotalHandlingMillis / stats.mCount
+                    + "/" + stats.mMaxHandlingMillis
+                    + ", " + stats.mSlowCount);
+        }
+        pw.decreaseIndent();
+    }
+}
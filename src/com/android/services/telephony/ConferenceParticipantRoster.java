@@ -0,0 +1,206 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.services.telephony;
+
+import android.net.Uri;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * The {@link ConferenceParticipantConnection}s of an {@link ImsConference}, keyed by the handle
+ * and endpoint of the participant as they appear in the conference event package (CEP).
+ * <p>
+ * Participants are grouped by handle and matched against the endpoint directly, so looking a
+ * participant up does not allocate a key.  Every CEP update starts a new roster version with
+ * {@link #beginUpdate()}; participants which the update lists are marked as seen, and
+ * {@link #removeUnseen()} then returns the ones the CEP no longer contains.
+ * <p>
+ * Not thread safe; {@link ImsConference} guards access with its update lock.
+ */
+class ConferenceParticipantRoster {
+    private static final class Entry {
+        final Uri mEndpoint;
+        final ConferenceParticipantConnection mConnection;
+        int mVersion;
+
+        Entry(Uri endpoint, ConferenceParticipantConnection connection, int version) {
+            mEndpoint = endpoint;
+            mConnection = connection;
+            mVersion = version;
+        }
+    }
+
+    /**
+     * Participants by handle.  A handle almost always has a single endpoint, so the lists are
+     * short and scanned linearly.
+     */
+    private final HashMap<Uri, ArrayList<Entry>> mEntriesByHandle = new HashMap<>();
+    private int mSize;
+    private int mVersion;
+
+    /** Starts processing a new CEP update. */
+    void beginUpdate() {
+        mVersion++;
+    }
+
+    /**
+     * @return The connection of the participant with the given handle and endpoint, or
+     * {@code null} if it is not in the roster.
+     */
+    ConferenceParticipantConnection get(Uri handle, Uri endpoint) {
+        Entry entry = find(handle, endpoint);
+        return entry == null ? null : entry.mConnection;
+    }
+
+    /** @return {@code true} if a participant with the given handle and endpoint is tracked. */
+    boolean contains(Uri handle, Uri endpoint) {
+        return find(handle, endpoint) != null;
+    }
+
+    /**
+     * Adds or replaces a participant.  The participant counts as seen by the current update.
+     */
+    void put(Uri handle, Uri endpoint, ConferenceParticipantConnection connection) {
+        ArrayList<Entry> entries = mEntriesByHandle.get(handle);
+        if (entries == null) {
+            entries = new ArrayList<>(1);
+            mEntriesByHandle.put(handle, entries);
+        }
+        for (int i = 0; i < entries.size(); i++) {
+            if (Objects.equals(entries.get(i).mEndpoint, endpoint)) {
+                entries.set(i, new Entry(endpoint, connection, mVersion));
+                return;
+            }
+        }
+        entries.add(new Entry(endpoint, connection, mVersion));
+        mSize++;
+    }
+
+    /**
+     * Marks a participant as listed by the current update.
+     *
+     * @return {@code false} if the participant is not in the roster.
+     */
+    boolean markSeen(Uri handle, Uri endpoint) {
+        Entry entry = find(handle, endpoint);
+        if (entry == null) {
+            return false;
+        }
+        entry.mVersion = mVersion;
+        return true;
+    }
+
+    /**
+     * Removes a participant.
+     *
+     * @return The removed connection, or {@code null} if it was not in the roster.
+     */
+    ConferenceParticipantConnection remove(Uri handle, Uri endpoint) {
+        ArrayList<Entry> entries = mEntriesByHandle.get(handle);
+        if (entries == null) {
+            return null;
+        }
+        for (int i = 0; i < entries.size(); i++) {
+            Entry entry = entries.get(i);
+            if (Objects.equals(entry.mEndpoint, endpoint)) {
+                entries.remove(i);
+                if (entries.isEmpty()) {
+                    mEntriesByHandle.remove(handle);
+                }
+                mSize--;
+                return entry.mConnection;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Removes the participants which were not seen since the last {@link #beginUpdate()}.
+     *
+     * @return The removed connections; empty if every participant was seen.
+     */
+    List<ConferenceParticipantConnection> removeUnseen() {
+        List<ConferenceParticipantConnection> removed = new ArrayList<>(0);
+        Iterator<ArrayList<Entry>> handleIterator = mEntriesByHandle.values().iterator();
+        while (handleIterator.hasNext()) {
+            ArrayList<Entry> entries = handleIterator.next();
+            Iterator<Entry> entryIterator = entries.iterator();
+            while (entryIterator.hasNext()) {
+                Entry entry = entryIterator.next();
+                if (entry.mVersion != mVersion) {
+                    removed.add(entry.mConnection);
+                    entryIterator.remove();
+                    mSize--;
+                }
+            }
+            if (entries.isEmpty()) {
+                handleIterator.remove();
+            }
+        }
+        return removed;
+    }
+
+    /** @return Any one participant connection, or {@code null} if the roster is empty. */
+    ConferenceParticipantConnection any() {
+        for (ArrayList<Entry> entries : mEntriesByHandle.values()) {
+            if (!entries.isEmpty()) {
+                return entries.get(0).mConnection;
+            }
+        }
+        return null;
+    }
+
+    /** @return All participant connections. */
+    List<ConferenceParticipantConnection> connections() {
+        List<ConferenceParticipantConnection> connections = new ArrayList<>(mSize);
+        for (ArrayList<Entry> entries : mEntriesByHandle.values()) {
+            for (Entry entry : entries) {
+                connections.add(entry.mConnection);
+            }
+        }
+        return connections;
+    }
+
+    /** Removes all participants. */
+    void clear() {
+        mEntriesByHandle.clear();
+        mSize = 0;
+    }
+
+    /** @return The number of participants. */
+    int size() {
+        return mSize;
+    }
+
+    private Entry find(Uri handle, Uri endpoint) {
+        ArrayList<Entry> entries = mEntriesByHandle.get(handle);
+        if (entries == null) {
+            return null;
+        }
+        for (int i = 0; i < entries.size(); i++) {
+            Entry entry = entries.get(i);
+            if (Objects.equals(entry.mEndpoint, endpoint)) {
+                return entry;
+            }
+        }
+        return null;
+    }
+}
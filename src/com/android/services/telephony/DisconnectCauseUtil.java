@@ -18,12 +18,15 @@ package com.android.services.telephony;
 
 import android.content.Context;
 import android.media.ToneGenerator;
+import android.os.LocaleList;
 import android.os.PersistableBundle;
 import android.provider.Settings;
 import android.telecom.DisconnectCause;
 import android.telephony.CarrierConfigManager;
 import android.telephony.SubscriptionManager;
 import android.telephony.ims.ImsReasonInfo;
+import android.util.LongSparseArray;
+import android.util.SparseArray;
 
 import com.android.internal.annotations.VisibleForTesting;
 import com.android.internal.telephony.CallFailCause;
@@ -33,6 +36,8 @@ import com.android.phone.ImsUtil;
 import com.android.phone.PhoneGlobals;
 import com.android.phone.common.R;
 
+import java.util.Arrays;
+
 public class DisconnectCauseUtil {
 
    /**
@@ -117,17 +122,194 @@ public class DisconnectCauseUtil {
             int telephonyDisconnectCause, int telephonyPreciseDisconnectCause, String reason,
             int phoneId, ImsReasonInfo imsReasonInfo, PersistableBundle carrierConfig) {
         Context context = PhoneGlobals.getInstance();
+        if (context == null) {
+            return new DisconnectCause(
+                    toTelecomDisconnectCauseCode(telephonyDisconnectCause, carrierConfig),
+                    toTelecomDisconnectCauseLabel(context, telephonyDisconnectCause,
+                            telephonyPreciseDisconnectCause, carrierConfig),
+                    toTelecomDisconnectCauseDescription(context, telephonyDisconnectCause,
+                            phoneId),
+                    toTelecomDisconnectReason(context, telephonyDisconnectCause, reason, phoneId),
+                    toTelecomDisconnectCauseTone(telephonyDisconnectCause, carrierConfig),
+                    telephonyDisconnectCause,
+                    telephonyPreciseDisconnectCause,
+                    imsReasonInfo);
+        }
+
+        CauseTable table = getCauseTable(context, phoneId, carrierConfig);
+        synchronized (table) {
+            CauseEntry entry = table.getEntry(context, telephonyDisconnectCause, phoneId);
+            boolean hasVariableContent = reason != null
+                    || telephonyPreciseDisconnectCause != CallFailCause.NOT_VALID
+                    || imsReasonInfo != null
+                    || entry.mLabel == null
+                    || entry.mDescription == null
+                    || isReasonDynamic(telephonyDisconnectCause);
+            if (!hasVariableContent && entry.mDisconnectCause != null) {
+                return entry.mDisconnectCause;
+            }
+
+            CharSequence label;
+            if (telephonyPreciseDisconnectCause != CallFailCause.NOT_VALID) {
+                label = table.getPreciseLabel(context, telephonyDisconnectCause,
+                        telephonyPreciseDisconnectCause);
+            } else if (entry.mLabel != null) {
+                label = entry.mLabel;
+            } else {
+                label = toTelecomDisconnectCauseLabel(context, telephonyDisconnectCause,
+                        CallFailCause.NOT_VALID, carrierConfig);
+            }
+            CharSequence description = entry.mDescription != null ? entry.mDescription
+                    : toTelecomDisconnectCauseDescription(context, telephonyDisconnectCause,
+                            phoneId);
+            DisconnectCause disconnectCause = new DisconnectCause(
+                    entry.mCode,
+                    label,
+                    description,
+                    toTelecomDisconnectReason(context, telephonyDisconnectCause, reason, phoneId),
+                    entry.mTone,
+                    telephonyDisconnectCause,
+                    telephonyPreciseDisconnectCause,
+                    imsReasonInfo);
+            if (!hasVariableContent) {
+                // DisconnectCause is immutable, so the same instance can be handed out for every
+                // later disconnect with this cause.
+                entry.mDisconnectCause = disconnectCause;
+            }
+            return disconnectCause;
+        }
+    }
+
+    /**
+     * The resolved code, label, description and tone of the telephony disconnect causes of a
+     * phone.  They only depend on the locale and the carrier's busy tone configuration; when
+     * either changes the table is replaced.  Entries are filled in the first time a cause is
+     * seen.
+     */
+    private static final class CauseTable {
+        final LocaleList mLocales;
+        final int[] mBusyToneCauses;
+        final PersistableBundle mCarrierConfig;
+        final SparseArray<CauseEntry> mEntries = new SparseArray<>();
+        /** Labels for precise disconnect causes, keyed by precise cause and disconnect cause. */
+        final LongSparseArray<CharSequence> mPreciseLabels = new LongSparseArray<>();
+
+        CauseTable(LocaleList locales, int[] busyToneCauses, PersistableBundle carrierConfig) {
+            mLocales = locales;
+            mBusyToneCauses = busyToneCauses;
+            mCarrierConfig = carrierConfig;
+        }
+
+        boolean matches(LocaleList locales, int[] busyToneCauses) {
+            return mLocales.equals(locales) && Arrays.equals(mBusyToneCauses, busyToneCauses);
+        }
+
+        CauseEntry getEntry(Context context, int telephonyDisconnectCause, int phoneId) {
+            CauseEntry entry = mEntries.get(telephonyDisconnectCause);
+            if (entry == null) {
+                entry = new CauseEntry(
+                        toTelecomDisconnectCauseCode(telephonyDisconnectCause, mCarrierConfig),
+                        isLabelDynamic(telephonyDisconnectCause) ? null
+                                : toTelecomDisconnectCauseLabel(context, telephonyDisconnectCause,
+                                        CallFailCause.NOT_VALID, mCarrierConfig),
+                        isDescriptionDynamic(telephonyDisconnectCause) ? null
+                                : toTelecomDisconnectCauseDescription(context,
+                                        telephonyDisconnectCause, phoneId),
+                        toTelecomDisconnectCauseTone(telephonyDisconnectCause, mCarrierConfig));
+                mEntries.put(telephonyDisconnectCause, entry);
+            }
+            return entry;
+        }
+
+        CharSequence getPreciseLabel(Context context, int telephonyDisconnectCause,
+                int telephonyPreciseDisconnectCause) {
+            long key = ((long) telephonyPreciseDisconnectCause << 32)
+                    | (telephonyDisconnectCause & 0xffffffffL);
+            CharSequence label = mPreciseLabels.get(key);
+            if (label == null) {
+                label = toTelecomDisconnectCauseLabel(context, telephonyDisconnectCause,
+                        telephonyPreciseDisconnectCause, mCarrierConfig);
+                mPreciseLabels.put(key, label);
+            }
+            return label;
+        }
+    }
+
+    private static final class CauseEntry {
+        final int mCode;
+        /** {@code null} if the label depends on the current device state. */
+        final CharSequence mLabel;
+        /** {@code null} if the description depends on the current device state. */
+        final CharSequence mDescription;
+        final int mTone;
+        /** The shared instance for disconnects which carry no variable content, once built. */
+        DisconnectCause mDisconnectCause;
+
+        CauseEntry(int code, CharSequence label, CharSequence description, int tone) {
+            mCode = code;
+            mLabel = label;
+            mDescription = description;
+            mTone = tone;
+        }
+    }
+
+    /** Cause tables by phone ID.  Guarded by itself. */
+    private static final SparseArray<CauseTable> sCauseTables = new SparseArray<>();
 
-        return new DisconnectCause(
-                toTelecomDisconnectCauseCode(telephonyDisconnectCause, carrierConfig),
-                toTelecomDisconnectCauseLabel(context, telephonyDisconnectCause,
-                        telephonyPreciseDisconnectCause, carrierConfig),
-                toTelecomDisconnectCauseDescription(context, telephonyDisconnectCause, phoneId),
-                toTelecomDisconnectReason(context, telephonyDisconnectCause, reason, phoneId),
-                toTelecomDisconnectCauseTone(telephonyDisconnectCause, carrierConfig),
-                telephonyDisconnectCause,
-                telephonyPreciseDisconnectCause,
-                imsReasonInfo);
+    private static CauseTable getCauseTable(Context context, int phoneId,
+            PersistableBundle carrierConfig) {
+        LocaleList locales = context.getResources().getConfiguration().getLocales();
+        int[] busyToneCauses = carrierConfig.getIntArray(
+                CarrierConfigManager.KEY_DISCONNECT_CAUSE_PLAY_BUSYTONE_INT_ARRAY);
+        synchronized (sCauseTables) {
+            CauseTable table = sCauseTables.get(phoneId);
+            if (table == null || !table.matches(locales, busyToneCauses)) {
+                table = new CauseTable(locales, busyToneCauses, carrierConfig);
+                sCauseTables.put(phoneId, table);
+            }
+            return table;
+        }
+    }
+
+    /** Drops all resolved disconnect causes. */
+    @VisibleForTesting
+    static void clearCauseTables() {
+        synchronized (sCauseTables) {
+            sCauseTables.clear();
+        }
+    }
+
+    /**
+     * @return {@code true} if the label of the cause depends on the airplane mode state and so
+     * can not be cached.
+     */
+    private static boolean isLabelDynamic(int telephonyDisconnectCause) {
+        return telephonyDisconnectCause
+                == android.telephony.DisconnectCause.IMS_SIP_ALTERNATE_EMERGENCY_CALL;
+    }
+
+    /**
+     * @return {@code true} if the description of the cause depends on radio, WFC or airplane mode
+     * state and so can not be cached.
+     */
+    private static boolean isDescriptionDynamic(int telephonyDisconnectCause) {
+        switch (telephonyDisconnectCause) {
+            case android.telephony.DisconnectCause.POWER_OFF:
+            case android.telephony.DisconnectCause.OUT_OF_SERVICE:
+            case android.telephony.DisconnectCause.IMS_SIP_ALTERNATE_EMERGENCY_CALL:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * @return {@code true} if the reason of the cause depends on the WFC state and so can not be
+     * cached.
+     */
+    private static boolean isReasonDynamic(int telephonyDisconnectCause) {
+        return telephonyDisconnectCause == android.telephony.DisconnectCause.POWER_OFF
+                || telephonyDisconnectCause == android.telephony.DisconnectCause.OUT_OF_SERVICE;
     }
 
     /**
@@ -30,7 +30,6 @@ import android.telecom.TelecomManager;
 import android.telecom.VideoProfile;
 import android.telephony.PhoneNumberUtils;
 import android.text.TextUtils;
-import android.util.Pair;
 
 import com.android.ims.internal.ConferenceParticipant;
 import com.android.internal.annotations.VisibleForTesting;
@@ -44,11 +43,7 @@ import com.android.telephony.Rlog;
 
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
 import java.util.Objects;
 import java.util.stream.Collectors;
 
@@ -360,12 +355,11 @@ public class ImsConference extends TelephonyConferenceBase implements Holdable {
     private List<Uri> mParticipants;
 
     /**
-     * The known conference participant connections.  The HashMap is keyed by a Pair containing
-     * the handle and endpoint Uris.
-     * Access to the hashmap is protected by the {@link #mUpdateSyncRoot}.
+     * The known conference participant connections, keyed by the handle and endpoint Uris.
+     * Access to the roster is protected by the {@link #mUpdateSyncRoot}.
      */
-    private final HashMap<Pair<Uri, Uri>, ConferenceParticipantConnection>
-            mConferenceParticipantConnections = new HashMap<>();
+    private final ConferenceParticipantRoster mConferenceParticipantConnections =
+            new ConferenceParticipantRoster();
 
     /**
      * Sychronization root used to ensure that updates to the
@@ -393,16 +387,19 @@ public class ImsConference extends TelephonyConferenceBase implements Holdable {
      * {@link ConferenceParticipantConnection#getEndpoint()} of the single participant which this
      * conference pretends to be.
      */
-    private Pair<Uri, Uri> mLoneParticipantIdentity = null;
+    private Uri mLoneParticipantHandle = null;
+    private Uri mLoneParticipantEndpoint = null;
 
     /**
      * The {@link ConferenceParticipantConnection#getUserEntity()} and
      * {@link ConferenceParticipantConnection#getEndpoint()} of the conference host as they appear
      * in the CEP.  This is determined when we scan the first conference event package.
      * It is possible that this will be {@code null} for carriers which do not include the host
-     * in the CEP.
+     * in the CEP; {@link #mIsHostParticipantIdentityKnown} is {@code false} in that case.
      */
-    private Pair<Uri, Uri> mHostParticipantIdentity = null;
+    private boolean mIsHostParticipantIdentityKnown = false;
+    private Uri mHostParticipantHandle = null;
+    private Uri mHostParticipantEndpoint = null;
 
     public void updateConferenceParticipantsAfterCreation() {
         if (mConferenceHost != null) {
@@ -970,8 +967,13 @@ public class ImsConference extends TelephonyConferenceBase implements Holdable {
             int oldParticipantCount = mConferenceParticipantConnections.size();
             boolean newParticipantsAdded = false;
             boolean oldParticipantsRemoved = false;
-            ArrayList<ConferenceParticipant> newParticipants = new ArrayList<>(participants.size());
-            HashSet<Pair<Uri,Uri>> participantUserEntities = new HashSet<>(participants.size());
+            ArrayList<ConferenceParticipant> newParticipants = null;
+            // Telecom has no call to add or remove several connections of a conference at once,
+            // so the changes are collected while reconciling the roster and applied together
+            // afterwards; a participant which joins and leaves within one update never reaches
+            // Telecom.
+            ArrayList<ConferenceParticipantConnection> addedConnections = null;
+            ArrayList<ConferenceParticipantConnection> removedConnections = null;
 
             // Determine if the conference event package represents a single party conference.
             // A single party conference is one where there is no other participant other than the
@@ -984,13 +986,14 @@ public class ImsConference extends TelephonyConferenceBase implements Holdable {
             // send a conference event package with JUST the host in it when the conference is
             // disconnected.  We don't want to change back to conference mode prior to disconnection
             // or we will not log the call.
-            boolean isSinglePartyConference = participants.stream()
-                    .filter(p -> {
-                        Pair<Uri, Uri> pIdent = new Pair<>(p.getHandle(), p.getEndpoint());
-                        return !Objects.equals(mHostParticipantIdentity, pIdent)
-                                && p.getState() != Connection.STATE_DISCONNECTED;
-                    })
-                    .count() <= 1;
+            int otherParticipantCount = 0;
+            for (ConferenceParticipant p : participants) {
+                if (!isHostParticipantIdentity(p.getHandle(), p.getEndpoint())
+                        && p.getState() != Connection.STATE_DISCONNECTED) {
+                    otherParticipantCount++;
+                }
+            }
+            boolean isSinglePartyConference = otherParticipantCount <= 1;
 
             // We will only process the CEP data if:
             // 1. We're not emulating a single party call.
@@ -998,85 +1001,92 @@ public class ImsConference extends TelephonyConferenceBase implements Holdable {
             //    single party
             if ((!isMultiparty() && !isSinglePartyConference)
                     || isMultiparty()) {
+                // Start a new roster version; participants listed by this update are marked as
+                // seen, and the ones left unseen are removed below.
+                mConferenceParticipantConnections.beginUpdate();
+
                 // Add any new participants and update existing.
                 for (ConferenceParticipant participant : participants) {
-                    Pair<Uri, Uri> userEntity = new Pair<>(participant.getHandle(),
-                            participant.getEndpoint());
-
-                    // We will exclude disconnected participants from the hash set of tracked
-                    // participants.  Some carriers are known to leave disconnected participants in
-                    // the conference event package data which would cause them to be present in the
-                    // conference even though they're disconnected.  Removing them from the hash set
-                    // here means we'll clean them up below.
-                    if (participant.getState() != Connection.STATE_DISCONNECTED) {
-                        participantUserEntities.add(userEntity);
-                    }
-                    if (!mConferenceParticipantConnections.containsKey(userEntity)) {
+                    Uri handle = participant.getHandle();
+                    Uri endpoint = participant.getEndpoint();
+                    ConferenceParticipantConnection connection =
+                            mConferenceParticipantConnections.get(handle, endpoint);
+                    if (connection == null) {
                         // Some carriers will also include the conference host in the CEP.  We will
                         // filter that out here.
-                        if (!isParticipantHost(mConferenceHostAddress, participant.getHandle())) {
+                        if (!isParticipantHost(mConferenceHostAddress, handle)) {
                             createConferenceParticipantConnection(parent, participant);
+                            if (newParticipants == null) {
+                                newParticipants = new ArrayList<>();
+                            }
                             newParticipants.add(participant);
-                            newParticipantsAdded = true;
                         } else {
                             // Track the identity of the conference host; its useful to know when
                             // we look at the CEP in the future.
-                            mHostParticipantIdentity = userEntity;
+                            mIsHostParticipantIdentityKnown = true;
+                            mHostParticipantHandle = handle;
+                            mHostParticipantEndpoint = endpoint;
                         }
                     } else {
-                        ConferenceParticipantConnection connection =
-                                mConferenceParticipantConnections.get(userEntity);
-                        Log.i(this,
-                                "handleConferenceParticipantsUpdate: updateState, participant = %s",
-                                participant);
-                        connection.updateState(participant.getState());
-                        if (participant.getState() == Connection.STATE_DISCONNECTED) {
-                            /**
-                             * Per {@link ConferenceParticipantConnection#updateState(int)}, we will
-                             * destroy the connection when its disconnected.
-                             */
-                            handleConnectionDestruction(connection);
+                        // We will not mark disconnected participants as seen.  Some carriers are
+                        // known to leave disconnected participants in the conference event
+                        // package data which would cause them to be present in the conference
+                        // even though they're disconnected.  Leaving them unseen here means we'll
+                        // clean them up below.
+                        if (participant.getState() != Connection.STATE_DISCONNECTED) {
+                            mConferenceParticipantConnections.markSeen(handle, endpoint);
+                        }
+                        if (applyParticipantState(parent, connection, participant)) {
+                            mConferenceParticipantConnections.remove(handle, endpoint);
+                            if (removedConnections == null) {
+                                removedConnections = new ArrayList<>();
+                            }
+                            removedConnections.add(connection);
                         }
-                        connection.setVideoState(parent.getVideoState());
                     }
                 }
 
                 // Set state of new participants.
-                if (newParticipantsAdded) {
-                    // Set the state of the new participants at once and add to the conference
+                if (newParticipants != null) {
+                    // Set the state of the new participants at once; the ones which are still
+                    // part of the conference are added to Telecom below.
                     for (ConferenceParticipant newParticipant : newParticipants) {
                         ConferenceParticipantConnection connection =
-                                mConferenceParticipantConnections.get(new Pair<>(
-                                        newParticipant.getHandle(),
-                                        newParticipant.getEndpoint()));
-                        connection.updateState(newParticipant.getState());
-                        /**
-                         * Per {@link ConferenceParticipantConnection#updateState(int)}, we will
-                         * destroy the connection when its disconnected.
-                         */
-                        if (newParticipant.getState() == Connection.STATE_DISCONNECTED) {
-                            handleConnectionDestruction(connection);
+                                mConferenceParticipantConnections.get(newParticipant.getHandle(),
+                                        newParticipant.getEndpoint());
+                        if (applyParticipantState(parent, connection, newParticipant)) {
+                            mConferenceParticipantConnections.remove(newParticipant.getHandle(),
+                                    newParticipant.getEndpoint());
+                            connection.destroy();
+                        } else {
+                            if (addedConnections == null) {
+                                addedConnections = new ArrayList<>();
+                            }
+                            addedConnections.add(connection);
                         }
-                        connection.setVideoState(parent.getVideoState());
                     }
                 }
 
                 // Finally, remove any participants from the conference that no longer exist in the
                 // conference event package data.
-                Iterator<Map.Entry<Pair<Uri, Uri>, ConferenceParticipantConnection>> entryIterator =
-                        mConferenceParticipantConnections.entrySet().iterator();
-                while (entryIterator.hasNext()) {
-                    Map.Entry<Pair<Uri, Uri>, ConferenceParticipantConnection> entry =
-                            entryIterator.next();
-
-                    if (!participantUserEntities.contains(entry.getKey())) {
-                        ConferenceParticipantConnection participant = entry.getValue();
-                        participant.setDisconnected(new DisconnectCause(DisconnectCause.CANCELED));
-                        removeTelephonyConnection(participant);
-                        participant.destroy();
-                        entryIterator.remove();
-                        oldParticipantsRemoved = true;
+                for (ConferenceParticipantConnection participant :
+                        mConferenceParticipantConnections.removeUnseen()) {
+                    participant.setDisconnected(new DisconnectCause(DisconnectCause.CANCELED));
+                    if (removedConnections == null) {
+                        removedConnections = new ArrayList<>();
                     }
+                    removedConnections.add(participant);
+                }
+
+                // Apply the removals before the additions so the conference never holds more
+                // participants than the CEP reported.
+                if (removedConnections != null) {
+                    removeConferenceParticipants(removedConnections);
+                    oldParticipantsRemoved = true;
+                }
+                if (addedConnections != null) {
+                    addConferenceParticipants(addedConnections);
+                    newParticipantsAdded = true;
                 }
             }
 
@@ -1117,6 +1127,39 @@ public class ImsConference extends TelephonyConferenceBase implements Holdable {
         }
     }
 
+    /**
+     * Applies the state reported in the CEP to a participant connection.  Only the attributes
+     * which changed are pushed to Telecom.
+     *
+     * @return {@code true} if the participant was disconnected and has to be removed from the
+     * conference.
+     */
+    private boolean applyParticipantState(TelephonyConnection parent,
+            ConferenceParticipantConnection connection, ConferenceParticipant participant) {
+        if (connection.getState() != participant.getState()) {
+            Log.i(this, "handleConferenceParticipantsUpdate: updateState, participant = %s",
+                    participant);
+            connection.updateState(participant.getState());
+        }
+        if (participant.getState() == Connection.STATE_DISCONNECTED) {
+            return true;
+        }
+        if (connection.getVideoState() != parent.getVideoState()) {
+            connection.setVideoState(parent.getVideoState());
+        }
+        return false;
+    }
+
+    /**
+     * @return {@code true} if the handle and endpoint are those of the conference host as seen in
+     * a previous CEP.
+     */
+    private boolean isHostParticipantIdentity(Uri handle, Uri endpoint) {
+        return mIsHostParticipantIdentityKnown
+                && Objects.equals(mHostParticipantHandle, handle)
+                && Objects.equals(mHostParticipantEndpoint, endpoint);
+    }
+
     /**
      * Called after {@link #startEmulatingSinglePartyCall()} to cause the conference to appear as
      * if it is a conference again.
@@ -1150,7 +1193,8 @@ public class ImsConference extends TelephonyConferenceBase implements Holdable {
 
         // Copy the conference connect time back to the previous lone participant.
         ConferenceParticipantConnection loneParticipant =
-                mConferenceParticipantConnections.get(mLoneParticipantIdentity);
+                mConferenceParticipantConnections.get(mLoneParticipantHandle,
+                        mLoneParticipantEndpoint);
         if (loneParticipant != null) {
             Log.d(this,
                     "stopEmulatingSinglePartyCall: restored lone participant connect time");
@@ -1186,10 +1230,8 @@ public class ImsConference extends TelephonyConferenceBase implements Holdable {
         Log.i(this, "startEmulatingSinglePartyCall: conference has a single "
                 + "participant; downgrade to single party call.");
 
-        Iterator<ConferenceParticipantConnection> valueIterator =
-                mConferenceParticipantConnections.values().iterator();
-        if (valueIterator.hasNext()) {
-            ConferenceParticipantConnection entry = valueIterator.next();
+        ConferenceParticipantConnection entry = mConferenceParticipantConnections.any();
+        if (entry != null) {
 
             // Set the conference name/number to that of the remaining participant.
             setAddress(entry.getAddress(), entry.getAddressPresentation());
@@ -1199,7 +1241,8 @@ public class ImsConference extends TelephonyConferenceBase implements Holdable {
                     entry.getConnectionStartElapsedRealtimeMillis());
             setConnectionTime(entry.getConnectTimeMillis());
             setCallDirection(entry.getCallDirection());
-            mLoneParticipantIdentity = new Pair<>(entry.getUserEntity(), entry.getEndpoint());
+            mLoneParticipantHandle = entry.getUserEntity();
+            mLoneParticipantEndpoint = entry.getEndpoint();
 
             // Remove the participant from Telecom.  It'll get picked up in a future CEP update
             // again anyways.
@@ -1207,7 +1250,8 @@ public class ImsConference extends TelephonyConferenceBase implements Holdable {
                     DisconnectCause.REASON_EMULATING_SINGLE_CALL));
             removeTelephonyConnection(entry);
             entry.destroy();
-            valueIterator.remove();
+            mConferenceParticipantConnections.remove(mLoneParticipantHandle,
+                    mLoneParticipantEndpoint);
         }
 
         // Have Telecom pretend its not a conference.
@@ -1225,7 +1269,8 @@ public class ImsConference extends TelephonyConferenceBase implements Holdable {
      * Creates a new {@link ConferenceParticipantConnection} to represent a
      * {@link ConferenceParticipant}.
      * <p>
-     * The new connection is added to the conference controller and connection service.
+     * The new connection is only added to the roster; the caller adds it to the conference and
+     * connection service with {@link #addConferenceParticipants(List)}.
      *
      * @param parent The connection which was notified of the participant change (e.g. the
      *                         parent connection).
@@ -1262,28 +1307,40 @@ public class ImsConference extends TelephonyConferenceBase implements Holdable {
                 participant, connection);
 
         synchronized(mUpdateSyncRoot) {
-            mConferenceParticipantConnections.put(new Pair<>(participant.getHandle(),
-                    participant.getEndpoint()), connection);
+            mConferenceParticipantConnections.put(participant.getHandle(),
+                    participant.getEndpoint(), connection);
         }
+    }
 
-        mTelephonyConnectionService.addExistingConnection(mConferenceHostPhoneAccountHandle,
-                connection, this);
-        addTelephonyConnection(connection);
+    /**
+     * Adds the connections created for new participants to the conference controller and
+     * connection service.
+     *
+     * @param connections The connections created by one conference event package update.
+     */
+    private void addConferenceParticipants(List<ConferenceParticipantConnection> connections) {
+        Log.i(this, "addConferenceParticipants: %d", connections.size());
+
+        for (ConferenceParticipantConnection connection : connections) {
+            mTelephonyConnectionService.addExistingConnection(mConferenceHostPhoneAccountHandle,
+                    connection, this);
+            addTelephonyConnection(connection);
+        }
     }
 
     /**
-     * Removes a conference participant from the conference.
+     * Removes conference participants which are no longer part of the conference.  The
+     * connections must already have been removed from the roster.
      *
-     * @param participant The participant to remove.
+     * @param connections The connections removed by one conference event package update.
      */
-    private void removeConferenceParticipant(ConferenceParticipantConnection participant) {
-        Log.i(this, "removeConferenceParticipant: %s", participant);
+    private void removeConferenceParticipants(List<ConferenceParticipantConnection> connections) {
+        Log.i(this, "removeConferenceParticipants: %d", connections.size());
 
-        synchronized(mUpdateSyncRoot) {
-            mConferenceParticipantConnections.remove(new Pair<>(participant.getUserEntity(),
-                    participant.getEndpoint()));
+        for (ConferenceParticipantConnection connection : connections) {
+            removeTelephonyConnection(connection);
+            connection.destroy();
         }
-        participant.destroy();
     }
 
     /**
@@ -1294,7 +1351,7 @@ public class ImsConference extends TelephonyConferenceBase implements Holdable {
 
         synchronized(mUpdateSyncRoot) {
             for (ConferenceParticipantConnection connection :
-                    mConferenceParticipantConnections.values()) {
+                    mConferenceParticipantConnections.connections()) {
 
                 // Mark disconnect cause as cancelled to ensure that the call is not logged in the
                 // call log.
@@ -1639,15 +1696,4 @@ public class ImsConference extends TelephonyConferenceBase implements Holdable {
         return mCarrierConfig.isMaximumConferenceSizeEnforced()
                 && getNumberOfParticipants() >= mCarrierConfig.getMaximumConferenceSize();
     }
-
-    /**
-     * Handles destruction of a {@link ConferenceParticipantConnection}.
-     * We remove the participant from the list of tracked participants in the conference and
-     * update whether the conference can be managed.
-     * @param participant the conference participant.
-     */
-    private void handleConnectionDestruction(ConferenceParticipantConnection participant) {
-        removeConferenceParticipant(participant);
-        updateManageConference();
-    }
 }
@@ -36,8 +36,9 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.Set;
 
 /**
  * Manages conferences for IMS connections.
@@ -122,6 +123,19 @@ public class ImsConferenceController {
      */
     private final ArrayList<ImsConference> mImsConferences = new ArrayList<>(2);
 
+    /**
+     * The ACTIVE or HOLDING members and the conference participants used by the last
+     * {@link #recalculateConferenceable()} which updated the conferenceables of its members.
+     */
+    private final Set<Conferenceable> mLastConferenceableSet = new HashSet<>();
+    private final Set<Conferenceable> mLastConferenceParticipantsSet = new HashSet<>();
+
+    /**
+     * Tracked connections whose conferenceables may be non-empty and have to be cleared once they
+     * can no longer be conferenced.
+     */
+    private final Set<Connection> mConnectionsWithConferenceables = new HashSet<>();
+
     private TelecomAccountRegistry mTelecomAccountRegistry;
 
     /**
@@ -175,6 +189,9 @@ public class ImsConferenceController {
         }
 
         mTelephonyConnections.add(connection);
+        // The connection may have been given conferenceables before it was tracked here; make
+        // sure they are cleared if it turns out not to be conferenceable.
+        mConnectionsWithConferenceables.add(connection);
         connection.addTelephonyConnectionListener(mTelephonyConnectionListener);
         recalculateConference();
         recalculateConferenceable();
@@ -208,6 +225,7 @@ public class ImsConferenceController {
             telephonyConnection.removeTelephonyConnectionListener(mTelephonyConnectionListener);
         }
         mTelephonyConnections.remove(connection);
+        mConnectionsWithConferenceables.remove(connection);
         recalculateConferenceable();
     }
 
@@ -222,12 +240,16 @@ public class ImsConferenceController {
 
     /**
      * Calculates the conference-capable state of all GSM connections in this connection service.
+     * <p>
+     * The conferenceables of a member only depend on the set of ACTIVE or HOLDING members and on
+     * the participants of the conferences in that set.  The result of the last calculation is
+     * kept, so Telecom is only updated for the members whose conferenceables actually changed.
      */
     private void recalculateConferenceable() {
         Log.v(this, "recalculateConferenceable : %d", mTelephonyConnections.size());
-        HashSet<Conferenceable> conferenceableSet = new HashSet<>(mTelephonyConnections.size() +
-                mImsConferences.size());
-        HashSet<Conferenceable> conferenceParticipantsSet = new HashSet<>();
+        LinkedHashSet<Conferenceable> conferenceableSet = new LinkedHashSet<>(
+                mTelephonyConnections.size() + mImsConferences.size());
+        LinkedHashSet<Conferenceable> conferenceParticipantsSet = new LinkedHashSet<>();
 
         // Loop through and collect all calls which are active or holding
         for (TelephonyConnection connection : mTelephonyConnections) {
@@ -248,7 +270,7 @@ public class ImsConferenceController {
             // If this connection does not support being in a conference call, then it is not
             // conferenceable with any other connection.
             if (!connection.isConferenceSupported()) {
-                connection.setConferenceables(Collections.<Conferenceable>emptyList());
+                clearConferenceables(connection);
                 continue;
             }
 
@@ -262,7 +284,7 @@ public class ImsConferenceController {
                     break;
             }
             // This connection is not active or holding, so clear all conferencable connections
-            connection.setConferenceables(Collections.<Conferenceable>emptyList());
+            clearConferenceables(connection);
         }
         // Also loop through all active conferences and collect the ones that are ACTIVE or HOLDING.
         for (ImsConference conference : mImsConferences) {
@@ -298,13 +320,37 @@ public class ImsConferenceController {
 
         Log.v(this, "conferenceableSet size: " + conferenceableSet.size());
 
+        // Every member's conferenceables are derived from these two sets alone; if neither
+        // changed, neither did the conferenceables of the members.
+        if (conferenceableSet.equals(mLastConferenceableSet)
+                && conferenceParticipantsSet.equals(mLastConferenceParticipantsSet)) {
+            Log.v(this, "conferenceableSet unchanged; skipping update");
+            return;
+        }
+        mLastConferenceableSet.clear();
+        mLastConferenceableSet.addAll(conferenceableSet);
+        mLastConferenceParticipantsSet.clear();
+        mLastConferenceParticipantsSet.addAll(conferenceParticipantsSet);
+
+        // Remove all conferences from the set, since we can not conference a conference
+        // to another conference.
+        List<Connection> connections = new ArrayList<>(conferenceableSet.size());
+        for (Conferenceable c : conferenceableSet) {
+            if (c instanceof Connection) {
+                connections.add((Connection) c);
+            }
+        }
+
         for (Conferenceable c : conferenceableSet) {
             if (c instanceof Connection) {
                 // Remove this connection from the Set and add all others
-                List<Conferenceable> conferenceables = conferenceableSet
-                        .stream()
-                        .filter(conferenceable -> c != conferenceable)
-                        .collect(Collectors.toList());
+                List<Conferenceable> conferenceables = new ArrayList<>(
+                        conferenceableSet.size() - 1 + conferenceParticipantsSet.size());
+                for (Conferenceable conferenceable : conferenceableSet) {
+                    if (conferenceable != c) {
+                        conferenceables.add(conferenceable);
+                    }
+                }
                 // TODO: Remove this once RemoteConnection#setConferenceableConnections is fixed.
                 // Add all conference participant connections as conferenceable with a standalone
                 // Connection.  We need to do this to ensure that RemoteConnections work properly.
@@ -316,27 +362,24 @@ public class ImsConferenceController {
                 conferenceables.addAll(conferenceParticipantsSet);
 
                 ((Connection) c).setConferenceables(conferenceables);
+                mConnectionsWithConferenceables.add((Connection) c);
             } else if (c instanceof ImsConference) {
-                ImsConference imsConference = (ImsConference) c;
-
-                // If the conference is full, don't allow anything to be conferenced with it.
-                if (imsConference.isFullConference()) {
-                    imsConference.setConferenceableConnections(Collections.<Connection>emptyList());
-                }
-
-                // Remove all conferences from the set, since we can not conference a conference
-                // to another conference.
-                List<Connection> connections = conferenceableSet
-                        .stream()
-                        .filter(conferenceable -> conferenceable instanceof Connection)
-                        .map(conferenceable -> (Connection) conferenceable)
-                        .collect(Collectors.toList());
                 // Conference equivalent to setConferenceables that only accepts Connections
-                imsConference.setConferenceableConnections(connections);
+                ((ImsConference) c).setConferenceableConnections(connections);
             }
         }
     }
 
+    /**
+     * Clears the conferenceables of a connection which can no longer be conferenced, unless they
+     * are already known to be empty.
+     */
+    private void clearConferenceables(Connection connection) {
+        if (mConnectionsWithConferenceables.remove(connection)) {
+            connection.setConferenceables(Collections.<Conferenceable>emptyList());
+        }
+    }
+
     /**
      * Determines if a connection is a member of a conference hosted on another device.
      *
@@ -369,6 +412,7 @@ public class ImsConferenceController {
 
                 startConference(connection);
                 it.remove();
+                mConnectionsWithConferenceables.remove(connection);
             }
         }
     }
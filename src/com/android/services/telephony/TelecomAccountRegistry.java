@@ -37,6 +37,7 @@ import android.os.HandlerExecutor;
 import android.os.HandlerThread;
 import android.os.Looper;
 import android.os.PersistableBundle;
+import android.os.SystemClock;
 import android.os.UserHandle;
 import android.provider.Settings;
 import android.provider.Telephony;
@@ -64,15 +65,21 @@ import com.android.internal.telephony.ExponentialBackoff;
 import com.android.internal.telephony.Phone;
 import com.android.internal.telephony.PhoneFactory;
 import com.android.internal.telephony.SubscriptionController;
+import com.android.internal.util.IndentingPrintWriter;
 import com.android.phone.PhoneGlobals;
 import com.android.phone.PhoneUtils;
 import com.android.phone.R;
 import com.android.telephony.Rlog;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Comparator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Predicate;
 
 /**
@@ -91,6 +98,16 @@ public class TelecomAccountRegistry {
     private static final int REGISTER_START_DELAY_MS = 1 * 1000; // 1 second
     private static final int REGISTER_MAXIMUM_DELAY_MS = 60 * 1000; // 1 minute
 
+    /**
+     * Capability changes for an account which arrive within this window of each other, such as
+     * the RTT, call composer and ad-hoc conference updates caused by a single IMS registration
+     * change, are applied with a single rebuild of the {@link PhoneAccount}.
+     */
+    private static final int PHONE_ACCOUNT_UPDATE_COALESCE_DELAY_MS = 100;
+
+    private static final int MAX_PARALLEL_ACCOUNT_SETUP = 2;
+    private static final long ACCOUNT_SETUP_THREAD_KEEP_ALIVE_MS = 10 * 1000; // 10 seconds
+
     /**
      * Indicates the {@link SubscriptionManager.OnSubscriptionsChangedListener} has not yet been
      * registered.
@@ -128,10 +145,16 @@ public class TelecomAccountRegistry {
         private boolean mIsAdhocConfCapable;
         private boolean mIsEmergencyPreferred;
         private MmTelFeature.MmTelCapabilities mMmTelCapabilities;
-        private ImsMmTelManager.CapabilityCallback mMmtelCapabilityCallback;
-        private RegistrationManager.RegistrationCallback mImsRegistrationCallback;
-        private ImsMmTelManager mMmTelManager;
+        private volatile ImsMmTelManager.CapabilityCallback mMmtelCapabilityCallback;
+        private volatile RegistrationManager.RegistrationCallback mImsRegistrationCallback;
+        private volatile ImsMmTelManager mMmTelManager;
         private final boolean mIsTestAccount;
+        /** The subscription the {@link PhoneAccount} of this entry was registered for. */
+        private final int mRegisteredSubId;
+        // Guarded by this.
+        private boolean mIsTornDown;
+        // Guarded by this. Set once registerImsCallbacks() has registered the IMS callbacks.
+        private boolean mIsImsCallbackRegistered;
         private boolean mIsVideoCapable;
         private boolean mIsVideoPresenceSupported;
         private boolean mIsVideoPauseSupported;
@@ -142,11 +165,15 @@ public class TelecomAccountRegistry {
         private boolean mIsManageImsConferenceCallSupported;
         private boolean mIsUsingSimCallManager;
         private boolean mIsShowPreciseFailedCause;
+        // Guarded by mAccountsLock.
+        private boolean mIsPhoneAccountUpdatePending;
+        private final Runnable mPhoneAccountUpdateRunnable = this::updatePstnPhoneAccount;
 
         AccountEntry(Phone phone, boolean isEmergency, boolean isTest) {
             mPhone = phone;
             mIsEmergency = isEmergency;
             mIsTestAccount = isTest;
+            mRegisteredSubId = phone.getSubId();
             mIsAdhocConfCapable = mPhone.isImsRegistered();
             mAccount = registerPstnPhoneAccount(isEmergency, isTest);
             Log.i(this, "Registered phoneAccount: %s with handle: %s",
@@ -154,17 +181,32 @@ public class TelecomAccountRegistry {
             mIncomingCallNotifier = new PstnIncomingCallNotifier((Phone) mPhone);
             mPhoneCapabilitiesNotifier = new PstnPhoneCapabilitiesNotifier((Phone) mPhone,
                     this);
+        }
 
-            if (mIsTestAccount || isEmergency) {
+        /**
+         * Registers the IMS registration and MmTel capability callbacks for this account. These
+         * require binder calls to the ImsService and are not needed to place or receive a call,
+         * so they are registered after the {@link PhoneAccount}s of all subscriptions have been
+         * registered with Telecom, in parallel for each subscription.
+         */
+        void registerImsCallbacks() {
+            if (mIsTestAccount || mIsEmergency) {
                 // For test and emergency entries, there is no sub ID that can be assigned, so do
                 // not register for capabilities callbacks.
                 return;
             }
 
+            synchronized (this) {
+                if (mIsTornDown) {
+                    return;
+                }
+            }
+
+            ImsMmTelManager mmTelManager = null;
             try {
                 if (mPhone.getContext().getPackageManager().hasSystemFeature(
                         PackageManager.FEATURE_TELEPHONY_IMS)) {
-                    mMmTelManager = ImsMmTelManager.createForSubscriptionId(getSubId());
+                    mmTelManager = ImsMmTelManager.createForSubscriptionId(getSubId());
                 }
             } catch (IllegalArgumentException e) {
                 Log.i(this, "Not registering MmTel capabilities listener because the subid '"
@@ -172,39 +214,81 @@ public class TelecomAccountRegistry {
                 return;
             }
 
-            mMmtelCapabilityCallback = new ImsMmTelManager.CapabilityCallback() {
-                @Override
-                public void onCapabilitiesStatusChanged(
-                        MmTelFeature.MmTelCapabilities capabilities) {
-                    mMmTelCapabilities = capabilities;
-                    updateRttCapability();
-                    updateCallComposerCapability(capabilities);
+            synchronized (this) {
+                if (mIsTornDown) {
+                    return;
                 }
-            };
-            registerMmTelCapabilityCallback();
+                mMmtelCapabilityCallback = new ImsMmTelManager.CapabilityCallback() {
+                    @Override
+                    public void onCapabilitiesStatusChanged(
+                            MmTelFeature.MmTelCapabilities capabilities) {
+                        mMmTelCapabilities = capabilities;
+                        updateRttCapability();
+                        updateCallComposerCapability(capabilities);
+                    }
+                };
 
-            mImsRegistrationCallback = new RegistrationManager.RegistrationCallback() {
-                @Override
-                public void onRegistered(int imsRadioTech) {
-                    updateAdhocConfCapability(true);
-                }
+                mImsRegistrationCallback = new RegistrationManager.RegistrationCallback() {
+                    @Override
+                    public void onRegistered(int imsRadioTech) {
+                        updateAdhocConfCapability(true);
+                    }
 
-                @Override
-                public void onRegistering(int imsRadioTech) {
-                    updateAdhocConfCapability(false);
-                }
+                    @Override
+                    public void onRegistering(int imsRadioTech) {
+                        updateAdhocConfCapability(false);
+                    }
 
-                @Override
-                public void onUnregistered(ImsReasonInfo imsReasonInfo) {
-                    updateAdhocConfCapability(false);
-                }
-            };
+                    @Override
+                    public void onUnregistered(ImsReasonInfo imsReasonInfo) {
+                        updateAdhocConfCapability(false);
+                    }
+                };
+                mMmTelManager = mmTelManager;
+            }
+
+            // The registrations are binder calls to the ImsService, so they are made without
+            // holding the lock teardown() needs on the main thread.
+            registerMmTelCapabilityCallback();
             registerImsRegistrationCallback();
+
+            boolean tornDown;
+            synchronized (this) {
+                tornDown = mIsTornDown;
+                mIsImsCallbackRegistered = !tornDown;
+            }
+            if (tornDown) {
+                // teardown() ran while the callbacks were being registered and left them to us.
+                unregisterImsCallbacks();
+            }
+        }
+
+        /**
+         * @return {@code true} if this entry can be kept for the given phone because neither the
+         * phone nor its subscription changed since the entry was created.
+         */
+        boolean isReusableFor(Phone phone) {
+            return !mIsEmergency && !mIsTestAccount && mPhone == phone
+                    && mRegisteredSubId == phone.getSubId();
         }
 
         void teardown() {
+            mHandler.removeCallbacks(mPhoneAccountUpdateRunnable);
             mIncomingCallNotifier.teardown();
             mPhoneCapabilitiesNotifier.teardown();
+            boolean registered;
+            synchronized (this) {
+                mIsTornDown = true;
+                registered = mIsImsCallbackRegistered;
+            }
+            // If registerImsCallbacks() is still running, it unregisters once it sees
+            // mIsTornDown.
+            if (registered) {
+                unregisterImsCallbacks();
+            }
+        }
+
+        private void unregisterImsCallbacks() {
             if (mMmTelManager != null) {
                 if (mMmtelCapabilityCallback != null) {
                     mMmTelManager.unregisterMmTelCapabilityCallback(mMmtelCapabilityCallback);
@@ -265,9 +349,11 @@ public class TelecomAccountRegistry {
                 Log.i(this, "reRegisterPstnPhoneAccount: subId: " + getSubId()
                         + " - re-register due to account change.");
                 mTelecomManager.registerPhoneAccount(newAccount);
+                mPhoneAccountRegistrationCount++;
                 mAccount = newAccount;
             } else {
                 Log.i(this, "reRegisterPstnPhoneAccount: subId: " + getSubId() + " - no change");
+                mPhoneAccountRegistrationsAvoidedCount++;
             }
         }
 
@@ -275,9 +361,43 @@ public class TelecomAccountRegistry {
             PhoneAccount account = buildPstnPhoneAccount(mIsEmergency, mIsTestAccount);
             // Register with Telecom and put into the account entry.
             mTelecomManager.registerPhoneAccount(account);
+            mPhoneAccountRegistrationCount++;
+            if (mTimeToFirstAccountMillis < 0 && mSetupOnBootStartMillis >= 0) {
+                mTimeToFirstAccountMillis = SystemClock.elapsedRealtime()
+                        - mSetupOnBootStartMillis;
+                Log.i(this, "registerPstnPhoneAccount: first account registered "
+                        + mTimeToFirstAccountMillis + "ms after setupOnBoot");
+            }
             return account;
         }
 
+        /**
+         * Schedules a rebuild of the {@link PhoneAccount} after a capability change. Changes which
+         * arrive while an update is pending are folded into it, and the account is only
+         * re-registered with Telecom if the rebuilt account differs from the registered one.
+         * Must be called with {@link #mAccountsLock} held.
+         */
+        private void schedulePstnPhoneAccountUpdate() {
+            if (mIsPhoneAccountUpdatePending) {
+                mCoalescedPhoneAccountUpdateCount++;
+                return;
+            }
+            mIsPhoneAccountUpdatePending = true;
+            mHandler.postDelayed(mPhoneAccountUpdateRunnable,
+                    PHONE_ACCOUNT_UPDATE_COALESCE_DELAY_MS);
+        }
+
+        private void updatePstnPhoneAccount() {
+            synchronized (mAccountsLock) {
+                mIsPhoneAccountUpdatePending = false;
+                if (!mAccounts.contains(this)) {
+                    // Account has been torn down while the update was pending.
+                    return;
+                }
+                reRegisterPstnPhoneAccount();
+            }
+        }
+
         /**
          * Registers the specified account with Telecom as a PhoneAccountHandle.
          */
@@ -789,16 +909,19 @@ public class TelecomAccountRegistry {
          */
         @Override
         public void onVideoCapabilitiesChanged(boolean isVideoCapable) {
-            mIsVideoCapable = isVideoCapable;
             synchronized (mAccountsLock) {
                 if (!mAccounts.contains(this)) {
                     // Account has already been torn down, don't try to register it again.
                     // This handles the case where teardown has already happened, and we got a video
                     // update that lost the race for the mAccountsLock.  In such a scenario by the
                     // time we get here, the original phone account could have been torn down.
+                    mIsVideoCapable = isVideoCapable;
                     return;
                 }
-                mAccount = registerPstnPhoneAccount(mIsEmergency, mIsTestAccount);
+                if (isVideoCapable != mIsVideoCapable) {
+                    mIsVideoCapable = isVideoCapable;
+                    schedulePstnPhoneAccountUpdate();
+                }
             }
         }
 
@@ -817,7 +940,7 @@ public class TelecomAccountRegistry {
                     Log.i(this, "updateAdhocConfCapability - changed, new value: "
                             + isAdhocConfCapable);
                     mIsAdhocConfCapable = isAdhocConfCapable;
-                    mAccount = registerPstnPhoneAccount(mIsEmergency, mIsTestAccount);
+                    schedulePstnPhoneAccountUpdate();
                 }
             }
         }
@@ -837,7 +960,7 @@ public class TelecomAccountRegistry {
                 if (mIsVideoPresenceSupported != isVideoPresenceSupported) {
                     Log.i(this, "updateVideoPresenceCapability for subId=" + mPhone.getSubId()
                             + ", new value= " + isVideoPresenceSupported);
-                    mAccount = registerPstnPhoneAccount(mIsEmergency, mIsTestAccount);
+                    schedulePstnPhoneAccountUpdate();
                 }
             }
         }
@@ -856,7 +979,7 @@ public class TelecomAccountRegistry {
                 boolean isRttEnabled = isRttCurrentlySupported();
                 if (isRttEnabled != mIsRttCapable) {
                     Log.i(this, "updateRttCapability - changed, new value: " + isRttEnabled);
-                    mAccount = registerPstnPhoneAccount(mIsEmergency, mIsTestAccount);
+                    schedulePstnPhoneAccountUpdate();
                 }
             }
         }
@@ -878,7 +1001,7 @@ public class TelecomAccountRegistry {
                     mIsCallComposerCapable = isCallComposerCapable;
                     Log.i(this, "updateCallComposerCapability - changed, new value: "
                             + isCallComposerCapable);
-                    mAccount = registerPstnPhoneAccount(mIsEmergency, mIsTestAccount);
+                    schedulePstnPhoneAccountUpdate();
                 }
             }
         }
@@ -899,7 +1022,7 @@ public class TelecomAccountRegistry {
                 if (isEmergencyPreferred != mIsEmergencyPreferred) {
                     Log.i(this,
                             "updateDefaultDataSubId - changed, new value: " + isEmergencyPreferred);
-                    mAccount = registerPstnPhoneAccount(mIsEmergency, mIsTestAccount);
+                    schedulePstnPhoneAccountUpdate();
                 }
             }
         }
@@ -1064,9 +1187,9 @@ public class TelecomAccountRegistry {
             }
             mSubscriptionListenerState = LISTENER_STATE_REGISTERED;
 
-            // Any time the SubscriptionInfo changes rerun the setup
+            // Any time the SubscriptionInfo changes rerun the setup; entries for subscriptions
+            // which did not change are kept.
             Log.i(this, "TelecomAccountRegistry: onSubscriptionsChanged - update accounts");
-            tearDownAccounts();
             setupAccounts();
         }
 
@@ -1133,7 +1256,6 @@ public class TelecomAccountRegistry {
         public void onServiceStateChanged(ServiceState serviceState) {
             int newState = serviceState.getState();
             if (newState == ServiceState.STATE_IN_SERVICE && mServiceState != newState) {
-                tearDownAccounts();
                 setupAccounts();
             } else {
                 synchronized (mAccountsLock) {
@@ -1170,6 +1292,26 @@ public class TelecomAccountRegistry {
     private boolean mIsPrimaryUser = true;
     private ExponentialBackoff mRegisterSubscriptionListenerBackoff;
     private final HandlerThread mHandlerThread = new HandlerThread("TelecomAccountRegistry");
+    // Guarded by mAccountsLock.
+    private int mPhoneAccountRegistrationCount;
+    // Guarded by mAccountsLock.
+    private int mPhoneAccountRegistrationsAvoidedCount;
+    // Guarded by mAccountsLock.
+    private int mCoalescedPhoneAccountUpdateCount;
+    // Guarded by mAccountsLock.
+    private int mReusedAccountEntryCount;
+    // Guarded by mAccountsLock.
+    private long mSetupOnBootStartMillis = -1;
+    // Guarded by mAccountsLock.
+    private long mTimeToFirstAccountMillis = -1;
+    /**
+     * Registers the IMS callbacks of new account entries, one subscription per thread. Threads
+     * time out when idle, so none are kept once the accounts are set up.
+     */
+    private final ThreadPoolExecutor mAccountSetupExecutor = new ThreadPoolExecutor(
+            MAX_PARALLEL_ACCOUNT_SETUP, MAX_PARALLEL_ACCOUNT_SETUP,
+            ACCOUNT_SETUP_THREAD_KEEP_ALIVE_MS, TimeUnit.MILLISECONDS,
+            new LinkedBlockingQueue<>());
 
     // TODO: Remove back-pointer from app singleton to Service, since this is not a preferred
     // pattern; redesign. This was added to fix a late release bug.
@@ -1195,6 +1337,7 @@ public class TelecomAccountRegistry {
         mSubscriptionManager = SubscriptionManager.from(context);
         mHandlerThread.start();
         mHandler = new Handler(Looper.getMainLooper());
+        mAccountSetupExecutor.allowCoreThreadTimeOut(true);
         mRegisterSubscriptionListenerBackoff = new ExponentialBackoff(
                 REGISTER_START_DELAY_MS,
                 REGISTER_MAXIMUM_DELAY_MS,
@@ -1417,6 +1560,9 @@ public class TelecomAccountRegistry {
         // Register for SubscriptionInfo list changes which is guaranteed
         // to invoke onSubscriptionsChanged the first time.
         Log.i(this, "TelecomAccountRegistry: setupOnBoot - register subscription listener");
+        synchronized (mAccountsLock) {
+            mSetupOnBootStartMillis = SystemClock.elapsedRealtime();
+        }
         SubscriptionManager.from(mContext).addOnSubscriptionsChangedListener(
                 mOnSubscriptionsChangedListener);
 
@@ -1529,6 +1675,11 @@ public class TelecomAccountRegistry {
         }
     }
 
+    /**
+     * Brings the {@link AccountEntry}s in line with the current phones and subscriptions.
+     * Entries whose phone and subscription did not change are kept and only re-registered if
+     * their {@link PhoneAccount} changed; all other entries are torn down and recreated.
+     */
     private void setupAccounts() {
         // Go through SIM-based phones and register ourselves -- registering an existing account
         // will cause the existing entry to be replaced.
@@ -1537,32 +1688,72 @@ public class TelecomAccountRegistry {
 
         final boolean phoneAccountsEnabled = mContext.getResources().getBoolean(
                 R.bool.config_pstn_phone_accounts_enabled);
+        final long startMillis = SystemClock.elapsedRealtime();
+        List<AccountEntry> newEntries = new ArrayList<>();
+        boolean accountsChanged = false;
 
         synchronized (mAccountsLock) {
-            try {
-                if (phoneAccountsEnabled) {
-                    for (Phone phone : phones) {
-                        int subscriptionId = phone.getSubId();
-                        Log.i(this, "setupAccounts: Phone with subscription id %d", subscriptionId);
-                        // setupAccounts can be called multiple times during service changes.
-                        // Don't add an account if the Icc has not been set yet.
-                        if (!SubscriptionManager.isValidSubscriptionId(subscriptionId)
-                                || phone.getFullIccSerialNumber() == null) {
-                            Log.d(this, "setupAccounts: skipping invalid subid %d", subscriptionId);
-                            continue;
-                        }
-                        // Don't add account if it's opportunistic subscription, which is considered
-                        // data only for now.
-                        SubscriptionInfo info = SubscriptionManager.from(mContext)
-                                .getActiveSubscriptionInfo(subscriptionId);
-                        if (info == null || info.isOpportunistic()) {
-                            Log.d(this, "setupAccounts: skipping unknown or opportunistic subid %d",
-                                    subscriptionId);
-                            continue;
-                        }
+            List<Phone> accountPhones = new ArrayList<>();
+            if (phoneAccountsEnabled) {
+                for (Phone phone : phones) {
+                    int subscriptionId = phone.getSubId();
+                    Log.i(this, "setupAccounts: Phone with subscription id %d", subscriptionId);
+                    // setupAccounts can be called multiple times during service changes.
+                    // Don't add an account if the Icc has not been set yet.
+                    if (!SubscriptionManager.isValidSubscriptionId(subscriptionId)
+                            || phone.getFullIccSerialNumber() == null) {
+                        Log.d(this, "setupAccounts: skipping invalid subid %d", subscriptionId);
+                        continue;
+                    }
+                    // Don't add account if it's opportunistic subscription, which is considered
+                    // data only for now.
+                    SubscriptionInfo info = SubscriptionManager.from(mContext)
+                            .getActiveSubscriptionInfo(subscriptionId);
+                    if (info == null || info.isOpportunistic()) {
+                        Log.d(this, "setupAccounts: skipping unknown or opportunistic subid %d",
+                                subscriptionId);
+                        continue;
+                    }
+                    accountPhones.add(phone);
+                }
+            }
+            // Register the default voice subscription first so that Telecom can use it as soon
+            // as possible.
+            final int defaultVoiceSubId = SubscriptionManager.getDefaultVoiceSubscriptionId();
+            accountPhones.sort(
+                    Comparator.comparing(phone -> phone.getSubId() != defaultVoiceSubId));
+
+            // Tear down the entries which can not be kept before creating new ones, so that a
+            // phone never has two incoming call notifiers.
+            List<AccountEntry> reusableEntries = new ArrayList<>();
+            for (AccountEntry entry : mAccounts) {
+                if (findPhoneForEntry(accountPhones, entry) != null) {
+                    reusableEntries.add(entry);
+                } else if (entry.mIsEmergency && accountPhones.isEmpty()
+                        && entry.mPhone == PhoneFactory.getDefaultPhone()) {
+                    reusableEntries.add(entry);
+                } else {
+                    entry.teardown();
+                    accountsChanged = true;
+                }
+            }
+            mAccounts.clear();
 
-                        mAccounts.add(new AccountEntry(phone, false /* emergency */,
-                                false /* isTest */));
+            try {
+                for (Phone phone : accountPhones) {
+                    AccountEntry entry = findEntryForPhone(reusableEntries, phone);
+                    if (entry != null) {
+                        Log.i(this, "setupAccounts: keeping account for subId %d",
+                                phone.getSubId());
+                        mAccounts.add(entry);
+                        entry.reRegisterPstnPhoneAccount();
+                        mReusedAccountEntryCount++;
+                    } else {
+                        entry = new AccountEntry(phone, false /* emergency */,
+                                false /* isTest */);
+                        mAccounts.add(entry);
+                        newEntries.add(entry);
+                        accountsChanged = true;
                     }
                 }
             } finally {
@@ -1570,10 +1761,22 @@ public class TelecomAccountRegistry {
                 // for emergency numbers since no actual SIM is needed for dialing emergency
                 // numbers but a phone account is.
                 if (mAccounts.isEmpty()) {
-                    Log.i(this, "setupAccounts: adding default");
-                    mAccounts.add(
-                            new AccountEntry(PhoneFactory.getDefaultPhone(), true /* emergency */,
-                                    false /* isTest */));
+                    AccountEntry emergencyEntry = null;
+                    for (AccountEntry entry : reusableEntries) {
+                        if (entry.mIsEmergency) {
+                            emergencyEntry = entry;
+                        }
+                    }
+                    if (emergencyEntry != null) {
+                        Log.i(this, "setupAccounts: keeping default");
+                        emergencyEntry.reRegisterPstnPhoneAccount();
+                    } else {
+                        Log.i(this, "setupAccounts: adding default");
+                        emergencyEntry = new AccountEntry(PhoneFactory.getDefaultPhone(),
+                                true /* emergency */, false /* isTest */);
+                        accountsChanged = true;
+                    }
+                    mAccounts.add(emergencyEntry);
                 }
             }
 
@@ -1582,12 +1785,53 @@ public class TelecomAccountRegistry {
                 mAccounts.add(new AccountEntry(phones[0], false /* emergency */,
                         true /* isTest */));
             }
+
+            for (AccountEntry entry : reusableEntries) {
+                if (!mAccounts.contains(entry)) {
+                    entry.teardown();
+                    accountsChanged = true;
+                }
+            }
+        }
+
+        if (accountsChanged) {
+            // Invalidate the TelephonyManager cache which maps phone account handles to sub ids
+            // since some phone account handles were removed or recreated.
+            PropertyInvalidatedCache.invalidateCache(
+                    TelephonyManager.CACHE_KEY_PHONE_ACCOUNT_TO_SUBID);
+        }
+        Log.i(this, "setupAccounts: accounts registered in "
+                + (SystemClock.elapsedRealtime() - startMillis) + "ms, " + newEntries.size()
+                + " new");
+
+        // The accounts are usable now; register the IMS callbacks of each new subscription in
+        // parallel.
+        for (AccountEntry entry : newEntries) {
+            mAccountSetupExecutor.execute(entry::registerImsCallbacks);
         }
 
         // Clean up any PhoneAccounts that are no longer relevant
         cleanupPhoneAccounts();
     }
 
+    private static Phone findPhoneForEntry(List<Phone> phones, AccountEntry entry) {
+        for (Phone phone : phones) {
+            if (entry.isReusableFor(phone)) {
+                return phone;
+            }
+        }
+        return null;
+    }
+
+    private static AccountEntry findEntryForPhone(List<AccountEntry> entries, Phone phone) {
+        for (AccountEntry entry : entries) {
+            if (entry.isReusableFor(phone)) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
     private void tearDownAccounts() {
         synchronized (mAccountsLock) {
             for (AccountEntry entry : mAccounts) {
@@ -1600,6 +1844,24 @@ public class TelecomAccountRegistry {
         PropertyInvalidatedCache.invalidateCache(TelephonyManager.CACHE_KEY_PHONE_ACCOUNT_TO_SUBID);
     }
 
+    /**
+     * Dump the state of the phone account registrations.
+     */
+    public void dump(IndentingPrintWriter pw) {
+        synchronized (mAccountsLock) {
+            pw.println("TelecomAccountRegistry:");
+            pw.increaseIndent();
+            pw.println("accounts=" + mAccounts.size());
+            pw.println("phoneAccountRegistrations=" + mPhoneAccountRegistrationCount);
+            pw.println("phoneAccountRegistrationsAvoided="
+                    + mPhoneAccountRegistrationsAvoidedCount);
+            pw.println("coalescedPhoneAccountUpdates=" + mCoalescedPhoneAccountUpdateCount);
+            pw.println("reusedAccountEntries=" + mReusedAccountEntryCount);
+            pw.println("timeToFirstAccountMs=" + mTimeToFirstAccountMillis);
+            pw.decreaseIndent();
+        }
+    }
+
     /**
      * Handles changes to the carrier configuration which may impact a phone account.  There are
      * some extras defined in the {@link PhoneAccount} which are based on carrier config options.
@@ -30,6 +30,7 @@ import android.os.Looper;
 import android.os.Message;
 import android.os.Messenger;
 import android.os.PersistableBundle;
+import android.os.SystemClock;
 import android.telecom.CallAudioState;
 import android.telecom.CallDiagnostics;
 import android.telecom.CallScreeningService;
@@ -148,7 +149,37 @@ abstract class TelephonyConnection extends Connection implements Holdable, Commu
     private List<Uri> mParticipants;
     private boolean mIsAdhocConferenceCall;
 
+    /**
+     * Handles the events of the original connection.  Telecom {@link Connection} state and the
+     * conference controllers are confined to the main thread, so events are handled there too;
+     * the dispatch latency of every event type is recorded in {@link CallEventDispatchStats} to
+     * show when call events are held up by other work on that thread.
+     * <p>
+     * These events must not be moved to a serial executor off the main thread: handling them
+     * calls the {@link Connection} setters and reads the original connection, its Call and the
+     * call tracker, all of which are also changed by the ConnectionService callbacks
+     * (onAnswer, onHold, onDisconnect, ...) and by the call tracker on the main thread.  Neither
+     * side is synchronized, so a second thread would race with them and could reorder a state
+     * change against a user action on the same call.
+     */
     private final Handler mHandler = new Handler(Looper.getMainLooper()) {
+        @Override
+        public void dispatchMessage(Message msg) {
+            if (msg.getCallback() != null) {
+                super.dispatchMessage(msg);
+                return;
+            }
+            int what = msg.what;
+            long dispatchStartMillis = SystemClock.uptimeMillis();
+            long queueMillis = dispatchStartMillis - msg.getWhen();
+            try {
+                super.dispatchMessage(msg);
+            } finally {
+                CallEventDispatchStats.getInstance().record(callEventToString(what), queueMillis,
+                        SystemClock.uptimeMillis() - dispatchStartMillis);
+            }
+        }
+
         @Override
         public void handleMessage(Message msg) {
             switch (msg.what) {
@@ -334,6 +365,41 @@ abstract class TelephonyConnection extends Connection implements Holdable, Commu
 
     private final Messenger mHandlerMessenger = new Messenger(mHandler);
 
+    /**
+     * @return The name of a call event handled by {@link #mHandler}, used for dispatch latency
+     * metrics.
+     */
+    @VisibleForTesting
+    static String callEventToString(int what) {
+        switch (what) {
+            case MSG_PRECISE_CALL_STATE_CHANGED: return "PRECISE_CALL_STATE_CHANGED";
+            case MSG_RINGBACK_TONE: return "RINGBACK_TONE";
+            case MSG_HANDOVER_STATE_CHANGED: return "HANDOVER_STATE_CHANGED";
+            case MSG_DISCONNECT: return "DISCONNECT";
+            case MSG_MULTIPARTY_STATE_CHANGED: return "MULTIPARTY_STATE_CHANGED";
+            case MSG_CONFERENCE_MERGE_FAILED: return "CONFERENCE_MERGE_FAILED";
+            case MSG_SUPP_SERVICE_NOTIFY: return "SUPP_SERVICE_NOTIFY";
+            case MSG_SET_VIDEO_STATE: return "SET_VIDEO_STATE";
+            case MSG_SET_VIDEO_PROVIDER: return "SET_VIDEO_PROVIDER";
+            case MSG_SET_AUDIO_QUALITY: return "SET_AUDIO_QUALITY";
+            case MSG_SET_CONFERENCE_PARTICIPANTS: return "SET_CONFERENCE_PARTICIPANTS";
+            case MSG_CONNECTION_EXTRAS_CHANGED: return "CONNECTION_EXTRAS_CHANGED";
+            case MSG_SET_ORIGNAL_CONNECTION_CAPABILITIES:
+                return "SET_ORIGINAL_CONNECTION_CAPABILITIES";
+            case MSG_ON_HOLD_TONE: return "ON_HOLD_TONE";
+            case MSG_CDMA_VOICE_PRIVACY_ON: return "CDMA_VOICE_PRIVACY_ON";
+            case MSG_CDMA_VOICE_PRIVACY_OFF: return "CDMA_VOICE_PRIVACY_OFF";
+            case MSG_HANGUP: return "HANGUP";
+            case MSG_SET_CALL_RADIO_TECH: return "SET_CALL_RADIO_TECH";
+            case MSG_ON_CONNECTION_EVENT: return "ON_CONNECTION_EVENT";
+            case MSG_REDIAL_CONNECTION_CHANGED: return "REDIAL_CONNECTION_CHANGED";
+            case MSG_REJECT: return "REJECT";
+            case MSG_DTMF_DONE: return "DTMF_DONE";
+            case MSG_MEDIA_ATTRIBUTES_CHANGED: return "MEDIA_ATTRIBUTES_CHANGED";
+            default: return "UNKNOWN";
+        }
+    }
+
     /**
      * The underlying telephony Connection has been redialed on a different domain (CS or IMS).
      * Track the new telephony Connection and set back up appropriate callbacks.
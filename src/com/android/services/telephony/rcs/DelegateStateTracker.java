@@ -29,11 +29,11 @@ import android.telephony.ims.aidl.ISipDelegate;
 import android.telephony.ims.aidl.ISipDelegateConnectionStateCallback;
 import android.telephony.ims.stub.DelegateConnectionStateCallback;
 import android.util.ArraySet;
-import android.util.LocalLog;
 import android.util.Log;
 
 import com.android.internal.annotations.VisibleForTesting;
 import com.android.internal.telephony.metrics.RcsStats;
+import com.android.phone.EventRing;
 
 import java.io.PrintWriter;
 import java.util.ArrayList;
@@ -52,7 +52,7 @@ public class DelegateStateTracker implements DelegateBinderStateManager.StateCal
     private final ISipDelegateConnectionStateCallback mAppStateCallback;
     private final ISipDelegate mLocalDelegateImpl;
 
-    private final LocalLog mLocalLog = new LocalLog(SipTransportController.LOG_SIZE);
+    private final EventRing mEventRing = new EventRing(SipTransportController.LOG_SIZE);
 
     private final RcsStats mRcsStats;
 
@@ -254,7 +254,7 @@ public class DelegateStateTracker implements DelegateBinderStateManager.StateCal
         printWriter.println("Denied tags: " + mDelegateDeniedTags);
         printWriter.println();
         printWriter.println("Most recent logs: ");
-        mLocalLog.dump(printWriter);
+        mEventRing.dump(printWriter);
     }
 
     private DelegateRegistrationState overrideRegistrationForDelegateChange(
@@ -353,10 +353,10 @@ public class DelegateStateTracker implements DelegateBinderStateManager.StateCal
 
     private void logi(String log) {
         Log.i(SipTransportController.LOG_TAG, LOG_TAG + "[" + mSubId + "] " + log);
-        mLocalLog.log("[I] " + log);
+        mEventRing.log(EventRing.INFO, log);
     }
     private void logw(String log) {
         Log.w(SipTransportController.LOG_TAG, LOG_TAG + "[" + mSubId + "] " + log);
-        mLocalLog.log("[W] " + log);
+        mEventRing.log(EventRing.WARN, log);
     }
 }
@@ -28,12 +28,12 @@ import android.telephony.ims.SipMessage;
 import android.telephony.ims.aidl.ISipDelegate;
 import android.telephony.ims.aidl.ISipDelegateMessageCallback;
 import android.telephony.ims.stub.SipDelegate;
-import android.util.LocalLog;
 import android.util.Log;
 
 import com.android.internal.annotations.VisibleForTesting;
 import com.android.internal.telephony.SipMessageParsingUtils;
 import com.android.internal.util.IndentingPrintWriter;
+import com.android.phone.EventRing;
 import com.android.phone.RcsProvisioningMonitor;
 import com.android.services.telephony.rcs.validator.ValidationResult;
 
@@ -272,7 +272,7 @@ public class MessageTransportWrapper implements DelegateBinderStateManager.State
     private final Executor mExecutor;
     private final int mSubId;
     private final TransportSipMessageValidator mSipSessionTracker;
-    private final LocalLog mLocalLog = new LocalLog(SipTransportController.LOG_SIZE);
+    private final EventRing mEventRing = new EventRing(SipTransportController.LOG_SIZE);
 
     private ISipDelegate mSipDelegate;
 
@@ -340,7 +340,7 @@ public class MessageTransportWrapper implements DelegateBinderStateManager.State
     public void dump(PrintWriter printWriter) {
         IndentingPrintWriter pw = new IndentingPrintWriter(printWriter, "  ");
         pw.println("Most recent logs:");
-        mLocalLog.dump(printWriter);
+        mEventRing.dump(printWriter);
         pw.println();
         pw.println("Dialog Tracker:");
         pw.increaseIndent();
@@ -483,11 +483,11 @@ public class MessageTransportWrapper implements DelegateBinderStateManager.State
 
     private void logi(String log) {
         Log.i(SipTransportController.LOG_TAG, TAG + "[" + mSubId + "] " + log);
-        mLocalLog.log("[I] " + log);
+        mEventRing.log(EventRing.INFO, log);
     }
 
     private void logw(String log) {
         Log.w(SipTransportController.LOG_TAG, TAG + "[" + mSubId + "] " + log);
-        mLocalLog.log("[W] " + log);
+        mEventRing.log(EventRing.WARN, log);
     }
 }
@@ -0,0 +1,427 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.services.telephony.rcs;
+
+import android.util.Log;
+
+import com.android.internal.annotations.VisibleForTesting;
+import com.android.internal.util.IndentingPrintWriter;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Shared thread pool for the RCS features of all slots.
+ * <p>
+ * Each feature of each slot gets its own {@link Lane}, a serial {@link ScheduledExecutorService}
+ * which runs its tasks one at a time and in submission order, like a single thread executor
+ * would.  The lanes share a small pool whose threads exit when there is no work, so idle slots
+ * and features no longer keep a thread each.
+ */
+public class RcsRuntime {
+    private static final String LOG_TAG = "RcsRuntime";
+
+    /** The maximum number of threads running RCS tasks at the same time. */
+    private static final int MAX_THREADS = 3;
+    /** How long an idle pool thread is kept before it exits. */
+    private static final long THREAD_KEEP_ALIVE_MS = 5000;
+
+    private static final RcsRuntime sInstance = new RcsRuntime();
+
+    private final ScheduledThreadPoolExecutor mScheduler;
+    // Guarded by itself.
+    private final HashSet<Lane> mLanes = new HashSet<>();
+
+    public static RcsRuntime getInstance() {
+        return sInstance;
+    }
+
+    @VisibleForTesting
+    public RcsRuntime() {
+        AtomicInteger threadCount = new AtomicInteger();
+        ThreadFactory threadFactory = r -> {
+            Thread t = new Thread(r, LOG_TAG + "-" + threadCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+        mScheduler = new ScheduledThreadPoolExecutor(MAX_THREADS, threadFactory);
+        mScheduler.setKeepAliveTime(THREAD_KEEP_ALIVE_MS, TimeUnit.MILLISECONDS);
+        mScheduler.allowCoreThreadTimeOut(true);
+        mScheduler.setRemoveOnCancelPolicy(true);
+    }
+
+    /**
+     * Creates a new serial lane.  The lane is removed from this runtime once it has been shut
+     * down and has finished its queued tasks.
+     *
+     * @param feature The name of the feature which will use the lane.
+     * @param slotId The slot the feature is associated with.
+     */
+    public Lane createLane(String feature, int slotId) {
+        Lane lane = new Lane(feature + "[" + slotId + "]");
+        synchronized (mLanes) {
+            mLanes.add(lane);
+        }
+        return lane;
+    }
+
+    /**
+     * Dump the lanes and their queue metrics.
+     */
+    public void dump(IndentingPrintWriter pw) {
+        pw.println("RcsRuntime: poolSize=" + mScheduler.getPoolSize() + ", activeThreads="
+                + mScheduler.getActiveCount() + ", maxThreads=" + MAX_THREADS);
+        pw.increaseIndent();
+        List<Lane> lanes;
+        synchronized (mLanes) {
+            lanes = new ArrayList<>(mLanes);
+        }
+        for (Lane lane : lanes) {
+            lane.dump(pw);
+        }
+        pw.decreaseIndent();
+    }
+
+    private void onLaneTerminated(Lane lane) {
+        synchronized (mLanes) {
+            mLanes.remove(lane);
+        }
+    }
+
+    /**
+     * A serial executor backed by the shared pool.
+     * <p>
+     * Unlike {@link ScheduledThreadPoolExecutor}, delayed tasks which have not fired yet are
+     * cancelled when the lane is shut down.
+     */
+    public final class Lane extends AbstractExecutorService implements ScheduledExecutorService {
+        private final String mName;
+        private final Object mLock = new Object();
+        // All fields below are guarded by mLock.
+        private final ArrayDeque<Runnable> mQueue = new ArrayDeque<>();
+        private final ArrayDeque<Long> mEnqueueTimesNanos = new ArrayDeque<>();
+        private final HashSet<DelayedTask<?>> mDelayedTasks = new HashSet<>();
+        private boolean mRunning;
+        private boolean mShutdown;
+        private long mCompletedTaskCount;
+        private int mMaxQueueDepth;
+        private long mTotalWaitNanos;
+        private long mMaxWaitNanos;
+
+        private Lane(String name) {
+            mName = name;
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            if (command == null) {
+                throw new NullPointerException();
+            }
+            synchronized (mLock) {
+                if (mShutdown) {
+                    throw new RejectedExecutionException(mName + " is shut down");
+                }
+                enqueueLocked(command);
+            }
+        }
+
+        @Override
+        public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+            return schedule(Executors.callable(command), delay, unit);
+        }
+
+        @Override
+        public <V> ScheduledFuture<V> schedule(Callable<V> callable, long delay, TimeUnit unit) {
+            DelayedTask<V> task = new DelayedTask<>(callable,
+                    System.nanoTime() + unit.toNanos(delay), 0);
+            arm(task);
+            return task;
+        }
+
+        @Override
+        public ScheduledFuture<?> scheduleAtFixedRate(Runnable command, long initialDelay,
+                long period, TimeUnit unit) {
+            if (period <= 0) {
+                throw new IllegalArgumentException();
+            }
+            DelayedTask<Void> task = new DelayedTask<>(Executors.callable(command, null),
+                    System.nanoTime() + unit.toNanos(initialDelay), unit.toNanos(period));
+            arm(task);
+            return task;
+        }
+
+        @Override
+        public ScheduledFuture<?> scheduleWithFixedDelay(Runnable command, long initialDelay,
+                long delay, TimeUnit unit) {
+            if (delay <= 0) {
+                throw new IllegalArgumentException();
+            }
+            DelayedTask<Void> task = new DelayedTask<>(Executors.callable(command, null),
+                    System.nanoTime() + unit.toNanos(initialDelay), -unit.toNanos(delay));
+            arm(task);
+            return task;
+        }
+
+        @Override
+        public void shutdown() {
+            List<DelayedTask<?>> delayedTasks;
+            synchronized (mLock) {
+                if (mShutdown) {
+                    return;
+                }
+                mShutdown = true;
+                delayedTasks = new ArrayList<>(mDelayedTasks);
+                mDelayedTasks.clear();
+            }
+            for (DelayedTask<?> task : delayedTasks) {
+                task.cancel(false);
+            }
+            checkTerminated();
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            List<Runnable> pending;
+            synchronized (mLock) {
+                pending = new ArrayList<>(mQueue);
+                mQueue.clear();
+                mEnqueueTimesNanos.clear();
+            }
+            shutdown();
+            return pending;
+        }
+
+        @Override
+        public boolean isShutdown() {
+            synchronized (mLock) {
+                return mShutdown;
+            }
+        }
+
+        @Override
+        public boolean isTerminated() {
+            synchronized (mLock) {
+                return isTerminatedLocked();
+            }
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+            long deadline = System.nanoTime() + unit.toNanos(timeout);
+            synchronized (mLock) {
+                while (!isTerminatedLocked()) {
+                    long remainingMillis = TimeUnit.NANOSECONDS.toMillis(
+                            deadline - System.nanoTime());
+                    if (remainingMillis <= 0) {
+                        return false;
+                    }
+                    mLock.wait(remainingMillis);
+                }
+                return true;
+            }
+        }
+
+        /** @return The number of tasks waiting to run. */
+        @VisibleForTesting
+        public int getQueueDepth() {
+            synchronized (mLock) {
+                return mQueue.size();
+            }
+        }
+
+        /** @return The number of tasks which have run on this lane. */
+        @VisibleForTesting
+        public long getCompletedTaskCount() {
+            synchronized (mLock) {
+                return mCompletedTaskCount;
+            }
+        }
+
+        void dump(IndentingPrintWriter pw) {
+            synchronized (mLock) {
+                long averageWaitMs = mCompletedTaskCount == 0 ? 0
+                        : TimeUnit.NANOSECONDS.toMillis(mTotalWaitNanos / mCompletedTaskCount);
+                pw.println(mName + ": completed=" + mCompletedTaskCount
+                        + ", queued=" + mQueue.size()
+                        + ", maxQueued=" + mMaxQueueDepth
+                        + ", delayed=" + mDelayedTasks.size()
+                        + ", avgWaitMs=" + averageWaitMs
+                        + ", maxWaitMs=" + TimeUnit.NANOSECONDS.toMillis(mMaxWaitNanos)
+                        + (mShutdown ? ", shutdown" : ""));
+            }
+        }
+
+        private boolean isTerminatedLocked() {
+            return mShutdown && !mRunning && mQueue.isEmpty();
+        }
+
+        private void enqueueLocked(Runnable r) {
+            mQueue.add(r);
+            mEnqueueTimesNanos.add(System.nanoTime());
+            mMaxQueueDepth = Math.max(mMaxQueueDepth, mQueue.size());
+            if (!mRunning) {
+                mRunning = true;
+                mScheduler.execute(this::runNext);
+            }
+        }
+
+        /**
+         * Runs the task at the head of the queue, then hands the pool thread back so that other
+         * lanes get a turn before the next task of this lane runs.
+         */
+        private void runNext() {
+            Runnable task;
+            synchronized (mLock) {
+                task = mQueue.poll();
+                if (task == null) {
+                    mRunning = false;
+                    mLock.notifyAll();
+                    return;
+                }
+                long waitNanos = System.nanoTime() - mEnqueueTimesNanos.poll();
+                mTotalWaitNanos += waitNanos;
+                mMaxWaitNanos = Math.max(mMaxWaitNanos, waitNanos);
+            }
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                Log.e(LOG_TAG, mName + ": uncaught exception in task", e);
+            }
+            boolean terminated = false;
+            synchronized (mLock) {
+                mCompletedTaskCount++;
+                if (mQueue.isEmpty()) {
+                    mRunning = false;
+                    terminated = mShutdown;
+                    mLock.notifyAll();
+                } else {
+                    mScheduler.execute(this::runNext);
+                }
+            }
+            if (terminated) {
+                onLaneTerminated(this);
+            }
+        }
+
+        private void checkTerminated() {
+            boolean terminated;
+            synchronized (mLock) {
+                terminated = isTerminatedLocked();
+                if (terminated) {
+                    mLock.notifyAll();
+                }
+            }
+            if (terminated) {
+                onLaneTerminated(this);
+            }
+        }
+
+        private void arm(DelayedTask<?> task) {
+            synchronized (mLock) {
+                if (mShutdown) {
+                    throw new RejectedExecutionException(mName + " is shut down");
+                }
+                mDelayedTasks.add(task);
+            }
+            task.mTimer = mScheduler.schedule(() -> onTimerFired(task),
+                    Math.max(0, task.mTriggerNanos - System.nanoTime()), TimeUnit.NANOSECONDS);
+        }
+
+        private void onTimerFired(DelayedTask<?> task) {
+            synchronized (mLock) {
+                if (!mDelayedTasks.remove(task) || task.isCancelled()) {
+                    return;
+                }
+                enqueueLocked(task);
+            }
+        }
+
+        /**
+         * A delayed or periodic task.  A positive period means a fixed rate, a negative one a
+         * fixed delay.
+         */
+        private final class DelayedTask<V> extends FutureTask<V> implements ScheduledFuture<V> {
+            private final long mPeriodNanos;
+            private volatile long mTriggerNanos;
+            private volatile ScheduledFuture<?> mTimer;
+
+            DelayedTask(Callable<V> callable, long triggerNanos, long periodNanos) {
+                super(callable);
+                mTriggerNanos = triggerNanos;
+                mPeriodNanos = periodNanos;
+            }
+
+            @Override
+            public void run() {
+                if (mPeriodNanos == 0) {
+                    super.run();
+                } else if (runAndReset()) {
+                    mTriggerNanos = mPeriodNanos > 0 ? mTriggerNanos + mPeriodNanos
+                            : System.nanoTime() - mPeriodNanos;
+                    try {
+                        arm(this);
+                    } catch (RejectedExecutionException e) {
+                        cancel(false);
+                    }
+                }
+            }
+
+            @Override
+            public boolean cancel(boolean mayInterruptIfRunning) {
+                boolean cancelled = super.cancel(mayInterruptIfRunning);
+                if (cancelled) {
+                    ScheduledFuture<?> timer = mTimer;
+                    if (timer != null) {
+                        timer.cancel(false);
+                    }
+                    synchronized (mLock) {
+                        mDelayedTasks.remove(this);
+                    }
+                }
+                return cancelled;
+            }
+
+            @Override
+            public long getDelay(TimeUnit unit) {
+                return unit.convert(mTriggerNanos - System.nanoTime(), TimeUnit.NANOSECONDS);
+            }
+
+            @Override
+            public int compareTo(Delayed other) {
+                if (other == this) {
+                    return 0;
+                }
+                return Long.compare(getDelay(TimeUnit.NANOSECONDS),
+                        other.getDelay(TimeUnit.NANOSECONDS));
+            }
+        }
+    }
+}
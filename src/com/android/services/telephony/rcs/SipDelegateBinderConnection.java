@@ -31,9 +31,10 @@ import android.telephony.ims.aidl.ISipDelegateMessageCallback;
 import android.telephony.ims.aidl.ISipDelegateStateCallback;
 import android.telephony.ims.aidl.ISipTransport;
 import android.telephony.ims.stub.SipDelegate;
-import android.util.LocalLog;
 import android.util.Log;
 
+import com.android.phone.EventRing;
+
 import java.io.PrintWriter;
 import java.util.Collections;
 import java.util.List;
@@ -58,7 +59,7 @@ public class SipDelegateBinderConnection implements DelegateBinderStateManager,
     protected final Executor mExecutor;
     protected final List<StateCallback> mStateCallbacks;
 
-    private final LocalLog mLocalLog = new LocalLog(SipTransportController.LOG_SIZE);
+    private final EventRing mEventRing = new EventRing(SipTransportController.LOG_SIZE);
 
     // Callback interface from ImsService to this Connection. State Events will be forwarded to IMS
     // application through DelegateStateTracker.
@@ -243,17 +244,17 @@ public class SipDelegateBinderConnection implements DelegateBinderStateManager,
 
     /** Dump state about this binder connection that should be included in the dumpsys. */
     public void dump(PrintWriter printWriter) {
-        mLocalLog.dump(printWriter);
+        mEventRing.dump(printWriter);
     }
 
     protected final void logi(String log) {
         Log.i(SipTransportController.LOG_TAG, LOG_TAG + "[" + mSubId + "] " + log);
-        mLocalLog.log("[I] " + log);
+        mEventRing.log(EventRing.INFO, log);
     }
 
     protected final void logw(String log) {
         Log.w(SipTransportController.LOG_TAG, LOG_TAG + "[" + mSubId + "] " + log);
-        mLocalLog.log("[W] " + log);
+        mEventRing.log(EventRing.WARN, log);
     }
 
     @Override
@@ -29,13 +29,13 @@ import android.telephony.ims.aidl.ISipTransport;
 import android.telephony.ims.stub.DelegateConnectionStateCallback;
 import android.telephony.ims.stub.SipDelegate;
 import android.util.ArraySet;
-import android.util.LocalLog;
 import android.util.Log;
 import android.util.Pair;
 
 import com.android.internal.annotations.VisibleForTesting;
 import com.android.internal.telephony.metrics.RcsStats;
 import com.android.internal.util.IndentingPrintWriter;
+import com.android.phone.EventRing;
 
 import java.io.PrintWriter;
 import java.util.ArrayList;
@@ -85,7 +85,7 @@ public class SipDelegateController {
     private final MessageTransportWrapper mMessageTransportWrapper;
     private final DelegateStateTracker mDelegateStateTracker;
     private final DelegateBinderStateManager.Factory mBinderConnectionFactory;
-    private final LocalLog mLocalLog = new LocalLog(SipTransportController.LOG_SIZE);
+    private final EventRing mEventRing = new EventRing(SipTransportController.LOG_SIZE);
 
     private DelegateBinderStateManager mBinderConnection;
     private Set<String> mTrackedFeatureTags;
@@ -400,7 +400,7 @@ public class SipDelegateController {
         pw.increaseIndent();
         pw.println("Most recent logs:");
         pw.increaseIndent();
-        mLocalLog.dump(pw);
+        mEventRing.dump(pw);
         pw.decreaseIndent();
 
         pw.println();
@@ -420,11 +420,11 @@ public class SipDelegateController {
 
     private void logi(String log) {
         Log.i(SipTransportController.LOG_TAG, LOG_TAG + "[" + mSubId + "] " + log);
-        mLocalLog.log("[I] " + log);
+        mEventRing.log(EventRing.INFO, log);
     }
 
     private void logw(String log) {
         Log.w(SipTransportController.LOG_TAG, LOG_TAG + "[" + mSubId + "] " + log);
-        mLocalLog.log("[W] " + log);
+        mEventRing.log(EventRing.WARN, log);
     }
 }
@@ -19,13 +19,13 @@ package com.android.services.telephony.rcs;
 import android.telephony.ims.SipMessage;
 import android.util.ArrayMap;
 import android.util.ArraySet;
-import android.util.LocalLog;
 import android.util.Log;
 
 import com.android.internal.annotations.VisibleForTesting;
 import com.android.internal.telephony.SipMessageParsingUtils;
 import com.android.internal.telephony.metrics.RcsStats;
 import com.android.internal.util.IndentingPrintWriter;
+import com.android.phone.EventRing;
 
 import java.io.PrintWriter;
 import java.util.ArrayList;
@@ -60,7 +60,7 @@ public class SipSessionTracker {
      */
     private static final String SIP_CLOSE_DIALOG_REQUEST_METHOD = "bye";
 
-    private final LocalLog mLocalLog = new LocalLog(SipTransportController.LOG_SIZE);
+    private final EventRing mEventRing = new EventRing(SipTransportController.LOG_SIZE);
     private final ArrayList<SipDialog> mTrackedDialogs = new ArrayList<>();
     // Operations that are pending an ack from the remote application processing the message before
     // they can be applied here. Maps the via header branch parameter of the message to the
@@ -239,7 +239,7 @@ public class SipSessionTracker {
         pw.decreaseIndent();
         pw.println();
         pw.println("Local Logs");
-        mLocalLog.dump(pw);
+        mEventRing.dump(pw);
         pw.decreaseIndent();
     }
 
@@ -379,11 +379,11 @@ public class SipSessionTracker {
 
     private void logi(String log) {
         Log.i(SipTransportController.LOG_TAG, TAG + ": " + log);
-        mLocalLog.log("[I] " + log);
+        mEventRing.log(EventRing.INFO, log);
     }
 
     private void logw(String log) {
         Log.w(SipTransportController.LOG_TAG, TAG + ": " + log);
-        mLocalLog.log("[W] " + log);
+        mEventRing.log(EventRing.WARN, log);
     }
 }
@@ -38,8 +38,8 @@ import android.telephony.ims.stub.DelegateConnectionMessageCallback;
 import android.telephony.ims.stub.DelegateConnectionStateCallback;
 import android.telephony.ims.stub.SipDelegate;
 import android.text.TextUtils;
+import android.util.ArrayMap;
 import android.util.ArraySet;
-import android.util.LocalLog;
 import android.util.Log;
 
 import androidx.annotation.NonNull;
@@ -47,6 +47,7 @@ import androidx.annotation.NonNull;
 import com.android.ims.RcsFeatureManager;
 import com.android.internal.annotations.VisibleForTesting;
 import com.android.internal.util.IndentingPrintWriter;
+import com.android.phone.EventRing;
 import com.android.phone.RcsProvisioningMonitor;
 
 import com.google.common.base.Objects;
@@ -61,7 +62,6 @@ import java.util.concurrent.Callable;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
@@ -237,6 +237,22 @@ public class SipTransportController implements RcsFeatureController.Feature,
         }
     }
 
+    /**
+     * The feature tags that reevaluation assigned to a SipDelegateController.
+     */
+    private static final class FeatureTagAssignment {
+        public final SipDelegateController controller;
+        public final Set<String> supportedTags;
+        public final Set<FeatureTagState> deniedTags;
+
+        FeatureTagAssignment(SipDelegateController c, Set<String> supported,
+                Set<FeatureTagState> denied) {
+            controller = c;
+            supportedTags = supported;
+            deniedTags = denied;
+        }
+    }
+
     /**
      * Allow the ability for tests to easily mock out the SipDelegateController for testing.
      */
@@ -255,7 +271,7 @@ public class SipTransportController implements RcsFeatureController.Feature,
     private final ScheduledExecutorService mExecutorService;
     private final RoleManagerAdapter mRoleManagerAdapter;
     private final TimerAdapter mTimerAdapter;
-    private final LocalLog mLocalLog = new LocalLog(LOG_SIZE);
+    private final EventRing mEventRing = new EventRing(LOG_SIZE);
 
     // A priority queue of active SipDelegateControllers, where the oldest SipDelegate gets
     // access to the feature tag if multiple apps are allowed to request the same feature tag.
@@ -267,6 +283,22 @@ public class SipTransportController implements RcsFeatureController.Feature,
     private final List<DestroyRequest> mDelegatePendingDestroy = new ArrayList<>();
     // Cache of Binders to remote IMS applications for tracking their potential death
     private final TrackedAppBinders mActiveAppBinders = new TrackedAppBinders();
+    // The supported and denied feature tags that have been successfully applied to each
+    // SipDelegateController in mDelegatePriorityQueue. Controllers whose assignment does not
+    // change during a reevaluate are left alone.
+    private final ArrayMap<SipDelegateController, FeatureTagAssignment> mAppliedFeatureTags =
+            new ArrayMap<>();
+    // The feature tags granted to and denied for all SipDelegates after the last reevaluate.
+    private Set<String> mGrantedFeatureTags = Collections.emptySet();
+    private Set<FeatureTagState> mDeniedFeatureTags = Collections.emptySet();
+    // The feature tags granted when the IMS registration was last updated. Denied feature tags
+    // are not part of the registration. Cleared when a deregistration is triggered or the
+    // ImsService changes, so that the next reevaluate updates the registration again.
+    private Set<String> mRegisteredFeatureTags = Collections.emptySet();
+    // Reevaluate statistics for dumpsys.
+    private int mReevaluateCount;
+    private int mChangedDelegateCount;
+    private int mUnchangedDelegateCount;
 
     // Future scheduled for operations that require the list of SipDelegateControllers to
     // be evaluated. When the timer expires and triggers the reevaluate method, this controller
@@ -302,7 +334,8 @@ public class SipTransportController implements RcsFeatureController.Feature,
 
         mRoleManagerAdapter = new RoleManagerAdapterImpl(context);
         mTimerAdapter = new TimerAdapterImpl();
-        mExecutorService = Executors.newSingleThreadScheduledExecutor();
+        mExecutorService = RcsRuntime.getInstance().createLane("SipTransportController",
+                slotId);
         mCarrierConfigManager = context.getSystemService(CarrierConfigManager.class);
     }
 
@@ -522,6 +555,7 @@ public class SipTransportController implements RcsFeatureController.Feature,
     private void triggerDeregistrationEvent() {
         logi("triggerDeregistrationEvent: Sending deregister event to ImsService");
         cancelPendingUpdateRegistration();
+        clearRegisteredFeatureTags();
 
         IImsRegistration registrationImpl = mRcsManager.getImsRegistration();
         if (registrationImpl != null) {
@@ -564,12 +598,23 @@ public class SipTransportController implements RcsFeatureController.Feature,
                 + mPendingUpdateRegistrationFuture);
     }
 
+    private void clearRegisteredFeatureTags() {
+        mRegisteredFeatureTags = Collections.emptySet();
+    }
+
     /**
      * Triggers an event to update the IMS registration of the ImsService. Should only be called
      * from {@link #scheduleUpdateRegistration()}.
      */
     private void triggerUpdateRegistrationEvent() {
+        if (mRcsManager == null) {
+            logw("triggerUpdateRegistrationEvent: ImsService is not available, skipping");
+            // Nothing was registered, make sure the next reevaluate sends the update.
+            clearRegisteredFeatureTags();
+            return;
+        }
         logi("triggerUpdateRegistrationEvent: Sending update registration event to ImsService");
+        mRegisteredFeatureTags = mGrantedFeatureTags;
         IImsRegistration registrationImpl = mRcsManager.getImsRegistration();
         if (registrationImpl != null) {
             try {
@@ -680,9 +725,12 @@ public class SipTransportController implements RcsFeatureController.Feature,
      *
      * First perform the operation of destroying all SipDelegateConnections that have been pending
      * destroy. Next, add all pending new SipDelegateControllers to the end of
-     * mDelegatePriorityQueue and loop through all in the queue, applying feature tags to the
+     * mDelegatePriorityQueue and loop through all in the queue, assigning feature tags to the
      * appropriate SipDelegateController if they pass role checks and have not already been claimed
-     * by another delegate higher in the priority queue.
+     * by another delegate higher in the priority queue. Only the SipDelegateControllers whose
+     * assigned feature tags differ from the ones already applied are changed; all others keep
+     * running untouched. The IMS registration is only updated if the set of feature tags granted
+     * to all delegates differs from the one last registered.
      */
     private void reevaluateDelegates() {
         // We need to cancel the pending update now and reschedule IMS registration update for
@@ -695,11 +743,20 @@ public class SipTransportController implements RcsFeatureController.Feature,
                     mExecutorService);
             return;
         }
+        mReevaluateCount++;
+        // Whether a SipDelegate holding feature tags was destroyed or created. The registration
+        // is updated in that case even if the same feature tags end up granted, so that the
+        // ImsService associates them with the new SipDelegate.
+        boolean delegateWithTagsChanged = false;
 
         // Remove tracking for all SipDelegates being destroyed first
         for (DestroyRequest d : mDelegatePendingDestroy) {
             logi("reevaluateDelegates: starting destroy for: " + d.controller.getPackageName());
             mActiveAppBinders.unregister(d.controller.getAppMessageCallback());
+            FeatureTagAssignment applied = mAppliedFeatureTags.remove(d.controller);
+            if (applied != null && !applied.supportedTags.isEmpty()) {
+                delegateWithTagsChanged = true;
+            }
         }
         // Destroy all pending destroy delegates first. Order doesn't matter.
         List<CompletableFuture<Void>> pendingDestroyList = mDelegatePendingDestroy.stream()
@@ -719,28 +776,57 @@ public class SipTransportController implements RcsFeatureController.Feature,
         }
         mDelegatePendingCreate.clear();
 
-        // Wait for destroy stages to complete, then loop from oldest to most recent and associate
-        // feature tags that the app has requested to the SipDelegate.
-        // Each feature tag can only be associated with one SipDelegate, so as feature tags are
-        // taken, do not allow other SipDelegates to be associated with those tags as well. Each
-        // stage of the CompletableFuture chain passes the previously claimed feature tags into the
-        // next stage so that those feature tags can be denied if already claimed.
-        // Executor doesn't matter here, just composing here to transform to the next stage.
-        CompletableFuture<Set<String>> pendingChange = pendingDestroy.thenCompose((ignore) -> {
-            logi("reevaluateDelegates: destroy phase complete");
-            return CompletableFuture.completedFuture(new ArraySet<>());
-        });
+        // Loop from oldest to most recent and assign the feature tags that the app has requested
+        // to the SipDelegate. Each feature tag can only be associated with one SipDelegate, so as
+        // feature tags are taken, do not allow other SipDelegates to be associated with those tags
+        // as well.
         final String cachedSmsRolePackage = mCachedSmsRolePackageName;
+        ArraySet<String> grantedTags = new ArraySet<>();
+        ArraySet<FeatureTagState> deniedTags = new ArraySet<>();
+        List<FeatureTagAssignment> releasingChanges = new ArrayList<>();
+        List<FeatureTagAssignment> acquiringChanges = new ArrayList<>();
         for (SipDelegateController c : mDelegatePriorityQueue) {
-            logi("reevaluateDelegates: pending reeval: " + c);
-            pendingChange = pendingChange.thenComposeAsync((takenTags) -> {
-                logi("reevaluateDelegates: last stage completed with result:" + takenTags);
-                if (takenTags == null) {
+            FeatureTagAssignment assignment = assignFeatureTags(c, cachedSmsRolePackage,
+                    grantedTags);
+            deniedTags.addAll(assignment.deniedTags);
+            FeatureTagAssignment applied = mAppliedFeatureTags.get(c);
+            if (applied != null && applied.supportedTags.equals(assignment.supportedTags)
+                    && applied.deniedTags.equals(assignment.deniedTags)) {
+                logi("reevaluateDelegates: unchanged: " + c);
+                mUnchangedDelegateCount++;
+            } else if (applied != null
+                    && applied.supportedTags.containsAll(assignment.supportedTags)) {
+                releasingChanges.add(assignment);
+            } else {
+                if (applied == null && !assignment.supportedTags.isEmpty()) {
+                    delegateWithTagsChanged = true;
+                }
+                acquiringChanges.add(assignment);
+            }
+        }
+        final boolean forceRegistrationUpdate = delegateWithTagsChanged;
+        // Delegates that only give up feature tags are changed first, so that the tags are free
+        // by the time other delegates claim them.
+        List<FeatureTagAssignment> changes = new ArrayList<>(releasingChanges);
+        changes.addAll(acquiringChanges);
+
+        // Wait for destroy stages to complete, then apply the changed assignments one at a time,
+        // in order. Executor doesn't matter here, just composing here to transform to the next
+        // stage.
+        CompletableFuture<Boolean> pendingChange = pendingDestroy.thenApply((ignore) -> {
+            logi("reevaluateDelegates: destroy phase complete");
+            return true;
+        });
+        for (FeatureTagAssignment assignment : changes) {
+            logi("reevaluateDelegates: pending reeval: " + assignment.controller);
+            pendingChange = pendingChange.thenComposeAsync((isSuccessful) -> {
+                logi("reevaluateDelegates: last stage completed with result:" + isSuccessful);
+                if (!isSuccessful) {
                     // return early, the ImsService is no longer available. This will eventually be
                     // destroyed.
-                    return CompletableFuture.completedFuture(null /*failed*/);
+                    return CompletableFuture.completedFuture(false);
                 }
-                return changeSupportedFeatureTags(c, cachedSmsRolePackage, takenTags);
+                return applyFeatureTags(assignment);
             }, mExecutorService);
         }
 
@@ -750,9 +836,16 @@ public class SipTransportController implements RcsFeatureController.Feature,
                     if (ex != null) {
                         logw("reevaluateDelegates: Exception caught: " + ex);
                     }
-                }).thenAccept((associatedFeatures) -> {
-                    logi("reevaluateDelegates: reevaluate complete, feature tags associated: "
-                            + associatedFeatures);
+                }).thenAccept((isSuccessful) -> {
+                    logi("reevaluateDelegates: reevaluate complete, changed delegates: "
+                            + changes.size() + ", feature tags associated: " + grantedTags);
+                    mGrantedFeatureTags = grantedTags;
+                    mDeniedFeatureTags = deniedTags;
+                    if (!forceRegistrationUpdate && grantedTags.equals(mRegisteredFeatureTags)) {
+                        logi("reevaluateDelegates: registered feature tags unchanged, skipping "
+                                + "registration update");
+                        return;
+                    }
                     scheduleUpdateRegistration();
                 });
         logi("reevaluateDelegates: future created.");
@@ -840,18 +933,17 @@ public class SipTransportController implements RcsFeatureController.Feature,
     }
 
     /**
-     * Check the requested roles for the specified package name and return the tags that were
-     * applied to that SipDelegateController.
+     * Check the requested roles for the specified package name and compute the feature tags that
+     * should be applied to that SipDelegateController.
      * @param controller Controller to attribute feature tags to.
-     * @param alreadyRequestedTags The feature tags that were already granted to other SipDelegates.
-     * @return Once complete, contains the set of feature tags that the SipDelegate now has
-     * associated with it along with the feature tags that previous SipDelegates had.
+     * @param grantedTags The feature tags that were already granted to other SipDelegates. The
+     *         feature tags granted to this controller are added to it.
+     * @return The supported and denied feature tags of the controller.
      *
      * // TODO: we currently only track SMS role, extend to support other roles as well.
      */
-    private CompletableFuture<Set<String>> changeSupportedFeatureTags(
-            SipDelegateController controller, String smsRolePackageName,
-            Set<String> alreadyRequestedTags) {
+    private FeatureTagAssignment assignFeatureTags(SipDelegateController controller,
+            String smsRolePackageName, Set<String> grantedTags) {
         Set<String> requestedFeatureTags = controller.getInitialRequest().getFeatureTags();
         String packageName = controller.getPackageName();
         if (!smsRolePackageName.equals(packageName)) {
@@ -861,33 +953,34 @@ public class SipTransportController implements RcsFeatureController.Feature,
                 deniedTags.add(new FeatureTagState(s,
                         SipDelegateManager.DENIED_REASON_NOT_ALLOWED));
             }
-            CompletableFuture<Boolean> pendingDeny = controller.changeSupportedFeatureTags(
-                    Collections.emptySet(), deniedTags);
-            logi("changeSupportedFeatureTags pendingDeny=" + pendingDeny);
-            // do not worry about executor used here, this stage used to interpret result + add log.
-            return pendingDeny.thenApply((completedSuccessfully) ->  {
-                logi("changeSupportedFeatureTags: deny completed: " + completedSuccessfully);
-                if (!completedSuccessfully) return null;
-                // Return back the previous list of requested tags, as we did not add any more.
-                return alreadyRequestedTags;
-            });
+            return new FeatureTagAssignment(controller, Collections.emptySet(), deniedTags);
         }
 
-        ArraySet<String> previouslyGrantedTags = new ArraySet<>(alreadyRequestedTags);
         ArraySet<String> candidateFeatureTags = new ArraySet<>(requestedFeatureTags);
-        Set<FeatureTagState> deniedTags =
-                updateSupportedTags(candidateFeatureTags, previouslyGrantedTags);
-
-        // Add newly granted tags to the already requested tags list.
-        previouslyGrantedTags.addAll(candidateFeatureTags);
-        CompletableFuture<Boolean> pendingChange = controller.changeSupportedFeatureTags(
-                candidateFeatureTags, deniedTags);
-        logi("changeSupportedFeatureTags pendingChange=" + pendingChange);
+        Set<FeatureTagState> deniedTags = updateSupportedTags(candidateFeatureTags, grantedTags);
+        // Add newly granted tags to the already granted tags.
+        grantedTags.addAll(candidateFeatureTags);
+        return new FeatureTagAssignment(controller, candidateFeatureTags, deniedTags);
+    }
+
+    /**
+     * Apply a changed feature tag assignment to its SipDelegateController.
+     * @return Once complete, contains {@code true} if the change was applied successfully or
+     * {@code false} if the ImsService was unreachable.
+     */
+    private CompletableFuture<Boolean> applyFeatureTags(FeatureTagAssignment assignment) {
+        CompletableFuture<Boolean> pendingChange =
+                assignment.controller.changeSupportedFeatureTags(assignment.supportedTags,
+                        assignment.deniedTags);
+        logi("applyFeatureTags pendingChange=" + pendingChange);
         // do not worry about executor used here, this stage used to interpret result + add log.
         return pendingChange.thenApply((completedSuccessfully) ->  {
-            logi("changeSupportedFeatureTags: change completed: " + completedSuccessfully);
-            if (!completedSuccessfully) return null;
-            return previouslyGrantedTags;
+            logi("applyFeatureTags: change completed: " + completedSuccessfully);
+            if (completedSuccessfully) {
+                mAppliedFeatureTags.put(assignment.controller, assignment);
+                mChangedDelegateCount++;
+            }
+            return completedSuccessfully;
         });
     }
 
@@ -981,6 +1074,9 @@ public class SipTransportController implements RcsFeatureController.Feature,
         logi("manager changed, " + mRcsManager + "->" + m);
         if (mRcsManager == m) return;
         mRcsManager = m;
+        // Nothing applied to or registered with the previous ImsService carries over.
+        mAppliedFeatureTags.clear();
+        clearRegisteredFeatureTags();
         if (mRcsManager == null) {
             logi("onRcsManagerChanged: lost connection to ImsService, tearing down...");
             unregisterListeners();
@@ -1061,10 +1157,15 @@ public class SipTransportController implements RcsFeatureController.Feature,
         IndentingPrintWriter pw = new IndentingPrintWriter(printWriter, "  ");
         pw.println("SipTransportController" + "[" + mSlotId  + "->" + mSubId + "]:");
         pw.increaseIndent();
-        pw.println("LocalLog:");
+        pw.println("Most recent logs:");
         pw.increaseIndent();
-        mLocalLog.dump(pw);
+        mEventRing.dump(pw);
         pw.decreaseIndent();
+        pw.println("Reevaluate: count=" + mReevaluateCount + ", delegates changed="
+                + mChangedDelegateCount + ", delegates unchanged=" + mUnchangedDelegateCount);
+        pw.println("Granted feature tags: " + mGrantedFeatureTags);
+        pw.println("Denied feature tags: " + mDeniedFeatureTags);
+        pw.println("Registered feature tags: " + mRegisteredFeatureTags);
         pw.println("SipDelegateControllers (in priority order):");
         pw.increaseIndent();
         if (mDelegatePriorityQueue.isEmpty()) {
@@ -1080,11 +1181,11 @@ public class SipTransportController implements RcsFeatureController.Feature,
 
     private void logi(String log) {
         Log.i(LOG_TAG, "[" + mSlotId  + "->" + mSubId + "] " + log);
-        mLocalLog.log("[I] " + log);
+        mEventRing.log(EventRing.INFO, log);
     }
 
     private void logw(String log) {
         Log.w(LOG_TAG, "[" + mSlotId  + "->" + mSubId + "] " + log);
-        mLocalLog.log("[W] " + log);
+        mEventRing.log(EventRing.WARN, log);
     }
 }
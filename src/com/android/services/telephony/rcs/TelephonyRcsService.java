@@ -43,6 +43,11 @@ import java.io.PrintWriter;
 /**
  * Singleton service setup to manage RCS related services that the platform provides such as User
  * Capability Exchange.
+ * <p>
+ * The {@link RcsFeatureController} of a slot and its features are only created once the
+ * subscription on that slot supports one of the features and are torn down once it no longer
+ * does or the subscription goes away, so slots without a SIM or without RCS do not hold any RCS
+ * resources.
  */
 @AnyThread
 public class TelephonyRcsService {
@@ -121,6 +126,10 @@ public class TelephonyRcsService {
     // Whether the device supports User Capability Exchange
     private boolean mRcsUceEnabled;
 
+    // The number of times a slot was activated or torn down, for dumpsys.
+    private int mSlotActivations;
+    private int mSlotTeardowns;
+
     private BroadcastReceiver mCarrierConfigChangedReceiver = new BroadcastReceiver() {
         @Override
         public void onReceive(Context context, Intent intent) {
@@ -222,22 +231,14 @@ public class TelephonyRcsService {
             mNumSlots = newNumSlots;
             if (oldNumSlots < newNumSlots) {
                 for (int i = oldNumSlots; i < newNumSlots; i++) {
-                    RcsFeatureController c = constructFeatureController(i);
-                    // Do not add feature controllers for inactive subscriptions
-                    if (c.hasActiveFeatures()) {
-                        mFeatureControllers.put(i, c);
-                        // Do not change mSlotToAssociatedSubIds, it will be updated upon carrier
-                        // config change.
-                    }
+                    // Do not add feature controllers for inactive subscriptions. Do not change
+                    // mSlotToAssociatedSubIds, it will be updated upon carrier config change.
+                    activateSlotIfNeeded(i, getSubscriptionFromSlot(i));
                 }
             } else {
                 for (int i = (oldNumSlots - 1); i > (newNumSlots - 1); i--) {
-                    RcsFeatureController c = mFeatureControllers.get(i);
-                    if (c != null) {
-                        mFeatureControllers.remove(i);
-                        mSlotToAssociatedSubIds.remove(i);
-                        c.destroy();
-                    }
+                    mSlotToAssociatedSubIds.remove(i);
+                    tearDownSlot(i);
                 }
             }
         }
@@ -261,17 +262,19 @@ public class TelephonyRcsService {
             if (SubscriptionManager.isValidSubscriptionId(subId)) {
                 if (f == null) {
                     // A controller doesn't exist for this slot yet.
-                    f = mFeatureFactory.createController(mContext, slotId, subId);
-                    updateSupportedFeatures(f, slotId, subId);
-                    if (f.hasActiveFeatures()) mFeatureControllers.put(slotId, f);
+                    f = activateSlotIfNeeded(slotId, subId);
                 } else {
                     updateSupportedFeatures(f, slotId, subId);
                     // Do not keep an empty container around.
                     if (!f.hasActiveFeatures()) {
-                        f.destroy();
-                        mFeatureControllers.remove(slotId);
+                        tearDownSlot(slotId);
                     }
                 }
+            } else if (f != null) {
+                // The subscription went away, release everything associated with the slot.
+                tearDownSlot(slotId);
+                notifyRcsStateChanged(slotId, false);
+                f = null;
             }
             if (f != null) {
                 if (oldSubId == subId) {
@@ -283,15 +286,41 @@ public class TelephonyRcsService {
         }
     }
 
-    private RcsFeatureController constructFeatureController(int slotId) {
-        int subId = getSubscriptionFromSlot(slotId);
+    /**
+     * Create the RcsFeatureController for the slot if the subscription supports any RCS feature.
+     * @return The new controller or {@code null} if the slot does not need one.
+     */
+    private RcsFeatureController activateSlotIfNeeded(int slotId, int subId) {
+        if (!doesSubscriptionSupportUce(subId)
+                && !doesSubscriptionSupportSingleRegistration(subId)) {
+            Log.i(LOG_TAG, "activateSlotIfNeeded: no RCS features for slotId=" + slotId
+                    + ", subId=" + subId);
+            notifyRcsStateChanged(slotId, false);
+            return null;
+        }
         RcsFeatureController c = mFeatureFactory.createController(mContext, slotId, subId);
         updateSupportedFeatures(c, slotId, subId);
+        if (!c.hasActiveFeatures()) {
+            c.destroy();
+            return null;
+        }
+        Log.i(LOG_TAG, "activateSlotIfNeeded: activated slotId=" + slotId + ", subId=" + subId);
+        mFeatureControllers.put(slotId, c);
+        mSlotActivations++;
         return c;
     }
 
+    private void tearDownSlot(int slotId) {
+        RcsFeatureController c = mFeatureControllers.get(slotId);
+        if (c == null) return;
+        Log.i(LOG_TAG, "tearDownSlot: slotId=" + slotId);
+        mFeatureControllers.remove(slotId);
+        c.destroy();
+        mSlotTeardowns++;
+    }
+
     private void updateSupportedFeatures(RcsFeatureController c, int slotId, int subId) {
-        if (isDeviceUceEnabled() && doesSubscriptionSupportPresence(subId)) {
+        if (doesSubscriptionSupportUce(subId)) {
             if (c.getFeature(UceControllerManager.class) == null) {
                 c.addFeature(mFeatureFactory.createUceControllerManager(mContext, slotId, subId),
                         UceControllerManager.class);
@@ -315,8 +344,13 @@ public class TelephonyRcsService {
         // Only start the connection procedure if we have active features.
         if (c.hasActiveFeatures()) c.connect();
 
-        ImsStateCallbackController.getInstance()
-                .notifyExternalRcsStateChanged(slotId, false, c.hasActiveFeatures());
+        notifyRcsStateChanged(slotId, c.hasActiveFeatures());
+    }
+
+    private void notifyRcsStateChanged(int slotId, boolean hasActiveFeatures) {
+        ImsStateCallbackController controller = ImsStateCallbackController.getInstance();
+        if (controller == null) return;
+        controller.notifyExternalRcsStateChanged(slotId, false, hasActiveFeatures);
     }
 
     /**
@@ -333,6 +367,10 @@ public class TelephonyRcsService {
         mRcsUceEnabled = isEnabled;
     }
 
+    private boolean doesSubscriptionSupportUce(int subId) {
+        return isDeviceUceEnabled() && doesSubscriptionSupportPresence(subId);
+    }
+
     private boolean doesSubscriptionSupportPresence(int subId) {
         if (!SubscriptionManager.isValidSubscriptionId(subId)) return false;
         CarrierConfigManager carrierConfigManager =
@@ -375,6 +413,8 @@ public class TelephonyRcsService {
         pw.println("RcsFeatureControllers:");
         pw.increaseIndent();
         synchronized (mLock) {
+            pw.println("activeSlots=" + mFeatureControllers.size() + "/" + mNumSlots
+                    + ", activations=" + mSlotActivations + ", teardowns=" + mSlotTeardowns);
             for (int i = 0; i < mNumSlots; i++) {
                 RcsFeatureController f = mFeatureControllers.get(i);
                 if (f == null) continue;
@@ -384,5 +424,6 @@ public class TelephonyRcsService {
             }
         }
         pw.decreaseIndent();
+        RcsRuntime.getInstance().dump(pw);
     }
 }
@@ -25,13 +25,13 @@ import android.telephony.ims.SipDelegateConfiguration;
 import android.telephony.ims.SipDelegateImsConfiguration;
 import android.telephony.ims.SipDelegateManager;
 import android.telephony.ims.SipMessage;
-import android.util.LocalLog;
 import android.util.Log;
 
 import com.android.internal.annotations.VisibleForTesting;
 import com.android.internal.telephony.SipMessageParsingUtils;
 import com.android.internal.telephony.metrics.RcsStats;
 import com.android.internal.util.IndentingPrintWriter;
+import com.android.phone.EventRing;
 import com.android.services.telephony.rcs.validator.IncomingTransportStateValidator;
 import com.android.services.telephony.rcs.validator.MalformedSipMessageValidator;
 import com.android.services.telephony.rcs.validator.OutgoingTransportStateValidator;
@@ -135,7 +135,7 @@ public class TransportSipMessageValidator {
 
     private final int mSubId;
     private final ScheduledExecutorService mExecutor;
-    private final LocalLog mLocalLog = new LocalLog(SipTransportController.LOG_SIZE);
+    private final EventRing mEventRing = new EventRing(SipTransportController.LOG_SIZE);
     private final SipSessionTracker mSipSessionTracker;
     // Validators
     private final IncomingTransportStateValidator mIncomingTransportStateValidator;
@@ -372,7 +372,7 @@ public class TransportSipMessageValidator {
                             + mConfigVersion);
         }
         ValidationResult result = mOutgoingMessageValidator.validate(message);
-        logi("verifyOutgoingMessage: " + result + ", message=" + message);
+        logMessageEvent("verifyOutgoingMessage: %s, message=%s", result, message);
         if (result.isValidated) {
             mSipSessionTracker.filterSipMessage(
                     SIP_TRANSPORT_SESSION__SIP_MESSAGE_DIRECTION__OUTGOING, message);
@@ -389,7 +389,7 @@ public class TransportSipMessageValidator {
      */
     public ValidationResult verifyIncomingMessage(SipMessage message) {
         ValidationResult result = mIncomingMessageValidator.validate(message);
-        logi("verifyIncomingMessage: " + result + ", message=" + message);
+        logMessageEvent("verifyIncomingMessage: %s, message=%s", result, message);
         if (result.isValidated) {
             mSipSessionTracker.filterSipMessage(
                     SIP_TRANSPORT_SESSION__SIP_MESSAGE_DIRECTION__INCOMING, message);
@@ -404,7 +404,7 @@ public class TransportSipMessageValidator {
      * @param transactionId The transaction ID associated with the message.
      */
     public void acknowledgePendingMessage(String transactionId) {
-        logi("acknowledgePendingMessage: id=" + transactionId);
+        logMessageEvent("acknowledgePendingMessage: id=%s", transactionId, null);
         mSipSessionTracker.acknowledgePendingMessage(transactionId);
         onCallIdsChanged();
     }
@@ -414,7 +414,7 @@ public class TransportSipMessageValidator {
      * @param transactionId The transaction ID associated with the message.
      */
     public void notifyPendingMessageFailed(String transactionId) {
-        logi("notifyPendingMessageFailed: id=" + transactionId);
+        logMessageEvent("notifyPendingMessageFailed: id=%s", transactionId, null);
         mSipSessionTracker.pendingMessageFailed(transactionId);
     }
 
@@ -431,7 +431,7 @@ public class TransportSipMessageValidator {
         mSipSessionTracker.dump(pw);
         pw.println();
         pw.println("Most recent logs:");
-        mLocalLog.dump(printWriter);
+        mEventRing.dump(printWriter);
     }
 
     /**
@@ -577,13 +577,25 @@ public class TransportSipMessageValidator {
         }
     }
 
+    /**
+     * Log an event which happens for every SIP message. The event is formatted only if the event
+     * ring is dumped or verbose logging is enabled.
+     */
+    private void logMessageEvent(String format, Object arg1, Object arg2) {
+        mEventRing.log(EventRing.INFO, format, arg1, arg2);
+        if (Log.isLoggable(SipTransportController.LOG_TAG, Log.VERBOSE)) {
+            Log.v(SipTransportController.LOG_TAG, LOG_TAG + "[" + mSubId + "] "
+                    + String.format(format, arg1, arg2));
+        }
+    }
+
     private void logi(String log) {
         Log.i(SipTransportController.LOG_TAG, LOG_TAG + "[" + mSubId + "] " + log);
-        mLocalLog.log("[I] " + log);
+        mEventRing.log(EventRing.INFO, log);
     }
 
     private void logw(String log) {
         Log.w(SipTransportController.LOG_TAG, LOG_TAG + "[" + mSubId + "] " + log);
-        mLocalLog.log("[W] " + log);
+        mEventRing.log(EventRing.WARN, log);
     }
 }
@@ -0,0 +1,382 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.services.telephony.rcs;
+
+import android.net.Uri;
+import android.os.RemoteException;
+import android.os.SystemClock;
+import android.telephony.ims.ImsException;
+import android.telephony.ims.RcsContactUceCapability;
+import android.telephony.ims.RcsUceAdapter;
+import android.telephony.ims.aidl.IRcsUceControllerCallback;
+import android.util.IndentingPrintWriter;
+import android.util.Log;
+
+import com.android.internal.annotations.VisibleForTesting;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Sits between the capability requests of all callers and the UceController of a slot and
+ * reduces the number of capability requests sent to the network.
+ * <ul>
+ *     <li>Contacts whose capabilities were received from the network in the last
+ *     {@link #CACHE_TTL_MS} are answered from a cache.</li>
+ *     <li>The remaining contacts are collected for {@link #BATCH_WINDOW_MS} and then sent
+ *     together, split into requests of at most the number of entries the carrier allows in a
+ *     resource contact list.</li>
+ *     <li>A contact which is already collected or requested is not requested again; the caller
+ *     receives the result of the outstanding request. If that request already delivered the
+ *     result of the contact, it is replayed to the caller.</li>
+ * </ul>
+ * The network may answer with another form of a requested contact URI, for example a sip: URI for
+ * a tel: URI. Such a result can not be matched to its contact and is delivered to every caller
+ * waiting for the request it belongs to.
+ * All methods must be called on the executor given to the constructor.
+ */
+class UceCapabilityBatcher {
+    private static final String LOG_TAG = "UceCapabilityBatcher";
+
+    /** How long contacts are collected before they are requested. */
+    @VisibleForTesting
+    static final long BATCH_WINDOW_MS = 50;
+    /** How long a capability received from the network answers new requests. */
+    @VisibleForTesting
+    static final long CACHE_TTL_MS = 30 * 1000;
+    private static final int MAX_CACHE_SIZE = 1000;
+    // Used when the carrier has not provisioned the maximum size of a resource contact list.
+    private static final int DEFAULT_MAX_CONTACTS_PER_REQUEST = 100;
+
+    /** Sends capability requests to the network. */
+    interface Sender {
+        /** Request the capabilities of the given contacts from the network. */
+        void sendCapabilityRequest(List<Uri> contacts, IRcsUceControllerCallback c)
+                throws ImsException, RemoteException;
+
+        /**
+         * @return The maximum number of contacts in one capability request, or a value less
+         * than one if the limit is not known.
+         */
+        int getMaxContactsPerRequest();
+    }
+
+    private interface CallbackAction {
+        void run(IRcsUceControllerCallback c) throws RemoteException;
+    }
+
+    /** The callback of a caller which waits for the results of some contacts. */
+    private static final class Waiter {
+        final IRcsUceControllerCallback mCallback;
+        int mRemainingContacts;
+        boolean mIsDone;
+
+        Waiter(IRcsUceControllerCallback callback) {
+            mCallback = callback;
+        }
+    }
+
+    /** A contact which is collected or requested, and the callers waiting for it. */
+    private static final class PendingContact {
+        final ArrayList<Waiter> mWaiters = new ArrayList<>(1);
+        // The result delivered for the contact by its outstanding request, of any request result.
+        RcsContactUceCapability mResult;
+    }
+
+    private static final class CachedCapability {
+        final RcsContactUceCapability mCapability;
+        final long mExpiryMillis;
+
+        CachedCapability(RcsContactUceCapability capability, long expiryMillis) {
+            mCapability = capability;
+            mExpiryMillis = expiryMillis;
+        }
+    }
+
+    /** A capability request sent to the network. Results are handled on the executor. */
+    private final class Batch extends IRcsUceControllerCallback.Stub {
+        final List<Uri> mContacts;
+        boolean mIsDone;
+
+        Batch(List<Uri> contacts) {
+            mContacts = contacts;
+        }
+
+        @Override
+        public void onCapabilitiesReceived(List<RcsContactUceCapability> contactCapabilities) {
+            post(() -> onBatchCapabilitiesReceived(this, contactCapabilities));
+        }
+
+        @Override
+        public void onComplete() {
+            post(() -> onBatchDone(this, false /*isError*/, 0, 0L));
+        }
+
+        @Override
+        public void onError(int errorCode, long retryAfterMilliseconds) {
+            post(() -> onBatchDone(this, true /*isError*/, errorCode, retryAfterMilliseconds));
+        }
+    }
+
+    private final ScheduledExecutorService mExecutor;
+    private final Sender mSender;
+    private final LongSupplier mClock;
+
+    private final LinkedHashMap<Uri, CachedCapability> mCache =
+            new LinkedHashMap<Uri, CachedCapability>(16, 0.75f, true /*accessOrder*/) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Uri, CachedCapability> eldest) {
+                    return size() > MAX_CACHE_SIZE;
+                }
+            };
+    // Each contact which is collected or requested, until its request is done.
+    private final HashMap<Uri, PendingContact> mPendingContacts = new HashMap<>();
+    // The contacts collected for the next batch.
+    private final LinkedHashSet<Uri> mCollectedContacts = new LinkedHashSet<>();
+    private boolean mIsFlushScheduled;
+    private int mMaxContactsPerRequest;
+
+    // Statistics. Only updated on the executor, dump may read slightly stale values.
+    private long mRequestedContactCount;
+    private long mCacheHitCount;
+    private long mMergedContactCount;
+    private long mNetworkRequestCount;
+    private long mNetworkContactCount;
+
+    UceCapabilityBatcher(ScheduledExecutorService executor, Sender sender) {
+        this(executor, sender, SystemClock::elapsedRealtime);
+    }
+
+    @VisibleForTesting
+    UceCapabilityBatcher(ScheduledExecutorService executor, Sender sender, LongSupplier clock) {
+        mExecutor = executor;
+        mSender = sender;
+        mClock = clock;
+    }
+
+    /**
+     * Request the capabilities of the given contacts. Cached capabilities are delivered to the
+     * callback right away, the others when the network responds.
+     */
+    void requestCapabilities(List<Uri> contacts, IRcsUceControllerCallback c) {
+        long now = mClock.getAsLong();
+        Waiter waiter = new Waiter(c);
+        List<RcsContactUceCapability> cached = new ArrayList<>();
+        for (Uri contact : contacts) {
+            mRequestedContactCount++;
+            RcsContactUceCapability capability = getCachedCapability(contact, now);
+            if (capability != null) {
+                mCacheHitCount++;
+                cached.add(capability);
+                continue;
+            }
+            PendingContact pending = mPendingContacts.get(contact);
+            if (pending == null) {
+                pending = new PendingContact();
+                mPendingContacts.put(contact, pending);
+                mCollectedContacts.add(contact);
+            } else {
+                mMergedContactCount++;
+                if (pending.mResult != null) {
+                    // The outstanding request already answered this contact.
+                    cached.add(pending.mResult);
+                    continue;
+                }
+            }
+            pending.mWaiters.add(waiter);
+            waiter.mRemainingContacts++;
+        }
+
+        if (!cached.isEmpty()) {
+            send(c, cb -> cb.onCapabilitiesReceived(cached));
+        }
+        if (waiter.mRemainingContacts == 0) {
+            waiter.mIsDone = true;
+            send(c, IRcsUceControllerCallback::onComplete);
+            return;
+        }
+        if (!mCollectedContacts.isEmpty() && !mIsFlushScheduled) {
+            mIsFlushScheduled = true;
+            mExecutor.schedule(this::flush, BATCH_WINDOW_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Forget the cached capabilities and the request size limit, for example because the
+     * subscription or the carrier configuration changed.
+     */
+    void invalidate() {
+        mCache.clear();
+        mMaxContactsPerRequest = 0;
+    }
+
+    private RcsContactUceCapability getCachedCapability(Uri contact, long now) {
+        CachedCapability cached = mCache.get(contact);
+        if (cached == null) {
+            return null;
+        }
+        if (now >= cached.mExpiryMillis) {
+            mCache.remove(contact);
+            return null;
+        }
+        return cached.mCapability;
+    }
+
+    /** Send the collected contacts in requests of the size the carrier allows. */
+    private void flush() {
+        mIsFlushScheduled = false;
+        if (mCollectedContacts.isEmpty()) {
+            return;
+        }
+        List<Uri> contacts = new ArrayList<>(mCollectedContacts);
+        mCollectedContacts.clear();
+        int maxContacts = getMaxContactsPerRequest();
+        for (int start = 0; start < contacts.size(); start += maxContacts) {
+            int end = Math.min(contacts.size(), start + maxContacts);
+            Batch batch = new Batch(new ArrayList<>(contacts.subList(start, end)));
+            mNetworkRequestCount++;
+            mNetworkContactCount += batch.mContacts.size();
+            try {
+                mSender.sendCapabilityRequest(batch.mContacts, batch);
+            } catch (ImsException e) {
+                Log.w(LOG_TAG, "flush: " + e);
+                onBatchDone(batch, true /*isError*/, RcsUceAdapter.ERROR_NOT_AVAILABLE, 0L);
+            } catch (RemoteException e) {
+                Log.w(LOG_TAG, "flush: " + e);
+                onBatchDone(batch, true /*isError*/, RcsUceAdapter.ERROR_GENERIC_FAILURE, 0L);
+            }
+        }
+    }
+
+    private int getMaxContactsPerRequest() {
+        if (mMaxContactsPerRequest < 1) {
+            int maxContacts = mSender.getMaxContactsPerRequest();
+            mMaxContactsPerRequest = maxContacts > 0 ? maxContacts
+                    : DEFAULT_MAX_CONTACTS_PER_REQUEST;
+        }
+        return mMaxContactsPerRequest;
+    }
+
+    private void onBatchCapabilitiesReceived(Batch batch,
+            List<RcsContactUceCapability> capabilities) {
+        long expiryMillis = mClock.getAsLong() + CACHE_TTL_MS;
+        LinkedHashMap<Waiter, List<RcsContactUceCapability>> results = new LinkedHashMap<>();
+        for (RcsContactUceCapability capability : capabilities) {
+            Uri contact = capability.getContactUri();
+            if (capability.getRequestResult() == RcsContactUceCapability.REQUEST_RESULT_FOUND) {
+                mCache.put(contact, new CachedCapability(capability, expiryMillis));
+            }
+            PendingContact pending = mPendingContacts.get(contact);
+            Iterable<Waiter> waiters;
+            if (pending != null) {
+                pending.mResult = capability;
+                waiters = pending.mWaiters;
+            } else {
+                // The URI does not match a requested contact, let every caller of the request
+                // decide whether the result is one of its contacts.
+                waiters = getWaiters(batch);
+            }
+            for (Waiter waiter : waiters) {
+                if (!waiter.mIsDone) {
+                    results.computeIfAbsent(waiter, w -> new ArrayList<>()).add(capability);
+                }
+            }
+        }
+        for (Map.Entry<Waiter, List<RcsContactUceCapability>> result : results.entrySet()) {
+            send(result.getKey().mCallback, cb -> cb.onCapabilitiesReceived(result.getValue()));
+        }
+    }
+
+    /** @return The callers waiting for at least one contact of the batch. */
+    private Set<Waiter> getWaiters(Batch batch) {
+        LinkedHashSet<Waiter> waiters = new LinkedHashSet<>();
+        for (Uri contact : batch.mContacts) {
+            PendingContact pending = mPendingContacts.get(contact);
+            if (pending != null) {
+                waiters.addAll(pending.mWaiters);
+            }
+        }
+        return waiters;
+    }
+
+    private void onBatchDone(Batch batch, boolean isError, int errorCode,
+            long retryAfterMillis) {
+        if (batch.mIsDone) {
+            return;
+        }
+        batch.mIsDone = true;
+        for (Uri contact : batch.mContacts) {
+            PendingContact pending = mPendingContacts.remove(contact);
+            if (pending == null) {
+                continue;
+            }
+            for (Waiter waiter : pending.mWaiters) {
+                if (waiter.mIsDone) {
+                    continue;
+                }
+                if (isError) {
+                    waiter.mIsDone = true;
+                    send(waiter.mCallback, cb -> cb.onError(errorCode, retryAfterMillis));
+                } else if (--waiter.mRemainingContacts == 0) {
+                    waiter.mIsDone = true;
+                    send(waiter.mCallback, IRcsUceControllerCallback::onComplete);
+                }
+            }
+        }
+    }
+
+    private void post(Runnable r) {
+        try {
+            mExecutor.execute(r);
+        } catch (RejectedExecutionException e) {
+            Log.w(LOG_TAG, "post: executor is shut down, dropping result");
+        }
+    }
+
+    private void send(IRcsUceControllerCallback c, CallbackAction action) {
+        try {
+            action.run(c);
+        } catch (RemoteException e) {
+            Log.w(LOG_TAG, "send: callback is dead: " + e);
+        }
+    }
+
+    void dump(IndentingPrintWriter pw) {
+        long requested = mRequestedContactCount;
+        long hits = mCacheHitCount;
+        long merged = mMergedContactCount;
+        pw.println("UceCapabilityBatcher:");
+        pw.increaseIndent();
+        pw.println("requested contacts=" + requested + ", cache hits=" + hits
+                + " (" + (requested == 0 ? 0 : hits * 100 / requested) + "%)"
+                + ", merged=" + merged);
+        pw.println("network requests=" + mNetworkRequestCount + ", network contacts="
+                + mNetworkContactCount + ", contacts saved=" + (hits + merged));
+        pw.println("cached=" + mCache.size() + ", outstanding=" + mPendingContacts.size()
+                + ", max contacts per request=" + mMaxContactsPerRequest);
+        pw.decreaseIndent();
+    }
+}
@@ -19,8 +19,10 @@ package com.android.services.telephony.rcs;
 import android.annotation.Nullable;
 import android.content.Context;
 import android.net.Uri;
+import android.os.RemoteException;
 import android.telephony.SubscriptionManager;
 import android.telephony.ims.ImsException;
+import android.telephony.ims.ProvisioningManager;
 import android.telephony.ims.RcsContactUceCapability;
 import android.telephony.ims.RcsUceAdapter;
 import android.telephony.ims.RcsUceAdapter.PublishState;
@@ -34,12 +36,16 @@ import com.android.ims.rcs.uce.UceController;
 import com.android.internal.annotations.VisibleForTesting;
 
 import java.io.PrintWriter;
+import java.util.Collections;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
  * Responsible for managing the creation and destruction of UceController. It also received the
@@ -50,9 +56,16 @@ public class UceControllerManager implements RcsFeatureController.Feature {
 
     private static final String LOG_TAG = "UceControllerManager";
 
+    // The maximum number of capability requests waiting to be sent to the UceController.
+    private static final int MAX_PENDING_REQUESTS = 64;
+    // How long a binder call that returns a result waits for the UceController to produce it.
+    private static final long RESULT_TIMEOUT_MS = 2000;
+
     private final int mSlotId;
     private final Context mContext;
-    private final ExecutorService mExecutorService;
+    private final ScheduledExecutorService mExecutorService;
+    private final UceRequestQueue mRequestQueue;
+    private final UceCapabilityBatcher mCapabilityBatcher;
 
     private volatile @Nullable UceController mUceController;
     private volatile @Nullable RcsFeatureManager mRcsFeatureManager;
@@ -61,7 +74,10 @@ public class UceControllerManager implements RcsFeatureController.Feature {
         Log.d(LOG_TAG, "create: slotId=" + slotId + ", subId=" + subId);
         mSlotId = slotId;
         mContext = context;
-        mExecutorService = Executors.newSingleThreadExecutor();
+        mExecutorService = RcsRuntime.getInstance().createLane(LOG_TAG, slotId);
+        mRequestQueue = new UceRequestQueue(mExecutorService, MAX_PENDING_REQUESTS,
+                this::dispatchRequest);
+        mCapabilityBatcher = new UceCapabilityBatcher(mExecutorService, new CapabilitySender());
         initUceController(subId);
     }
 
@@ -69,11 +85,14 @@ public class UceControllerManager implements RcsFeatureController.Feature {
      * Constructor to inject dependencies for testing.
      */
     @VisibleForTesting
-    public UceControllerManager(Context context, int slotId, ExecutorService executor,
+    public UceControllerManager(Context context, int slotId, ScheduledExecutorService executor,
             UceController uceController) {
         mSlotId = slotId;
         mContext = context;
         mExecutorService = executor;
+        mRequestQueue = new UceRequestQueue(mExecutorService, MAX_PENDING_REQUESTS,
+                this::dispatchRequest);
+        mCapabilityBatcher = new UceCapabilityBatcher(mExecutorService, new CapabilitySender());
         mUceController = uceController;
     }
 
@@ -93,6 +112,7 @@ public class UceControllerManager implements RcsFeatureController.Feature {
     public void onRcsDisconnected() {
         mExecutorService.submit(() -> {
             mRcsFeatureManager = null;
+            mCapabilityBatcher.invalidate();
             if (mUceController != null) {
                 mUceController.onRcsDisconnected();
             } else {
@@ -125,6 +145,7 @@ public class UceControllerManager implements RcsFeatureController.Feature {
 
             // Check and create the UceController with the new updated subscription ID.
             initUceController(newSubId);
+            mCapabilityBatcher.invalidate();
 
             // The RCS should be connected when the mRcsFeatureManager is not null. Set it to the
             // new UceController instance.
@@ -142,6 +163,7 @@ public class UceControllerManager implements RcsFeatureController.Feature {
     public void onCarrierConfigChanged() {
         mExecutorService.submit(() -> {
             Log.i(LOG_TAG, "onCarrierConfigChanged");
+            mCapabilityBatcher.invalidate();
             if (mUceController != null) {
                 mUceController.onCarrierConfigChanged();
             } else {
@@ -151,54 +173,34 @@ public class UceControllerManager implements RcsFeatureController.Feature {
     }
 
     /**
-     * Request the capabilities for contacts.
+     * Request the capabilities for contacts. The request is queued and the result is delivered
+     * through the callback; this method does not wait for the request to be sent.
      *
      * @param contactNumbers A list of numbers that the capabilities are being requested for.
      * @param c A callback for when the request for capabilities completes.
-     * @throws ImsException if the ImsService connected to this controller is currently down.
+     * @throws ImsException if the ImsService connected to this controller is currently down or
+     *         too many requests are pending.
      */
     public void requestCapabilities(List<Uri> contactNumbers, IRcsUceControllerCallback c)
             throws ImsException {
-        Future future = mExecutorService.submit(() -> {
-            checkUceControllerState();
-            mUceController.requestCapabilities(contactNumbers, c);
-            return true;
-        });
-
-        try {
-            future.get();
-        } catch (ExecutionException | InterruptedException e) {
-            Log.w(LOG_TAG, "requestCapabilities: " + e);
-            Throwable cause = e.getCause();
-            if (cause instanceof ImsException) {
-                throw (ImsException) cause;
-            }
-        }
+        checkUceControllerState();
+        mRequestQueue.offer(false /*isAvailability*/, contactNumbers, c);
     }
 
     /**
-     * Request the capabilities for the given contact.
+     * Request the capabilities for the given contact. The request is queued and the result is
+     * delivered through the callback; this method does not wait for the request to be sent.
+     *
      * @param contactNumber The contact of the capabilities are being requested for.
      * @param c A callback for when the request for capabilities completes.
-     * @throws ImsException if the ImsService connected to this controller is currently down.
+     * @throws ImsException if the ImsService connected to this controller is currently down or
+     *         too many requests are pending.
      */
     public void requestNetworkAvailability(Uri contactNumber, IRcsUceControllerCallback c)
             throws ImsException {
-        Future future = mExecutorService.submit(() -> {
-            checkUceControllerState();
-            mUceController.requestAvailability(contactNumber, c);
-            return true;
-        });
-
-        try {
-            future.get();
-        } catch (ExecutionException | InterruptedException e) {
-            Log.w(LOG_TAG, "requestNetworkAvailability exception: " + e);
-            Throwable cause = e.getCause();
-            if (cause instanceof ImsException) {
-                throw (ImsException) cause;
-            }
-        }
+        checkUceControllerState();
+        mRequestQueue.offer(true /*isAvailability*/, Collections.singletonList(contactNumber),
+                c);
     }
 
     /**
@@ -208,21 +210,12 @@ public class UceControllerManager implements RcsFeatureController.Feature {
      */
     public @PublishState int getUcePublishState(boolean isSupportPublishingState)
             throws ImsException {
-        Future<Integer> future = mExecutorService.submit(() -> {
+        CompletableFuture<Integer> future = callOnExecutor(() -> {
             checkUceControllerState();
             return mUceController.getUcePublishState(isSupportPublishingState);
         });
-
-        try {
-            return future.get();
-        } catch (ExecutionException | InterruptedException e) {
-            Log.w(LOG_TAG, "getUcePublishState exception: " + e);
-            Throwable cause = e.getCause();
-            if (cause instanceof ImsException) {
-                throw (ImsException) cause;
-            }
-            return RcsUceAdapter.PUBLISH_STATE_OTHER_ERROR;
-        }
+        return waitForResult("getUcePublishState", future,
+                RcsUceAdapter.PUBLISH_STATE_OTHER_ERROR);
     }
 
     /**
@@ -230,21 +223,11 @@ public class UceControllerManager implements RcsFeatureController.Feature {
      */
     public RcsContactUceCapability addUceRegistrationOverride(
             Set<String> featureTags) throws ImsException {
-        Future<RcsContactUceCapability> future = mExecutorService.submit(() -> {
+        CompletableFuture<RcsContactUceCapability> future = callOnExecutor(() -> {
             checkUceControllerState();
             return mUceController.addRegistrationOverrideCapabilities(featureTags);
         });
-
-        try {
-            return future.get();
-        } catch (ExecutionException | InterruptedException e) {
-            Log.w(LOG_TAG, "addUceRegistrationOverride exception: " + e);
-            Throwable cause = e.getCause();
-            if (cause instanceof ImsException) {
-                throw (ImsException) cause;
-            }
-            return null;
-        }
+        return waitForResult("addUceRegistrationOverride", future, null);
     }
 
     /**
@@ -252,63 +235,33 @@ public class UceControllerManager implements RcsFeatureController.Feature {
      */
     public RcsContactUceCapability removeUceRegistrationOverride(
             Set<String> featureTags) throws ImsException {
-        Future<RcsContactUceCapability> future = mExecutorService.submit(() -> {
+        CompletableFuture<RcsContactUceCapability> future = callOnExecutor(() -> {
             checkUceControllerState();
             return mUceController.removeRegistrationOverrideCapabilities(featureTags);
         });
-
-        try {
-            return future.get();
-        } catch (ExecutionException | InterruptedException e) {
-            Log.w(LOG_TAG, "removeUceRegistrationOverride exception: " + e);
-            Throwable cause = e.getCause();
-            if (cause instanceof ImsException) {
-                throw (ImsException) cause;
-            }
-            return null;
-        }
+        return waitForResult("removeUceRegistrationOverride", future, null);
     }
 
     /**
      * Clear all overrides in the Set used to calculate the capabilities in PUBLISH.
      */
     public RcsContactUceCapability clearUceRegistrationOverride() throws ImsException {
-        Future<RcsContactUceCapability> future = mExecutorService.submit(() -> {
+        CompletableFuture<RcsContactUceCapability> future = callOnExecutor(() -> {
             checkUceControllerState();
             return mUceController.clearRegistrationOverrideCapabilities();
         });
-
-        try {
-            return future.get();
-        } catch (ExecutionException | InterruptedException e) {
-            Log.w(LOG_TAG, "clearUceRegistrationOverride exception: " + e);
-            Throwable cause = e.getCause();
-            if (cause instanceof ImsException) {
-                throw (ImsException) cause;
-            }
-            return null;
-        }
+        return waitForResult("clearUceRegistrationOverride", future, null);
     }
 
     /**
      * @return current RcsContactUceCapability instance that will be used for PUBLISH.
      */
     public RcsContactUceCapability getLatestRcsContactUceCapability() throws ImsException {
-        Future<RcsContactUceCapability> future = mExecutorService.submit(() -> {
+        CompletableFuture<RcsContactUceCapability> future = callOnExecutor(() -> {
             checkUceControllerState();
             return mUceController.getLatestRcsContactUceCapability();
         });
-
-        try {
-            return future.get();
-        } catch (ExecutionException | InterruptedException e) {
-            Log.w(LOG_TAG, "getLatestRcsContactUceCapability exception: " + e);
-            Throwable cause = e.getCause();
-            if (cause instanceof ImsException) {
-                throw (ImsException) cause;
-            }
-            return null;
-        }
+        return waitForResult("getLatestRcsContactUceCapability", future, null);
     }
 
     /**
@@ -316,21 +269,11 @@ public class UceControllerManager implements RcsFeatureController.Feature {
      * @return The last PIDF XML sent to the IMS stack to be published.
      */
     public String getLastPidfXml() throws ImsException {
-        Future<String> future = mExecutorService.submit(() -> {
+        CompletableFuture<String> future = callOnExecutor(() -> {
             checkUceControllerState();
             return mUceController.getLastPidfXml();
         });
-
-        try {
-            return future.get();
-        } catch (ExecutionException | InterruptedException e) {
-            Log.w(LOG_TAG, "getLastPidfXml exception: " + e);
-            Throwable cause = e.getCause();
-            if (cause instanceof ImsException) {
-                throw (ImsException) cause;
-            }
-            return null;
-        }
+        return waitForResult("getLastPidfXml", future, null);
     }
 
     /**
@@ -338,7 +281,7 @@ public class UceControllerManager implements RcsFeatureController.Feature {
      * @return true if this command is successful.
      */
     public boolean removeUceRequestDisallowedStatus() throws ImsException {
-        Future<Boolean> future = mExecutorService.submit(() -> {
+        CompletableFuture<Boolean> future = callOnExecutor(() -> {
             if (mUceController == null) {
                 throw new ImsException("UCE controller is null",
                         ImsException.CODE_ERROR_SERVICE_UNAVAILABLE);
@@ -346,17 +289,7 @@ public class UceControllerManager implements RcsFeatureController.Feature {
             mUceController.removeRequestDisallowedStatus();
             return true;
         });
-
-        try {
-            return future.get();
-        } catch (ExecutionException | InterruptedException e) {
-            Log.w(LOG_TAG, "removeUceRequestDisallowedStatus exception: " + e);
-            Throwable cause = e.getCause();
-            if (cause instanceof ImsException) {
-                throw (ImsException) cause;
-            }
-            return false;
-        }
+        return waitForResult("removeUceRequestDisallowedStatus", future, false);
     }
 
     /**
@@ -365,7 +298,7 @@ public class UceControllerManager implements RcsFeatureController.Feature {
      * @return true if this command is successful.
      */
     public boolean setCapabilitiesRequestTimeout(long timeoutAfterMs)  throws ImsException {
-        Future<Boolean> future = mExecutorService.submit(() -> {
+        CompletableFuture<Boolean> future = callOnExecutor(() -> {
             if (mUceController == null) {
                 throw new ImsException("UCE controller is null",
                         ImsException.CODE_ERROR_SERVICE_UNAVAILABLE);
@@ -373,58 +306,123 @@ public class UceControllerManager implements RcsFeatureController.Feature {
             mUceController.setCapabilitiesRequestTimeout(timeoutAfterMs);
             return true;
         });
-
-        try {
-            return future.get();
-        } catch (ExecutionException | InterruptedException e) {
-            Log.w(LOG_TAG, "setCapabilitiesRequestTimeout exception: " + e);
-            Throwable cause = e.getCause();
-            if (cause instanceof ImsException) {
-                throw (ImsException) cause;
-            }
-            return false;
-        }
+        return waitForResult("setCapabilitiesRequestTimeout", future, false);
     }
 
     /**
-     * Register the Publish state changed callback.
+     * Register the Publish state changed callback. The callback is registered asynchronously.
      *
      * @throws ImsException if the ImsService connected to this controller is currently down.
      */
     public void registerPublishStateCallback(IRcsUcePublishStateCallback c,
             boolean supportPublishingState) throws ImsException {
-        Future future = mExecutorService.submit(() -> {
+        checkUceControllerState();
+        callOnExecutor(() -> {
             checkUceControllerState();
             mUceController.registerPublishStateCallback(c, supportPublishingState);
             return true;
-        });
-
-        try {
-            future.get();
-        } catch (ExecutionException | InterruptedException e) {
+        }).exceptionally(e -> {
             Log.w(LOG_TAG, "registerPublishStateCallback exception: " + e);
-            Throwable cause = e.getCause();
-            if (cause instanceof ImsException) {
-                throw (ImsException) cause;
-            }
-        }
+            return false;
+        });
     }
 
     /**
-     * Unregister the existing publish state changed callback.
+     * Unregister the existing publish state changed callback. The callback is unregistered
+     * asynchronously.
      */
     public void unregisterPublishStateCallback(IRcsUcePublishStateCallback c) {
-        Future future = mExecutorService.submit(() -> {
+        callOnExecutor(() -> {
             if (checkUceControllerState()) {
                 mUceController.unregisterPublishStateCallback(c);
             }
             return true;
+        }).exceptionally(e -> {
+            Log.w(LOG_TAG, "unregisterPublishStateCallback exception: " + e);
+            return false;
         });
+    }
+
+    /**
+     * Send a request admitted by the request queue on. Availability requests always go to the
+     * network, capability requests go through the capability batcher. Called on the executor.
+     */
+    private void dispatchRequest(boolean isAvailability, List<Uri> contacts,
+            IRcsUceControllerCallback c) throws ImsException, RemoteException {
+        checkUceControllerState();
+        if (isAvailability) {
+            mUceController.requestAvailability(contacts.get(0), c);
+        } else {
+            mCapabilityBatcher.requestCapabilities(contacts, c);
+        }
+    }
+
+    /**
+     * Sends the batches of the capability batcher to the UceController.
+     */
+    private class CapabilitySender implements UceCapabilityBatcher.Sender {
+        @Override
+        public void sendCapabilityRequest(List<Uri> contacts, IRcsUceControllerCallback c)
+                throws ImsException, RemoteException {
+            checkUceControllerState();
+            mUceController.requestCapabilities(contacts, c);
+        }
 
+        @Override
+        public int getMaxContactsPerRequest() {
+            UceController uceController = mUceController;
+            if (uceController == null) {
+                return 0;
+            }
+            try {
+                ProvisioningManager provisioningManager =
+                        ProvisioningManager.createForSubscriptionId(uceController.getSubId());
+                return provisioningManager.getProvisioningIntValue(
+                        ProvisioningManager.KEY_RCS_MAX_NUM_ENTRIES_IN_RCL);
+            } catch (RuntimeException e) {
+                Log.w(LOG_TAG, "getMaxContactsPerRequest exception: " + e);
+                return 0;
+            }
+        }
+    }
+
+    /**
+     * Run the task on the executor without waiting for it.
+     * @return A future which completes with the result of the task.
+     */
+    private <T> CompletableFuture<T> callOnExecutor(Callable<T> task) {
+        CompletableFuture<T> future = new CompletableFuture<>();
         try {
-            future.get();
-        } catch (ExecutionException | InterruptedException e) {
-            Log.w(LOG_TAG, "unregisterPublishStateCallback exception: " + e);
+            mExecutorService.execute(() -> {
+                try {
+                    future.complete(task.call());
+                } catch (Exception e) {
+                    future.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            future.completeExceptionally(new ImsException("UCE controller is destroyed",
+                    ImsException.CODE_ERROR_SERVICE_UNAVAILABLE));
+        }
+        return future;
+    }
+
+    /**
+     * Wait a bounded time for the result of a task for a binder call which needs to return it.
+     * @return The result, or the given default value if the task failed or timed out.
+     * @throws ImsException if the task failed with an ImsException.
+     */
+    private <T> T waitForResult(String operation, CompletableFuture<T> future, T defaultValue)
+            throws ImsException {
+        try {
+            return future.get(RESULT_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException | InterruptedException | TimeoutException e) {
+            Log.w(LOG_TAG, operation + " exception: " + e);
+            Throwable cause = e.getCause();
+            if (cause instanceof ImsException) {
+                throw (ImsException) cause;
+            }
+            return defaultValue;
         }
     }
 
@@ -454,7 +452,8 @@ public class UceControllerManager implements RcsFeatureController.Feature {
     }
 
     private boolean checkUceControllerState() throws ImsException {
-        if (mUceController == null || mUceController.isUnavailable()) {
+        UceController uceController = mUceController;
+        if (uceController == null || uceController.isUnavailable()) {
             throw new ImsException("UCE controller is unavailable",
                     ImsException.CODE_ERROR_SERVICE_UNAVAILABLE);
         }
@@ -481,6 +480,8 @@ public class UceControllerManager implements RcsFeatureController.Feature {
         } else {
             pw.println("UceController is null.");
         }
+        mRequestQueue.dump(pw);
+        mCapabilityBatcher.dump(pw);
         pw.decreaseIndent();
     }
 }
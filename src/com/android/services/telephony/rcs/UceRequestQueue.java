@@ -0,0 +1,256 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.services.telephony.rcs;
+
+import android.net.Uri;
+import android.os.RemoteException;
+import android.telephony.ims.ImsException;
+import android.telephony.ims.RcsContactUceCapability;
+import android.telephony.ims.RcsUceAdapter;
+import android.telephony.ims.aidl.IRcsUceControllerCallback;
+import android.util.IndentingPrintWriter;
+import android.util.Log;
+
+import com.android.internal.annotations.VisibleForTesting;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Admits the capability and availability requests of {@link UceControllerManager} and
+ * dispatches them on the UCE executor, so the binder thread which made the request returns as
+ * soon as the request is queued. The results are delivered through the callback of the request.
+ * <p>
+ * The number of requests waiting to be dispatched is bounded; when the queue is full new requests
+ * are refused with an {@link ImsException} instead of piling up behind a busy UceController.
+ * A request for the same set of contacts as a request which has not completed yet is not sent
+ * again. Its callback is attached to the earlier request and receives the same results,
+ * including the capabilities which were already delivered before it joined.
+ */
+class UceRequestQueue {
+    private static final String LOG_TAG = "UceRequestQueue";
+
+    /** Sends an admitted request to the UceController. */
+    interface Dispatcher {
+        /**
+         * Dispatch a request. Called on the executor of the queue.
+         * @param isAvailability {@code true} for an availability request, which has exactly one
+         *         contact.
+         * @param contacts The contacts to request the capabilities of, without duplicates.
+         * @param c The callback to deliver the results to.
+         */
+        void dispatch(boolean isAvailability, List<Uri> contacts, IRcsUceControllerCallback c)
+                throws ImsException, RemoteException;
+    }
+
+    private interface CallbackAction {
+        void run(IRcsUceControllerCallback c) throws RemoteException;
+    }
+
+    /**
+     * A request which has been admitted and has not completed yet. It is the callback the
+     * UceController reports to and forwards everything to the callbacks of all requesters.
+     */
+    private final class Request extends IRcsUceControllerCallback.Stub {
+        private final boolean mIsAvailability;
+        private final Set<Uri> mContacts;
+        // Guarded by this.
+        private final ArrayList<IRcsUceControllerCallback> mCallbacks = new ArrayList<>(1);
+        private final ArrayList<RcsContactUceCapability> mReceived = new ArrayList<>();
+        private boolean mIsDone;
+
+        Request(boolean isAvailability, Set<Uri> contacts, IRcsUceControllerCallback c) {
+            mIsAvailability = isAvailability;
+            mContacts = contacts;
+            mCallbacks.add(c);
+        }
+
+        /**
+         * Attach the callback of another requester for the same contacts.
+         * @return {@code false} if this request has already completed.
+         */
+        synchronized boolean join(IRcsUceControllerCallback c) {
+            if (mIsDone) {
+                return false;
+            }
+            mCallbacks.add(c);
+            if (!mReceived.isEmpty()) {
+                List<RcsContactUceCapability> received = new ArrayList<>(mReceived);
+                send(c, cb -> cb.onCapabilitiesReceived(received));
+            }
+            return true;
+        }
+
+        @Override
+        public synchronized void onCapabilitiesReceived(
+                List<RcsContactUceCapability> contactCapabilities) {
+            mReceived.addAll(contactCapabilities);
+            for (IRcsUceControllerCallback c : mCallbacks) {
+                send(c, cb -> cb.onCapabilitiesReceived(contactCapabilities));
+            }
+        }
+
+        @Override
+        public void onComplete() {
+            finish(IRcsUceControllerCallback::onComplete);
+        }
+
+        @Override
+        public void onError(int errorCode, long retryAfterMilliseconds) {
+            finish(cb -> cb.onError(errorCode, retryAfterMilliseconds));
+        }
+
+        private void finish(CallbackAction action) {
+            synchronized (this) {
+                if (mIsDone) {
+                    return;
+                }
+                mIsDone = true;
+                for (IRcsUceControllerCallback c : mCallbacks) {
+                    send(c, action);
+                }
+                mCallbacks.clear();
+                mReceived.clear();
+            }
+            onRequestDone(this);
+        }
+
+        private void send(IRcsUceControllerCallback c, CallbackAction action) {
+            try {
+                action.run(c);
+            } catch (RemoteException e) {
+                Log.w(LOG_TAG, "send: callback is dead: " + e);
+            }
+        }
+    }
+
+    private final Object mLock = new Object();
+    private final Executor mExecutor;
+    private final Dispatcher mDispatcher;
+    private final int mMaxPendingRequests;
+
+    // Requests waiting to be dispatched, guarded by mLock.
+    private final ArrayDeque<Request> mPendingRequests = new ArrayDeque<>();
+    // Requests which have not completed yet, by contacts. Guarded by mLock.
+    private final HashMap<Set<Uri>, Request> mCapabilityRequests = new HashMap<>();
+    private final HashMap<Set<Uri>, Request> mAvailabilityRequests = new HashMap<>();
+    private long mAdmittedCount;
+    private long mJoinedCount;
+    private long mRefusedCount;
+
+    UceRequestQueue(Executor executor, int maxPendingRequests, Dispatcher dispatcher) {
+        mExecutor = executor;
+        mMaxPendingRequests = maxPendingRequests;
+        mDispatcher = dispatcher;
+    }
+
+    /**
+     * Queue a request without waiting for it to be dispatched.
+     * @throws ImsException if too many requests are waiting to be dispatched already.
+     */
+    void offer(boolean isAvailability, List<Uri> contacts, IRcsUceControllerCallback c)
+            throws ImsException {
+        Set<Uri> key = new LinkedHashSet<>(contacts);
+        Request request;
+        synchronized (mLock) {
+            HashMap<Set<Uri>, Request> requests = getRequests(isAvailability);
+            request = requests.get(key);
+            if (request != null && request.join(c)) {
+                mJoinedCount++;
+                return;
+            }
+            if (mPendingRequests.size() >= mMaxPendingRequests) {
+                mRefusedCount++;
+                throw new ImsException("Too many pending UCE requests",
+                        ImsException.CODE_ERROR_SERVICE_UNAVAILABLE);
+            }
+            request = new Request(isAvailability, key, c);
+            requests.put(key, request);
+            mPendingRequests.add(request);
+            mAdmittedCount++;
+        }
+        try {
+            mExecutor.execute(this::dispatchNext);
+        } catch (RejectedExecutionException e) {
+            synchronized (mLock) {
+                mPendingRequests.remove(request);
+            }
+            Log.w(LOG_TAG, "offer: executor is shut down");
+            request.onError(RcsUceAdapter.ERROR_NOT_AVAILABLE, 0L);
+        }
+    }
+
+    private void dispatchNext() {
+        Request request;
+        synchronized (mLock) {
+            request = mPendingRequests.poll();
+        }
+        if (request == null) {
+            return;
+        }
+        try {
+            mDispatcher.dispatch(request.mIsAvailability, new ArrayList<>(request.mContacts),
+                    request);
+        } catch (ImsException e) {
+            Log.w(LOG_TAG, "dispatchNext: " + e);
+            request.onError(RcsUceAdapter.ERROR_NOT_AVAILABLE, 0L);
+        } catch (RemoteException e) {
+            Log.w(LOG_TAG, "dispatchNext: " + e);
+            request.onError(RcsUceAdapter.ERROR_GENERIC_FAILURE, 0L);
+        }
+    }
+
+    private void onRequestDone(Request request) {
+        synchronized (mLock) {
+            HashMap<Set<Uri>, Request> requests = getRequests(request.mIsAvailability);
+            // A new request for the same contacts may have replaced this one already.
+            if (requests.get(request.mContacts) == request) {
+                requests.remove(request.mContacts);
+            }
+        }
+    }
+
+    private HashMap<Set<Uri>, Request> getRequests(boolean isAvailability) {
+        return isAvailability ? mAvailabilityRequests : mCapabilityRequests;
+    }
+
+    /** @return The number of requests waiting to be dispatched. */
+    @VisibleForTesting
+    public int getPendingRequestCount() {
+        synchronized (mLock) {
+            return mPendingRequests.size();
+        }
+    }
+
+    void dump(IndentingPrintWriter pw) {
+        synchronized (mLock) {
+            pw.println("UceRequestQueue:");
+            pw.increaseIndent();
+            pw.println("pending=" + mPendingRequests.size() + "/" + mMaxPendingRequests
+                    + ", incomplete=" + (mCapabilityRequests.size() + mAvailabilityRequests.size())
+                    + ", admitted=" + mAdmittedCount + ", joined=" + mJoinedCount
+                    + ", refused=" + mRefusedCount);
+            pw.decreaseIndent();
+        }
+    }
+}
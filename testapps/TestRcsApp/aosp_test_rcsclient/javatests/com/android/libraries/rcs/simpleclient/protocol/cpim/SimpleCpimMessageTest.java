@@ -20,6 +20,7 @@ import static com.google.common.truth.Truth.assertThat;
 import static java.nio.charset.StandardCharsets.UTF_8;
 
 import androidx.test.ext.junit.runners.AndroidJUnit4;
+import java.nio.ByteBuffer;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
@@ -50,4 +51,49 @@ public class SimpleCpimMessageTest {
         assertThat(cpim.contentType()).isEqualTo("text/plain; charset=utf-8");
         assertThat(cpim.content()).isEqualTo("body");
     }
+
+    @Test
+    public void parseFromOffset_successful() throws Exception {
+        byte[] sample = SAMPLE_CPIM.getBytes(UTF_8);
+        byte[] chunk = new byte[sample.length + 8];
+        System.arraycopy(sample, 0, chunk, 4, sample.length);
+
+        SimpleCpimMessage cpim = SimpleCpimMessage.parse(chunk, 4, sample.length);
+
+        assertThat(cpim).isEqualTo(SimpleCpimMessage.parse(sample));
+    }
+
+    @Test
+    public void view_decodesOnlyRequestedHeaders() {
+        CpimMessageView view = CpimMessageView.wrap(SAMPLE_CPIM.getBytes(UTF_8));
+
+        assertThat(view.getHeader("DateTime")).isEqualTo("2000-12-13T13:40:00-08:00");
+        assertThat(view.getHeader("datetime")).isNull();
+        assertThat(view.getContentType()).isEqualTo("text/plain; charset=utf-8");
+        assertThat(view.getContentAsString()).isEqualTo("body");
+    }
+
+    @Test
+    public void encodeAndParse_shouldBeEqualToOriginal() throws Exception {
+        SimpleCpimMessage original = CpimUtils.createForText("Hallo Welt \u00fc\r\nline two");
+
+        SimpleCpimMessage parsed = SimpleCpimMessage.parse(original.encodeToBytes());
+
+        assertThat(parsed.namespaces()).isEqualTo(original.namespaces());
+        assertThat(parsed.headers()).isEqualTo(original.headers());
+        assertThat(parsed.contentType()).isEqualTo(original.contentType());
+        assertThat(parsed.content()).isEqualTo(original.content());
+    }
+
+    @Test
+    public void encodeTo_matchesEncode() {
+        SimpleCpimMessage original = CpimUtils.createForText("Hallo Welt \u00fc");
+        ByteBuffer buffer = ByteBuffer.allocate(original.encodedLength() + 4);
+        buffer.put((byte) 1);
+
+        int written = original.encodeTo(buffer);
+
+        assertThat(written).isEqualTo(original.encode().getBytes(UTF_8).length);
+        assertThat(new String(buffer.array(), 1, written, UTF_8)).isEqualTo(original.encode());
+    }
 }
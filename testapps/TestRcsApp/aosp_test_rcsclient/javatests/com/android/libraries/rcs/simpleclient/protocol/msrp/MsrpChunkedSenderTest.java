@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.libraries.rcs.simpleclient.protocol.msrp;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.when;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import com.android.libraries.rcs.simpleclient.protocol.msrp.MsrpChunk.Continuation;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+
+@RunWith(AndroidJUnit4.class)
+public class MsrpChunkedSenderTest {
+    @Rule
+    public final MockitoRule mockito = MockitoJUnit.rule();
+
+    @Mock
+    private MsrpSession session;
+    @Mock
+    private MsrpSession resumedSession;
+
+    private final List<MsrpChunk> sentChunks = new ArrayList<>();
+    private final List<SettableFuture<MsrpChunk>> responses = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        when(session.isOpen()).thenReturn(true);
+        when(session.send(any())).thenAnswer(invocation -> record(invocation.getArgument(0)));
+        when(resumedSession.send(any())).thenAnswer(
+                invocation -> record(invocation.getArgument(0)));
+    }
+
+    @Test
+    public void whenStarted_onlyWindowSizeChunksInFlight() {
+        MsrpChunkedSender sender = createSender(new byte[100], 10, 3);
+
+        sender.start(session);
+
+        assertThat(sentChunks).hasSize(3);
+        assertThat(byteRange(sentChunks.get(0))).isEqualTo("1-10/100");
+        assertThat(sentChunks.get(0).continuation()).isEqualTo(Continuation.MORE);
+
+        acknowledge(0);
+
+        assertThat(sentChunks).hasSize(4);
+        assertThat(byteRange(sentChunks.get(3))).isEqualTo("31-40/100");
+    }
+
+    @Test
+    public void whenAllChunksAcknowledged_futureCompletes() {
+        MsrpChunkedSender sender = createSender(new byte[25], 10, 2);
+        ListenableFuture<Void> result = sender.start(session);
+
+        acknowledge(0);
+        acknowledge(1);
+        acknowledge(2);
+
+        assertThat(result.isDone()).isTrue();
+        assertThat(sentChunks).hasSize(3);
+        assertThat(byteRange(sentChunks.get(2))).isEqualTo("21-25/25");
+        assertThat(sentChunks.get(2).continuation()).isEqualTo(Continuation.COMPLETE);
+        assertThat(sender.getAcknowledgedBytes()).isEqualTo(25);
+    }
+
+    @Test
+    public void whenChunkFailsAndResumed_restartsFromLastAcknowledgedByte() {
+        MsrpChunkedSender sender = createSender(new byte[50], 10, 2);
+        ListenableFuture<Void> result = sender.start(session);
+
+        acknowledge(0);
+        responses.get(1).setException(new IOException("connection lost"));
+
+        assertThat(sender.isSuspended()).isTrue();
+        assertThat(sender.getAcknowledgedBytes()).isEqualTo(10);
+
+        int sentBeforeResume = sentChunks.size();
+        sender.resume(resumedSession);
+
+        assertThat(byteRange(sentChunks.get(sentBeforeResume))).isEqualTo("11-20/50");
+        assertThat(result.isDone()).isFalse();
+    }
+
+    @Test
+    public void whenAborted_sendsEmptyAbortChunkAndCancels() {
+        MsrpChunkedSender sender = createSender(new byte[50], 10, 1);
+        ListenableFuture<Void> result = sender.start(session);
+
+        sender.abort();
+
+        assertThat(sentChunks).hasSize(2);
+        MsrpChunk abort = sentChunks.get(1);
+        assertThat(abort.continuation()).isEqualTo(Continuation.ABORTED);
+        assertThat(byteRange(abort)).isEqualTo("11-10/50");
+        assertThat(abort.content()).isEmpty();
+        assertThat(result.isCancelled()).isTrue();
+    }
+
+    private MsrpChunkedSender createSender(byte[] payload, int chunkSize, int window) {
+        return new MsrpChunkedSender("msrp://test:1234/sessionA;tcp",
+                "msrp://test:1234/sessionB;tcp", "abcde", "application/octet-stream", payload,
+                chunkSize, window);
+    }
+
+    private ListenableFuture<MsrpChunk> record(MsrpChunk chunk) {
+        SettableFuture<MsrpChunk> response = SettableFuture.create();
+        sentChunks.add(chunk);
+        responses.add(response);
+        return response;
+    }
+
+    private void acknowledge(int index) {
+        responses.get(index).set(MsrpChunk.newBuilder()
+                .transactionId(sentChunks.get(index).transactionId())
+                .responseCode(200)
+                .responseReason("OK")
+                .continuation(Continuation.COMPLETE)
+                .build());
+    }
+
+    private static String byteRange(MsrpChunk chunk) {
+        return chunk.header(MsrpConstants.HEADER_BYTE_RANGE).value();
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.libraries.rcs.simpleclient.protocol.msrp;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import com.android.libraries.rcs.simpleclient.protocol.msrp.MsrpChunk.Continuation;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(AndroidJUnit4.class)
+public class MsrpFrameDecoderTest {
+
+    private static byte[] serialize(MsrpChunk chunk) throws IOException {
+        ByteArrayOutputStream bo = new ByteArrayOutputStream();
+        MsrpSerializer.serialize(bo, chunk);
+        return bo.toByteArray();
+    }
+
+    private static MsrpChunk parse(byte[] frame) throws IOException {
+        return MsrpParser.parse(new ByteArrayInputStream(frame));
+    }
+
+    private static MsrpChunk request(String transactionId, String content) {
+        return MsrpChunk.newBuilder()
+                .method(MsrpChunk.Method.SEND)
+                .transactionId(transactionId)
+                .addHeader("To-Path", "msrp://123.1.11:9/testreceiver;tcp")
+                .addHeader("From-Path", "msrp://123.1.11:9/testsender;tcp")
+                .addHeader("Byte-Range", "1-*/*")
+                .addHeader("Content-Type", "text/plain")
+                .content(content.getBytes(UTF_8))
+                .continuation(Continuation.COMPLETE)
+                .build();
+    }
+
+    @Test
+    public void whenFrameSplitAcrossReads_returnedOnceComplete() throws IOException {
+        MsrpChunk chunk = request("a1b2", "Hallo Welt");
+        byte[] bytes = serialize(chunk);
+        MsrpFrameDecoder decoder = new MsrpFrameDecoder();
+
+        for (int i = 0; i < bytes.length - 1; i++) {
+            decoder.append(bytes, i, 1);
+            assertThat(decoder.nextFrame()).isNull();
+        }
+        decoder.append(bytes, bytes.length - 1, 1);
+
+        assertThat(parse(decoder.nextFrame())).isEqualTo(chunk);
+        assertThat(decoder.bufferedBytes()).isEqualTo(0);
+    }
+
+    @Test
+    public void whenSeveralFramesInOneRead_allReturnedInOrder() throws IOException {
+        MsrpChunk first = request("first", "one");
+        MsrpChunk second = request("second", "two");
+        byte[] a = serialize(first);
+        byte[] b = serialize(second);
+        MsrpFrameDecoder decoder = new MsrpFrameDecoder();
+
+        decoder.append(a, 0, a.length);
+        decoder.append(b, 0, b.length);
+
+        assertThat(parse(decoder.nextFrame())).isEqualTo(first);
+        assertThat(parse(decoder.nextFrame())).isEqualTo(second);
+        assertThat(decoder.nextFrame()).isNull();
+    }
+
+    @Test
+    public void whenContentContainsOtherEndLine_frameNotSplit() throws IOException {
+        MsrpChunk chunk = request("txid", "-------other$\r\n");
+        byte[] bytes = serialize(chunk);
+        MsrpFrameDecoder decoder = new MsrpFrameDecoder();
+
+        decoder.append(bytes, 0, bytes.length);
+
+        assertThat(parse(decoder.nextFrame())).isEqualTo(chunk);
+    }
+}
@@ -23,6 +23,7 @@ import static java.nio.charset.StandardCharsets.UTF_8;
 import androidx.test.ext.junit.runners.AndroidJUnit4;
 
 import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
 
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -62,4 +63,16 @@ public class SimpleSdpMessageTest {
 
         assertThat(parsedSdp).isEqualTo(original);
     }
+
+    @Test
+    public void encodeToAndParseBytes_shouldBeEqualToOriginal() throws Exception {
+        SimpleSdpMessage original =
+                SdpUtils.createSdpForMsrp(/* address= */ "192.168.1.1", /* isTls= */ false);
+        ByteBuffer buffer = ByteBuffer.allocate(1024);
+
+        int length = original.encodeTo(buffer);
+
+        assertThat(new String(buffer.array(), 0, length, UTF_8)).isEqualTo(original.encode());
+        assertThat(SimpleSdpMessage.parse(buffer.array(), 0, length)).isEqualTo(original);
+    }
 }
@@ -0,0 +1,256 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.libraries.rcs.simpleclient.protocol.cpim;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import androidx.annotation.Nullable;
+
+import java.util.Arrays;
+
+/**
+ * A read-only view of a CPIM message held in a byte array, for example the content of an MSRP
+ * chunk.
+ *
+ * <p>Wrapping a message only records where its header lines and body start; nothing is copied
+ * or decoded. Header names are compared byte by byte and only the values which are asked for are
+ * turned into strings.
+ */
+public final class CpimMessageView {
+    private static final byte[] NAMESPACE_NAME = {'N', 'S'};
+    private static final byte[] CONTENT_TYPE_NAME = "content-type".getBytes(UTF_8);
+
+    private final byte[] data;
+    private final int end;
+    /** Pairs of [start, end) offsets of the message header lines. */
+    private int[] messageHeaders = new int[16];
+    private int messageHeaderCount;
+    /** Pairs of [start, end) offsets of the MIME content header lines. */
+    private int[] contentHeaders = new int[4];
+    private int contentHeaderCount;
+    private final int bodyStart;
+
+    private CpimMessageView(byte[] data, int offset, int length) {
+        this.data = data;
+        this.end = offset + length;
+        this.bodyStart = scanLines(offset);
+    }
+
+    /** Wraps the whole given array. */
+    public static CpimMessageView wrap(byte[] data) {
+        return wrap(data, 0, data.length);
+    }
+
+    /** Wraps {@code length} bytes of the given array starting at {@code offset}. */
+    public static CpimMessageView wrap(byte[] data, int offset, int length) {
+        if (offset < 0 || length < 0 || offset + length > data.length) {
+            throw new IndexOutOfBoundsException();
+        }
+        return new CpimMessageView(data, offset, length);
+    }
+
+    /** Returns the number of message header lines, including namespace declarations. */
+    public int getMessageHeaderCount() {
+        return messageHeaderCount;
+    }
+
+    /**
+     * Returns the value of the first message header with the given name, or null if there is
+     * none. Header names are case-sensitive as per RFC 3862.
+     */
+    @Nullable
+    public String getHeader(String name) {
+        byte[] nameBytes = name.getBytes(UTF_8);
+        for (int i = 0; i < messageHeaderCount; i++) {
+            int valueStart = headerValueStart(messageHeaders[2 * i], messageHeaders[2 * i + 1],
+                    nameBytes, false);
+            if (valueStart >= 0) {
+                return decode(valueStart, messageHeaders[2 * i + 1]);
+            }
+        }
+        return null;
+    }
+
+    /** Returns the value of the Content-Type header of the body, or null if there is none. */
+    @Nullable
+    public String getContentType() {
+        for (int i = 0; i < contentHeaderCount; i++) {
+            int valueStart = headerValueStart(contentHeaders[2 * i], contentHeaders[2 * i + 1],
+                    CONTENT_TYPE_NAME, true);
+            if (valueStart >= 0) {
+                return decode(valueStart, contentHeaders[2 * i + 1]);
+            }
+        }
+        return null;
+    }
+
+    /** Returns the offset of the body in the wrapped array. */
+    public int getContentOffset() {
+        return bodyStart;
+    }
+
+    /** Returns the length of the body in bytes. */
+    public int getContentLength() {
+        return end - bodyStart;
+    }
+
+    /** Decodes the body as UTF-8. */
+    public String getContentAsString() {
+        return decode(bodyStart, end);
+    }
+
+    /** Decodes every header and the body into a {@link SimpleCpimMessage}. */
+    public SimpleCpimMessage toMessage() {
+        SimpleCpimMessage.Builder builder = SimpleCpimMessage.newBuilder();
+        for (int i = 0; i < messageHeaderCount; i++) {
+            int start = messageHeaders[2 * i];
+            int lineEnd = messageHeaders[2 * i + 1];
+            int valueStart = headerValueStart(start, lineEnd, NAMESPACE_NAME, false);
+            if (valueStart >= 0 && addNamespace(builder, valueStart, lineEnd)) {
+                continue;
+            }
+            int colon = indexOf(':', start, lineEnd);
+            if (colon > start) {
+                valueStart = headerValueStart(start, lineEnd, null, false);
+                if (valueStart >= 0) {
+                    builder.addHeader(decode(start, colon), decode(valueStart, lineEnd));
+                }
+            }
+        }
+        String contentType = getContentType();
+        if (contentType != null) {
+            builder.setContentType(contentType);
+        }
+        return builder.setContent(getContentAsString()).build();
+    }
+
+    /** Parses "{@code <name> <<uri>>}", the value of a namespace declaration. */
+    private boolean addNamespace(SimpleCpimMessage.Builder builder, int start, int lineEnd) {
+        int nameEnd = start;
+        while (nameEnd < lineEnd && !isWhitespace(data[nameEnd])) {
+            nameEnd++;
+        }
+        int uriStart = nameEnd;
+        while (uriStart < lineEnd && isWhitespace(data[uriStart])) {
+            uriStart++;
+        }
+        if (nameEnd == start || uriStart == nameEnd || uriStart + 2 >= lineEnd
+                || data[uriStart] != '<' || data[lineEnd - 1] != '>') {
+            return false;
+        }
+        builder.addNamespace(decode(start, nameEnd), decode(uriStart + 1, lineEnd - 1));
+        return true;
+    }
+
+    /**
+     * Returns the offset of the value of a "{@code name: value}" line, or -1 if the line is not
+     * a valid header or, when {@code expectedName} is given, has a different name.
+     */
+    private int headerValueStart(int start, int lineEnd, @Nullable byte[] expectedName,
+            boolean ignoreCase) {
+        int colon = -1;
+        for (int i = start; i < lineEnd; i++) {
+            byte b = data[i];
+            if (b == ':') {
+                colon = i;
+                break;
+            }
+            if (isWhitespace(b)) {
+                return -1;
+            }
+        }
+        if (colon <= start || colon + 1 >= lineEnd || !isWhitespace(data[colon + 1])) {
+            return -1;
+        }
+        if (expectedName != null && !nameEquals(start, colon, expectedName, ignoreCase)) {
+            return -1;
+        }
+        int valueStart = colon + 1;
+        while (valueStart < lineEnd && isWhitespace(data[valueStart])) {
+            valueStart++;
+        }
+        return valueStart < lineEnd ? valueStart : -1;
+    }
+
+    private boolean nameEquals(int start, int nameEnd, byte[] name, boolean ignoreCase) {
+        if (nameEnd - start != name.length) {
+            return false;
+        }
+        for (int i = 0; i < name.length; i++) {
+            byte b = data[start + i];
+            if (ignoreCase && b >= 'A' && b <= 'Z') {
+                b = (byte) (b + ('a' - 'A'));
+            }
+            if (b != name[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Records the header lines of both header sections and returns the offset of the body.
+     * Lines end with LF, optionally preceded by CR. Each section ends with an empty line.
+     */
+    private int scanLines(int offset) {
+        int section = 0;
+        int lineStart = offset;
+        while (lineStart < end && section < 2) {
+            int lf = indexOf('\n', lineStart, end);
+            int next = lf < 0 ? end : lf + 1;
+            int lineEnd = lf < 0 ? end : lf;
+            if (lineEnd > lineStart && data[lineEnd - 1] == '\r') {
+                lineEnd--;
+            }
+            if (lineEnd == lineStart) {
+                section++;
+            } else if (section == 0) {
+                messageHeaders = add(messageHeaders, messageHeaderCount++, lineStart, lineEnd);
+            } else {
+                contentHeaders = add(contentHeaders, contentHeaderCount++, lineStart, lineEnd);
+            }
+            lineStart = next;
+        }
+        return Math.min(lineStart, end);
+    }
+
+    private static int[] add(int[] lines, int index, int start, int lineEnd) {
+        if (2 * index + 2 > lines.length) {
+            lines = Arrays.copyOf(lines, lines.length * 2);
+        }
+        lines[2 * index] = start;
+        lines[2 * index + 1] = lineEnd;
+        return lines;
+    }
+
+    private int indexOf(char c, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (data[i] == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private String decode(int start, int to) {
+        return new String(data, start, to - start, UTF_8);
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\t';
+    }
+}
@@ -16,19 +16,18 @@
 
 package com.android.libraries.rcs.simpleclient.protocol.cpim;
 
-import android.text.TextUtils;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
 import com.google.auto.value.AutoValue;
-import com.google.common.base.Ascii;
 import com.google.common.base.Utf8;
 import com.google.common.collect.ImmutableMap;
-import com.google.common.io.CharStreams;
-import java.io.BufferedReader;
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
 import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /**
  * The CPIM implementation as per RFC 3862. This class supports minimal fields that is required to
@@ -38,9 +37,9 @@ import java.util.regex.Pattern;
 public abstract class SimpleCpimMessage {
     private static final String CRLF = "\r\n";
     private static final String COLSP = ": ";
-    private static final Pattern NAMESPACE_HEADER_PATTERN =
-            Pattern.compile("NS:\\s+(\\S+)\\s+<(.+)>");
-    private static final Pattern HEADER_PATTERN = Pattern.compile("([^\\s:]+):\\s+(.+)");
+    private static final String NS = "NS: ";
+    private static final String CONTENT_TYPE = "Content-Type";
+    private static final String CONTENT_LENGTH = "Content-Length";
 
     public abstract ImmutableMap<String, String> namespaces();
 
@@ -54,7 +53,7 @@ public abstract class SimpleCpimMessage {
         StringBuilder builder = new StringBuilder();
         for (Map.Entry<String, String> entry : namespaces().entrySet()) {
             builder
-                    .append("NS: ")
+                    .append(NS)
                     .append(entry.getKey())
                     .append(" <")
                     .append(entry.getValue())
@@ -67,49 +66,110 @@ public abstract class SimpleCpimMessage {
         }
 
         builder.append(CRLF);
-        builder.append("Content-Type").append(COLSP).append(contentType());
+        builder.append(CONTENT_TYPE).append(COLSP).append(contentType());
         builder.append(CRLF);
-        builder.append("Content-Length").append(COLSP).append(Utf8.encodedLength(content()));
+        builder.append(CONTENT_LENGTH).append(COLSP).append(Utf8.encodedLength(content()));
         builder.append(CRLF).append(CRLF);
         builder.append(content());
 
         return builder.toString();
     }
 
-    public static SimpleCpimMessage parse(byte[] content) throws IOException {
-        BufferedReader reader =
-                new BufferedReader(new InputStreamReader(new ByteArrayInputStream(content)));
-        Builder builder = newBuilder();
-
-        String line = reader.readLine();
-        while (!TextUtils.isEmpty(line)) {
-            Matcher namespaceMatcher = NAMESPACE_HEADER_PATTERN.matcher(line);
-            Matcher headerMatcher = HEADER_PATTERN.matcher(line);
-            if (namespaceMatcher.matches()) {
-                builder.addNamespace(namespaceMatcher.group(1), namespaceMatcher.group(2));
-            } else if (headerMatcher.matches()) {
-                builder.addHeader(headerMatcher.group(1), headerMatcher.group(2));
-            }
-
-            line = reader.readLine();
+    /**
+     * Returns the number of bytes written by {@link #encodeTo(ByteBuffer)}, which is also the
+     * UTF-8 length of {@link #encode()}.
+     */
+    public int encodedLength() {
+        int length = 0;
+        for (Map.Entry<String, String> entry : namespaces().entrySet()) {
+            length += NS.length() + Utf8.encodedLength(entry.getKey()) + 2
+                    + Utf8.encodedLength(entry.getValue()) + 1 + CRLF.length();
+        }
+        for (Map.Entry<String, String> entry : headers().entrySet()) {
+            length += Utf8.encodedLength(entry.getKey()) + COLSP.length()
+                    + Utf8.encodedLength(entry.getValue()) + CRLF.length();
         }
+        int contentLength = Utf8.encodedLength(content());
+        length += CRLF.length();
+        length += CONTENT_TYPE.length() + COLSP.length() + Utf8.encodedLength(contentType())
+                + CRLF.length();
+        length += CONTENT_LENGTH.length() + COLSP.length()
+                + Integer.toString(contentLength).length() + 2 * CRLF.length();
+        return length + contentLength;
+    }
 
-        line = reader.readLine();
-        while (!TextUtils.isEmpty(line)) {
-            Matcher headerMatcher = HEADER_PATTERN.matcher(line);
-            if (headerMatcher.matches()) {
-                if (Ascii.equalsIgnoreCase("content-type", headerMatcher.group(1))) {
-                    builder.setContentType(headerMatcher.group(2));
-                }
-            }
+    /**
+     * Writes the UTF-8 encoding of {@link #encode()} into the given buffer, starting at its
+     * current position.
+     *
+     * @return the number of bytes written.
+     * @throws BufferOverflowException if the buffer has less than {@link #encodedLength()} bytes
+     * remaining.
+     */
+    public int encodeTo(ByteBuffer buffer) {
+        int start = buffer.position();
+        CharsetEncoder encoder = UTF_8.newEncoder();
+        for (Map.Entry<String, String> entry : namespaces().entrySet()) {
+            put(encoder, buffer, NS);
+            put(encoder, buffer, entry.getKey());
+            put(encoder, buffer, " <");
+            put(encoder, buffer, entry.getValue());
+            put(encoder, buffer, ">");
+            put(encoder, buffer, CRLF);
+        }
 
-            line = reader.readLine();
+        for (Map.Entry<String, String> entry : headers().entrySet()) {
+            put(encoder, buffer, entry.getKey());
+            put(encoder, buffer, COLSP);
+            put(encoder, buffer, entry.getValue());
+            put(encoder, buffer, CRLF);
         }
 
-        String body = CharStreams.toString(reader);
-        builder.setContent(body);
+        put(encoder, buffer, CRLF);
+        put(encoder, buffer, CONTENT_TYPE);
+        put(encoder, buffer, COLSP);
+        put(encoder, buffer, contentType());
+        put(encoder, buffer, CRLF);
+        put(encoder, buffer, CONTENT_LENGTH);
+        put(encoder, buffer, COLSP);
+        put(encoder, buffer, Integer.toString(Utf8.encodedLength(content())));
+        put(encoder, buffer, CRLF);
+        put(encoder, buffer, CRLF);
+        put(encoder, buffer, content());
+        return buffer.position() - start;
+    }
 
-        return builder.build();
+    /** Returns the UTF-8 encoding of {@link #encode()}. */
+    public byte[] encodeToBytes() {
+        byte[] bytes = new byte[encodedLength()];
+        encodeTo(ByteBuffer.wrap(bytes));
+        return bytes;
+    }
+
+    private static void put(CharsetEncoder encoder, ByteBuffer buffer, String value) {
+        CoderResult result = encoder.reset().encode(CharBuffer.wrap(value), buffer, true);
+        if (result.isOverflow()) {
+            throw new BufferOverflowException();
+        }
+    }
+
+    public static SimpleCpimMessage parse(byte[] content) throws IOException {
+        return parse(content, 0, content.length);
+    }
+
+    /**
+     * Parses the CPIM message held in {@code length} bytes of the given array starting at
+     * {@code offset}, for example the content of an MSRP chunk. Use {@link CpimMessageView} to
+     * read single headers without decoding the whole message.
+     */
+    public static SimpleCpimMessage parse(byte[] content, int offset, int length)
+            throws IOException {
+        try {
+            return CpimMessageView.wrap(content, offset, length).toMessage();
+        } catch (IllegalStateException | IllegalArgumentException e) {
+            // Missing Content-Type or duplicated headers.
+            throw new IOException("Invalid CPIM message", e);
+        }
     }
 
     @AutoValue.Builder
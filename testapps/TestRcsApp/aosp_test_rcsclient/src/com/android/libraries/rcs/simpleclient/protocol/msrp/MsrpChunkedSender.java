@@ -0,0 +1,264 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.libraries.rcs.simpleclient.protocol.msrp;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.android.libraries.rcs.simpleclient.protocol.msrp.MsrpChunk.Continuation;
+
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Sends a large payload over an {@link MsrpSession} as a sequence of {@code Byte-Range} chunks.
+ *
+ * <p>Up to {@code windowSize} chunks are kept in flight; the next chunk is sent as soon as one
+ * of them is acknowledged. Intermediate chunks carry the {@code +} continuation flag and the last
+ * one {@code $}. {@link #abort()} interrupts the message with an empty {@code #} chunk as
+ * described in RFC 4975 and cancels the returned future.
+ *
+ * <p>If a chunk fails, for example because the connection was lost, the transfer is suspended
+ * and the returned future stays pending. {@link #resume(MsrpSession)} continues on a new session
+ * from the first byte that has not been acknowledged.
+ */
+public final class MsrpChunkedSender {
+    private static final String LOG_TAG = MsrpChunkedSender.class.getSimpleName();
+
+    /** Default chunk size, chosen to fit a chunk and its headers in a typical TCP window. */
+    public static final int DEFAULT_CHUNK_SIZE = 16 * 1024;
+    /** Default number of chunks that may be waiting for their 200 OK. */
+    public static final int DEFAULT_WINDOW_SIZE = 4;
+
+    private final String toPath;
+    private final String fromPath;
+    private final String messageId;
+    private final String contentType;
+    private final byte[] payload;
+    private final int chunkSize;
+    private final int windowSize;
+    private final int chunkCount;
+    private final SettableFuture<Void> result = SettableFuture.create();
+
+    // All fields below are guarded by this.
+    private final BitSet acknowledgedChunks = new BitSet();
+    private MsrpSession session;
+    private int nextChunk;
+    private int inFlight;
+    private boolean suspended;
+    private long startTimeMillis;
+    private long endTimeMillis;
+
+    public MsrpChunkedSender(String toPath, String fromPath, String messageId,
+            String contentType, byte[] payload) {
+        this(toPath, fromPath, messageId, contentType, payload, DEFAULT_CHUNK_SIZE,
+                DEFAULT_WINDOW_SIZE);
+    }
+
+    public MsrpChunkedSender(String toPath, String fromPath, String messageId,
+            String contentType, byte[] payload, int chunkSize, int windowSize) {
+        if (chunkSize <= 0 || windowSize <= 0) {
+            throw new IllegalArgumentException("chunkSize and windowSize must be positive");
+        }
+        this.toPath = toPath;
+        this.fromPath = fromPath;
+        this.messageId = messageId;
+        this.contentType = contentType;
+        this.payload = payload;
+        this.chunkSize = chunkSize;
+        this.windowSize = windowSize;
+        this.chunkCount = Math.max(1, (payload.length + chunkSize - 1) / chunkSize);
+    }
+
+    /**
+     * Starts sending the payload on the given session.
+     *
+     * @return a future which completes once every chunk has been acknowledged, or fails if the
+     * peer rejects a chunk or the transfer is aborted.
+     */
+    public ListenableFuture<Void> start(MsrpSession session) {
+        synchronized (this) {
+            if (this.session != null) {
+                throw new IllegalStateException("Already started");
+            }
+            this.session = session;
+            startTimeMillis = SystemClock.elapsedRealtime();
+            fillWindow();
+        }
+        return result;
+    }
+
+    /**
+     * Continues a suspended transfer on a new session, starting from the first byte which has
+     * not been acknowledged by the peer.
+     */
+    public void resume(MsrpSession newSession) {
+        synchronized (this) {
+            if (result.isDone()) {
+                return;
+            }
+            session = newSession;
+            suspended = false;
+            inFlight = 0;
+            nextChunk = acknowledgedChunks.nextClearBit(0);
+            fillWindow();
+        }
+    }
+
+    /**
+     * Interrupts the message by sending an empty {@code #} chunk whose {@code Byte-Range} starts at
+     * the first byte not yet sent, and cancels the returned future.
+     */
+    public void abort() {
+        MsrpSession target;
+        MsrpChunk chunk;
+        synchronized (this) {
+            if (result.isDone()) {
+                return;
+            }
+            target = session;
+            int start = Math.min(nextChunk * chunkSize, payload.length);
+            chunk = buildChunk(start, start, Continuation.ABORTED);
+            nextChunk = chunkCount;
+            endTimeMillis = SystemClock.elapsedRealtime();
+        }
+        if (target != null && target.isOpen()) {
+            target.send(chunk);
+        }
+        result.cancel(false);
+    }
+
+    /** Returns the number of leading payload bytes acknowledged by the peer. */
+    public synchronized long getAcknowledgedBytes() {
+        return Math.min((long) acknowledgedChunks.nextClearBit(0) * chunkSize, payload.length);
+    }
+
+    /** Returns whether the transfer is waiting for {@link #resume(MsrpSession)}. */
+    public synchronized boolean isSuspended() {
+        return suspended;
+    }
+
+    /** Returns the acknowledged throughput of this transfer in bytes per second. */
+    public synchronized double getThroughputBytesPerSecond() {
+        if (startTimeMillis == 0) {
+            return 0;
+        }
+        long end = endTimeMillis != 0 ? endTimeMillis : SystemClock.elapsedRealtime();
+        long elapsed = Math.max(1, end - startTimeMillis);
+        return getAcknowledgedBytes() * 1000.0 / elapsed;
+    }
+
+    // Must be called with the lock held.
+    private void fillWindow() {
+        while (!suspended && inFlight < windowSize && nextChunk < chunkCount) {
+            int index = nextChunk++;
+            if (acknowledgedChunks.get(index)) {
+                continue;
+            }
+            int start = index * chunkSize;
+            int end = Math.min(start + chunkSize, payload.length);
+            boolean last = index == chunkCount - 1;
+            MsrpChunk chunk = buildChunk(start, end, last ? Continuation.COMPLETE
+                    : Continuation.MORE);
+            inFlight++;
+            MsrpSession target = session;
+            ListenableFuture<MsrpChunk> response;
+            try {
+                response = target.send(chunk);
+            } catch (IllegalStateException e) {
+                response = Futures.immediateFailedFuture(e);
+            }
+            Futures.addCallback(response, new ChunkCallback(index, target),
+                    MoreExecutors.directExecutor());
+        }
+    }
+
+    private MsrpChunk buildChunk(int start, int end, Continuation continuation) {
+        // Byte-Range is 1-based and inclusive, so an empty chunk ends one byte before it starts.
+        String byteRange = (start + 1) + "-" + end + "/" + payload.length;
+        return MsrpChunk.newBuilder()
+                .method(MsrpChunk.Method.SEND)
+                .transactionId(MsrpUtils.generateRandomId())
+                .addHeader(MsrpConstants.HEADER_TO_PATH, toPath)
+                .addHeader(MsrpConstants.HEADER_FROM_PATH, fromPath)
+                .addHeader(MsrpConstants.HEADER_MESSAGE_ID, messageId)
+                .addHeader(MsrpConstants.HEADER_BYTE_RANGE, byteRange)
+                .addHeader(MsrpConstants.HEADER_CONTENT_TYPE, contentType)
+                .content(Arrays.copyOfRange(payload, start, end))
+                .continuation(continuation)
+                .build();
+    }
+
+    private class ChunkCallback implements FutureCallback<MsrpChunk> {
+        private final int index;
+        private final MsrpSession target;
+
+        ChunkCallback(int index, MsrpSession target) {
+            this.index = index;
+            this.target = target;
+        }
+
+        @Override
+        public void onSuccess(MsrpChunk response) {
+            if (response.responseCode() != MsrpConstants.RESPONSE_CODE_OK) {
+                synchronized (MsrpChunkedSender.this) {
+                    endTimeMillis = SystemClock.elapsedRealtime();
+                }
+                result.setException(new IllegalStateException(
+                        "Chunk rejected: " + response.responseCode() + " "
+                                + response.responseReason()));
+                return;
+            }
+            boolean complete;
+            synchronized (MsrpChunkedSender.this) {
+                acknowledgedChunks.set(index);
+                if (target != session) {
+                    // Acknowledgement from a session that has been replaced by resume().
+                    return;
+                }
+                inFlight--;
+                complete = acknowledgedChunks.cardinality() == chunkCount;
+                if (complete) {
+                    endTimeMillis = SystemClock.elapsedRealtime();
+                } else {
+                    fillWindow();
+                }
+            }
+            if (complete) {
+                result.set(null);
+            }
+        }
+
+        @Override
+        public void onFailure(Throwable t) {
+            synchronized (MsrpChunkedSender.this) {
+                if (target != session || result.isDone()) {
+                    return;
+                }
+                Log.w(LOG_TAG, "Chunk " + index + " failed, suspending transfer", t);
+                inFlight--;
+                suspended = true;
+            }
+        }
+    }
+}
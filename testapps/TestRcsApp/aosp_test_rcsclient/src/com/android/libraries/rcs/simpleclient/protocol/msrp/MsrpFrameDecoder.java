@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.libraries.rcs.simpleclient.protocol.msrp;
+
+import static com.android.libraries.rcs.simpleclient.protocol.msrp.MsrpConstants.CHAR_SP;
+import static com.android.libraries.rcs.simpleclient.protocol.msrp.MsrpConstants.END_MSRP_MSG_BYTES;
+import static com.android.libraries.rcs.simpleclient.protocol.msrp.MsrpConstants.FLAG_ABORT_CHUNK;
+import static com.android.libraries.rcs.simpleclient.protocol.msrp.MsrpConstants.FLAG_LAST_CHUNK;
+import static com.android.libraries.rcs.simpleclient.protocol.msrp.MsrpConstants.FLAG_MORE_CHUNK;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Splits the byte stream of a non-blocking MSRP connection into complete MSRP frames.
+ *
+ * <p>Bytes are appended as they are read from the channel. A frame is complete once the end-line
+ * {@code "-------" transact-id continuation-flag CRLF} defined in RFC 4975 has been received.
+ * Scanning resumes where the previous attempt stopped, so a large chunk that arrives in many
+ * reads is only scanned once.
+ */
+final class MsrpFrameDecoder {
+    private static final int INITIAL_CAPACITY = 4096;
+    /** Upper bound for the first line, used to reject streams that are not MSRP. */
+    private static final int MAX_REQUEST_LINE_LENGTH = 1024;
+
+    private byte[] buffer = new byte[INITIAL_CAPACITY];
+    private int length;
+    /** The transaction ID of the frame being assembled, or null if not yet known. */
+    private byte[] transactionId;
+    /** The offset from which the search for the end-line continues. */
+    private int scanOffset;
+
+    /** Appends all remaining bytes of the given buffer. */
+    void append(ByteBuffer src) {
+        int count = src.remaining();
+        ensureCapacity(length + count);
+        src.get(buffer, length, count);
+        length += count;
+    }
+
+    /** Appends the given bytes. */
+    void append(byte[] src, int offset, int count) {
+        ensureCapacity(length + count);
+        System.arraycopy(src, offset, buffer, length, count);
+        length += count;
+    }
+
+    /**
+     * Returns the next complete frame, including its end-line, or null if more bytes are needed.
+     *
+     * @throws IOException if the buffered bytes can not be the start of an MSRP frame.
+     */
+    byte[] nextFrame() throws IOException {
+        if (transactionId == null && !readTransactionId()) {
+            return null;
+        }
+
+        int endLineLength = END_MSRP_MSG_BYTES.length + transactionId.length + 3;
+        for (int i = scanOffset; i + endLineLength <= length; i++) {
+            if (isEndLineAt(i)) {
+                int frameLength = i + endLineLength;
+                byte[] frame = Arrays.copyOf(buffer, frameLength);
+                consume(frameLength);
+                return frame;
+            }
+        }
+        scanOffset = Math.max(scanOffset, length - endLineLength + 1);
+        return null;
+    }
+
+    /** Returns the number of buffered bytes that are not yet part of a returned frame. */
+    int bufferedBytes() {
+        return length;
+    }
+
+    private boolean readTransactionId() throws IOException {
+        int firstSpace = indexOf(CHAR_SP, 0);
+        int secondSpace = firstSpace < 0 ? -1 : indexOf(CHAR_SP, firstSpace + 1);
+        if (secondSpace < 0) {
+            if (length > MAX_REQUEST_LINE_LENGTH) {
+                throw new IOException("Invalid MSRP request line");
+            }
+            return false;
+        }
+        transactionId = Arrays.copyOfRange(buffer, firstSpace + 1, secondSpace);
+        scanOffset = secondSpace;
+        return true;
+    }
+
+    private boolean isEndLineAt(int offset) {
+        for (int j = 0; j < END_MSRP_MSG_BYTES.length; j++) {
+            if (buffer[offset + j] != END_MSRP_MSG_BYTES[j]) {
+                return false;
+            }
+        }
+        offset += END_MSRP_MSG_BYTES.length;
+        for (int j = 0; j < transactionId.length; j++) {
+            if (buffer[offset + j] != transactionId[j]) {
+                return false;
+            }
+        }
+        offset += transactionId.length;
+        int flag = buffer[offset];
+        return (flag == FLAG_LAST_CHUNK || flag == FLAG_MORE_CHUNK || flag == FLAG_ABORT_CHUNK)
+                && buffer[offset + 1] == '\r' && buffer[offset + 2] == '\n';
+    }
+
+    private int indexOf(byte value, int from) {
+        int end = Math.min(length, MAX_REQUEST_LINE_LENGTH);
+        for (int i = from; i < end; i++) {
+            if (buffer[i] == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void consume(int count) {
+        System.arraycopy(buffer, count, buffer, 0, length - count);
+        length -= count;
+        transactionId = null;
+        scanOffset = 0;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(capacity, buffer.length * 2));
+        }
+    }
+}
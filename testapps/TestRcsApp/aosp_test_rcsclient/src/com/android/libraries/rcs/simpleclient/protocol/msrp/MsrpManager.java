@@ -26,11 +26,16 @@ import com.google.common.util.concurrent.MoreExecutors;
 
 import java.io.IOException;
 import java.net.InetAddress;
-import java.net.Socket;
+import java.net.InetSocketAddress;
+import java.nio.channels.SocketChannel;
 
-/** Provides creating and managing {@link MsrpSession} */
+/**
+ * Provides creating and managing {@link MsrpSession}. All sessions share a single non-blocking
+ * {@link MsrpTransport}.
+ */
 public class MsrpManager {
     private final ImsPdnNetworkFetcher imsPdnNetworkFetcher;
+    private final MsrpTransport transport = new MsrpTransport();
     private Context context;
 
     public MsrpManager(Context context) {
@@ -41,13 +46,18 @@ public class MsrpManager {
     private MsrpSession createMsrpSession(ConnectivityManager manager,
             Network network, String host, int port, String localIp, int localPort,
             MsrpSessionListener listener) throws IOException {
-        Socket socket = network.getSocketFactory().createSocket(host, port,
-                InetAddress.getByName(localIp), localPort);
-        MsrpSession msrpSession = new MsrpSession(manager, context,
-                network, socket, listener);
-        Thread thread = new Thread(msrpSession::run);
-        thread.start();
-        return msrpSession;
+        SocketChannel channel = SocketChannel.open();
+        try {
+            network.bindSocket(channel.socket());
+            channel.bind(new InetSocketAddress(InetAddress.getByName(localIp), localPort));
+            // Connect while still blocking; the channel is switched to non-blocking mode once it
+            // is registered with the shared transport.
+            channel.connect(new InetSocketAddress(host, port));
+            return new MsrpSession(manager, context, network, channel, transport, listener);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
     }
 
     public ListenableFuture<MsrpSession> createMsrpSession(
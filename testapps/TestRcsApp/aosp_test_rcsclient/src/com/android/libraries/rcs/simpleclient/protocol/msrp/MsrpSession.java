@@ -42,12 +42,13 @@ import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.MoreExecutors;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
-import java.net.Socket;
+import java.nio.channels.SocketChannel;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Provides MSRP sending and receiving messages ability.
@@ -57,10 +58,10 @@ public class MsrpSession {
     private static final String DEDICATED_BEARER_ERROR = "Dedicated bearer error";
     private static final int TOAST_MSG = 1;
     private final Network network;
-    private final Socket socket;
-    private final InputStream input;
-    private final OutputStream output;
+    private final SocketChannel channel;
+    private final MsrpTransport.Connection connection;
     private final AtomicBoolean isOpen = new AtomicBoolean(true);
+    private final AtomicLong bytesSent = new AtomicLong();
     private final ConcurrentHashMap<String, MsrpTransaction> transactions =
             new ConcurrentHashMap<>();
     private final MsrpSessionListener listener;
@@ -69,15 +70,17 @@ public class MsrpSession {
     private final Context context;
     private Handler handler;
 
-    /** Creates a new MSRP session on the given listener and the provided streams. */
+    /**
+     * Creates a new MSRP session on the given listener and the provided connected channel, which
+     * is served by the given transport.
+     */
     MsrpSession(ConnectivityManager connectivityManager, Context context, Network network,
-            Socket socket, MsrpSessionListener listener) throws IOException {
+            SocketChannel channel, MsrpTransport transport, MsrpSessionListener listener)
+            throws IOException {
         this.connectivityManager = connectivityManager;
         this.context = context;
         this.network = network;
-        this.socket = socket;
-        this.input = socket.getInputStream();
-        this.output = socket.getOutputStream();
+        this.channel = channel;
         this.listener = listener;
 
 
@@ -89,6 +92,7 @@ public class MsrpSession {
         };
 
         listenForBearer();
+        this.connection = transport.register(channel, new ConnectionCallback());
     }
 
     private final QosCallback qosCallback = new QosCallback() {
@@ -115,7 +119,7 @@ public class MsrpSession {
 
     private void listenForBearer() {
         try {
-            connectivityManager.registerQosCallback(new QosSocketInfo(network, socket),
+            connectivityManager.registerQosCallback(new QosSocketInfo(network, channel.socket()),
                     MoreExecutors.directExecutor(), qosCallback);
         } catch (IOException e) {
             throw new RuntimeException(e);
@@ -124,6 +128,10 @@ public class MsrpSession {
 
     /**
      * Sends the given MSRP chunk.
+     *
+     * <p>The chunk is queued on the shared {@link MsrpTransport}. If the connection already has
+     * {@link MsrpTransport#MAX_PENDING_WRITE_BYTES} waiting to be written, the returned future
+     * fails immediately instead of buffering more data for a slow peer.
      */
     public ListenableFuture<MsrpChunk> send(MsrpChunk request) {
         if (request.method() == UNKNOWN) {
@@ -134,99 +142,120 @@ public class MsrpSession {
             throw new IllegalStateException("Session terminated");
         }
 
-        if (!socket.isConnected()) {
+        if (!channel.isConnected()) {
             throw new IllegalStateException("Socket is not connected");
         }
 
+        final byte[] frame;
+        try {
+            frame = serialize(request);
+        } catch (IOException e) {
+            return Futures.immediateFailedFuture(e);
+        }
+
         if (request.method() == SEND) {
             return CallbackToFutureAdapter.getFuture(
                     completer -> {
                         final MsrpTransaction transaction = new MsrpTransaction(completer);
                         transactions.put(request.transactionId(), transaction);
-                        try {
-                            synchronized (output) {
-                                MsrpSerializer.serialize(output, request);
-                            }
-                            output.flush();
-                        } catch (IOException e) {
-                            completer.setException(e);
+                        if (connection.write(frame)) {
+                            bytesSent.addAndGet(request.content().length);
+                        } else {
+                            transactions.remove(request.transactionId());
+                            completer.setException(new IOException("Write queue full"));
                         }
                         return "MsrpSession.send(" + request.transactionId() + ")";
                     }
             );
         } else {
-            try {
-                synchronized (output) {
-                    MsrpSerializer.serialize(output, request);
-                }
+            if (connection.write(frame)) {
+                bytesSent.addAndGet(request.content().length);
                 return Futures.immediateFuture(request);
-            } catch (IOException e) {
-                return Futures.immediateFailedFuture(e);
             }
+            return Futures.immediateFailedFuture(new IOException("Write queue full"));
         }
     }
 
-    /**
-     * Blocking method which reads from the provided InputStream until the session
-     * is terminated or the stream read throws an exception.
-     */
-    public void run() {
-        new StreamReader(this).run();
+    /** Returns the number of bytes waiting to be written to the peer. */
+    public int getPendingWriteBytes() {
+        return connection.getPendingWriteBytes();
+    }
+
+    /** Returns the number of content bytes queued for sending since the session started. */
+    public long getBytesSent() {
+        return bytesSent.get();
+    }
+
+    /** Returns whether the session is still open. */
+    public boolean isOpen() {
+        return isOpen.get();
     }
 
     public void terminate() throws IOException {
-        if (isOpen.getAndSet(false)) {
-            output.flush();
-        }
+        isOpen.set(false);
         connectivityManager.unregisterQosCallback(qosCallback);
-        socket.close();
+        // Queued chunks are still written before the channel is closed.
+        connection.close();
+    }
+
+    private static byte[] serialize(MsrpChunk chunk) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        MsrpSerializer.serialize(output, chunk);
+        return output.toByteArray();
     }
 
     /**
-     * Reads and parses MSRP messages from the session input stream.
+     * Handles the frames of the session connection. Called on the {@link MsrpTransport} selector
+     * thread.
      */
-    private static class StreamReader {
-
-        private final MsrpSession session;
-        private final InputStream stream;
-        private final AtomicBoolean active;
+    private class ConnectionCallback implements MsrpTransport.Callback {
+        @Override
+        public void onFrameReceived(MsrpTransport.Connection connection, byte[] frame) {
+            MsrpChunk chunk;
+            try {
+                chunk = MsrpParser.parse(new ByteArrayInputStream(frame));
+            } catch (IOException | RuntimeException e) {
+                Log.e(LOG_TAG, "Dropping malformed MSRP frame", e);
+                return;
+            }
+            if (chunk == null) {
+                return;
+            }
 
-        StreamReader(MsrpSession session) {
-            this.session = session;
-            this.stream = session.input;
-            this.active = session.isOpen;
+            if (chunk.method() == UNKNOWN) {
+                completeTransaction(chunk);
+            } else {
+                receiveRequest(connection, chunk);
+            }
         }
 
-        void run() {
-            while (active.get()) {
-                MsrpChunk chunk = null;
-                try {
-                    chunk = MsrpParser.parse(stream);
-
-                    if (chunk.method() == UNKNOWN) {
-                        completeTransaction(chunk);
-                    } else {
-                        receiveRequest(chunk);
-                    }
-                } catch (IOException e) {
-                    active.compareAndSet(true, false);
+        @Override
+        public void onClosed(MsrpTransport.Connection connection, IOException cause) {
+            isOpen.set(false);
+            IOException failure = cause != null ? cause : new IOException("Session terminated");
+            for (String transactionId : transactions.keySet()) {
+                MsrpTransaction transaction = transactions.remove(transactionId);
+                if (transaction != null) {
+                    transaction.fail(failure);
                 }
             }
         }
 
-        private void receiveRequest(MsrpChunk chunk) throws IOException {
-            sendResponse(chunk);
-            session.listener.onChunkReceived(chunk);
+        private void receiveRequest(MsrpTransport.Connection connection, MsrpChunk chunk) {
+            sendResponse(connection, chunk);
+            listener.onChunkReceived(chunk);
         }
 
         private void completeTransaction(MsrpChunk chunk) {
-            MsrpTransaction transaction = session.transactions.remove(chunk.transactionId());
+            MsrpTransaction transaction = transactions.remove(chunk.transactionId());
             if (transaction != null) {
                 transaction.complete(chunk);
             }
         }
 
-        private void sendResponse(MsrpChunk chunk) throws IOException {
+        // Replies through the connection passed with the event, the session's connection field may
+        // not be assigned yet when the first frame arrives.
+        private void sendResponse(MsrpTransport.Connection connection, MsrpChunk chunk) {
             // check if response is required
             MsrpChunkHeader failureReport = chunk.header(MsrpConstants.HEADER_FAILURE_REPORT);
             if (failureReport == null || failureReport.value().equals("yes")) {
@@ -242,9 +271,12 @@ public class MsrpSession {
                         .continuation(Continuation.COMPLETE)
                         .build();
 
-                synchronized (session.output) {
-                    MsrpSerializer.serialize(session.output, response);
-                    session.output.flush();
+                try {
+                    if (!connection.write(serialize(response))) {
+                        Log.w(LOG_TAG, "Dropping response, write queue full");
+                    }
+                } catch (IOException e) {
+                    Log.e(LOG_TAG, "Failed to serialize response", e);
                 }
             }
         }
@@ -263,5 +295,9 @@ public class MsrpSession {
         public void complete(MsrpChunk response) {
             completed.set(response);
         }
+
+        public void fail(Throwable cause) {
+            completed.setException(cause);
+        }
     }
 }
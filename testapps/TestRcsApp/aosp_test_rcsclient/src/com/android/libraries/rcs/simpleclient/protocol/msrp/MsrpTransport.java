@@ -0,0 +1,313 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.libraries.rcs.simpleclient.protocol.msrp;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Non-blocking MSRP transport which serves all {@link MsrpSession}s of a {@link MsrpManager}
+ * from a single selector thread.
+ *
+ * <p>All channel reads, writes and interest-op changes happen on the selector thread. Other
+ * threads only enqueue outgoing frames on a {@link Connection} and wake the selector up. Each
+ * connection limits the number of bytes waiting to be written so that a slow peer can not make
+ * the sender buffer unbounded amounts of data.
+ */
+public final class MsrpTransport {
+    private static final String LOG_TAG = MsrpTransport.class.getSimpleName();
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    /** The maximum number of bytes that may be queued for writing on a single connection. */
+    public static final int MAX_PENDING_WRITE_BYTES = 512 * 1024;
+
+    /**
+     * Receives the events of a single {@link Connection} on the selector thread. The connection
+     * is passed to every event, since an event may be delivered before
+     * {@link #register(SocketChannel, Callback)} has returned it.
+     */
+    interface Callback {
+        /** A complete MSRP frame has been received. */
+        void onFrameReceived(Connection connection, byte[] frame);
+
+        /**
+         * The connection was closed, either locally, because of an I/O error or because the
+         * transport stopped.
+         */
+        void onClosed(Connection connection, IOException cause);
+    }
+
+    private final Queue<Runnable> pendingTasks = new ConcurrentLinkedQueue<>();
+    private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+    private volatile Selector selector;
+    // Guarded by this.
+    private Thread thread;
+
+    /**
+     * Registers a connected channel with the event loop, starting the loop if needed. The channel
+     * is switched to non-blocking mode.
+     */
+    Connection register(SocketChannel channel, Callback callback) throws IOException {
+        channel.configureBlocking(false);
+        Connection connection = new Connection(channel, callback);
+        // Starting the loop and queueing the registration is atomic with respect to the loop
+        // stopping, so the registration is either run by a live loop or failed by a dying one.
+        synchronized (this) {
+            Selector eventSelector = ensureStarted();
+            post(() -> {
+                try {
+                    connection.key = channel.register(eventSelector, SelectionKey.OP_READ,
+                            connection);
+                    if (connection.hasPendingWrites()) {
+                        connection.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                    }
+                } catch (ClosedChannelException e) {
+                    connection.closeNow(e);
+                } catch (ClosedSelectorException e) {
+                    connection.closeNow(new IOException("Transport stopped"));
+                }
+            });
+        }
+        return connection;
+    }
+
+    private synchronized Selector ensureStarted() throws IOException {
+        if (thread == null) {
+            Selector eventSelector = Selector.open();
+            selector = eventSelector;
+            thread = new Thread(() -> loop(eventSelector), LOG_TAG);
+            thread.setDaemon(true);
+            thread.start();
+        }
+        return selector;
+    }
+
+    private void post(Runnable task) {
+        pendingTasks.add(task);
+        selector.wakeup();
+    }
+
+    private void loop(Selector eventSelector) {
+        IOException failure = new IOException("Transport stopped");
+        try {
+            runLoop(eventSelector);
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "select failed", e);
+            failure = e;
+        } finally {
+            stop(eventSelector, failure);
+        }
+    }
+
+    private void runLoop(Selector eventSelector) throws IOException {
+        while (true) {
+            eventSelector.select();
+
+            Runnable task;
+            while ((task = pendingTasks.poll()) != null) {
+                task.run();
+            }
+
+            Iterator<SelectionKey> keys = eventSelector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                SelectionKey key = keys.next();
+                keys.remove();
+                Connection connection = (Connection) key.attachment();
+                try {
+                    if (key.isReadable()) {
+                        connection.onReadable();
+                    }
+                    if (key.isValid() && key.isWritable()) {
+                        connection.onWritable();
+                    }
+                } catch (IOException e) {
+                    connection.closeNow(e);
+                } catch (CancelledKeyException e) {
+                    connection.closeNow(null);
+                }
+            }
+        }
+    }
+
+    /**
+     * Closes every connection of a loop which can no longer select, so that their sessions fail
+     * instead of waiting on a dead selector. The next {@link #register} starts a new loop.
+     */
+    private void stop(Selector eventSelector, IOException cause) {
+        synchronized (this) {
+            thread = null;
+            for (SelectionKey key : new ArrayList<>(eventSelector.keys())) {
+                ((Connection) key.attachment()).closeNow(cause);
+            }
+            try {
+                eventSelector.close();
+            } catch (IOException e) {
+                Log.w(LOG_TAG, "close failed", e);
+            }
+            // Registrations queued for this loop fail now that the selector is closed, the other
+            // tasks only concern connections which are closed.
+            Runnable task;
+            while ((task = pendingTasks.poll()) != null) {
+                task.run();
+            }
+        }
+    }
+
+    /** A single MSRP connection served by this transport. */
+    final class Connection {
+        private final SocketChannel channel;
+        private final Callback callback;
+        private final MsrpFrameDecoder decoder = new MsrpFrameDecoder();
+        // Guarded by itself.
+        private final ArrayDeque<ByteBuffer> writeQueue = new ArrayDeque<>();
+        // Guarded by writeQueue.
+        private int pendingWriteBytes;
+        // Guarded by writeQueue.
+        private boolean closing;
+        // Only accessed on the selector thread.
+        private SelectionKey key;
+        private boolean closed;
+
+        private Connection(SocketChannel channel, Callback callback) {
+            this.channel = channel;
+            this.callback = callback;
+        }
+
+        /**
+         * Queues the given frame for writing.
+         *
+         * @return false if the connection is closing or the frame would exceed
+         * {@link #MAX_PENDING_WRITE_BYTES}, in which case nothing is queued.
+         */
+        boolean write(byte[] frame) {
+            synchronized (writeQueue) {
+                if (closing || pendingWriteBytes + frame.length > MAX_PENDING_WRITE_BYTES) {
+                    return false;
+                }
+                writeQueue.add(ByteBuffer.wrap(frame));
+                pendingWriteBytes += frame.length;
+            }
+            post(this::enableWrite);
+            return true;
+        }
+
+        /** Returns the number of bytes queued but not yet written to the channel. */
+        int getPendingWriteBytes() {
+            synchronized (writeQueue) {
+                return pendingWriteBytes;
+            }
+        }
+
+        /** Closes the connection once all queued frames have been written. */
+        void close() {
+            synchronized (writeQueue) {
+                closing = true;
+            }
+            post(() -> {
+                if (!hasPendingWrites()) {
+                    closeNow(null);
+                }
+            });
+        }
+
+        private boolean hasPendingWrites() {
+            synchronized (writeQueue) {
+                return !writeQueue.isEmpty();
+            }
+        }
+
+        private void enableWrite() {
+            if (key != null && key.isValid()) {
+                key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            }
+        }
+
+        private void onReadable() throws IOException {
+            readBuffer.clear();
+            int read = channel.read(readBuffer);
+            if (read < 0) {
+                closeNow(new IOException("End of stream"));
+                return;
+            }
+            readBuffer.flip();
+            decoder.append(readBuffer);
+            byte[] frame;
+            while (!closed && (frame = decoder.nextFrame()) != null) {
+                callback.onFrameReceived(this, frame);
+            }
+        }
+
+        private void onWritable() throws IOException {
+            boolean drained;
+            boolean closeWhenDrained;
+            synchronized (writeQueue) {
+                ByteBuffer head;
+                while ((head = writeQueue.peek()) != null) {
+                    int written = channel.write(head);
+                    pendingWriteBytes -= written;
+                    if (head.hasRemaining()) {
+                        // The socket send buffer is full, wait for the next OP_WRITE.
+                        break;
+                    }
+                    writeQueue.poll();
+                }
+                drained = writeQueue.isEmpty();
+                closeWhenDrained = closing;
+            }
+            if (drained) {
+                key.interestOps(SelectionKey.OP_READ);
+                if (closeWhenDrained) {
+                    closeNow(null);
+                }
+            }
+        }
+
+        private void closeNow(IOException cause) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            synchronized (writeQueue) {
+                closing = true;
+                writeQueue.clear();
+                pendingWriteBytes = 0;
+            }
+            if (key != null) {
+                key.cancel();
+            }
+            try {
+                channel.close();
+            } catch (IOException e) {
+                Log.w(LOG_TAG, "close failed", e);
+            }
+            callback.onClosed(this, cause);
+        }
+    }
+}
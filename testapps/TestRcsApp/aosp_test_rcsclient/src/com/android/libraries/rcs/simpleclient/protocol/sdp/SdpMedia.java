@@ -22,6 +22,11 @@ import com.google.auto.value.AutoValue;
 import com.google.common.base.Splitter;
 import com.google.common.collect.ImmutableMap;
 
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
 import java.text.ParseException;
 import java.util.List;
 import java.util.Map;
@@ -93,6 +98,36 @@ public abstract class SdpMedia {
         return builder.toString();
     }
 
+    /** Writes the UTF-8 encoding of {@link #encode()} into the given buffer. */
+    void encodeTo(CharsetEncoder encoder, ByteBuffer buffer) {
+        put(encoder, buffer, "m=");
+        put(encoder, buffer, name());
+        put(encoder, buffer, " ");
+        put(encoder, buffer, Integer.toString(port()));
+        put(encoder, buffer, " ");
+        put(encoder, buffer, protocol());
+        put(encoder, buffer, " ");
+        put(encoder, buffer, format());
+        put(encoder, buffer, CRLF);
+
+        for (Map.Entry<String, String> attribute : attributes().entrySet()) {
+            put(encoder, buffer, "a=");
+            put(encoder, buffer, attribute.getKey());
+            if (!TextUtils.isEmpty(attribute.getValue())) {
+                put(encoder, buffer, ":");
+                put(encoder, buffer, attribute.getValue());
+            }
+            put(encoder, buffer, CRLF);
+        }
+    }
+
+    static void put(CharsetEncoder encoder, ByteBuffer buffer, String value) {
+        CoderResult result = encoder.reset().encode(CharBuffer.wrap(value), buffer, true);
+        if (result.isOverflow()) {
+            throw new BufferOverflowException();
+        }
+    }
+
     @AutoValue.Builder
     public abstract static class Builder {
         public abstract Builder setName(String name);
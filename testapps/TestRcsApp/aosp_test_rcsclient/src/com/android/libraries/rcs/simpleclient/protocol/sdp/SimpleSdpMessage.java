@@ -16,14 +16,18 @@
 
 package com.android.libraries.rcs.simpleclient.protocol.sdp;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
+
 import com.google.auto.value.AutoValue;
 import com.google.common.base.Splitter;
 import com.google.common.collect.ImmutableList;
+import com.google.common.io.ByteStreams;
 
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.CharsetEncoder;
 import java.text.ParseException;
 import java.util.List;
 import java.util.Optional;
@@ -37,56 +41,92 @@ import java.util.OptionalInt;
 public abstract class SimpleSdpMessage {
     private static final String CRLF = "\r\n";
 
-    private static final String PREFIX_VERSION = "v";
-    private static final String PREFIX_ORIGIN = "o";
-    private static final String PREFIX_SESSION = "s";
-    private static final String PREFIX_CONNECTION = "c";
-    private static final String PREFIX_TIME = "t";
-    private static final String PREFIX_MEDIA = "m";
-    private static final String PREFIX_ATTRIBUTE = "a";
+    private static final char PREFIX_VERSION = 'v';
+    private static final char PREFIX_ORIGIN = 'o';
+    private static final char PREFIX_SESSION = 's';
+    private static final char PREFIX_CONNECTION = 'c';
+    private static final char PREFIX_TIME = 't';
+    private static final char PREFIX_MEDIA = 'm';
+    private static final char PREFIX_ATTRIBUTE = 'a';
     private static final String EQUAL = "=";
 
     public static SimpleSdpMessage parse(InputStream stream) throws ParseException, IOException {
+        byte[] data = ByteStreams.toByteArray(stream);
+        return parse(data, 0, data.length);
+    }
+
+    /**
+     * Parses the SDP held in {@code length} bytes of the given array starting at {@code offset}.
+     * Lines are split and their type is dispatched on the raw bytes; only the values of the
+     * fields used for MSRP are decoded.
+     */
+    public static SimpleSdpMessage parse(byte[] data, int offset, int length)
+            throws ParseException {
         Builder builder = new AutoValue_SimpleSdpMessage.Builder();
         SdpMedia.Builder currentMediaBuilder = null;
-        BufferedReader reader = new BufferedReader(new InputStreamReader(stream));
+        int end = offset + length;
+
+        int lineStart = offset;
+        while (lineStart < end) {
+            // Lines end with CRLF, LF or CR, as accepted by BufferedReader.readLine().
+            int lineEnd = lineStart;
+            while (lineEnd < end && data[lineEnd] != '\n' && data[lineEnd] != '\r') {
+                lineEnd++;
+            }
+            int next = lineEnd + 1;
+            if (lineEnd < end && data[lineEnd] == '\r' && next < end && data[next] == '\n') {
+                next++;
+            }
 
-        String line = reader.readLine();
-        while (line != null) {
-            List<String> parts = Splitter.on("=").trimResults().limit(2).splitToList(line);
-            if (parts.size() != 2) {
-                throw new ParseException("Invalid SDP format", 0);
+            int equal = lineStart;
+            while (equal < lineEnd && data[equal] != '=') {
+                equal++;
+            }
+            if (equal == lineEnd) {
+                throw new ParseException("Invalid SDP format", lineStart - offset);
             }
-            String prefix = parts.get(0);
-            String value = parts.get(1);
+            int prefixStart = skipWhitespace(data, lineStart, equal);
+            int prefixEnd = trimWhitespace(data, prefixStart, equal);
+            int valueStart = skipWhitespace(data, equal + 1, lineEnd);
+            int valueEnd = trimWhitespace(data, valueStart, lineEnd);
 
+            // All the handled prefixes are a single character.
+            char prefix = prefixEnd - prefixStart == 1 ? (char) data[prefixStart] : 0;
             switch (prefix) {
                 case PREFIX_VERSION:
-                    builder.setVersion(value);
+                    builder.setVersion(decode(data, valueStart, valueEnd));
                     break;
                 case PREFIX_ORIGIN:
-                    builder.setOrigin(value);
+                    builder.setOrigin(decode(data, valueStart, valueEnd));
                     break;
                 case PREFIX_SESSION:
-                    builder.setSession(value);
+                    builder.setSession(decode(data, valueStart, valueEnd));
                     break;
                 case PREFIX_CONNECTION:
-                    builder.setConnection(value);
+                    builder.setConnection(decode(data, valueStart, valueEnd));
                     break;
                 case PREFIX_TIME:
-                    builder.setTime(value);
+                    builder.setTime(decode(data, valueStart, valueEnd));
                     break;
                 case PREFIX_MEDIA:
                     if (currentMediaBuilder != null) {
                         builder.addMedia(currentMediaBuilder.build());
                     }
-                    currentMediaBuilder = SdpMedia.parseMediaLine(value);
+                    currentMediaBuilder =
+                            SdpMedia.parseMediaLine(decode(data, valueStart, valueEnd));
                     break;
                 case PREFIX_ATTRIBUTE:
                     if (currentMediaBuilder != null) {
-                        List<String> kv = Splitter.on(":").trimResults().limit(2).splitToList(
-                                value);
-                        currentMediaBuilder.addAttribute(kv.get(0), kv.size() < 2 ? "" : kv.get(1));
+                        int colon = valueStart;
+                        while (colon < valueEnd && data[colon] != ':') {
+                            colon++;
+                        }
+                        String name = decode(data, valueStart, trimWhitespace(data, valueStart,
+                                colon));
+                        String value = colon == valueEnd ? ""
+                                : decode(data, skipWhitespace(data, colon + 1, valueEnd),
+                                        valueEnd);
+                        currentMediaBuilder.addAttribute(name, value);
                     }
                     break;
                 default:
@@ -94,7 +134,7 @@ public abstract class SimpleSdpMessage {
                     // session.
                     break;
             }
-            line = reader.readLine();
+            lineStart = next;
         }
 
         if (currentMediaBuilder != null) {
@@ -104,10 +144,40 @@ public abstract class SimpleSdpMessage {
         return builder.build();
     }
 
-    private static String encodeLine(String prefix, String value) {
+    private static int skipWhitespace(byte[] data, int start, int end) {
+        while (start < end && isWhitespace(data[start])) {
+            start++;
+        }
+        return start;
+    }
+
+    private static int trimWhitespace(byte[] data, int start, int end) {
+        while (end > start && isWhitespace(data[end - 1])) {
+            end--;
+        }
+        return end;
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\t';
+    }
+
+    private static String decode(byte[] data, int start, int end) {
+        return new String(data, start, end - start, UTF_8);
+    }
+
+    private static String encodeLine(char prefix, String value) {
         return prefix + EQUAL + value + CRLF;
     }
 
+    private static void encodeLineTo(CharsetEncoder encoder, ByteBuffer buffer, char prefix,
+            String value) {
+        SdpMedia.put(encoder, buffer, String.valueOf(prefix));
+        SdpMedia.put(encoder, buffer, EQUAL);
+        SdpMedia.put(encoder, buffer, value);
+        SdpMedia.put(encoder, buffer, CRLF);
+    }
+
     public static Builder newBuilder() {
         return new AutoValue_SimpleSdpMessage.Builder();
     }
@@ -172,6 +242,29 @@ public abstract class SimpleSdpMessage {
         return builder.toString();
     }
 
+    /**
+     * Writes the UTF-8 encoding of {@link #encode()} into the given buffer, starting at its
+     * current position.
+     *
+     * @return the number of bytes written.
+     * @throws BufferOverflowException if the buffer is too small.
+     */
+    public int encodeTo(ByteBuffer buffer) {
+        int start = buffer.position();
+        CharsetEncoder encoder = UTF_8.newEncoder();
+        encodeLineTo(encoder, buffer, PREFIX_VERSION, version());
+        encodeLineTo(encoder, buffer, PREFIX_ORIGIN, origin());
+        encodeLineTo(encoder, buffer, PREFIX_SESSION, session());
+        encodeLineTo(encoder, buffer, PREFIX_CONNECTION, connection());
+        encodeLineTo(encoder, buffer, PREFIX_TIME, time());
+
+        for (SdpMedia media : media()) {
+            media.encodeTo(encoder, buffer);
+        }
+
+        return buffer.position() - start;
+    }
+
     @AutoValue.Builder
     public abstract static class Builder {
         public abstract Builder setVersion(String version);
@@ -33,6 +33,7 @@ import com.android.libraries.rcs.simpleclient.protocol.cpim.SimpleCpimMessage;
 import com.android.libraries.rcs.simpleclient.protocol.msrp.MsrpChunk;
 import com.android.libraries.rcs.simpleclient.protocol.msrp.MsrpChunk.Continuation;
 import com.android.libraries.rcs.simpleclient.protocol.msrp.MsrpChunkHeader;
+import com.android.libraries.rcs.simpleclient.protocol.msrp.MsrpChunkedSender;
 import com.android.libraries.rcs.simpleclient.protocol.msrp.MsrpConstants;
 import com.android.libraries.rcs.simpleclient.protocol.msrp.MsrpManager;
 import com.android.libraries.rcs.simpleclient.protocol.msrp.MsrpSession;
@@ -54,7 +55,6 @@ import gov.nist.javax.sip.header.ims.PAssertedIdentityHeader;
 import gov.nist.javax.sip.message.SIPRequest;
 import gov.nist.javax.sip.message.SIPResponse;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.text.ParseException;
 import java.util.UUID;
@@ -101,7 +101,10 @@ public class SimpleChatSession {
         return mRemoteUri;
     }
 
-    /** Send a text message via MSRP session associated with this session. */
+    /**
+     * Send a text message via MSRP session associated with this session. Messages larger than
+     * {@link MsrpChunkedSender#DEFAULT_CHUNK_SIZE} are split into several chunks.
+     */
     public ListenableFuture<Void> sendMessage(String msg) {
         MsrpSession session = mMsrpSession;
         if (session == null || mRemoteSdp == null || mLocalSdp == null) {
@@ -112,9 +115,13 @@ public class SimpleChatSession {
 
         // Build a new CPIM message and send it out through the MSRP session.
         SimpleCpimMessage cpim = CpimUtils.createForText(msg);
-        Log.i(TAG, "Encoded CPIM:" + cpim.encode());
+        byte[] content = cpim.encodeToBytes();
+        Log.i(TAG, "Encoded CPIM:" + new String(content, UTF_8));
+
+        if (content.length > MsrpChunkedSender.DEFAULT_CHUNK_SIZE) {
+            return sendChunked(session, content);
+        }
 
-        byte[] content = cpim.encode().getBytes(UTF_8);
         MsrpChunk msrpChunk =
                 MsrpChunk.newBuilder()
                         .method(MsrpChunk.Method.SEND)
@@ -152,6 +159,18 @@ public class SimpleChatSession {
         }, MoreExecutors.directExecutor());
     }
 
+    private ListenableFuture<Void> sendChunked(MsrpSession session, byte[] content) {
+        MsrpChunkedSender sender = new MsrpChunkedSender(mRemoteSdp.getPath().get(),
+                mLocalSdp.getPath().get(), MsrpUtils.generateRandomId(), CPIM_CONTENT_TYPE,
+                content);
+        Log.i(TAG, "Send a chunked MSRP message of " + content.length + " bytes");
+        return Futures.catchingAsync(sender.start(session), IllegalStateException.class,
+                e -> Futures.immediateFailedFuture(
+                        new ChatServiceException("Failed to send a chunked message: "
+                                + e.getMessage(), CODE_ERROR_SEND_MESSAGE_FAILED)),
+                MoreExecutors.directExecutor());
+    }
+
     /** Start outgoing chat session. */
     ListenableFuture<Void> start(String telUriContact) {
         if (mStartFuture != null) {
@@ -211,9 +230,9 @@ public class SimpleChatSession {
             statusCode = Response.NOT_ACCEPTABLE_HERE;
         } else {
             try {
-                mRemoteSdp = SimpleSdpMessage.parse(
-                        new ByteArrayInputStream(invite.getRawContent()));
-            } catch (ParseException | IOException e) {
+                byte[] rawContent = invite.getRawContent();
+                mRemoteSdp = SimpleSdpMessage.parse(rawContent, 0, rawContent.length);
+            } catch (ParseException e) {
                 statusCode = Response.BAD_REQUEST;
             }
         }
@@ -351,8 +370,9 @@ public class SimpleChatSession {
 
         SimpleSdpMessage sdp;
         try {
-            sdp = SimpleSdpMessage.parse(new ByteArrayInputStream(response.getRawContent()));
-        } catch (ParseException | IOException e) {
+            byte[] rawContent = response.getRawContent();
+            sdp = SimpleSdpMessage.parse(rawContent, 0, rawContent.length);
+        } catch (ParseException e) {
             notifyFailure("Invalid SDP in INVITE", CODE_ERROR_UNSPECIFIED);
             return;
         }
@@ -243,10 +243,15 @@ public class TestExecutorService implements ScheduledExecutorService {
         }
     }
 
+    /**
+     * Run the Runnables which are pending. Runnables queued while these run stay pending until
+     * the next call.
+     */
     public void executePending() {
-        for (Runnable r : mPendingRunnables) {
+        ArrayList<Runnable> pending = new ArrayList<>(mPendingRunnables);
+        mPendingRunnables.clear();
+        for (Runnable r : pending) {
             r.run();
         }
-        mPendingRunnables.clear();
     }
 }
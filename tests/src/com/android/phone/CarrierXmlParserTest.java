@@ -17,6 +17,7 @@
 package com.android.phone;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 
 import android.content.Context;
 
@@ -28,6 +29,8 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Vector;
 
 @RunWith(AndroidJUnit4.class)
@@ -82,4 +85,55 @@ public class CarrierXmlParserTest {
 
         assertEquals(expected, ussdParser.getResult());
     }
+
+    @Test
+    public void verifyGetInstance_shouldParseOnce() {
+        CarrierXmlParser parser = CarrierXmlParser.getInstance(mContext, -1);
+
+        assertSame(parser, CarrierXmlParser.getInstance(mContext, -1));
+    }
+
+    @Test
+    public void verifyMakeCommand_shouldFillParameters() {
+        CarrierXmlParser.SsFeature feature = CarrierXmlParser.getInstance(mContext, -1)
+                .getFeature(CarrierXmlParser.FEATURE_CALL_FORWARDING);
+        Map<String, String> input = new HashMap<>();
+        input.put(CarrierXmlParser.TAG_ENTRY_NUMBER, "0123456789");
+        input.put(CarrierXmlParser.TAG_ENTRY_TIME, "20");
+
+        assertEquals("*120*1*0123456789*20#", feature.makeCommand(
+                CarrierXmlParser.SsEntry.SSAction.UPDATE_ACTIVATE, input));
+        assertEquals("*#120*1#", feature.makeCommand(
+                CarrierXmlParser.SsEntry.SSAction.QUERY, null));
+    }
+
+    @Test
+    public void verifyGetResponseSet_shouldMapDefinitions() {
+        CarrierXmlParser.SsFeature feature = CarrierXmlParser.getInstance(mContext, -1)
+                .getFeature(CarrierXmlParser.FEATURE_CALL_FORWARDING);
+
+        HashMap<String, String> result = feature.getResponseSet(
+                CarrierXmlParser.SsEntry.SSAction.QUERY, "120*1*7*123456789*20*1*0*0#");
+        assertEquals(CarrierXmlParser.TAG_COMMAND_RESULT_DEFINITION_ACTIVATE,
+                result.get(CarrierXmlParser.TAG_RESPONSE_STATUS));
+        assertEquals("123456789", result.get(CarrierXmlParser.TAG_RESPONSE_NUMBER));
+        assertEquals("20", result.get(CarrierXmlParser.TAG_RESPONSE_TIME));
+
+        result = feature.getResponseSet(
+                CarrierXmlParser.SsEntry.SSAction.QUERY, "120*1*3#");
+        assertEquals(CarrierXmlParser.TAG_RESPONSE_STATUS_ERROR,
+                result.get(CarrierXmlParser.TAG_RESPONSE_STATUS_ERROR));
+    }
+
+    @Test
+    public void verifyCallerIdCommandAction_shouldMatchStructure() {
+        CarrierXmlParser parser = CarrierXmlParser.getInstance(mContext, -1);
+
+        assertEquals(CarrierXmlParser.SsEntry.SSAction.UPDATE_ACTIVATE,
+                parser.getCallerIdUssdCommandAction("*148*2*1234#"));
+        assertEquals(CarrierXmlParser.SsEntry.SSAction.UPDATE_DEACTIVATE,
+                parser.getCallerIdUssdCommandAction("*148*1*1234#"));
+        assertEquals(CarrierXmlParser.SsEntry.SSAction.UNKNOWN,
+                parser.getCallerIdUssdCommandAction("*102#"));
+    }
 }
@@ -0,0 +1,63 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.phone;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.List;
+
+public class EventRingTest {
+
+    @Test
+    public void testEventsFormattedWithLevel() {
+        EventRing ring = new EventRing(4);
+        ring.log(EventRing.INFO, "constant");
+        ring.log(EventRing.WARN, "one arg: %s", 1);
+        ring.log(EventRing.ERROR, "two args: %s, %s", "a", "b");
+
+        List<String> events = ring.getEvents();
+        assertEquals(3, events.size());
+        assertTrue(events.get(0).endsWith(" [I] constant"));
+        assertTrue(events.get(1).endsWith(" [W] one arg: 1"));
+        assertTrue(events.get(2).endsWith(" [E] two args: a, b"));
+    }
+
+    @Test
+    public void testOldestEventsOverwritten() {
+        EventRing ring = new EventRing(3);
+        for (int i = 0; i < 5; i++) {
+            ring.log(EventRing.INFO, "event %s", i);
+        }
+
+        List<String> events = ring.getEvents();
+        assertEquals(3, events.size());
+        assertTrue(events.get(0).endsWith("event 2"));
+        assertTrue(events.get(1).endsWith("event 3"));
+        assertTrue(events.get(2).endsWith("event 4"));
+    }
+
+    @Test
+    public void testMalformedFormatStillDumped() {
+        EventRing ring = new EventRing(1);
+        ring.log(EventRing.INFO, "unterminated %", "arg");
+
+        assertTrue(ring.getEvents().get(0).endsWith("unterminated % arg"));
+    }
+}
@@ -463,6 +463,35 @@ public class RcsProvisioningMonitorTest {
         assertTrue(Arrays.equals(CONFIG_DEFAULT.getBytes(), argumentBytes.getValue()));
     }
 
+    @Test
+    @SmallTest
+    public void testUpdateConfigUnchanged() throws Exception {
+        createMonitor(1);
+        // The config loaded at creation has already been sent once.
+        verify(mIImsConfig, times(1)).notifyRcsAutoConfigurationReceived(any(), anyBoolean());
+
+        // Same content, compressed and uncompressed, must not be sent or stored again.
+        mRcsProvisioningMonitor.updateConfig(FAKE_SUB_ID_BASE,
+                RcsConfig.compressGzip(CONFIG_DEFAULT.getBytes()), true);
+        processAllMessages();
+        mRcsProvisioningMonitor.updateConfig(FAKE_SUB_ID_BASE, CONFIG_DEFAULT.getBytes(), false);
+        processAllMessages();
+
+        verify(mIImsConfig, times(1)).notifyRcsAutoConfigurationReceived(any(), anyBoolean());
+        assertNull(mProvider.getContentValues());
+        assertTrue(Arrays.equals(CONFIG_DEFAULT.getBytes(),
+                mRcsProvisioningMonitor.getConfig(FAKE_SUB_ID_BASE)));
+
+        // New content is decompressed and sent.
+        byte[] compressed = RcsConfig.compressGzip(CONFIG_SINGLE_REGISTRATION_DISABLED.getBytes());
+        mRcsProvisioningMonitor.updateConfig(FAKE_SUB_ID_BASE, compressed, true);
+        processAllMessages();
+
+        verify(mIImsConfig, times(2)).notifyRcsAutoConfigurationReceived(any(), anyBoolean());
+        assertTrue(Arrays.equals(CONFIG_SINGLE_REGISTRATION_DISABLED.getBytes(),
+                mRcsProvisioningMonitor.getConfig(FAKE_SUB_ID_BASE)));
+    }
+
     @Test
     @SmallTest
     public void testRequestReconfig() throws Exception {
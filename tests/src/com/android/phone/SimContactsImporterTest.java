@@ -0,0 +1,182 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.phone;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.provider.ContactsContract;
+import android.provider.ContactsContract.CommonDataKinds.Phone;
+import android.provider.ContactsContract.RawContacts;
+import android.test.mock.MockContentProvider;
+import android.test.mock.MockContentResolver;
+import android.util.Log;
+
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@RunWith(AndroidJUnit4.class)
+public class SimContactsImporterTest {
+    private static final String LOG_TAG = "SimContactsImporterTest";
+
+    // Largest number of operations a single contact of the synthetic phonebook needs.
+    private static final int MAX_OPERATIONS_PER_CONTACT = 4;
+
+    private FakeContactsProvider mProvider;
+    private SimContactsImporter mImporter;
+    private final List<Integer> mProgress = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        mProvider = new FakeContactsProvider();
+        MockContentResolver resolver = new MockContentResolver();
+        resolver.addProvider(ContactsContract.AUTHORITY, mProvider);
+        mImporter = new SimContactsImporter(resolver, null);
+    }
+
+    @Test
+    public void testLargePhonebookImportedInFewBatches() {
+        int rows = 2000;
+        MatrixCursor adn = createAdnCursor();
+        for (int i = 0; i < rows; i++) {
+            adn.addRow(new Object[] {"Contact " + i + "/M", "+1650555" + (10000 + i),
+                    i % 2 == 0 ? "contact" + i + "@example.com" : null});
+        }
+
+        long startMs = SystemClock.elapsedRealtime();
+        int imported = mImporter.importAll(adn, () -> false, mProgress::add);
+        long tookMs = SystemClock.elapsedRealtime() - startMs;
+        Log.i(LOG_TAG, "imported " + imported + " contacts in " + mProvider.mBatches.size()
+                + " batches, " + tookMs + "ms");
+
+        assertEquals(rows, imported);
+        assertEquals(rows, mProvider.countRawContactInserts());
+        assertTrue(mProvider.mBatches.size() <= rows * MAX_OPERATIONS_PER_CONTACT
+                / SimContactsImporter.MAX_OPERATIONS_PER_BATCH + 1);
+        for (ArrayList<ContentProviderOperation> batch : mProvider.mBatches) {
+            assertTrue(batch.size() < SimContactsImporter.MAX_OPERATIONS_PER_BATCH
+                    + MAX_OPERATIONS_PER_CONTACT);
+            // A contact never spans two batches, its first operation inserts the raw contact.
+            assertEquals(RawContacts.CONTENT_URI, batch.get(0).getUri());
+            // A batch is applied as a single transaction.
+            for (ContentProviderOperation operation : batch) {
+                assertFalse(operation.isYieldAllowed());
+            }
+        }
+        assertEquals(rows, (int) mProgress.get(mProgress.size() - 1));
+    }
+
+    @Test
+    public void testDuplicateNumbersSkipped() {
+        mProvider.mExistingNumbers.addRow(new Object[] {"(650) 555-1234"});
+        MatrixCursor adn = createAdnCursor();
+        adn.addRow(new Object[] {"Existing", "6505551234", null});
+        adn.addRow(new Object[] {"New", "650-555-9876", null});
+        adn.addRow(new Object[] {"New again", "6505559876", null});
+        adn.addRow(new Object[] {"No number", "", null});
+
+        assertEquals(2, mImporter.importAll(adn, () -> false, mProgress::add));
+        assertEquals(2, mProvider.countRawContactInserts());
+        assertEquals(4, (int) mProgress.get(mProgress.size() - 1));
+    }
+
+    @Test
+    public void testCancelStopsImport() {
+        MatrixCursor adn = createAdnCursor();
+        for (int i = 0; i < 1000; i++) {
+            adn.addRow(new Object[] {"Contact " + i, "555" + (10000 + i), null});
+        }
+        int[] checks = new int[1];
+        // Each contact takes 3 operations, cancel while the second batch is being built.
+        int cancelAt = SimContactsImporter.MAX_OPERATIONS_PER_BATCH / 2;
+
+        int imported = mImporter.importAll(adn, () -> ++checks[0] > cancelAt, mProgress::add);
+
+        assertEquals(1, mProvider.mBatches.size());
+        assertEquals(imported, mProvider.countRawContactInserts());
+        assertTrue(imported < cancelAt);
+    }
+
+    @Test
+    public void testImportOneIgnoresExistingNumber() {
+        mProvider.mExistingNumbers.addRow(new Object[] {"6505551234"});
+        MatrixCursor adn = createAdnCursor();
+        adn.addRow(new Object[] {"Existing", "6505551234", "a@example.com,b@example.com"});
+        adn.moveToFirst();
+
+        assertTrue(mImporter.importOne(adn));
+        assertEquals(1, mProvider.mBatches.size());
+        // Raw contact, name, phone and two emails.
+        assertEquals(5, mProvider.mBatches.get(0).size());
+    }
+
+    private static MatrixCursor createAdnCursor() {
+        return new MatrixCursor(new String[] {"name", "number", "emails"});
+    }
+
+    private static class FakeContactsProvider extends MockContentProvider {
+        final MatrixCursor mExistingNumbers = new MatrixCursor(new String[] {Phone.NUMBER});
+        final List<ArrayList<ContentProviderOperation>> mBatches = new ArrayList<>();
+
+        @Override
+        public Cursor query(Uri uri, String[] projection, String selection,
+                String[] selectionArgs, String sortOrder) {
+            return mExistingNumbers;
+        }
+
+        @Override
+        public ContentProviderResult[] applyBatch(String authority,
+                ArrayList<ContentProviderOperation> operations) {
+            return applyBatch(operations);
+        }
+
+        @Override
+        public ContentProviderResult[] applyBatch(
+                ArrayList<ContentProviderOperation> operations) {
+            mBatches.add(new ArrayList<>(operations));
+            ContentProviderResult[] results = new ContentProviderResult[operations.size()];
+            for (int i = 0; i < results.length; i++) {
+                results[i] = new ContentProviderResult(
+                        Uri.withAppendedPath(operations.get(i).getUri(), String.valueOf(i)));
+            }
+            return results;
+        }
+
+        int countRawContactInserts() {
+            int count = 0;
+            for (ArrayList<ContentProviderOperation> batch : mBatches) {
+                for (ContentProviderOperation operation : batch) {
+                    if (RawContacts.CONTENT_URI.equals(operation.getUri())) count++;
+                }
+            }
+            return count;
+        }
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.phone;
+
+import static org.junit.Assert.assertEquals;
+
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(AndroidJUnit4.class)
+public class SpecialCharSequenceMgrTest {
+
+    @Test
+    public void testClassifyDisplaySequences() {
+        assertEquals(SpecialCharSequenceMgr.SEQUENCE_IMEI_DISPLAY,
+                SpecialCharSequenceMgr.classify("*#06#"));
+        assertEquals(SpecialCharSequenceMgr.SEQUENCE_REGULATORY_INFO_DISPLAY,
+                SpecialCharSequenceMgr.classify("*#07#"));
+        // Separators are ignored.
+        assertEquals(SpecialCharSequenceMgr.SEQUENCE_IMEI_DISPLAY,
+                SpecialCharSequenceMgr.classify("*#0-6 #"));
+        assertEquals(SpecialCharSequenceMgr.SEQUENCE_NONE,
+                SpecialCharSequenceMgr.classify("*#08#"));
+    }
+
+    @Test
+    public void testClassifyPinEntry() {
+        assertEquals(SpecialCharSequenceMgr.SEQUENCE_PIN_ENTRY,
+                SpecialCharSequenceMgr.classify("**04*1234*5678*5678#"));
+        assertEquals(SpecialCharSequenceMgr.SEQUENCE_PIN_ENTRY,
+                SpecialCharSequenceMgr.classify("**05*12345678*1234*1234#"));
+        assertEquals(SpecialCharSequenceMgr.SEQUENCE_NONE,
+                SpecialCharSequenceMgr.classify("**04*1234*5678*5678"));
+        assertEquals(SpecialCharSequenceMgr.SEQUENCE_NONE,
+                SpecialCharSequenceMgr.classify("**06*1234#"));
+    }
+
+    @Test
+    public void testClassifyAdnEntry() {
+        assertEquals(SpecialCharSequenceMgr.SEQUENCE_ADN_ENTRY,
+                SpecialCharSequenceMgr.classify("1#"));
+        assertEquals(SpecialCharSequenceMgr.SEQUENCE_ADN_ENTRY,
+                SpecialCharSequenceMgr.classify("123#"));
+        assertEquals(SpecialCharSequenceMgr.SEQUENCE_ADN_ENTRY,
+                SpecialCharSequenceMgr.classify("+12#"));
+        assertEquals(SpecialCharSequenceMgr.SEQUENCE_NONE,
+                SpecialCharSequenceMgr.classify("1234#"));
+        assertEquals(SpecialCharSequenceMgr.SEQUENCE_NONE,
+                SpecialCharSequenceMgr.classify("1*2#"));
+        assertEquals(SpecialCharSequenceMgr.SEQUENCE_NONE,
+                SpecialCharSequenceMgr.classify("#"));
+    }
+
+    @Test
+    public void testClassifySecretCode() {
+        assertEquals(SpecialCharSequenceMgr.SEQUENCE_SECRET_CODE,
+                SpecialCharSequenceMgr.classify("*#*#4636#*#*"));
+        assertEquals(SpecialCharSequenceMgr.SEQUENCE_NONE,
+                SpecialCharSequenceMgr.classify("*#*##*#*"));
+    }
+
+    @Test
+    public void testClassifyLocalizedDigits() {
+        // Arabic-Indic digits, as typed on a dialpad using a localized number format.
+        assertEquals(SpecialCharSequenceMgr.SEQUENCE_IMEI_DISPLAY,
+                SpecialCharSequenceMgr.classify("*#\u0660\u0666#"));
+        assertEquals(SpecialCharSequenceMgr.SEQUENCE_PIN_ENTRY,
+                SpecialCharSequenceMgr.classify(
+                        "**\u0660\u0664*\u0661\u0662\u0663\u0664*\u0665\u0666\u0667\u0668"
+                        + "*\u0665\u0666\u0667\u0668#"));
+        assertEquals(SpecialCharSequenceMgr.SEQUENCE_ADN_ENTRY,
+                SpecialCharSequenceMgr.classify("\u0661#"));
+        assertEquals(SpecialCharSequenceMgr.SEQUENCE_SECRET_CODE,
+                SpecialCharSequenceMgr.classify("*#*#\u0664\u0666\u0663\u0666#*#*"));
+        assertEquals(SpecialCharSequenceMgr.SEQUENCE_NONE,
+                SpecialCharSequenceMgr.classify("\u0661\u0662\u0663\u0664#"));
+    }
+
+    @Test
+    public void testClassifyNumbers() {
+        assertEquals(SpecialCharSequenceMgr.SEQUENCE_NONE,
+                SpecialCharSequenceMgr.classify(""));
+        assertEquals(SpecialCharSequenceMgr.SEQUENCE_NONE,
+                SpecialCharSequenceMgr.classify("911"));
+        assertEquals(SpecialCharSequenceMgr.SEQUENCE_NONE,
+                SpecialCharSequenceMgr.classify("+1 (650) 555-1234"));
+    }
+}
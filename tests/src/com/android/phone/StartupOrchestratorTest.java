@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.phone;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+
+import androidx.test.runner.AndroidJUnit4;
+
+import com.android.TelephonyTestBase;
+import com.android.TestExecutorService;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+@RunWith(AndroidJUnit4.class)
+public class StartupOrchestratorTest extends TelephonyTestBase {
+
+    private static final long TIMEOUT_MS = 1000;
+
+    private HandlerThread mHandlerThread;
+    private Handler mHandler;
+    private long mNow = 0;
+    private final List<String> mRan = new ArrayList<>();
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        mHandlerThread = new HandlerThread("StartupOrchestratorTest");
+        mHandlerThread.start();
+        mHandler = new Handler(mHandlerThread.getLooper());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mHandlerThread.quit();
+        super.tearDown();
+    }
+
+    @Test
+    public void testMainStagesRunInOrderBeforeStartReturns() {
+        StartupOrchestrator startup = createOrchestrator();
+        startup.addStage("a", StartupOrchestrator.RUN_ON_MAIN, () -> mRan.add("a"));
+        // Added before its dependency, must still run after it.
+        startup.addStage("c", StartupOrchestrator.RUN_ON_MAIN, () -> mRan.add("c"), "b");
+        startup.addStage("b", StartupOrchestrator.RUN_ON_MAIN, () -> mRan.add("b"), "a");
+        startup.addStage("deferred", StartupOrchestrator.RUN_DEFERRED,
+                () -> mRan.add("deferred"), "a");
+
+        mHandler.post(() -> {
+            startup.start();
+            // Deferred stages are not run inline.
+            assertEquals(Arrays.asList("a", "b", "c"), new ArrayList<>(mRan));
+        });
+        waitForHandlerAction(mHandler, TIMEOUT_MS);
+        waitForHandlerAction(mHandler, TIMEOUT_MS);
+
+        assertEquals(Arrays.asList("a", "b", "c", "deferred"), mRan);
+        assertTrue(startup.isComplete());
+    }
+
+    @Test
+    public void testBackgroundStageReleasesDependents() {
+        StartupOrchestrator startup = createOrchestrator();
+        startup.addStage("main", StartupOrchestrator.RUN_ON_MAIN, () -> mRan.add("main"));
+        startup.addStage("background", StartupOrchestrator.RUN_IN_BACKGROUND,
+                () -> mRan.add("background"), "main");
+        startup.addStage("deferred", StartupOrchestrator.RUN_DEFERRED,
+                () -> mRan.add("deferred"), "background");
+
+        mHandler.post(startup::start);
+        waitForHandlerAction(mHandler, TIMEOUT_MS);
+        assertFalse(startup.isComplete());
+        // Completion of the background stage and the deferred stage are posted to the handler.
+        waitForHandlerAction(mHandler, TIMEOUT_MS);
+        waitForHandlerAction(mHandler, TIMEOUT_MS);
+
+        assertEquals(Arrays.asList("main", "background", "deferred"), mRan);
+        assertEquals(mRan, startup.getStartOrder());
+        assertTrue(startup.isComplete());
+    }
+
+    @Test
+    public void testFailedBackgroundStageDoesNotBlockDependents() {
+        StartupOrchestrator startup = createOrchestrator();
+        startup.addStage("background", StartupOrchestrator.RUN_IN_BACKGROUND, () -> {
+            throw new IllegalStateException("test");
+        });
+        startup.addStage("deferred", StartupOrchestrator.RUN_DEFERRED,
+                () -> mRan.add("deferred"), "background");
+
+        mHandler.post(startup::start);
+        waitForHandlerAction(mHandler, TIMEOUT_MS);
+        waitForHandlerAction(mHandler, TIMEOUT_MS);
+        waitForHandlerAction(mHandler, TIMEOUT_MS);
+
+        assertEquals(Arrays.asList("deferred"), mRan);
+        assertTrue(startup.isComplete());
+    }
+
+    @Test
+    public void testInvalidDependencies() {
+        StartupOrchestrator cycle = createOrchestrator();
+        cycle.addStage("a", StartupOrchestrator.RUN_ON_MAIN, () -> { }, "b");
+        cycle.addStage("b", StartupOrchestrator.RUN_ON_MAIN, () -> { }, "a");
+        verifyStartFails(cycle);
+
+        StartupOrchestrator unknown = createOrchestrator();
+        unknown.addStage("a", StartupOrchestrator.RUN_ON_MAIN, () -> { }, "b");
+        verifyStartFails(unknown);
+
+        StartupOrchestrator mainOnDeferred = createOrchestrator();
+        mainOnDeferred.addStage("a", StartupOrchestrator.RUN_DEFERRED, () -> { });
+        mainOnDeferred.addStage("b", StartupOrchestrator.RUN_ON_MAIN, () -> { }, "a");
+        verifyStartFails(mainOnDeferred);
+    }
+
+    private void verifyStartFails(StartupOrchestrator startup) {
+        try {
+            startup.start();
+            fail("expected IllegalStateException");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        assertTrue(startup.getStartOrder().isEmpty());
+    }
+
+    private StartupOrchestrator createOrchestrator() {
+        return new StartupOrchestrator(mHandler, new TestExecutorService(), () -> mNow++);
+    }
+}
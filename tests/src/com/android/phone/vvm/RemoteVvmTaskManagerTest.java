@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.phone.vvm;
+
+import static org.junit.Assert.assertEquals;
+
+import android.content.ComponentName;
+import android.os.Bundle;
+import android.telecom.PhoneAccountHandle;
+import android.telephony.VisualVoicemailService;
+import android.telephony.VisualVoicemailSms;
+
+import androidx.test.runner.AndroidJUnit4;
+
+import com.android.phone.vvm.RemoteVvmTaskManager.PendingTask;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+@RunWith(AndroidJUnit4.class)
+public class RemoteVvmTaskManagerTest {
+
+    private static final ComponentName COMPONENT = new ComponentName("pkg", "cls");
+    private static final PhoneAccountHandle HANDLE_1 = new PhoneAccountHandle(COMPONENT, "1");
+    private static final PhoneAccountHandle HANDLE_2 = new PhoneAccountHandle(COMPONENT, "2");
+
+    private final Deque<PendingTask> mQueue = new ArrayDeque<>();
+
+    @Test
+    public void testRepeatedCellServiceConnectedMerged() {
+        assertEquals(0, enqueue(VisualVoicemailService.MSG_ON_CELL_SERVICE_CONNECTED, HANDLE_1));
+        assertEquals(1, enqueue(VisualVoicemailService.MSG_ON_CELL_SERVICE_CONNECTED, HANDLE_1));
+        // Other accounts are not affected.
+        assertEquals(0, enqueue(VisualVoicemailService.MSG_ON_CELL_SERVICE_CONNECTED, HANDLE_2));
+
+        assertEquals(2, mQueue.size());
+    }
+
+    @Test
+    public void testSimRemovedReplacesAccountEvents() {
+        enqueue(VisualVoicemailService.MSG_ON_CELL_SERVICE_CONNECTED, HANDLE_1);
+        enqueueSms(HANDLE_1, "SYNC:ev=NM");
+        enqueue(VisualVoicemailService.MSG_ON_SIM_REMOVED, HANDLE_1);
+        enqueue(VisualVoicemailService.MSG_ON_CELL_SERVICE_CONNECTED, HANDLE_2);
+
+        assertEquals(2, enqueue(VisualVoicemailService.MSG_ON_SIM_REMOVED, HANDLE_1));
+
+        assertEquals(3, mQueue.size());
+        assertEquals(VisualVoicemailService.MSG_ON_SMS_RECEIVED, mQueue.pollFirst().what);
+        assertEquals(HANDLE_2, mQueue.pollFirst().phoneAccountHandle);
+        assertEquals(VisualVoicemailService.MSG_ON_SIM_REMOVED, mQueue.pollFirst().what);
+    }
+
+    @Test
+    public void testCellServiceConnectedAfterSimRemovedKept() {
+        enqueue(VisualVoicemailService.MSG_ON_CELL_SERVICE_CONNECTED, HANDLE_1);
+        enqueue(VisualVoicemailService.MSG_ON_SIM_REMOVED, HANDLE_1);
+
+        assertEquals(0, enqueue(VisualVoicemailService.MSG_ON_CELL_SERVICE_CONNECTED, HANDLE_1));
+
+        assertEquals(2, mQueue.size());
+    }
+
+    @Test
+    public void testOnlyIdenticalSmsMerged() {
+        assertEquals(0, enqueueSms(HANDLE_1, "SYNC:ev=NM"));
+        assertEquals(1, enqueueSms(HANDLE_1, "SYNC:ev=NM"));
+        assertEquals(0, enqueueSms(HANDLE_1, "SYNC:ev=MBU"));
+        assertEquals(0, enqueueSms(HANDLE_2, "SYNC:ev=NM"));
+
+        assertEquals(3, mQueue.size());
+    }
+
+    private int enqueue(int what, PhoneAccountHandle handle) {
+        Bundle extras = new Bundle();
+        extras.putParcelable(VisualVoicemailService.DATA_PHONE_ACCOUNT_HANDLE, handle);
+        return RemoteVvmTaskManager.enqueueCoalesced(mQueue, new PendingTask(what, extras));
+    }
+
+    private int enqueueSms(PhoneAccountHandle handle, String body) {
+        Bundle extras = new Bundle();
+        extras.putParcelable(VisualVoicemailService.DATA_PHONE_ACCOUNT_HANDLE, handle);
+        extras.putParcelable(VisualVoicemailService.DATA_SMS, new VisualVoicemailSms.Builder()
+                .setPhoneAccountHandle(handle)
+                .setMessageBody(body)
+                .build());
+        return RemoteVvmTaskManager.enqueueCoalesced(mQueue,
+                new PendingTask(VisualVoicemailService.MSG_ON_SMS_RECEIVED, extras));
+    }
+}
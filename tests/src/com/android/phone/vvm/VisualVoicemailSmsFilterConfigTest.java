@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.phone.vvm;
+
+import static com.android.internal.telephony.testing.TelephonyAssertions.assertThrows;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Mockito.mock;
+
+import android.content.Context;
+import android.content.Intent;
+import android.telecom.TelecomManager;
+import android.telephony.VisualVoicemailSmsFilterSettings;
+
+import androidx.test.InstrumentationRegistry;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+
+@RunWith(AndroidJUnit4.class)
+public class VisualVoicemailSmsFilterConfigTest {
+
+    private static final int SUB_ID = 9999;
+    private static final String VVM_PACKAGE = "com.android.phone.vvm.test";
+
+    private Context mContext;
+    private String mActivePackage = VVM_PACKAGE;
+    private int mResolveCount;
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getTargetContext();
+        VisualVoicemailSmsFilterConfig.setActivePackageResolver((context, subId) -> {
+            mResolveCount++;
+            return mActivePackage;
+        });
+        VisualVoicemailSmsFilterConfig.registerActivePackageReceiver(mock(Context.class));
+        VisualVoicemailSmsFilterConfig.clearCache();
+    }
+
+    @After
+    public void tearDown() {
+        VisualVoicemailSmsFilterConfig.disableVisualVoicemailSmsFilter(mContext, VVM_PACKAGE,
+                SUB_ID);
+        VisualVoicemailSmsFilterConfig.setActivePackageResolver(null);
+        VisualVoicemailSmsFilterConfig.clearCache();
+    }
+
+    @Test
+    public void testActivePackageCachedUntilChange() {
+        VisualVoicemailSmsFilterConfig.enableVisualVoicemailSmsFilter(mContext, VVM_PACKAGE,
+                SUB_ID, createSettings());
+
+        assertEquals(VVM_PACKAGE, VisualVoicemailSmsFilterConfig
+                .getActiveVisualVoicemailSmsFilterSettings(mContext, SUB_ID).packageName);
+        assertEquals(VVM_PACKAGE, VisualVoicemailSmsFilterConfig
+                .getActiveVisualVoicemailSmsFilterSettings(mContext, SUB_ID).packageName);
+        assertEquals(1, mResolveCount);
+
+        // Another dialer without a filter becomes the active client.
+        mActivePackage = "com.android.phone.vvm.other";
+        VisualVoicemailSmsFilterConfig.sActivePackageReceiver.onReceive(mContext,
+                new Intent(TelecomManager.ACTION_DEFAULT_DIALER_CHANGED));
+
+        assertNull(VisualVoicemailSmsFilterConfig
+                .getActiveVisualVoicemailSmsFilterSettings(mContext, SUB_ID));
+        assertEquals(2, mResolveCount);
+    }
+
+    @Test
+    public void testCachedSettingsCanNotBeModified() {
+        VisualVoicemailSmsFilterConfig.enableVisualVoicemailSmsFilter(mContext, VVM_PACKAGE,
+                SUB_ID, createSettings());
+
+        VisualVoicemailSmsFilterSettings settings = VisualVoicemailSmsFilterConfig
+                .getVisualVoicemailSmsFilterSettings(mContext, VVM_PACKAGE, SUB_ID);
+        assertThrows(UnsupportedOperationException.class,
+                () -> settings.originatingNumbers.add("12345"));
+        assertEquals(1, VisualVoicemailSmsFilterConfig.getVisualVoicemailSmsFilterSettings(
+                mContext, VVM_PACKAGE, SUB_ID).originatingNumbers.size());
+
+        // The same holds for the settings read back from the shared preferences.
+        VisualVoicemailSmsFilterConfig.clearCache();
+        VisualVoicemailSmsFilterSettings readSettings = VisualVoicemailSmsFilterConfig
+                .getVisualVoicemailSmsFilterSettings(mContext, VVM_PACKAGE, SUB_ID);
+        assertEquals(Arrays.asList("5551234"), readSettings.originatingNumbers);
+        assertThrows(UnsupportedOperationException.class,
+                () -> readSettings.originatingNumbers.clear());
+    }
+
+    private static VisualVoicemailSmsFilterSettings createSettings() {
+        return new VisualVoicemailSmsFilterSettings.Builder()
+                .setClientPrefix("//VVM")
+                .setOriginatingNumbers(Arrays.asList("5551234"))
+                .build();
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.services.telephony;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.android.internal.util.IndentingPrintWriter;
+
+import org.junit.Test;
+
+import java.io.StringWriter;
+
+/**
+ * Tests the functionality in CallEventDispatchStats.java
+ */
+public class CallEventDispatchStatsTest {
+    private static final String EVENT = "PRECISE_CALL_STATE_CHANGED";
+
+    @Test
+    @SmallTest
+    public void testRecord() {
+        CallEventDispatchStats stats = new CallEventDispatchStats();
+
+        stats.record(EVENT, 5, 1);
+        stats.record(EVENT, 300, 2);
+        // Messages sent for a time in the past can not have a negative latency.
+        stats.record(EVENT, -10, 0);
+
+        assertEquals(3, stats.getCount(EVENT));
+        assertEquals(300, stats.getMaxQueueMillis(EVENT));
+        assertEquals(0, stats.getCount("HANGUP"));
+
+        StringWriter writer = new StringWriter();
+        stats.dump(new IndentingPrintWriter(writer, "  "));
+        assertTrue(writer.toString().contains(EVENT + ": 3, 101/300, 1/2, 1"));
+    }
+
+    @Test
+    @SmallTest
+    public void testCallEventNames() {
+        assertEquals("HANGUP", TelephonyConnection.callEventToString(17));
+        assertEquals("UNKNOWN", TelephonyConnection.callEventToString(-1));
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.services.telephony;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import android.net.Uri;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.util.List;
+
+/**
+ * Tests the functionality in ConferenceParticipantRoster.java
+ */
+public class ConferenceParticipantRosterTest {
+    private static final Uri HANDLE = Uri.parse("tel:6505551212");
+    private static final Uri ENDPOINT_1 = Uri.parse("sip:6505551212@ims1");
+    private static final Uri ENDPOINT_2 = Uri.parse("sip:6505551212@ims2");
+
+    @Mock private ConferenceParticipantConnection mConnection1;
+    @Mock private ConferenceParticipantConnection mConnection2;
+
+    private ConferenceParticipantRoster mRoster;
+
+    @Before
+    public void setUp() throws Exception {
+        MockitoAnnotations.initMocks(this);
+        mRoster = new ConferenceParticipantRoster();
+    }
+
+    @Test
+    @SmallTest
+    public void testSameHandleDifferentEndpoints() {
+        mRoster.put(HANDLE, ENDPOINT_1, mConnection1);
+        mRoster.put(HANDLE, ENDPOINT_2, mConnection2);
+
+        assertEquals(2, mRoster.size());
+        assertSame(mConnection1, mRoster.get(HANDLE, ENDPOINT_1));
+        assertSame(mConnection2, mRoster.get(HANDLE, ENDPOINT_2));
+        assertNull(mRoster.get(HANDLE, null));
+
+        assertSame(mConnection1, mRoster.remove(HANDLE, ENDPOINT_1));
+        assertEquals(1, mRoster.size());
+        assertNull(mRoster.get(HANDLE, ENDPOINT_1));
+    }
+
+    @Test
+    @SmallTest
+    public void testRemoveUnseen() {
+        mRoster.put(HANDLE, ENDPOINT_1, mConnection1);
+        mRoster.put(HANDLE, ENDPOINT_2, mConnection2);
+
+        // The next update only lists the first endpoint.
+        mRoster.beginUpdate();
+        assertTrue(mRoster.markSeen(HANDLE, ENDPOINT_1));
+        List<ConferenceParticipantConnection> removed = mRoster.removeUnseen();
+
+        assertEquals(1, removed.size());
+        assertSame(mConnection2, removed.get(0));
+        assertEquals(1, mRoster.size());
+        assertTrue(mRoster.contains(HANDLE, ENDPOINT_1));
+
+        // An update which lists nobody empties the roster.
+        mRoster.beginUpdate();
+        assertEquals(1, mRoster.removeUnseen().size());
+        assertEquals(0, mRoster.size());
+        assertNull(mRoster.any());
+    }
+}
@@ -20,12 +20,16 @@ import static android.media.ToneGenerator.TONE_PROP_PROMPT;
 import static android.media.ToneGenerator.TONE_SUP_BUSY;
 
 import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertNotSame;
+import static junit.framework.Assert.assertSame;
 import static junit.framework.TestCase.assertEquals;
 
+import android.content.ContentResolver;
 import android.content.Context;
 import android.content.res.Configuration;
 import android.content.res.Resources;
 import android.os.PersistableBundle;
+import android.provider.Settings;
 import android.telephony.CarrierConfigManager;
 import android.telephony.DisconnectCause;
 
@@ -36,6 +40,7 @@ import com.android.TelephonyTestBase;
 import com.android.internal.telephony.GsmCdmaPhone;
 import com.android.internal.telephony.Phone;
 import com.android.internal.telephony.PhoneFactory;
+import com.android.phone.PhoneGlobals;
 import com.android.phone.common.R;
 
 import org.junit.After;
@@ -233,4 +238,62 @@ public class DisconnectCauseUtilTest extends TelephonyTestBase {
         assertNotNull(tcCause.getLabel());
         assertNotNull(tcCause.getDescription());
     }
+
+    /**
+     * Verifies that disconnect causes without variable content are reused, and that a change of
+     * the carrier busy tone configuration is picked up.
+     */
+    @Test
+    public void testDisconnectCauseReusedUntilCarrierConfigChanges() {
+        DisconnectCauseUtil.clearCauseTables();
+        PersistableBundle config = new PersistableBundle();
+        config.putIntArray(CarrierConfigManager.KEY_DISCONNECT_CAUSE_PLAY_BUSYTONE_INT_ARRAY,
+                new int[] {DisconnectCause.BUSY});
+
+        android.telecom.DisconnectCause first = DisconnectCauseUtil.toTelecomDisconnectCause(
+                DisconnectCause.ERROR_UNSPECIFIED, -1, null, PHONE_ID, null, config);
+        android.telecom.DisconnectCause second = DisconnectCauseUtil.toTelecomDisconnectCause(
+                DisconnectCause.ERROR_UNSPECIFIED, -1, null, PHONE_ID, null, config);
+        assertSame(first, second);
+        assertEquals(android.telecom.DisconnectCause.ERROR, second.getCode());
+
+        // A caller supplied reason is variable content.
+        android.telecom.DisconnectCause withReason = DisconnectCauseUtil.toTelecomDisconnectCause(
+                DisconnectCause.ERROR_UNSPECIFIED, -1, "reason", PHONE_ID, null, config);
+        assertNotSame(first, withReason);
+
+        config.putIntArray(CarrierConfigManager.KEY_DISCONNECT_CAUSE_PLAY_BUSYTONE_INT_ARRAY,
+                new int[] {DisconnectCause.BUSY, DisconnectCause.ERROR_UNSPECIFIED});
+        android.telecom.DisconnectCause busy = DisconnectCauseUtil.toTelecomDisconnectCause(
+                DisconnectCause.ERROR_UNSPECIFIED, -1, null, PHONE_ID, null, config);
+        assertEquals(android.telecom.DisconnectCause.BUSY, busy.getCode());
+        assertEquals(TONE_SUP_BUSY, busy.getTone());
+    }
+
+    /**
+     * Verifies that the label of a cause which depends on the airplane mode is not reused once
+     * the airplane mode changes.
+     */
+    @Test
+    public void testAirplaneModeDependentLabelNotCached() {
+        DisconnectCauseUtil.clearCauseTables();
+        PersistableBundle config = new PersistableBundle();
+        ContentResolver resolver = PhoneGlobals.getInstance().getContentResolver();
+        int airplaneMode = Settings.Global.getInt(resolver, Settings.Global.AIRPLANE_MODE_ON, 0);
+        try {
+            Settings.Global.putInt(resolver, Settings.Global.AIRPLANE_MODE_ON, 0);
+            android.telecom.DisconnectCause off = DisconnectCauseUtil.toTelecomDisconnectCause(
+                    DisconnectCause.IMS_SIP_ALTERNATE_EMERGENCY_CALL, -1, null, PHONE_ID, null,
+                    config);
+            safeAssertLabel(R.string.incall_error_call_failed, off);
+
+            Settings.Global.putInt(resolver, Settings.Global.AIRPLANE_MODE_ON, 1);
+            android.telecom.DisconnectCause on = DisconnectCauseUtil.toTelecomDisconnectCause(
+                    DisconnectCause.IMS_SIP_ALTERNATE_EMERGENCY_CALL, -1, null, PHONE_ID, null,
+                    config);
+            safeAssertLabel(R.string.incall_error_power_off, on);
+        } finally {
+            Settings.Global.putInt(resolver, Settings.Global.AIRPLANE_MODE_ON, airplaneMode);
+        }
+    }
 }
@@ -16,6 +16,7 @@
 
 package com.android.services.telephony;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.any;
@@ -25,6 +26,8 @@ import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import android.os.Looper;
+import android.telecom.Conferenceable;
+import android.telecom.Connection;
 import android.test.suitebuilder.annotation.SmallTest;
 
 import org.junit.Before;
@@ -32,6 +35,8 @@ import org.junit.Test;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
+import java.util.List;
+
 /**
  * Tests the functionality in ImsConferenceController.java
  */
@@ -124,4 +129,37 @@ public class ImsConferenceControllerTest {
         verify(mMockTelephonyConnectionServiceProxy, times(2))
                 .addConference(any(ImsConference.class));
     }
+
+    /**
+     * Behavior: make connections A and B conferenceable, then report state changes which do not
+     *           affect which calls can be conferenced
+     * Expected: the conferenceables of A are not updated again
+     */
+    @Test
+    @SmallTest
+    public void testConferenceableNotUpdatedWhenUnchanged() {
+        mControllerTest.add(mTestTelephonyConnectionB);
+        mControllerTest.add(mTestTelephonyConnectionA);
+        mTestTelephonyConnectionA.setActive();
+        mTestTelephonyConnectionB.setTelephonyConnectionOnHold();
+
+        int[] updates = new int[1];
+        mTestTelephonyConnectionA.addConnectionListener(new Connection.Listener() {
+            @Override
+            public void onConferenceablesChanged(Connection c,
+                    List<Conferenceable> conferenceables) {
+                updates[0]++;
+            }
+        });
+
+        mTestTelephonyConnectionA.setActive();
+        mTestTelephonyConnectionB.setTelephonyConnectionOnHold();
+        assertEquals(0, updates[0]);
+
+        // B is no longer conferenceable, so A has to be updated exactly once.
+        mControllerTest.remove(mTestTelephonyConnectionB);
+        assertEquals(1, updates[0]);
+        assertFalse(mTestTelephonyConnectionA.getConferenceables()
+                .contains(mTestTelephonyConnectionB));
+    }
 }
@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.services.telephony.rcs;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.SmallTest;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+@RunWith(AndroidJUnit4.class)
+public class RcsRuntimeTest {
+    private static final long TIMEOUT_MS = 1000;
+
+    private RcsRuntime mRuntime;
+
+    @Before
+    public void setUp() {
+        mRuntime = new RcsRuntime();
+    }
+
+    @SmallTest
+    @Test
+    public void testLaneRunsTasksInOrder() throws Exception {
+        RcsRuntime.Lane lane = mRuntime.createLane("test", 0);
+        List<Integer> order = Collections.synchronizedList(new ArrayList<>());
+        for (int i = 0; i < 100; i++) {
+            final int value = i;
+            lane.execute(() -> order.add(value));
+        }
+        lane.submit(() -> { }).get(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+
+        assertEquals(100, order.size());
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i, (int) order.get(i));
+        }
+        assertEquals(101, lane.getCompletedTaskCount());
+    }
+
+    @SmallTest
+    @Test
+    public void testShutdownCancelsDelayedTasks() throws Exception {
+        RcsRuntime.Lane lane = mRuntime.createLane("test", 1);
+        ScheduledFuture<?> delayed = lane.schedule(() -> { }, 1, TimeUnit.HOURS);
+
+        lane.shutdown();
+
+        assertTrue(delayed.isCancelled());
+        assertTrue(lane.awaitTermination(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        try {
+            lane.execute(() -> { });
+            fail("Tasks must be rejected after shutdown");
+        } catch (RejectedExecutionException e) {
+            // expected
+        }
+    }
+
+    @SmallTest
+    @Test
+    public void testLanesAreIndependent() throws Exception {
+        RcsRuntime.Lane blocked = mRuntime.createLane("blocked", 0);
+        RcsRuntime.Lane other = mRuntime.createLane("other", 1);
+        Object gate = new Object();
+        boolean[] released = new boolean[1];
+        blocked.execute(() -> {
+            synchronized (gate) {
+                while (!released[0]) {
+                    try {
+                        gate.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }
+        });
+
+        // A busy lane must not hold up tasks of another lane.
+        other.submit(() -> { }).get(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        assertFalse(blocked.isTerminated());
+
+        synchronized (gate) {
+            released[0] = true;
+            gate.notifyAll();
+        }
+        blocked.shutdown();
+        assertTrue(blocked.awaitTermination(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+    }
+}
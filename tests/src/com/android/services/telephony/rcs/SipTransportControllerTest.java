@@ -370,6 +370,60 @@ public class SipTransportControllerTest extends TelephonyTestBase {
         createDelegateAndVerify(controller, c, Collections.emptySet(), getDeniedTags);
     }
 
+    @SmallTest
+    @Test
+    public void createSecondDoesNotChangeFirst() throws Exception {
+        SipTransportController controller = setupLiveTransportController();
+
+        DelegateRequest r = getBaseDelegateRequest();
+        SipDelegateControllerContainer c1 = injectMockDelegateController(TEST_PACKAGE_NAME, r);
+        createDelegateAndVerify(controller, c1, r.getFeatureTags(), Collections.emptySet());
+        verifyDelegateRegistrationChangedEvent(1 /*times*/, 0 /*waitMs*/);
+
+        // The second delegate is not in the sms role, so the feature tags granted to the first
+        // delegate do not change and it should be left alone.
+        Set<FeatureTagState> deniedTags = getDeniedTagsForReason(r.getFeatureTags(),
+                SipDelegateManager.DENIED_REASON_NOT_ALLOWED);
+        SipDelegateControllerContainer c2 = injectMockDelegateController(TEST_PACKAGE_NAME_2, r);
+        createDelegateAndVerify(controller, c2, Collections.emptySet(), deniedTags);
+        verify(c1.delegateController, times(1)).changeSupportedFeatureTags(any(), any());
+        // The second delegate holds no feature tags and the granted feature tags are the same.
+        // Denied feature tags are not part of the registration, so it should not be updated again.
+        verifyDelegateRegistrationChangedEvent(1 /*times*/, 0 /*waitMs*/);
+    }
+
+    @SmallTest
+    @Test
+    public void destroyAndRecreateWithSameTagsUpdatesRegistration() throws Exception {
+        SipTransportController controller = setupLiveTransportController(THROTTLE_MS, 0);
+
+        DelegateRequest r = getBaseDelegateRequest();
+        SipDelegateControllerContainer c1 = injectMockDelegateController(TEST_PACKAGE_NAME, r);
+        CompletableFuture<Boolean> pendingC1Change = createDelegate(controller, c1,
+                r.getFeatureTags(), Collections.emptySet());
+        assertTrue(scheduleDelayedWait(2 * THROTTLE_MS));
+        verifyDelegateChanged(c1.delegateController, pendingC1Change, r.getFeatureTags(),
+                Collections.emptySet(), 0);
+        verifyDelegateRegistrationChangedEvent(1 /*times*/, 0 /*waitMs*/);
+
+        // The app destroys its delegate and creates a new one for the same feature tags within
+        // one reevaluate. The granted feature tags are the same, but they now belong to the new
+        // delegate, so the registration must be updated again.
+        CompletableFuture<Integer> pendingDestroyC1 = destroyDelegate(controller,
+                c1.delegateController, false /*force*/,
+                SipDelegateManager.SIP_DELEGATE_DESTROY_REASON_REQUESTED_BY_APP);
+        mMockControllers.remove(c1);
+        SipDelegateControllerContainer c2 = injectMockDelegateController(TEST_PACKAGE_NAME, r);
+        CompletableFuture<Boolean> pendingC2Change = createDelegate(controller, c2,
+                r.getFeatureTags(), Collections.emptySet());
+        assertTrue(scheduleDelayedWait(2 * THROTTLE_MS));
+        verifyDestroyDelegate(c1.delegateController, pendingDestroyC1, false /*force*/,
+                SipDelegateManager.SIP_DELEGATE_DESTROY_REASON_REQUESTED_BY_APP);
+        verifyDelegateChanged(c2.delegateController, pendingC2Change, r.getFeatureTags(),
+                Collections.emptySet(), 0);
+        verifyDelegateRegistrationChangedEvent(2 /*times*/, 0 /*waitMs*/);
+    }
+
     @SmallTest
     @Test
     public void createTwoAndDenyOverlappingTags() throws Exception {
@@ -617,6 +671,37 @@ public class SipTransportControllerTest extends TelephonyTestBase {
         verifyDelegateRegistrationChangedEvent(1, 0 /*waitMs*/);
     }
 
+    @SmallTest
+    @Test
+    public void testRcsManagerReconnectedRegistrationUpdated() throws Exception {
+        SipTransportController controller = setupLiveTransportController();
+
+        ArraySet<String> tags = new ArraySet<>(getBaseDelegateRequest().getFeatureTags());
+        DelegateRequest request = new DelegateRequest(tags);
+        SipDelegateControllerContainer c = injectMockDelegateController(TEST_PACKAGE_NAME,
+                request);
+        createDelegateAndVerify(controller, c, tags, Collections.emptySet());
+        verifyDelegateRegistrationChangedEvent(1 /*times*/, 0 /*waitMs*/);
+
+        CompletableFuture<Integer> pendingDestroy =  setDestroyFuture(c.delegateController, true,
+                SipDelegateManager.SIP_DELEGATE_DESTROY_REASON_SERVICE_DEAD);
+        controller.onRcsDisconnected();
+        waitForExecutorAction(mExecutorService, TIMEOUT_MS);
+        verifyDestroyDelegate(c.delegateController, pendingDestroy, true /*force*/,
+                SipDelegateManager.SIP_DELEGATE_DESTROY_REASON_SERVICE_DEAD);
+        verifyDelegateRegistrationChangedEvent(1 /*times*/, 0 /*waitMs*/);
+
+        // The app creates a delegate for the same feature tags on the new ImsService, which
+        // must be told about the registration again.
+        controller.onRcsConnected(mRcsManager);
+        waitForExecutorAction(mExecutorService, TIMEOUT_MS);
+        mMockControllers.remove(c);
+        SipDelegateControllerContainer c2 = injectMockDelegateController(TEST_PACKAGE_NAME,
+                request);
+        createDelegateAndVerify(controller, c2, tags, Collections.emptySet());
+        verifyDelegateRegistrationChangedEvent(2 /*times*/, 0 /*waitMs*/);
+    }
+
     @SmallTest
     @Test
     public void testDestroyTriggered() throws Exception {
@@ -16,6 +16,8 @@
 
 package com.android.services.telephony.rcs;
 
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.ArgumentMatchers.eq;
@@ -120,6 +122,35 @@ public class TelephonyRcsServiceTest extends TelephonyTestBase {
         verify(mFeatureControllerSlot0, never()).connect();
     }
 
+    @Test
+    public void testNoControllerCreatedForSlotWithoutRcs() {
+        setCarrierConfig(1 /*subId*/,
+                CarrierConfigManager.Ims.KEY_ENABLE_PRESENCE_PUBLISH_BOOL,
+                true /*isEnabled*/);
+        createRcsService(2 /*numSlots*/);
+        verify(mFeatureFactory).createController(any(), eq(0), anyInt());
+        // Slot 1 does not support any RCS feature, nothing should be created for it.
+        verify(mFeatureFactory, never()).createController(any(), eq(1), anyInt());
+        verify(mFeatureFactory, never()).createUceControllerManager(any(), eq(1), anyInt());
+        verify(mFeatureFactory, never()).createSipTransportController(any(), eq(1), anyInt());
+    }
+
+    @Test
+    public void testSubscriptionRemovedTearsDownSlot() {
+        setCarrierConfig(1 /*subId*/,
+                CarrierConfigManager.Ims.KEY_ENABLE_PRESENCE_PUBLISH_BOOL,
+                true /*isEnabled*/);
+        TelephonyRcsService service = createRcsService(1 /*numSlots*/);
+        sendCarrierConfigChanged(0 /*slotId*/, 1 /*subId*/);
+        assertNotNull(service.getFeatureController(0));
+
+        sendCarrierConfigChanged(0 /*slotId*/, SubscriptionManager.INVALID_SUBSCRIPTION_ID);
+        verify(mFeatureControllerSlot0).destroy();
+        verify(mFeatureControllerSlot0, never()).updateAssociatedSubscription(
+                SubscriptionManager.INVALID_SUBSCRIPTION_ID);
+        assertNull(service.getFeatureController(0));
+    }
+
     @Test
     public void testSipTransportConnected() {
         createRcsService(1 /*numSlots*/);
@@ -0,0 +1,205 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.services.telephony.rcs;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import android.net.Uri;
+import android.telephony.ims.RcsContactUceCapability;
+import android.telephony.ims.aidl.IRcsUceControllerCallback;
+
+import androidx.test.runner.AndroidJUnit4;
+
+import com.android.TelephonyTestBase;
+import com.android.TestExecutorService;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+@RunWith(AndroidJUnit4.class)
+public class UceCapabilityBatcherTest extends TelephonyTestBase {
+
+    private static final Uri CONTACT_A = Uri.fromParts("sip", "a", null);
+    private static final Uri CONTACT_B = Uri.fromParts("sip", "b", null);
+    private static final Uri CONTACT_C = Uri.fromParts("sip", "c", null);
+
+    @Mock private UceCapabilityBatcher.Sender mSender;
+    @Mock private IRcsUceControllerCallback mCallback1;
+    @Mock private IRcsUceControllerCallback mCallback2;
+
+    private long mNow = 1000;
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        super.tearDown();
+    }
+
+    @Test
+    public void testRepeatedRequestAnsweredFromCache() throws Exception {
+        UceCapabilityBatcher batcher = createBatcher(new TestExecutorService());
+
+        batcher.requestCapabilities(Arrays.asList(CONTACT_A), mCallback1);
+        IRcsUceControllerCallback batch = verifyBatchSent(Arrays.asList(CONTACT_A));
+        RcsContactUceCapability capability = createCapability(CONTACT_A);
+        batch.onCapabilitiesReceived(Collections.singletonList(capability));
+        batch.onComplete();
+        verify(mCallback1).onComplete();
+
+        batcher.requestCapabilities(Arrays.asList(CONTACT_A), mCallback2);
+        verify(mCallback2).onCapabilitiesReceived(Collections.singletonList(capability));
+        verify(mCallback2).onComplete();
+        verify(mSender, times(1)).sendCapabilityRequest(any(), any());
+
+        // Once the entry expired the contact is requested from the network again.
+        mNow += UceCapabilityBatcher.CACHE_TTL_MS;
+        batcher.requestCapabilities(Arrays.asList(CONTACT_A), mCallback2);
+        verify(mSender, times(2)).sendCapabilityRequest(any(), any());
+    }
+
+    @Test
+    public void testOverlappingRequestsMerged() throws Exception {
+        UceCapabilityBatcher batcher = createBatcher(new TestExecutorService());
+
+        batcher.requestCapabilities(Arrays.asList(CONTACT_A, CONTACT_B), mCallback1);
+        IRcsUceControllerCallback batch1 = verifyBatchSent(Arrays.asList(CONTACT_A, CONTACT_B));
+        // Contact B is requested already, only contact C needs to be sent.
+        batcher.requestCapabilities(Arrays.asList(CONTACT_B, CONTACT_C), mCallback2);
+        IRcsUceControllerCallback batch2 = verifyBatchSent(Arrays.asList(CONTACT_C));
+
+        RcsContactUceCapability capabilityB = createCapability(CONTACT_B);
+        batch1.onCapabilitiesReceived(Collections.singletonList(capabilityB));
+        batch1.onComplete();
+        verify(mCallback1).onCapabilitiesReceived(Collections.singletonList(capabilityB));
+        verify(mCallback2).onCapabilitiesReceived(Collections.singletonList(capabilityB));
+        verify(mCallback1).onComplete();
+        verify(mCallback2, never()).onComplete();
+
+        batch2.onComplete();
+        verify(mCallback2).onComplete();
+    }
+
+    @Test
+    public void testBatchSplitToCarrierLimit() throws Exception {
+        TestExecutorService executor = new TestExecutorService(true /*waitToComplete*/);
+        UceCapabilityBatcher batcher = createBatcher(executor);
+        doReturn(2).when(mSender).getMaxContactsPerRequest();
+
+        batcher.requestCapabilities(Arrays.asList(CONTACT_A, CONTACT_B), mCallback1);
+        batcher.requestCapabilities(Arrays.asList(CONTACT_C), mCallback2);
+        verify(mSender, never()).sendCapabilityRequest(any(), any());
+        executor.executePending();
+
+        verify(mSender).sendCapabilityRequest(eq(Arrays.asList(CONTACT_A, CONTACT_B)), any());
+        verify(mSender).sendCapabilityRequest(eq(Arrays.asList(CONTACT_C)), any());
+    }
+
+    @Test
+    public void testErrorDeliveredToWaitingCallers() throws Exception {
+        UceCapabilityBatcher batcher = createBatcher(new TestExecutorService());
+
+        batcher.requestCapabilities(Arrays.asList(CONTACT_A), mCallback1);
+        IRcsUceControllerCallback batch = verifyBatchSent(Arrays.asList(CONTACT_A));
+        batcher.requestCapabilities(Arrays.asList(CONTACT_A), mCallback2);
+        batch.onError(1 /*errorCode*/, 10L);
+
+        verify(mCallback1).onError(1, 10L);
+        verify(mCallback2).onError(1, 10L);
+        verify(mCallback1, never()).onComplete();
+        verify(mCallback2, never()).onComplete();
+    }
+
+    @Test
+    public void testResultReplayedToRequestJoiningAfterPartialResponse() throws Exception {
+        UceCapabilityBatcher batcher = createBatcher(new TestExecutorService());
+
+        batcher.requestCapabilities(Arrays.asList(CONTACT_A, CONTACT_B), mCallback1);
+        IRcsUceControllerCallback batch = verifyBatchSent(Arrays.asList(CONTACT_A, CONTACT_B));
+        // A result which is not cached arrives for contact A while B is still outstanding.
+        RcsContactUceCapability notFoundA = createCapability(CONTACT_A,
+                RcsContactUceCapability.REQUEST_RESULT_NOT_FOUND);
+        batch.onCapabilitiesReceived(Collections.singletonList(notFoundA));
+
+        batcher.requestCapabilities(Arrays.asList(CONTACT_A, CONTACT_B), mCallback2);
+        verify(mCallback2).onCapabilitiesReceived(Collections.singletonList(notFoundA));
+        verify(mCallback2, never()).onComplete();
+        verify(mSender, times(1)).sendCapabilityRequest(any(), any());
+
+        RcsContactUceCapability capabilityB = createCapability(CONTACT_B);
+        batch.onCapabilitiesReceived(Collections.singletonList(capabilityB));
+        batch.onComplete();
+        verify(mCallback1).onCapabilitiesReceived(Collections.singletonList(notFoundA));
+        verify(mCallback1).onCapabilitiesReceived(Collections.singletonList(capabilityB));
+        verify(mCallback2).onCapabilitiesReceived(Collections.singletonList(capabilityB));
+        verify(mCallback1).onComplete();
+        verify(mCallback2).onComplete();
+    }
+
+    @Test
+    public void testResultForOtherUriFormDeliveredToBatchCallers() throws Exception {
+        UceCapabilityBatcher batcher = createBatcher(new TestExecutorService());
+        Uri telContact = Uri.fromParts("tel", "+16505551212", null);
+        Uri sipContact = Uri.fromParts("sip", "+16505551212@ims.example.com", null);
+
+        batcher.requestCapabilities(Arrays.asList(telContact), mCallback1);
+        IRcsUceControllerCallback batch = verifyBatchSent(Arrays.asList(telContact));
+        // The network answers with the sip: form of the requested tel: URI.
+        RcsContactUceCapability capability = createCapability(sipContact);
+        batch.onCapabilitiesReceived(Collections.singletonList(capability));
+        batch.onComplete();
+
+        verify(mCallback1).onCapabilitiesReceived(Collections.singletonList(capability));
+        verify(mCallback1).onComplete();
+    }
+
+    private UceCapabilityBatcher createBatcher(TestExecutorService executor) {
+        return new UceCapabilityBatcher(executor, mSender, () -> mNow);
+    }
+
+    private IRcsUceControllerCallback verifyBatchSent(List<Uri> contacts) throws Exception {
+        ArgumentCaptor<IRcsUceControllerCallback> captor =
+                ArgumentCaptor.forClass(IRcsUceControllerCallback.class);
+        verify(mSender).sendCapabilityRequest(eq(contacts), captor.capture());
+        return captor.getValue();
+    }
+
+    private RcsContactUceCapability createCapability(Uri contact) {
+        return createCapability(contact, RcsContactUceCapability.REQUEST_RESULT_FOUND);
+    }
+
+    private RcsContactUceCapability createCapability(Uri contact, int requestResult) {
+        return new RcsContactUceCapability.PresenceBuilder(contact,
+                RcsContactUceCapability.SOURCE_TYPE_NETWORK, requestResult).build();
+    }
+}
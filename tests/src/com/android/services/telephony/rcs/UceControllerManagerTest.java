@@ -19,13 +19,16 @@ package com.android.services.telephony.rcs;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 
 import android.net.Uri;
 import android.telephony.ims.ImsException;
+import android.telephony.ims.RcsContactUceCapability;
 import android.telephony.ims.aidl.IRcsUceControllerCallback;
 import android.telephony.ims.aidl.IRcsUcePublishStateCallback;
 
@@ -40,12 +43,14 @@ import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
-import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
 
 @RunWith(AndroidJUnit4.class)
 public class UceControllerManagerTest extends TelephonyTestBase {
@@ -53,7 +58,7 @@ public class UceControllerManagerTest extends TelephonyTestBase {
     @Mock private UceController mUceController;
     @Mock private RcsFeatureManager mRcsFeatureManager;
 
-    private final ExecutorService mExecutorService = new TestExecutorService();
+    private final ScheduledExecutorService mExecutorService = new TestExecutorService();
 
     private int mSlotId = 1;
     private int mSubId = 1;
@@ -156,7 +161,11 @@ public class UceControllerManagerTest extends TelephonyTestBase {
 
             uceCtrlManager.requestCapabilities(contacts, callback);
 
-            verify(mUceController).requestCapabilities(contacts, callback);
+            ArgumentCaptor<IRcsUceControllerCallback> captor =
+                    ArgumentCaptor.forClass(IRcsUceControllerCallback.class);
+            verify(mUceController).requestCapabilities(eq(contacts), captor.capture());
+            captor.getValue().onComplete();
+            verify(callback).onComplete();
         } catch (ImsException e) {
             fail();
         }
@@ -173,7 +182,71 @@ public class UceControllerManagerTest extends TelephonyTestBase {
 
         uceCtrlManager.requestNetworkAvailability(contact, callback);
 
-        verify(mUceController).requestAvailability(contact, callback);
+        ArgumentCaptor<IRcsUceControllerCallback> captor =
+                ArgumentCaptor.forClass(IRcsUceControllerCallback.class);
+        verify(mUceController).requestAvailability(eq(contact), captor.capture());
+        captor.getValue().onError(1 /*errorCode*/, 0L);
+        verify(callback).onError(1 /*errorCode*/, 0L);
+    }
+
+    @Test
+    public void testRequestCapabilitiesForSameContactsIsNotDuplicated() throws Exception {
+        TestExecutorService executor = new TestExecutorService(true /*waitToComplete*/);
+        UceControllerManager uceCtrlManager = new UceControllerManager(mContext, mSlotId,
+                executor, mUceController);
+        doReturn(false).when(mUceController).isUnavailable();
+        Uri contact = Uri.fromParts("sip", "00000", null);
+        IRcsUceControllerCallback callback1 = Mockito.mock(IRcsUceControllerCallback.class);
+        IRcsUceControllerCallback callback2 = Mockito.mock(IRcsUceControllerCallback.class);
+        IRcsUceControllerCallback callback3 = Mockito.mock(IRcsUceControllerCallback.class);
+
+        uceCtrlManager.requestCapabilities(Arrays.asList(contact), callback1);
+        uceCtrlManager.requestCapabilities(Arrays.asList(contact, contact), callback2);
+        // Neither request may have reached the UceController yet.
+        verify(mUceController, never()).requestCapabilities(any(), any());
+        // Dispatch the request, then send the batch it was collected in.
+        executor.executePending();
+        executor.executePending();
+
+        ArgumentCaptor<IRcsUceControllerCallback> captor =
+                ArgumentCaptor.forClass(IRcsUceControllerCallback.class);
+        verify(mUceController).requestCapabilities(eq(Arrays.asList(contact)), captor.capture());
+        IRcsUceControllerCallback uceCallback = captor.getValue();
+        RcsContactUceCapability capability = new RcsContactUceCapability.PresenceBuilder(contact,
+                RcsContactUceCapability.SOURCE_TYPE_NETWORK,
+                RcsContactUceCapability.REQUEST_RESULT_FOUND).build();
+        uceCallback.onCapabilitiesReceived(Collections.singletonList(capability));
+        executor.executePending();
+
+        // A requester joining an incomplete request also receives the earlier results.
+        uceCtrlManager.requestCapabilities(Arrays.asList(contact), callback3);
+        uceCallback.onComplete();
+        executor.executePending();
+
+        verify(mUceController, times(1)).requestCapabilities(any(), any());
+        for (IRcsUceControllerCallback callback : Arrays.asList(callback1, callback2, callback3)) {
+            verify(callback).onCapabilitiesReceived(Collections.singletonList(capability));
+            verify(callback).onComplete();
+        }
+    }
+
+    @Test
+    public void testRequestCapabilitiesRefusedWhenQueueIsFull() throws Exception {
+        TestExecutorService executor = new TestExecutorService(true /*waitToComplete*/);
+        UceControllerManager uceCtrlManager = new UceControllerManager(mContext, mSlotId,
+                executor, mUceController);
+        doReturn(false).when(mUceController).isUnavailable();
+        IRcsUceControllerCallback callback = Mockito.mock(IRcsUceControllerCallback.class);
+
+        try {
+            for (int i = 0; i < 1000; i++) {
+                uceCtrlManager.requestCapabilities(Collections.singletonList(
+                        Uri.fromParts("sip", String.valueOf(i), null)), callback);
+            }
+            fail();
+        } catch (ImsException e) {
+            assertEquals(ImsException.CODE_ERROR_SERVICE_UNAVAILABLE, e.getCode());
+        }
     }
 
     @Test